@@ -0,0 +1,459 @@
+package com.fis.webserver.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fis.webserver.config.WebServerConfiguration;
+import com.fis.webserver.core.impl.HttpConnection;
+import com.fis.webserver.http.HttpRequestHandler;
+import com.fis.webserver.http.HttpRequestHandlerFinder;
+import com.fis.webserver.http.HttpRequestParser;
+import com.fis.webserver.http.IncrementalResponseWriter;
+import com.fis.webserver.http.ResponseCompressor;
+import com.fis.webserver.http.exceptions.RequestException;
+import com.fis.webserver.model.http.HttpRequest;
+import com.fis.webserver.model.http.HttpResponse;
+import com.fis.webserver.model.http.HttpResponseCode;
+import com.fis.webserver.util.URLTranslator;
+
+/**
+ * Allocation budgets of the request paths
+ * 
+ * Drives representative requests through HttpRequestParser, the request
+ * handlers and IncrementalResponseWriter on the calling thread, the way a
+ * worker does, and measures the bytes allocated per request with
+ * ThreadMXBean.getThreadAllocatedBytes. A path allocating more than its
+ * budget fails the check. AllocationBudgetTest runs the check in the test
+ * phase of the benchmarks build; it can also be run by hand, the program then
+ * exits with status 1 if a path is over its budget:
+ * 
+ * java -cp target/benchmarks.jar com.fis.webserver.benchmark.AllocationBudget
+ * 
+ * The budgets are the allocations measured when they were set, with some
+ * headroom. Lower them when a path is made to allocate less, so the gain is
+ * kept. Options, all optional:
+ * 
+ * --warmup=20000 requests of each path before measuring, so the JIT compiled
+ * the path and eliminated what escape analysis can
+ * --iterations=20000 measured requests of each path
+ * --budget.<path>=<bytes> overrides the budget of a path
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class AllocationBudget {
+	
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	
+	//headers of a browser, without Accept-Encoding so the responses are not compressed
+	private static final String BROWSER_HEADERS = "Host: www.example.com\r\n"
+			+ "Connection: keep-alive\r\n"
+			+ "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36\r\n"
+			+ "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n"
+			+ "Referer: http://www.example.com/products/list.html?category=books\r\n"
+			+ "Accept-Language: en-US,en;q=0.9,ro;q=0.8\r\n"
+			+ "Cookie: session=4f9a8c2e71b34d0fa6c5e8b9d2f01a7c; theme=dark; consent=1\r\n";
+	
+	//files of the generated document root
+	private static final String SMALL_FILE = "index.html";
+	private static final int SMALL_FILE_SIZE = 4 * 1024;
+	private static final String LARGE_FILE = "data.bin";
+	private static final int LARGE_FILE_SIZE = 256 * 1024;
+	
+	//number of requests of each path before measuring, and measured
+	public static final int DEFAULT_WARMUP = 20000;
+	public static final int DEFAULT_ITERATIONS = 20000;
+	
+	/**
+	 * Request sent through the server code, with the bytes it may allocate
+	 */
+	static abstract class RequestPath {
+		String name;
+		long budget;
+		
+		RequestPath(String name, long budget) {
+			this.name = name;
+			this.budget = budget;
+		}
+		
+		abstract void run() throws Exception;
+	}
+	
+	/**
+	 * Channel of a client reading as fast as the server writes
+	 */
+	private static class DiscardChannel implements WritableByteChannel {
+		
+		@Override
+		public int write(ByteBuffer source) {
+			int length = source.remaining();
+			source.position(source.limit());
+			
+			return length;
+		}
+		
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+	
+	private static final WritableByteChannel CLIENT = new DiscardChannel();
+	
+	private com.sun.management.ThreadMXBean threadBean;
+	
+	//keep-alive connection, reused by all the requests like by a worker
+	private HttpConnection connection;
+	
+	private ByteBuffer segment;
+	
+	//generated document root, removed by close()
+	private File documentRoot;
+	
+	private AllocationBudget(File documentRoot) {
+		this.documentRoot = documentRoot;
+		
+		threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+		
+		connection = new HttpConnection();
+		segment = ByteBuffer.allocate(WebServerConfiguration.MAX_REQUEST_LINE_SIZE);
+	}
+	
+	/**
+	 * Generates the document root and points the server configuration to it,
+	 * before the configuration is first used
+	 * 
+	 * @return the check, to be closed when done
+	 * @throws IllegalStateException
+	 *             if the JVM can't measure the allocations of a thread
+	 */
+	public static AllocationBudget create() throws IOException {
+		AllocationBudget check = new AllocationBudget(createDocumentRoot());
+		if( !check.threadBean.isThreadAllocatedMemorySupported() ) {
+			check.close();
+			throw new IllegalStateException("The JVM can't measure the allocations of a thread!");
+		}
+		
+		return check;
+	}
+	
+	/**
+	 * Removes the generated document root
+	 */
+	public void close() {
+		deleteRecursively(documentRoot.getParentFile());
+	}
+	
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for( String arg : args ) {
+			int equals = arg.indexOf('=');
+			if( !arg.startsWith("--") || equals < 0 ) {
+				throw new IllegalArgumentException("Invalid option " + arg + ", expected --name=value");
+			}
+			options.put(arg.substring(2, equals), arg.substring(equals + 1));
+		}
+		
+		int warmup = options.containsKey("warmup") ? Integer.parseInt(options.get("warmup")) : DEFAULT_WARMUP;
+		int iterations = options.containsKey("iterations") ? Integer.parseInt(options.get("iterations")) : DEFAULT_ITERATIONS;
+		
+		AllocationBudget check;
+		try {
+			check = create();
+		}
+		catch(IllegalStateException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+			return;
+		}
+		
+		List<RequestPath> paths = check.createPaths();
+		
+		System.out.println(String.format("%-18s %14s %14s", "Path", "bytes/request", "budget"));
+		
+		int failed = 0;
+		for( RequestPath path : paths ) {
+			String budget = options.get("budget." + path.name);
+			if( budget != null ) {
+				path.budget = Long.parseLong(budget);
+			}
+			
+			long allocated = check.measure(path, warmup, iterations);
+			boolean exceeded = allocated > path.budget;
+			if( exceeded ) {
+				failed++;
+			}
+			
+			System.out.println(String.format("%-18s %14d %14d%s", path.name, allocated, path.budget,
+					exceeded ? "  OVER BUDGET" : ""));
+		}
+		
+		check.close();
+		
+		if( failed > 0 ) {
+			System.out.println(failed + " of " + paths.size() + " paths exceed their allocation budget");
+			System.exit(1);
+		}
+		
+		System.out.println("All " + paths.size() + " paths are within their allocation budget");
+		System.exit(0);
+	}
+	
+	/**
+	 * @return the request paths and their budgets, in bytes per request
+	 */
+	List<RequestPath> createPaths() {
+		final byte[] browserRequest = request("GET /" + SMALL_FILE + " HTTP/1.1\r\n"
+				+ BROWSER_HEADERS + "\r\n");
+		final byte[] largeFileRequest = request("GET /" + LARGE_FILE + " HTTP/1.1\r\n" + BROWSER_HEADERS + "\r\n");
+		final byte[] revalidation = request("GET /" + SMALL_FILE + " HTTP/1.1\r\n" + BROWSER_HEADERS
+				+ "If-None-Match: " + URLTranslator.lookupResource("/" + SMALL_FILE).getETag() + "\r\n\r\n");
+		final byte[] missingFile = request("GET /missing.html HTTP/1.1\r\n" + BROWSER_HEADERS + "\r\n");
+		final byte[] health = request("GET " + HttpRequestHandlerFinder.HEALTH_ROUTE + " HTTP/1.1\r\n"
+				+ "Host: localhost\r\n\r\n");
+		final byte[] badRequest = request("GET /" + SMALL_FILE + "\r\n" + BROWSER_HEADERS + "\r\n");
+		
+		List<RequestPath> paths = new ArrayList<RequestPath>();
+		
+		paths.add(new RequestPath("parse", 14500) {
+			@Override
+			void run() {
+				parse(browserRequest, 0);
+				connection.nextRequest();
+			}
+		});
+		paths.add(new RequestPath("parse-segmented", 12500) {
+			@Override
+			void run() {
+				parse(browserRequest, 536);
+				connection.nextRequest();
+			}
+		});
+		paths.add(new RequestPath("get-small", 18500) {
+			@Override
+			void run() throws IOException {
+				serve(browserRequest, HttpResponseCode.OK);
+			}
+		});
+		paths.add(new RequestPath("get-large", 53000) {
+			@Override
+			void run() throws IOException {
+				serve(largeFileRequest, HttpResponseCode.OK);
+			}
+		});
+		paths.add(new RequestPath("get-not-modified", 15000) {
+			@Override
+			void run() throws IOException {
+				serve(revalidation, HttpResponseCode.NOT_MODIFIED);
+			}
+		});
+		paths.add(new RequestPath("get-not-found", 13000) {
+			@Override
+			void run() throws IOException {
+				serve(missingFile, HttpResponseCode.NOT_FOUND);
+			}
+		});
+		paths.add(new RequestPath("health", 4000) {
+			@Override
+			void run() throws IOException {
+				serve(health, HttpResponseCode.OK);
+			}
+		});
+		paths.add(new RequestPath("bad-request", 2000) {
+			@Override
+			void run() throws IOException {
+				serve(badRequest, HttpResponseCode.BAD_REQUEST);
+			}
+		});
+		
+		return paths;
+	}
+	
+	/**
+	 * Measures a path on a new thread: the exceptions of the error paths fill
+	 * in their stack trace, so the measure must not depend on the depth of the
+	 * caller's stack, which is larger under a test runner than on a worker
+	 * 
+	 * @return average number of bytes allocated by a request of the path
+	 */
+	long measure(final RequestPath path, final int warmup, final int iterations) throws Exception {
+		final long[] allocated = new long[1];
+		final Exception[] failure = new Exception[1];
+		
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					allocated[0] = measureOnCurrentThread(path, warmup, iterations);
+				}
+				catch(Exception e) {
+					failure[0] = e;
+				}
+			}
+		}, "AllocationBudget-" + path.name);
+		thread.start();
+		thread.join();
+		
+		if( failure[0] != null ) {
+			throw failure[0];
+		}
+		
+		return allocated[0];
+	}
+	
+	private long measureOnCurrentThread(RequestPath path, int warmup, int iterations) throws Exception {
+		for( int i = 0 ; i < warmup ; i++ ) {
+			path.run();
+		}
+		
+		long threadId = Thread.currentThread().getId();
+		long start = threadBean.getThreadAllocatedBytes(threadId);
+		for( int i = 0 ; i < iterations ; i++ ) {
+			path.run();
+		}
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - start;
+		
+		return allocated / iterations;
+	}
+	
+	/**
+	 * Passes a request to the parser of the connection
+	 * 
+	 * @param segmentSize
+	 *            size of the reads delivering the request, 0 for a single read
+	 * @return true if the request was parsed
+	 */
+	private boolean parse(byte[] request, int segmentSize) {
+		HttpRequestParser parser = connection.getParser();
+		
+		int length = segmentSize > 0 ? segmentSize : request.length;
+		boolean parsingFinished = false;
+		for( int position = 0 ; position < request.length ; position += length ) {
+			segment.clear();
+			segment.put(request, position, Math.min(length, request.length - position));
+			segment.flip();
+			
+			parsingFinished = parser.newData(segment);
+		}
+		
+		return parsingFinished;
+	}
+	
+	/**
+	 * Answers a request like a worker does: parse, handle, output stages and
+	 * the complete write of the response
+	 * 
+	 * @param expectedStatus
+	 *            status of the response, checked so a path can't pass by
+	 *            taking a cheaper branch
+	 */
+	private void serve(byte[] requestData, HttpResponseCode expectedStatus) throws IOException {
+		if( !parse(requestData, 0) ) {
+			throw new IllegalStateException("The request was not completely parsed");
+		}
+		
+		RequestException exception = connection.getParser().getException();
+		HttpRequest request = connection.getRequest();
+		HttpResponse response = connection.getResponse();
+		
+		HttpRequestHandler handler;
+		if( exception != null ) {
+			handler = HttpRequestHandlerFinder.getErrorHandler(exception);
+		}
+		else {
+			handler = HttpRequestHandlerFinder.lookupRequestHandler(request);
+		}
+		handler.handle(request, response);
+		ResponseCompressor.compress(request, response);
+		response.setKeepAlive(exception == null && request.isKeepAlive());
+		
+		if( response.getStatusCode() != expectedStatus ) {
+			throw new IllegalStateException("Expected " + expectedStatus + ", got " + response.getStatusCode());
+		}
+		
+		IncrementalResponseWriter writer = connection.getWriter();
+		writer.reset(response, request);
+		while( !writer.writeResponse(CLIENT, WebServerConfiguration.INSTANCE.getWriteQuantum()) ) {
+			//the client takes everything, one quantum at a time
+		}
+		
+		//the connection is closed after a parsing error
+		if( response.isKeepAlive() ) {
+			connection.nextRequest();
+		}
+		else {
+			connection.reset();
+		}
+	}
+	
+	private static byte[] request(String request) {
+		return request.getBytes(ISO_8859_1);
+	}
+	
+	/**
+	 * Creates a document root with the requested files and points the server
+	 * configuration to it
+	 * 
+	 * @return the document root
+	 */
+	private static File createDocumentRoot() throws IOException {
+		File workFolder = File.createTempFile("fis-allocation", "");
+		if( !workFolder.delete() || !workFolder.mkdirs() ) {
+			throw new IOException("Could not create the work folder " + workFolder);
+		}
+		
+		File documentRoot = new File(workFolder, "root");
+		File tempFolder = new File(workFolder, "temp");
+		documentRoot.mkdirs();
+		tempFolder.mkdirs();
+		
+		writeFile(new File(documentRoot, SMALL_FILE), SMALL_FILE_SIZE);
+		writeFile(new File(documentRoot, LARGE_FILE), LARGE_FILE_SIZE);
+		
+		System.setProperty(WebServerConfiguration.DOCUMENT_ROOT_PROPERTY, documentRoot.getAbsolutePath());
+		System.setProperty(WebServerConfiguration.TEMP_FOLDER_PROPERTY, tempFolder.getAbsolutePath());
+		System.setProperty(WebServerConfiguration.ACCESSLOG_FILE_PROPERTY, "");
+		
+		return documentRoot;
+	}
+	
+	private static void writeFile(File file, int size) throws IOException {
+		byte[] content = new byte[size];
+		for( int i = 0 ; i < size ; i++ ) {
+			content[i] = (byte) ('a' + i % 26);
+		}
+		
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(content);
+		}
+		finally {
+			output.close();
+		}
+	}
+	
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if( children != null ) {
+			for( File child : children ) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
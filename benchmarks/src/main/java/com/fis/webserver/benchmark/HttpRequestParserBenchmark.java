@@ -0,0 +1,91 @@
+package com.fis.webserver.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fis.webserver.http.HttpRequestParser;
+import com.fis.webserver.model.http.HttpRequest;
+
+/**
+ * Cost of parsing a request as sent by a browser
+ * 
+ * The request is passed to HttpRequestParser.newData in segments of the given
+ * size, like the reads of a worker on a slow or congested connection; 0 passes
+ * the whole request at once. The parser is reused, as it is by a keep-alive
+ * connection.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpRequestParserBenchmark {
+	
+	//request of a desktop browser loading a page of a site it visited before
+	private static final String BROWSER_REQUEST = "GET /products/list.html?category=books&page=2 HTTP/1.1\r\n"
+			+ "Host: www.example.com\r\n"
+			+ "Connection: keep-alive\r\n"
+			+ "Cache-Control: max-age=0\r\n"
+			+ "Upgrade-Insecure-Requests: 1\r\n"
+			+ "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36\r\n"
+			+ "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n"
+			+ "Referer: http://www.example.com/products/list.html?category=books\r\n"
+			+ "Accept-Encoding: gzip, deflate, br\r\n"
+			+ "Accept-Language: en-US,en;q=0.9,ro;q=0.8\r\n"
+			+ "Cookie: session=4f9a8c2e71b34d0fa6c5e8b9d2f01a7c; theme=dark; consent=1\r\n"
+			+ "If-None-Match: \"5e1f-18c3a9b7d40\"\r\n"
+			+ "If-Modified-Since: Tue, 12 Dec 2023 10:15:30 GMT\r\n"
+			+ "\r\n";
+	
+	//size of the segments passed to the parser, 0 for the whole request
+	@Param({ "0", "1460", "536", "64" })
+	private int segmentSize;
+	
+	private byte[] request;
+	
+	private ByteBuffer segment;
+	
+	private HttpRequestParser parser;
+	
+	@Setup
+	public void setUp() {
+		request = BROWSER_REQUEST.getBytes(Charset.forName("ISO-8859-1"));
+		segment = ByteBuffer.allocate(request.length);
+		
+		parser = new HttpRequestParser();
+	}
+	
+	@Benchmark
+	public HttpRequest parse() {
+		parser.reset();
+		
+		int length = segmentSize > 0 ? segmentSize : request.length;
+		for( int position = 0 ; position < request.length ; position += length ) {
+			segment.clear();
+			segment.put(request, position, Math.min(length, request.length - position));
+			segment.flip();
+			
+			parser.newData(segment);
+		}
+		
+		return parser.getHttpRequest();
+	}
+}
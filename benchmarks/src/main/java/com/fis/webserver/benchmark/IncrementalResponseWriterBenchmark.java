@@ -0,0 +1,79 @@
+package com.fis.webserver.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fis.webserver.config.WebServerConfiguration;
+import com.fis.webserver.http.IncrementalResponseWriter;
+import com.fis.webserver.model.http.HttpHeader;
+import com.fis.webserver.model.http.HttpResponse;
+import com.fis.webserver.model.http.HttpResponseCode;
+import com.fis.webserver.model.http.body.BufferBody;
+
+/**
+ * Cost of serializing a response into a buffer with
+ * IncrementalResponseWriter.incrementalWriteResponse, header included
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncrementalResponseWriterBenchmark {
+	
+	//length of the response body
+	@Param({ "1024", "65536" })
+	private int bodySize;
+	
+	private ByteBuffer content;
+	
+	//buffer receiving the response, as large as the worker's data buffer
+	private ByteBuffer destination;
+	
+	private HttpResponse response;
+	
+	private IncrementalResponseWriter writer;
+	
+	@Setup
+	public void setUp() {
+		content = ByteBuffer.allocate(bodySize);
+		destination = ByteBuffer.allocate(WebServerConfiguration.MAX_REQUEST_LINE_SIZE);
+		
+		response = new HttpResponse(HttpResponseCode.OK);
+		response.addHeader(HttpHeader.CONTENT_TYPE, "text/html");
+		response.setKeepAlive(true);
+		
+		writer = new IncrementalResponseWriter();
+	}
+	
+	@Benchmark
+	public long write() {
+		response.setBody(new BufferBody(content.duplicate()));
+		writer.reset(response);
+		
+		boolean finished = false;
+		while( !finished ) {
+			destination.clear();
+			finished = writer.incrementalWriteResponse(destination);
+		}
+		
+		return writer.getBytesSent();
+	}
+}
@@ -0,0 +1,114 @@
+package com.fis.webserver.benchmark;
+
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fis.webserver.config.MimeTypes;
+
+/**
+ * Per request cost of the content type lookup
+ * 
+ * Compares the compiled MimeTypes table with the previous implementation,
+ * which built the property name set and went through the synchronized
+ * Properties.getProperty on each call. Runs with several threads, like the
+ * workers do.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MimeTypesBenchmark {
+	
+	//typical file names: common extensions, upper case, unknown and missing extensions
+	private static final String[] FILE_NAMES = { "index.html", "style.css",
+			"app.js", "logo.png", "photo.JPG", "archive.tar", "README",
+			"data.unknownext" };
+	
+	private String[] extensions;
+	
+	private Properties mimeTypesProperties;
+	
+	private int index;
+	
+	@Setup
+	public void setUp() throws Exception {
+		extensions = new String[FILE_NAMES.length];
+		for( int i = 0 ; i < FILE_NAMES.length ; i++ ) {
+			int dotPosition = FILE_NAMES[i].lastIndexOf('.');
+			extensions[i] = dotPosition >= 0 ? FILE_NAMES[i].substring(dotPosition) : "";
+		}
+		
+		mimeTypesProperties = new Properties();
+		InputStream configStream = ClassLoader.getSystemResourceAsStream(MimeTypes.MIME_TYPES_CONFIG_FILE);
+		try {
+			mimeTypesProperties.load(configStream);
+		}
+		finally {
+			configStream.close();
+		}
+		
+		//force the compilation of the table outside of the measurement
+		MimeTypes.getMimeType(".html");
+	}
+	
+	private int next() {
+		index = (index + 1) & 7;
+		return index;
+	}
+	
+	/**
+	 * Lookup done by the server for every resource: file name to content type
+	 */
+	@Benchmark
+	public String compiledLookupByFileName() {
+		return MimeTypes.getMimeTypeForFileName(FILE_NAMES[next()]);
+	}
+	
+	@Benchmark
+	public String compiledLookupByExtension() {
+		return MimeTypes.getMimeType(extensions[next()]);
+	}
+	
+	/**
+	 * The former lookup: extension substring, property name set and synchronized
+	 * property read
+	 */
+	@Benchmark
+	public String propertiesLookup() {
+		String fileName = FILE_NAMES[next()];
+		int dotPosition = fileName.lastIndexOf('.');
+		String extension = dotPosition >= 0 ? fileName.substring(dotPosition) : "";
+		
+		Set<String> names = mimeTypesProperties.stringPropertyNames();
+		String mimeType = MimeTypes.DEFAULT_MIMETYPE;
+		if( names != null ) {
+			mimeType = mimeTypesProperties.getProperty(extension);
+			if( mimeType == null ) {
+				mimeType = MimeTypes.DEFAULT_MIMETYPE;
+			}
+		}
+		
+		return mimeType;
+	}
+}
@@ -0,0 +1,63 @@
+package com.fis.webserver.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fis.webserver.http.HttpResponseHeaderEncoder;
+import com.fis.webserver.model.http.HttpHeader;
+import com.fis.webserver.model.http.HttpResponse;
+import com.fis.webserver.model.http.HttpResponseCode;
+
+/**
+ * Cost of encoding the header of a static file response with
+ * HttpResponse.getRawHeader. The header buffer is given back to the pool, as
+ * the writer does. Runs with several threads, like the workers do.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ResponseHeaderBenchmark {
+	
+	private HttpResponse response;
+	
+	@Setup
+	public void setUp() {
+		response = new HttpResponse(HttpResponseCode.OK);
+		response.addHeader(HttpHeader.CONTENT_TYPE, "text/html");
+		response.addHeader(HttpHeader.LAST_MODIFIED, "Tue, 12 Dec 2023 10:15:30 GMT");
+		response.addHeader(HttpHeader.ETAG, "\"5e1f-18c3a9b7d40\"");
+		response.addHeader(HttpHeader.ACCEPT_RANGES, "bytes");
+		response.addHeader(HttpHeader.VARY, "Accept-Encoding");
+		response.setContentLength(24095);
+		response.setKeepAlive(true);
+	}
+	
+	@Benchmark
+	public int encode() {
+		ByteBuffer header = response.getRawHeader();
+		int length = header.remaining();
+		HttpResponseHeaderEncoder.release(header);
+		
+		return length;
+	}
+}
@@ -0,0 +1,95 @@
+package com.fis.webserver.benchmark;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fis.webserver.pool.WorkerManager;
+
+/**
+ * Cost of handing a new connection to a worker with
+ * WorkerManager.handleNewClient, with several accepting threads
+ * 
+ * The manager is not thread safe, so the callers take turns on it, like
+ * acceptor threads sharing one pool would; the measured time includes waiting
+ * for the other callers. Each call gets a freshly connected loopback socket
+ * whose peer is already closed, so the worker reads the end of the stream
+ * and frees the client slot right away. Connecting the socket is not measured.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class WorkerManagerBenchmark {
+	
+	/**
+	 * Pool of workers shared by all the benchmark threads
+	 */
+	@State(Scope.Benchmark)
+	public static class Pool {
+		
+		private WorkerManager manager;
+		
+		private ServerSocketChannel serverChannel;
+		
+		@Setup
+		public void setUp() throws Exception {
+			manager = new WorkerManager();
+			
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+		}
+		
+		@TearDown
+		public void tearDown() throws Exception {
+			serverChannel.close();
+		}
+	}
+	
+	/**
+	 * Connection handed to the manager by one call
+	 */
+	@State(Scope.Thread)
+	public static class Client {
+		
+		private SocketChannel channel;
+		
+		@Setup(Level.Invocation)
+		public void connect(Pool pool) throws Exception {
+			channel = SocketChannel.open(pool.serverChannel.socket().getLocalSocketAddress());
+			
+			//the peer hangs up, the worker will close the connection on its first read
+			SocketChannel peer = pool.serverChannel.accept();
+			peer.close();
+		}
+	}
+	
+	@Benchmark
+	public void handleNewClient(Pool pool, Client client) {
+		synchronized( pool.manager ) {
+			pool.manager.handleNewClient(client.channel);
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package com.fis.webserver.loadgen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Client connection of the load generator, sending one request at a time
+ * and reading its response
+ * 
+ * The responses must have a Content-Length, which is the case for the static
+ * files the load generator requests. The body is read and discarded.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class ClientConnection {
+	
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	
+	//maximum length of a response header
+	public static final int MAX_HEADER_SIZE = 16 * 1024;
+	
+	//states of the connection
+	public static final int STATE_IDLE = 0;
+	public static final int STATE_CONNECTING = 1;
+	public static final int STATE_WRITING = 2;
+	public static final int STATE_READING = 3;
+	
+	private int state;
+	
+	private SocketChannel channel;
+	private SelectionKey key;
+	
+	//buffers of the request being sent
+	private ByteBuffer[] request;
+	
+	private ByteBuffer readBuffer;
+	
+	//true once the header of the response was read
+	private boolean headerRead;
+	
+	//body bytes of the response not read yet
+	private long bodyRemaining;
+	
+	//status of the response, 0 until the header was read
+	private int status;
+	
+	//true if the server closes the connection after the response
+	private boolean closeRequested;
+	
+	//body bytes of the current response read so far
+	private long responseBytes;
+	
+	//System.nanoTime() when the current request should have started, and when it did
+	private long intendedStart;
+	private long actualStart;
+	
+	//System.nanoTime() when the next request should start
+	private long nextStart;
+	
+	public ClientConnection() {
+		readBuffer = ByteBuffer.allocate(MAX_HEADER_SIZE);
+		state = STATE_IDLE;
+	}
+	
+	/**
+	 * Prepares the connection to send a request
+	 */
+	public void begin(RequestMix.Request nextRequest, long intendedStart, long actualStart) {
+		this.request = nextRequest.newBuffers();
+		this.intendedStart = intendedStart;
+		this.actualStart = actualStart;
+		
+		readBuffer.clear();
+		headerRead = false;
+		bodyRemaining = 0;
+		status = 0;
+		closeRequested = false;
+		responseBytes = 0;
+	}
+	
+	/**
+	 * Writes as much of the request as the channel takes
+	 * 
+	 * @return true if the whole request was written
+	 */
+	public boolean write() throws IOException {
+		channel.write(request);
+		
+		return !request[request.length - 1].hasRemaining();
+	}
+	
+	/**
+	 * Reads the available data of the response
+	 * 
+	 * @return true if the response is complete
+	 * @throws IOException
+	 *             if the connection was closed before the end of the
+	 *             response, or the response is not valid
+	 */
+	public boolean read() throws IOException {
+		int bytesRead = channel.read(readBuffer);
+		if( bytesRead < 0 ) {
+			throw new IOException("Connection closed by the server");
+		}
+		
+		if( !headerRead ) {
+			int headerEnd = findHeaderEnd();
+			if( headerEnd < 0 ) {
+				if( !readBuffer.hasRemaining() ) {
+					throw new IOException("Response header too large");
+				}
+				return false;
+			}
+			
+			parseHeader(headerEnd);
+			headerRead = true;
+			
+			//the rest of the buffer is the beginning of the body
+			bytesRead = readBuffer.position() - headerEnd;
+		}
+		
+		bodyRemaining -= bytesRead;
+		responseBytes += bytesRead;
+		readBuffer.clear();
+		
+		return bodyRemaining <= 0;
+	}
+	
+	/**
+	 * @return position after the blank line ending the header, -1 if it was
+	 *         not received yet
+	 */
+	private int findHeaderEnd() {
+		byte[] data = readBuffer.array();
+		for( int i = 3 ; i < readBuffer.position() ; i++ ) {
+			if( data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n' && data[i - 3] == '\r' ) {
+				return i + 1;
+			}
+		}
+		
+		return -1;
+	}
+	
+	private void parseHeader(int headerEnd) throws IOException {
+		String header = new String(readBuffer.array(), 0, headerEnd, ASCII);
+		String[] lines = header.split("\r\n");
+		
+		if( lines[0].length() < 12 || !lines[0].startsWith("HTTP/") ) {
+			throw new IOException("Invalid status line: " + lines[0]);
+		}
+		status = Integer.parseInt(lines[0].substring(9, 12));
+		
+		long contentLength = -1;
+		for( int i = 1 ; i < lines.length ; i++ ) {
+			int colon = lines[i].indexOf(':');
+			if( colon < 0 ) {
+				continue;
+			}
+			
+			String name = lines[i].substring(0, colon).trim();
+			String value = lines[i].substring(colon + 1).trim();
+			if( name.equalsIgnoreCase("Content-Length") ) {
+				contentLength = Long.parseLong(value);
+			}
+			else if( name.equalsIgnoreCase("Connection") && value.equalsIgnoreCase("close") ) {
+				closeRequested = true;
+			}
+		}
+		
+		if( contentLength < 0 ) {
+			throw new IOException("Response without Content-Length");
+		}
+		bodyRemaining = contentLength;
+	}
+	
+	/**
+	 * Closes the channel, the next request will open a new one
+	 */
+	public void close() {
+		if( channel != null ) {
+			try {
+				channel.close();
+			}
+			catch(IOException e) {
+				//nothing to do, the channel is dropped
+			}
+		}
+		
+		channel = null;
+		key = null;
+		state = STATE_IDLE;
+	}
+	
+	public int getState() {
+		return state;
+	}
+	
+	public void setState(int state) {
+		this.state = state;
+	}
+	
+	public SocketChannel getChannel() {
+		return channel;
+	}
+	
+	public void setChannel(SocketChannel channel) {
+		this.channel = channel;
+	}
+	
+	public SelectionKey getKey() {
+		return key;
+	}
+	
+	public void setKey(SelectionKey key) {
+		this.key = key;
+	}
+	
+	public int getStatus() {
+		return status;
+	}
+	
+	public boolean isCloseRequested() {
+		return closeRequested;
+	}
+	
+	public long getResponseBytes() {
+		return responseBytes;
+	}
+	
+	public long getIntendedStart() {
+		return intendedStart;
+	}
+	
+	public long getActualStart() {
+		return actualStart;
+	}
+	
+	public long getNextStart() {
+		return nextStart;
+	}
+	
+	public void setNextStart(long nextStart) {
+		this.nextStart = nextStart;
+	}
+}
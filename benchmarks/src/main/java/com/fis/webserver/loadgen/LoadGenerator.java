@@ -0,0 +1,237 @@
+package com.fis.webserver.loadgen;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fis.webserver.FISServer;
+import com.fis.webserver.config.WebServerConfiguration;
+import com.fis.webserver.metrics.HistogramSnapshot;
+
+/**
+ * End to end load test of the server
+ * 
+ * Starts FISServer in this JVM, on a free local port and a generated document
+ * root, then drives it with NIO client connections and reports the
+ * throughput and the latency percentiles, corrected for coordinated
+ * omission. The whole accept, WorkerManager, HttpWebWorker and response path
+ * is measured.
+ * 
+ * Options, all optional:
+ * 
+ * --connections=64 number of client connections
+ * --threads=2 number of client threads sharing the connections
+ * --duration=10 measured seconds
+ * --warmup=3 seconds of warm up, not measured
+ * --rate=0 total requests per second, 0 to send the requests back to back
+ * --keepalive=true false to open a connection for every request
+ * --mix=1024:60,16384:30,1048576:10 file sizes and their weights
+ * --post-percent=0 percentage of the requests sent as POST
+ * --post-size=4096 length of the POST bodies
+ * 
+ * Server settings can be changed with system properties named like the
+ * webserver.properties entries, -Dserver.workers.min=8 for example.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class LoadGenerator {
+	
+	//reported latency percentiles
+	private static final double[] QUANTILES = { 0.5, 0.75, 0.9, 0.99, 0.999, 0.9999 };
+	
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parseOptions(args);
+		
+		int connectionCount = getInt(options, "connections", 64);
+		int threadCount = Math.min(getInt(options, "threads", 2), connectionCount);
+		int duration = getInt(options, "duration", 10);
+		int warmup = getInt(options, "warmup", 3);
+		double rate = Double.parseDouble(get(options, "rate", "0"));
+		boolean keepAlive = Boolean.parseBoolean(get(options, "keepalive", "true"));
+		String mixDefinition = get(options, "mix", "1024:60,16384:30,1048576:10");
+		int postPercent = getInt(options, "post-percent", 0);
+		int postSize = getInt(options, "post-size", 4096);
+		
+		RequestMix mix = new RequestMix(mixDefinition, postPercent, postSize, keepAlive);
+		
+		File workFolder = createWorkFolder();
+		File documentRoot = new File(workFolder, "root");
+		File tempFolder = new File(workFolder, "temp");
+		documentRoot.mkdirs();
+		tempFolder.mkdirs();
+		mix.createFiles(documentRoot);
+		
+		int port = startServer(documentRoot, tempFolder);
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+		
+		System.out.println("Server on port " + port + ", document root " + documentRoot);
+		System.out.println(connectionCount + " connections on " + threadCount + " threads, "
+				+ (keepAlive ? "keep-alive" : "connection per request") + ", "
+				+ (rate > 0 ? rate + " requests/s" : "requests back to back"));
+		System.out.println("Files " + mix.describe() + ", " + postPercent + "% POST of " + postSize + " bytes");
+		System.out.println("Warming up " + warmup + " s, measuring " + duration + " s...");
+		
+		long start = System.nanoTime();
+		long measureStart = start + TimeUnit.SECONDS.toNanos(warmup);
+		long end = measureStart + TimeUnit.SECONDS.toNanos(duration);
+		
+		LoadThread[] loadThreads = new LoadThread[threadCount];
+		Thread[] threads = new Thread[threadCount];
+		for( int i = 0 ; i < threadCount ; i++ ) {
+			int threadConnections = connectionCount / threadCount + (i < connectionCount % threadCount ? 1 : 0);
+			loadThreads[i] = new LoadThread(address, mix, keepAlive, threadConnections,
+					rate * threadConnections / connectionCount, measureStart, end, i);
+			threads[i] = new Thread(loadThreads[i], "LoadThread " + i);
+			threads[i].start();
+		}
+		
+		for( Thread thread : threads ) {
+			thread.join();
+		}
+		
+		report(loadThreads, duration);
+		
+		deleteRecursively(workFolder);
+		
+		//the worker threads of the server are not daemons
+		System.exit(0);
+	}
+	
+	/**
+	 * Starts the server in this JVM and waits until it accepts connections
+	 * 
+	 * @return port of the server
+	 */
+	private static int startServer(File documentRoot, File tempFolder) throws Exception {
+		int port = Integer.parseInt(System.getProperty(WebServerConfiguration.LISTEN_PORT_PROPERTY,
+				String.valueOf(findFreePort())));
+		
+		System.setProperty(WebServerConfiguration.LISTEN_PORT_PROPERTY, String.valueOf(port));
+		System.setProperty(WebServerConfiguration.DOCUMENT_ROOT_PROPERTY, documentRoot.getAbsolutePath());
+		System.setProperty(WebServerConfiguration.TEMP_FOLDER_PROPERTY, tempFolder.getAbsolutePath());
+		
+		//no access log unless asked for, it would measure the disk
+		if( System.getProperty(WebServerConfiguration.ACCESSLOG_FILE_PROPERTY) == null ) {
+			System.setProperty(WebServerConfiguration.ACCESSLOG_FILE_PROPERTY, "");
+		}
+		
+		Thread serverThread = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				new FISServer().startUp();
+			}
+		}, "FISServer");
+		serverThread.setDaemon(true);
+		serverThread.start();
+		
+		//wait for the listener
+		long deadline = System.currentTimeMillis() + 10000;
+		while( true ) {
+			try {
+				new Socket(InetAddress.getLoopbackAddress(), port).close();
+				return port;
+			}
+			catch(IOException e) {
+				if( System.currentTimeMillis() > deadline ) {
+					throw new IllegalStateException("The server did not start on port " + port, e);
+				}
+				Thread.sleep(50);
+			}
+		}
+	}
+	
+	private static void report(LoadThread[] loadThreads, int duration) {
+		HistogramSnapshot serviceTime = new HistogramSnapshot();
+		HistogramSnapshot correctedLatency = new HistogramSnapshot();
+		long completed = 0;
+		long errors = 0;
+		long non2xx = 0;
+		long bytesReceived = 0;
+		
+		for( LoadThread loadThread : loadThreads ) {
+			serviceTime.add(loadThread.getServiceTime());
+			correctedLatency.add(loadThread.getCorrectedLatency());
+			completed += loadThread.getCompleted();
+			errors += loadThread.getErrors();
+			non2xx += loadThread.getNon2xx();
+			bytesReceived += loadThread.getBytesReceived();
+		}
+		
+		System.out.println();
+		System.out.println(String.format("Requests:   %d completed, %d non-2xx, %d errors", completed, non2xx, errors));
+		System.out.println(String.format("Throughput: %.1f requests/s, %.2f MB/s", (double) completed / duration,
+				bytesReceived / (1024.0 * 1024.0) / duration));
+		System.out.println();
+		System.out.println(String.format("%-12s %14s %14s", "Latency (ms)", "corrected", "uncorrected"));
+		for( double quantile : QUANTILES ) {
+			System.out.println(String.format("%-12s %14.3f %14.3f", (quantile * 100) + "%",
+					correctedLatency.getValueAtQuantile(quantile) / 1000.0,
+					serviceTime.getValueAtQuantile(quantile) / 1000.0));
+		}
+		System.out.println(String.format("%-12s %14.3f %14.3f", "max", correctedLatency.getMax() / 1000.0,
+				serviceTime.getMax() / 1000.0));
+		System.out.println(String.format("%-12s %14.3f %14.3f", "mean", correctedLatency.getMean() / 1000.0,
+				serviceTime.getMean() / 1000.0));
+	}
+	
+	static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<String, String>();
+		for( String arg : args ) {
+			if( !arg.startsWith("--") || arg.indexOf('=') < 0 ) {
+				throw new IllegalArgumentException("Invalid option " + arg + ", expected --name=value");
+			}
+			
+			int equals = arg.indexOf('=');
+			options.put(arg.substring(2, equals), arg.substring(equals + 1));
+		}
+		
+		return options;
+	}
+	
+	static String get(Map<String, String> options, String name, String defaultValue) {
+		String value = options.get(name);
+		return value != null ? value : defaultValue;
+	}
+	
+	static int getInt(Map<String, String> options, String name, int defaultValue) {
+		return Integer.parseInt(get(options, name, String.valueOf(defaultValue)));
+	}
+	
+	private static int findFreePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		}
+		finally {
+			socket.close();
+		}
+	}
+	
+	private static File createWorkFolder() throws IOException {
+		File workFolder = File.createTempFile("fis-loadgen", "");
+		if( !workFolder.delete() || !workFolder.mkdirs() ) {
+			throw new IOException("Could not create the work folder " + workFolder);
+		}
+		
+		return workFolder;
+	}
+	
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if( children != null ) {
+			for( File child : children ) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
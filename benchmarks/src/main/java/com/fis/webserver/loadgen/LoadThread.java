@@ -0,0 +1,314 @@
+package com.fis.webserver.loadgen;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.fis.webserver.metrics.Histogram;
+
+/**
+ * Drives a group of client connections from one selector thread
+ * 
+ * With a request rate, each connection starts its requests on a fixed
+ * schedule and the latency is measured from the time the request should have
+ * started, so a slow response delays the following requests without hiding
+ * their waiting time (coordinated omission). Without a rate the connections
+ * send their requests back to back; the corrected latency is then estimated by
+ * adding the requests a stalled connection could not send, spaced by the mean
+ * response time measured during the warm up, as HdrHistogram does.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class LoadThread implements Runnable {
+	
+	private InetSocketAddress address;
+	private RequestMix mix;
+	private boolean keepAlive;
+	
+	private ClientConnection[] connections;
+	
+	//interval between the requests of a connection, 0 to send them back to back
+	private long intervalNanos;
+	
+	//System.nanoTime() when the measurement starts and when the run ends
+	private long measureStart;
+	private long end;
+	
+	private Random random;
+	
+	private Selector selector;
+	
+	//latencies in microseconds, from the actual and the intended start
+	private Histogram serviceTime;
+	private Histogram correctedLatency;
+	
+	//response times of the warm up, used to correct the closed loop latencies
+	private long warmupSum;
+	private long warmupCount;
+	
+	//results of the measurement
+	private long completed;
+	private long errors;
+	private long non2xx;
+	private long bytesReceived;
+	
+	/**
+	 * @param requestRate
+	 *            requests per second of all the connections of this thread,
+	 *            0 to send the requests back to back
+	 */
+	public LoadThread(InetSocketAddress address, RequestMix mix, boolean keepAlive, int connectionCount,
+			double requestRate, long measureStart, long end, long seed) {
+		this.address = address;
+		this.mix = mix;
+		this.keepAlive = keepAlive;
+		this.measureStart = measureStart;
+		this.end = end;
+		
+		connections = new ClientConnection[connectionCount];
+		for( int i = 0 ; i < connectionCount ; i++ ) {
+			connections[i] = new ClientConnection();
+		}
+		
+		intervalNanos = requestRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * connectionCount / requestRate) : 0;
+		
+		random = new Random(seed);
+		
+		serviceTime = new Histogram();
+		correctedLatency = new Histogram();
+	}
+	
+	@Override
+	public void run() {
+		try {
+			selector = Selector.open();
+			
+			//spread the first requests over one interval
+			long now = System.nanoTime();
+			for( int i = 0 ; i < connections.length ; i++ ) {
+				connections[i].setNextStart(now + intervalNanos * i / connections.length);
+			}
+			
+			while( (now = System.nanoTime()) < end ) {
+				long nextStart = startDueRequests(now);
+				
+				long timeout = Math.min(TimeUnit.NANOSECONDS.toMillis(nextStart - now), TimeUnit.NANOSECONDS.toMillis(end - now));
+				if( timeout > 0 ) {
+					selector.select(timeout);
+				}
+				else {
+					selector.selectNow();
+				}
+				
+				Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+				while( selectedKeys.hasNext() ) {
+					SelectionKey key = selectedKeys.next();
+					selectedKeys.remove();
+					
+					handle(key, (ClientConnection) key.attachment());
+				}
+			}
+		}
+		catch(IOException e) {
+			throw new IllegalStateException("Load thread failed", e);
+		}
+		finally {
+			for( ClientConnection connection : connections ) {
+				connection.close();
+			}
+			try {
+				selector.close();
+			}
+			catch(IOException e) {
+				//nothing to do
+			}
+		}
+	}
+	
+	/**
+	 * Starts the requests of the idle connections whose time has come
+	 * 
+	 * @return System.nanoTime() of the next scheduled request
+	 */
+	private long startDueRequests(long now) {
+		long nextStart = Long.MAX_VALUE;
+		
+		for( ClientConnection connection : connections ) {
+			if( connection.getState() != ClientConnection.STATE_IDLE ) {
+				continue;
+			}
+			
+			if( connection.getNextStart() <= now ) {
+				startRequest(connection, now);
+			}
+			else {
+				nextStart = Math.min(nextStart, connection.getNextStart());
+			}
+		}
+		
+		return nextStart;
+	}
+	
+	private void startRequest(ClientConnection connection, long now) {
+		long intendedStart = intervalNanos > 0 ? connection.getNextStart() : now;
+		connection.begin(mix.next(random), intendedStart, now);
+		
+		try {
+			if( connection.getChannel() == null ) {
+				SocketChannel channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				connection.setChannel(channel);
+				connection.setKey(channel.register(selector, 0, connection));
+				
+				if( !channel.connect(address) ) {
+					connection.setState(ClientConnection.STATE_CONNECTING);
+					connection.getKey().interestOps(SelectionKey.OP_CONNECT);
+					return;
+				}
+			}
+			
+			sendRequest(connection);
+		}
+		catch(IOException e) {
+			failed(connection, now);
+		}
+	}
+	
+	private void handle(SelectionKey key, ClientConnection connection) {
+		try {
+			if( !key.isValid() ) {
+				return;
+			}
+			
+			if( key.isConnectable() ) {
+				connection.getChannel().finishConnect();
+				sendRequest(connection);
+			}
+			else if( key.isWritable() ) {
+				sendRequest(connection);
+			}
+			else if( key.isReadable() ) {
+				if( connection.read() ) {
+					completed(connection, System.nanoTime());
+				}
+			}
+		}
+		catch(IOException e) {
+			failed(connection, System.nanoTime());
+		}
+	}
+	
+	private void sendRequest(ClientConnection connection) throws IOException {
+		connection.setState(ClientConnection.STATE_WRITING);
+		
+		if( connection.write() ) {
+			connection.setState(ClientConnection.STATE_READING);
+			connection.getKey().interestOps(SelectionKey.OP_READ);
+		}
+		else {
+			connection.getKey().interestOps(SelectionKey.OP_WRITE);
+		}
+	}
+	
+	private void completed(ClientConnection connection, long now) {
+		long service = TimeUnit.NANOSECONDS.toMicros(now - connection.getActualStart());
+		
+		if( connection.getActualStart() < measureStart ) {
+			warmupSum += service;
+			warmupCount++;
+		}
+		else if( now < end ) {
+			completed++;
+			if( connection.getStatus() < 200 || connection.getStatus() > 299 ) {
+				non2xx++;
+			}
+			
+			bytesReceived += connection.getResponseBytes();
+			
+			serviceTime.record(service);
+			recordCorrected(TimeUnit.NANOSECONDS.toMicros(now - connection.getIntendedStart()));
+		}
+		
+		if( !keepAlive || connection.isCloseRequested() ) {
+			connection.close();
+		}
+		else {
+			connection.setState(ClientConnection.STATE_IDLE);
+			connection.getKey().interestOps(0);
+		}
+		
+		scheduleNext(connection, now);
+	}
+	
+	private void failed(ClientConnection connection, long now) {
+		if( connection.getActualStart() >= measureStart && now < end ) {
+			errors++;
+		}
+		
+		connection.close();
+		scheduleNext(connection, now);
+	}
+	
+	private void scheduleNext(ClientConnection connection, long now) {
+		if( intervalNanos > 0 ) {
+			//keep the schedule, a late connection starts its next request at once
+			connection.setNextStart(connection.getNextStart() + intervalNanos);
+		}
+		else {
+			connection.setNextStart(now);
+		}
+	}
+	
+	/**
+	 * Records a latency measured from the intended start; in closed loop,
+	 * also records the requests the connection missed while it waited
+	 */
+	private void recordCorrected(long latency) {
+		correctedLatency.record(latency);
+		
+		if( intervalNanos > 0 || warmupCount == 0 ) {
+			return;
+		}
+		
+		long expectedInterval = warmupSum / warmupCount;
+		if( expectedInterval <= 0 ) {
+			return;
+		}
+		
+		for( long missed = latency - expectedInterval ; missed >= expectedInterval ; missed -= expectedInterval ) {
+			correctedLatency.record(missed);
+		}
+	}
+	
+	public Histogram getServiceTime() {
+		return serviceTime;
+	}
+	
+	public Histogram getCorrectedLatency() {
+		return correctedLatency;
+	}
+	
+	public long getCompleted() {
+		return completed;
+	}
+	
+	public long getErrors() {
+		return errors;
+	}
+	
+	public long getNon2xx() {
+		return non2xx;
+	}
+	
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+}
@@ -0,0 +1,283 @@
+package com.fis.webserver.loadgen;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+
+/**
+ * Captured client connection, replayed by TrafficReplay
+ * 
+ * The captured reads are sent as separate writes, with Nagle's algorithm
+ * disabled, at the time they were received by the server. The request body
+ * bytes the capture skipped are replaced by filler bytes. When all the data
+ * was sent, at the time the captured connection was closed, the output is
+ * shut down and the responses are read until the server closes the
+ * connection. The responses are discarded.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class ReplayConnection {
+	
+	//sent instead of the request body bytes that were not captured
+	private static final ByteBuffer FILLER = ByteBuffer.allocateDirect(64 * 1024);
+	static {
+		while( FILLER.hasRemaining() ) {
+			FILLER.put((byte) 'x');
+		}
+	}
+	
+	/**
+	 * Bytes received by the server in one read
+	 */
+	private static class Chunk {
+		//time of the read, in nanoseconds since the capture started
+		long time;
+		
+		//bytes read, null for the skipped bytes
+		byte[] data;
+		
+		//number of skipped bytes
+		int fillerLength;
+	}
+	
+	private long id;
+	
+	//capture times of the opening and of the closing, -1 if the closing wasn't captured
+	private long openTime;
+	private long closeTime;
+	
+	private ArrayList<Chunk> chunks;
+	
+	private SocketChannel channel;
+	private SelectionKey key;
+	private boolean connected;
+	
+	//chunk being sent, and the next one
+	private ByteBuffer pending;
+	private int pendingFiller;
+	private int nextChunk;
+	
+	private boolean outputClosed;
+	private boolean finished;
+	
+	private long bytesSent;
+	private long bytesReceived;
+	
+	//System.nanoTime() of the connect and of the last read
+	private long connectTime;
+	private long lastActivity;
+	
+	public ReplayConnection(long id, long openTime) {
+		this.id = id;
+		this.openTime = openTime;
+		this.closeTime = -1;
+		
+		chunks = new ArrayList<Chunk>();
+	}
+	
+	public void addData(long time, byte[] data) {
+		Chunk chunk = new Chunk();
+		chunk.time = time;
+		chunk.data = data;
+		chunks.add(chunk);
+	}
+	
+	public void addSkipped(long time, int length) {
+		Chunk chunk = new Chunk();
+		chunk.time = time;
+		chunk.fillerLength = length;
+		chunks.add(chunk);
+	}
+	
+	public void setCloseTime(long closeTime) {
+		this.closeTime = closeTime;
+	}
+	
+	/**
+	 * Starts connecting to the server
+	 */
+	public void connect(Selector selector, InetSocketAddress address) throws IOException {
+		connectTime = System.nanoTime();
+		lastActivity = connectTime;
+		
+		channel = SocketChannel.open();
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+		
+		if( channel.connect(address) ) {
+			connected = true;
+			key = channel.register(selector, SelectionKey.OP_READ, this);
+		}
+		else {
+			key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+		}
+	}
+	
+	public void finishConnect() throws IOException {
+		if( channel.finishConnect() ) {
+			connected = true;
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+	
+	/**
+	 * Sends the chunks that are due, until the socket buffer is full, and
+	 * shuts the output down once everything was sent and the connection is
+	 * due to close
+	 * 
+	 * @param replayTime
+	 *            capture time reached by the replay, in nanoseconds
+	 */
+	public void send(long replayTime) throws IOException {
+		if( !connected || outputClosed ) {
+			return;
+		}
+		
+		while( true ) {
+			//continue the chunk being sent
+			if( pending != null ) {
+				bytesSent += channel.write(pending);
+				if( pending.hasRemaining() ) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+				pending = null;
+			}
+			
+			while( pendingFiller > 0 ) {
+				ByteBuffer filler = FILLER.duplicate();
+				filler.clear();
+				filler.limit(Math.min(pendingFiller, filler.capacity()));
+				
+				int written = channel.write(filler);
+				bytesSent += written;
+				pendingFiller -= written;
+				if( filler.hasRemaining() ) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+			}
+			
+			if( nextChunk == chunks.size() || chunks.get(nextChunk).time > replayTime ) {
+				break;
+			}
+			
+			Chunk chunk = chunks.get(nextChunk++);
+			if( chunk.data != null ) {
+				pending = ByteBuffer.wrap(chunk.data);
+			}
+			else {
+				pendingFiller = chunk.fillerLength;
+			}
+		}
+		
+		key.interestOps(SelectionKey.OP_READ);
+		
+		if( nextChunk == chunks.size() && getCloseTime() <= replayTime ) {
+			//the server closes the connection after answering the last request
+			channel.shutdownOutput();
+			outputClosed = true;
+			lastActivity = System.nanoTime();
+		}
+	}
+	
+	/**
+	 * Reads and discards the data sent by the server
+	 * 
+	 * @return false if the server closed the connection
+	 */
+	public boolean read(ByteBuffer buffer) throws IOException {
+		buffer.clear();
+		int bytesRead = channel.read(buffer);
+		if( bytesRead < 0 ) {
+			close();
+			return false;
+		}
+		
+		bytesReceived += bytesRead;
+		lastActivity = System.nanoTime();
+		
+		return true;
+	}
+	
+	public void close() {
+		finished = true;
+		
+		if( channel != null ) {
+			try {
+				channel.close();
+			}
+			catch(IOException e) {
+				//nothing to do, the connection is discarded
+			}
+		}
+	}
+	
+	/**
+	 * @return capture time of the next chunk to send or of the output
+	 *         shutdown, Long.MAX_VALUE if the connection only waits for the
+	 *         socket
+	 */
+	public long getNextEventTime() {
+		if( !connected || outputClosed || pending != null || pendingFiller > 0 ) {
+			return Long.MAX_VALUE;
+		}
+		
+		if( nextChunk < chunks.size() ) {
+			return chunks.get(nextChunk).time;
+		}
+		
+		return getCloseTime();
+	}
+	
+	/**
+	 * @return capture time of the closing, or of the last data if the closing
+	 *         was not captured
+	 */
+	private long getCloseTime() {
+		if( closeTime >= 0 ) {
+			return closeTime;
+		}
+		
+		return chunks.isEmpty() ? openTime : chunks.get(chunks.size() - 1).time;
+	}
+	
+	public long getId() {
+		return id;
+	}
+	
+	public long getOpenTime() {
+		return openTime;
+	}
+	
+	public boolean isOutputClosed() {
+		return outputClosed;
+	}
+	
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	public long getBytesSent() {
+		return bytesSent;
+	}
+	
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+	
+	public long getConnectTime() {
+		return connectTime;
+	}
+	
+	public long getLastActivity() {
+		return lastActivity;
+	}
+}
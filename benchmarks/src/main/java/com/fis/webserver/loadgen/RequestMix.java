@@ -0,0 +1,180 @@
+package com.fis.webserver.loadgen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Requests sent by the load generator: a weighted mix of file sizes, each
+ * file requested with GET or, for a share of the requests, with a POST
+ * carrying a body
+ * 
+ * The files are generated in the document root given to the server, the
+ * requests are encoded once and shared by all the connections.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class RequestMix {
+	
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	
+	/**
+	 * Encoded request of the mix
+	 */
+	public static class Request {
+		
+		//request line and headers
+		private ByteBuffer header;
+		
+		//body of a POST, null for a GET
+		private ByteBuffer body;
+		
+		Request(ByteBuffer header, ByteBuffer body) {
+			this.header = header;
+			this.body = body;
+		}
+		
+		/**
+		 * @return the buffers to write, with their own positions, so the
+		 *         request can be sent by several connections at once
+		 */
+		public ByteBuffer[] newBuffers() {
+			if( body == null ) {
+				return new ByteBuffer[] { header.duplicate() };
+			}
+			
+			return new ByteBuffer[] { header.duplicate(), body.duplicate() };
+		}
+	}
+	
+	private long[] fileSizes;
+	
+	//cumulative weights of the file sizes
+	private int[] cumulativeWeights;
+	private int totalWeight;
+	
+	//percentage of POST requests
+	private int postPercent;
+	
+	//requests by file, GET and POST
+	private Request[] getRequests;
+	private Request[] postRequests;
+	
+	/**
+	 * @param mix
+	 *            file sizes and their weights, "size:weight,size:weight"
+	 * @param postPercent
+	 *            percentage of the requests sent as POST
+	 * @param postSize
+	 *            length of the POST bodies
+	 * @param keepAlive
+	 *            false to ask the server to close the connection after each
+	 *            response
+	 */
+	public RequestMix(String mix, int postPercent, int postSize, boolean keepAlive) {
+		String[] entries = mix.split(",");
+		
+		fileSizes = new long[entries.length];
+		cumulativeWeights = new int[entries.length];
+		for( int i = 0 ; i < entries.length ; i++ ) {
+			String[] entry = entries[i].trim().split(":");
+			fileSizes[i] = Long.parseLong(entry[0].trim());
+			totalWeight += entry.length > 1 ? Integer.parseInt(entry[1].trim()) : 1;
+			cumulativeWeights[i] = totalWeight;
+		}
+		
+		this.postPercent = postPercent;
+		
+		ByteBuffer postBody = ByteBuffer.allocate(postSize);
+		getRequests = new Request[fileSizes.length];
+		postRequests = new Request[fileSizes.length];
+		for( int i = 0 ; i < fileSizes.length ; i++ ) {
+			getRequests[i] = new Request(encodeHeader("GET", getFileName(i), keepAlive, -1), null);
+			postRequests[i] = new Request(encodeHeader("POST", getFileName(i), keepAlive, postSize), postBody);
+		}
+	}
+	
+	/**
+	 * Writes the files of the mix
+	 * 
+	 * @param documentRoot
+	 *            document root of the server
+	 */
+	public void createFiles(File documentRoot) throws IOException {
+		Random random = new Random(1);
+		byte[] block = new byte[64 * 1024];
+		
+		for( int i = 0 ; i < fileSizes.length ; i++ ) {
+			FileOutputStream output = new FileOutputStream(new File(documentRoot, getFileName(i)));
+			try {
+				for( long written = 0 ; written < fileSizes[i] ; written += block.length ) {
+					random.nextBytes(block);
+					output.write(block, 0, (int) Math.min(block.length, fileSizes[i] - written));
+				}
+			}
+			finally {
+				output.close();
+			}
+		}
+	}
+	
+	/**
+	 * @return a random request of the mix
+	 */
+	public Request next(Random random) {
+		int weight = random.nextInt(totalWeight);
+		int file = 0;
+		while( weight >= cumulativeWeights[file] ) {
+			file++;
+		}
+		
+		if( postPercent > 0 && random.nextInt(100) < postPercent ) {
+			return postRequests[file];
+		}
+		
+		return getRequests[file];
+	}
+	
+	private String getFileName(int file) {
+		return "file-" + file + "-" + fileSizes[file] + ".bin";
+	}
+	
+	private static ByteBuffer encodeHeader(String method, String fileName, boolean keepAlive, long contentLength) {
+		StringBuilder header = new StringBuilder();
+		header.append(method).append(" /").append(fileName).append(" HTTP/1.1\r\n");
+		header.append("Host: localhost\r\n");
+		header.append("User-Agent: FIS load generator\r\n");
+		header.append("Accept: */*\r\n");
+		if( !keepAlive ) {
+			header.append("Connection: close\r\n");
+		}
+		if( contentLength >= 0 ) {
+			header.append("Content-Type: application/octet-stream\r\n");
+			header.append("Content-Length: ").append(contentLength).append("\r\n");
+		}
+		header.append("\r\n");
+		
+		return ByteBuffer.wrap(header.toString().getBytes(ASCII)).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * @return the file sizes of the mix and their weights, for the report
+	 */
+	public List<String> describe() {
+		List<String> description = new ArrayList<String>();
+		int previousWeight = 0;
+		for( int i = 0 ; i < fileSizes.length ; i++ ) {
+			description.add(fileSizes[i] + " bytes x" + (cumulativeWeights[i] - previousWeight));
+			previousWeight = cumulativeWeights[i];
+		}
+		
+		return description;
+	}
+}
@@ -0,0 +1,336 @@
+package com.fis.webserver.loadgen;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fis.webserver.capture.CaptureReader;
+import com.fis.webserver.capture.CaptureRecord;
+import com.fis.webserver.metrics.Histogram;
+import com.fis.webserver.metrics.HistogramSnapshot;
+
+/**
+ * Replays a traffic capture of the server against a running server
+ * 
+ * The captured connections are opened and their bytes are sent with the
+ * original fragmentation, at the original times, so the replay reproduces the
+ * request mix, the header sizes and the slow clients of the captured traffic.
+ * The capture is taken with the server.capture.file property. The documents
+ * requested by the captured clients must exist in the document root of the
+ * server under test.
+ * 
+ * Options:
+ * 
+ * --file=traffic.cap capture to replay, required
+ * --host=localhost --port=8080 server under test
+ * --speed=1 time scale of the replay, 2 replays twice as fast, 0 sends
+ * everything as fast as possible, keeping the captured reads as separate writes
+ * --connections=1000 maximum number of connections open at a time
+ * --linger=10 seconds to wait for the server to close a connection after the
+ * last request was sent
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class TrafficReplay {
+	
+	//reported connection duration percentiles
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	
+	//longest wait in the selector, the linger timeouts are checked in between
+	private static final long MAX_SELECT_TIMEOUT = 100;
+	
+	private List<ReplayConnection> connections;
+	private InetSocketAddress address;
+	private double speed;
+	private int maxConnections;
+	private long lingerNanos;
+	
+	private long bytesSent;
+	private long bytesReceived;
+	private long errors;
+	private long timeouts;
+	
+	//time from connecting to the server closing the connection, in microseconds
+	private Histogram durations;
+	
+	public TrafficReplay(List<ReplayConnection> connections, InetSocketAddress address, double speed,
+			int maxConnections, long lingerNanos) {
+		this.connections = connections;
+		this.address = address;
+		this.speed = speed;
+		this.maxConnections = maxConnections;
+		this.lingerNanos = lingerNanos;
+		
+		durations = new Histogram();
+	}
+	
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = LoadGenerator.parseOptions(args);
+		
+		String file = options.get("file");
+		if( file == null ) {
+			System.err.println("Usage: TrafficReplay --file=<capture> [--host=localhost] [--port=8080] [--speed=1]"
+					+ " [--connections=1000] [--linger=10]");
+			System.exit(1);
+		}
+		
+		String host = LoadGenerator.get(options, "host", "localhost");
+		int port = LoadGenerator.getInt(options, "port", 8080);
+		double speed = Double.parseDouble(LoadGenerator.get(options, "speed", "1"));
+		int maxConnections = LoadGenerator.getInt(options, "connections", 1000);
+		int linger = LoadGenerator.getInt(options, "linger", 10);
+		
+		List<ReplayConnection> connections = load(file);
+		if( connections.isEmpty() ) {
+			System.out.println("No connections in " + file);
+			return;
+		}
+		
+		long captureSpan = 0;
+		for( ReplayConnection connection : connections ) {
+			captureSpan = Math.max(captureSpan, connection.getOpenTime());
+		}
+		
+		System.out.println("Replaying " + connections.size() + " connections opened over "
+				+ TimeUnit.NANOSECONDS.toMillis(captureSpan) + " ms to " + host + ":" + port + ", "
+				+ (speed > 0 ? "speed " + speed : "as fast as possible"));
+		
+		TrafficReplay replay = new TrafficReplay(connections, new InetSocketAddress(host, port), speed,
+				maxConnections, TimeUnit.SECONDS.toNanos(linger));
+		
+		long start = System.nanoTime();
+		replay.run();
+		long elapsed = System.nanoTime() - start;
+		
+		replay.report(elapsed);
+	}
+	
+	/**
+	 * Reads the connections of a capture, ordered by their opening time
+	 */
+	public static List<ReplayConnection> load(String file) throws IOException {
+		Map<Long, ReplayConnection> byId = new HashMap<Long, ReplayConnection>();
+		List<ReplayConnection> connections = new ArrayList<ReplayConnection>();
+		
+		CaptureReader reader = new CaptureReader(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			CaptureRecord record;
+			while( (record = reader.next()) != null ) {
+				if( record.getType() == CaptureRecord.OPEN ) {
+					ReplayConnection connection = new ReplayConnection(record.getConnectionId(), record.getTime());
+					byId.put(record.getConnectionId(), connection);
+					connections.add(connection);
+					continue;
+				}
+				
+				ReplayConnection connection = byId.get(record.getConnectionId());
+				if( connection == null ) {
+					continue;
+				}
+				
+				switch( record.getType() ) {
+				case CaptureRecord.DATA:
+					connection.addData(record.getTime(), record.getData());
+					break;
+				case CaptureRecord.SKIPPED:
+					connection.addSkipped(record.getTime(), record.getValue());
+					break;
+				case CaptureRecord.CLOSE:
+					connection.setCloseTime(record.getTime());
+					break;
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		
+		//the workers write their records independently, restore the global order
+		Collections.sort(connections, new Comparator<ReplayConnection>() {
+			
+			@Override
+			public int compare(ReplayConnection first, ReplayConnection second) {
+				return Long.compare(first.getOpenTime(), second.getOpenTime());
+			}
+		});
+		
+		return connections;
+	}
+	
+	/**
+	 * Replays all the connections, returns when the last one is closed
+	 */
+	public void run() throws IOException {
+		Selector selector = Selector.open();
+		ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+		
+		List<ReplayConnection> active = new ArrayList<ReplayConnection>();
+		int nextOpen = 0;
+		long start = System.nanoTime();
+		
+		try {
+			while( nextOpen < connections.size() || !active.isEmpty() ) {
+				long now = System.nanoTime();
+				long replayTime = speed > 0 ? (long) ((now - start) * speed) : Long.MAX_VALUE;
+				
+				//open the connections that are due
+				while( nextOpen < connections.size() && active.size() < maxConnections
+						&& connections.get(nextOpen).getOpenTime() <= replayTime ) {
+					ReplayConnection connection = connections.get(nextOpen++);
+					try {
+						connection.connect(selector, address);
+					}
+					catch(IOException e) {
+						connection.close();
+						errors++;
+					}
+					active.add(connection);
+				}
+				
+				//send the data that is due and find the next event
+				long nextEvent = Long.MAX_VALUE;
+				if( nextOpen < connections.size() && active.size() < maxConnections ) {
+					nextEvent = connections.get(nextOpen).getOpenTime();
+				}
+				
+				for( ReplayConnection connection : active ) {
+					if( connection.isFinished() ) {
+						continue;
+					}
+					
+					try {
+						connection.send(replayTime);
+					}
+					catch(IOException e) {
+						connection.close();
+						errors++;
+						continue;
+					}
+					
+					if( connection.isOutputClosed() && now - connection.getLastActivity() > lingerNanos ) {
+						connection.close();
+						timeouts++;
+						continue;
+					}
+					
+					nextEvent = Math.min(nextEvent, connection.getNextEventTime());
+				}
+				
+				removeFinished(active);
+				
+				select(selector, readBuffer, nextEvent, replayTime);
+				
+				removeFinished(active);
+			}
+		}
+		finally {
+			for( ReplayConnection connection : active ) {
+				connection.close();
+			}
+			selector.close();
+		}
+	}
+	
+	/**
+	 * Waits for the sockets until the next event is due and handles them
+	 */
+	private void select(Selector selector, ByteBuffer readBuffer, long nextEvent, long replayTime)
+			throws IOException {
+		long timeout = MAX_SELECT_TIMEOUT;
+		if( speed > 0 && nextEvent != Long.MAX_VALUE ) {
+			long waitNanos = (long) ((nextEvent - replayTime) / speed);
+			timeout = Math.min(timeout, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+		}
+		
+		if( timeout > 0 ) {
+			selector.select(timeout);
+		}
+		else {
+			selector.selectNow();
+		}
+		
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while( keys.hasNext() ) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			
+			ReplayConnection connection = (ReplayConnection) key.attachment();
+			try {
+				if( key.isConnectable() ) {
+					connection.finishConnect();
+				}
+				else {
+					if( key.isReadable() && !connection.read(readBuffer) ) {
+						continue;
+					}
+					if( key.isValid() && key.isWritable() ) {
+						connection.send(speed > 0 ? replayTime : Long.MAX_VALUE);
+					}
+				}
+			}
+			catch(IOException e) {
+				connection.close();
+				errors++;
+			}
+		}
+	}
+	
+	/**
+	 * Removes the closed connections from the active ones and records their
+	 * statistics
+	 */
+	private void removeFinished(List<ReplayConnection> active) {
+		Iterator<ReplayConnection> iterator = active.iterator();
+		while( iterator.hasNext() ) {
+			ReplayConnection connection = iterator.next();
+			if( !connection.isFinished() ) {
+				continue;
+			}
+			iterator.remove();
+			
+			bytesSent += connection.getBytesSent();
+			bytesReceived += connection.getBytesReceived();
+			if( connection.getConnectTime() > 0 ) {
+				durations.record((System.nanoTime() - connection.getConnectTime()) / 1000);
+			}
+		}
+	}
+	
+	private void report(long elapsedNanos) {
+		double seconds = elapsedNanos / 1000000000.0;
+		
+		System.out.println();
+		System.out.println(String.format("Connections: %d replayed, %d errors, %d not closed by the server",
+				connections.size(), errors, timeouts));
+		System.out.println(String.format("Elapsed:     %.2f s", seconds));
+		System.out.println(String.format("Sent:        %d bytes, %.2f MB/s", bytesSent,
+				bytesSent / (1024.0 * 1024.0) / seconds));
+		System.out.println(String.format("Received:    %d bytes, %.2f MB/s", bytesReceived,
+				bytesReceived / (1024.0 * 1024.0) / seconds));
+		
+		HistogramSnapshot snapshot = new HistogramSnapshot();
+		snapshot.add(durations);
+		
+		System.out.println();
+		System.out.println("Connection duration (ms)");
+		for( double quantile : QUANTILES ) {
+			System.out.println(String.format("%-12s %12.3f", (quantile * 100) + "%",
+					snapshot.getValueAtQuantile(quantile) / 1000.0));
+		}
+		System.out.println(String.format("%-12s %12.3f", "max", snapshot.getMax() / 1000.0));
+	}
+}
@@ -0,0 +1,64 @@
+package com.fis.webserver.benchmark;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.fis.webserver.benchmark.AllocationBudget.RequestPath;
+
+/**
+ * Fails the build when a request path allocates more than its budget, see
+ * AllocationBudget
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+@RunWith(Parameterized.class)
+public class AllocationBudgetTest {
+	
+	//shared by all the paths, like the connection of a worker
+	private static AllocationBudget check;
+	
+	private RequestPath path;
+	
+	public AllocationBudgetTest(String name, RequestPath path) {
+		this.path = path;
+	}
+	
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> paths() throws IOException {
+		check = AllocationBudget.create();
+		
+		List<Object[]> parameters = new ArrayList<Object[]>();
+		for( RequestPath path : check.createPaths() ) {
+			parameters.add(new Object[] { path.name, path });
+		}
+		
+		return parameters;
+	}
+	
+	@AfterClass
+	public static void tearDown() {
+		if( check != null ) {
+			check.close();
+		}
+	}
+	
+	@Test
+	public void staysWithinBudget() throws Exception {
+		long allocated = check.measure(path, AllocationBudget.DEFAULT_WARMUP, AllocationBudget.DEFAULT_ITERATIONS);
+		
+		assertTrue(path.name + " allocates " + allocated + " bytes per request, its budget is " + path.budget,
+				allocated <= path.budget);
+	}
+}
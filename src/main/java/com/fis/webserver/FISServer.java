@@ -2,10 +2,13 @@ package com.fis.webserver;
 
 import org.apache.log4j.Logger;
 
+import com.fis.webserver.accesslog.AccessLog;
+import com.fis.webserver.capture.TrafficCapture;
 import com.fis.webserver.config.WebServerConfiguration;
 import com.fis.webserver.core.ConnectionListener;
 import com.fis.webserver.core.ConnectionListenerFactory;
 import com.fis.webserver.core.Server;
+import com.fis.webserver.util.TempFilePool;
 
 /**
  * Web Server's main class
@@ -31,6 +34,15 @@ public class FISServer implements Server {
 			return;
 		}
 		
+		//remove the temp files of a previous run and create the pooled ones
+		TempFilePool.start();
+		
+		//start writing the access log in the background
+		AccessLog.start();
+		
+		//capture a sample of the client traffic, if enabled
+		TrafficCapture.start();
+		
 		//get a connection listener implementation
 		ConnectionListener mainConnectionListener = ConnectionListenerFactory.getConnectionListner();
 		
@@ -0,0 +1,164 @@
+package com.fis.webserver.accesslog;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import com.fis.webserver.config.WebServerConfiguration;
+
+/**
+ * Asynchronous access log of the server
+ * 
+ * Each worker appends the records of its requests to its own AccessLogBuffer.
+ * A background thread drains the buffers into the log file, so the workers
+ * never format log lines or wait for the disk. When a worker produces records
+ * faster than they can be written its buffer fills up and the new records are
+ * dropped; the number of dropped records is logged.
+ * 
+ * The access log is enabled by the server.accesslog.file property.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public enum AccessLog {
+	INSTANCE;
+	
+	public static final Logger logger = Logger.getLogger(AccessLog.class);
+	
+	//pause of the writer thread between two drains of the buffers, in milliseconds
+	public static final long DRAIN_INTERVAL = 100;
+	
+	//buffers of the workers
+	private CopyOnWriteArrayList<AccessLogBuffer> buffers;
+	
+	private AccessLogWriter writer;
+	
+	//records dropped by the discarded workers
+	private long retiredDropped;
+	
+	//dropped records already reported
+	private long reportedDropped;
+	
+	private volatile boolean started;
+	
+	private AccessLog() {
+		buffers = new CopyOnWriteArrayList<AccessLogBuffer>();
+	}
+	
+	/**
+	 * Opens the access log file and starts the writer thread, if the access
+	 * log is enabled. Called once, at server start up
+	 */
+	public static void start() {
+		INSTANCE.startWriter();
+	}
+	
+	/**
+	 * Creates the buffer of a new worker
+	 * 
+	 * @return the buffer of the worker, null if the access log is disabled
+	 */
+	public static AccessLogBuffer newBuffer() {
+		if( !INSTANCE.started ) {
+			return null;
+		}
+		
+		WebServerConfiguration config = WebServerConfiguration.INSTANCE;
+		AccessLogBuffer buffer = new AccessLogBuffer(config.getAccessLogBufferSize(),
+				AccessLogWriter.FORMAT_COMBINED.equalsIgnoreCase(config.getAccessLogFormat()));
+		INSTANCE.buffers.add(buffer);
+		
+		return buffer;
+	}
+	
+	private synchronized void startWriter() {
+		if( started ) {
+			return;
+		}
+		
+		WebServerConfiguration config = WebServerConfiguration.INSTANCE;
+		String fileName = config.getAccessLogFile();
+		if( fileName == null || fileName.trim().length() == 0 ) {
+			logger.info("Access log disabled");
+			return;
+		}
+		
+		String format = config.getAccessLogFormat();
+		boolean combined = AccessLogWriter.FORMAT_COMBINED.equalsIgnoreCase(format);
+		if( !combined && !AccessLogWriter.FORMAT_COMMON.equalsIgnoreCase(format) ) {
+			logger.warn("Unknown access log format " + format + ", using " + AccessLogWriter.FORMAT_COMMON);
+		}
+		
+		writer = new AccessLogWriter(fileName.trim(), combined, config.getAccessLogMaxFileSize(),
+				config.getAccessLogMaxBackups());
+		try {
+			writer.open();
+		}
+		catch(Exception e) {
+			logger.error("Could not open the access log " + fileName + ", access log disabled!", e);
+			return;
+		}
+		
+		Thread writerThread = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				drainLoop();
+			}
+		}, "AccessLogWriter");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		
+		started = true;
+	}
+	
+	/**
+	 * Body of the writer thread
+	 */
+	private void drainLoop() {
+		while(true) {
+			try {
+				int written = 0;
+				for( AccessLogBuffer buffer : buffers ) {
+					written += buffer.drainTo(writer);
+					
+					//the worker stopped and its last records were written
+					if( buffer.isClosed() && buffer.isEmpty() ) {
+						buffers.remove(buffer);
+						retiredDropped += buffer.getDropped();
+					}
+				}
+				
+				if( written > 0 ) {
+					writer.flush();
+				}
+				
+				reportDropped();
+				
+				//let the records pile up, they are written in batches
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(DRAIN_INTERVAL));
+			}
+			catch(Exception e) {
+				logger.error("Error while writing the access log!", e);
+			}
+		}
+	}
+	
+	/**
+	 * Logs the number of records dropped since the last report
+	 */
+	private void reportDropped() {
+		long dropped = retiredDropped;
+		for( AccessLogBuffer buffer : buffers ) {
+			dropped += buffer.getDropped();
+		}
+		
+		if( dropped > reportedDropped ) {
+			logger.warn((dropped - reportedDropped) + " access log records dropped, the access log buffers are full!");
+			reportedDropped = dropped;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package com.fis.webserver.accesslog;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fis.webserver.model.http.HttpHeader;
+import com.fis.webserver.model.http.HttpRequest;
+import com.fis.webserver.model.http.HttpResponse;
+
+/**
+ * Ring buffer of the access log records of a worker
+ * 
+ * The buffer has a single producer, the worker thread, and a single consumer,
+ * the access log writer thread. Both only advance their own position, with
+ * ordered stores, so appending a record never takes a lock. A worker never
+ * waits for the writer: when the buffer is full the record is dropped and
+ * counted.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class AccessLogBuffer {
+	
+	private AccessLogRecord[] records;
+	
+	//records.length - 1, the length is a power of two
+	private int mask;
+	
+	//position of the next record written by the worker
+	private AtomicLong tail;
+	
+	//position of the next record read by the writer
+	private AtomicLong head;
+	
+	//records dropped because the buffer was full, written by the worker
+	private AtomicLong dropped;
+	
+	//true when the worker stopped, the buffer is discarded once drained
+	private volatile boolean closed;
+	
+	//true if the Referer and User-Agent headers are logged
+	private boolean combined;
+	
+	/**
+	 * @param capacity
+	 *            minimum number of records of the buffer, rounded up to a
+	 *            power of two
+	 * @param combined
+	 *            true if the records include the Referer and User-Agent headers
+	 */
+	AccessLogBuffer(int capacity, boolean combined) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		
+		records = new AccessLogRecord[size];
+		for( int i = 0 ; i < size ; i++ ) {
+			records[i] = new AccessLogRecord();
+		}
+		mask = size - 1;
+		
+		tail = new AtomicLong();
+		head = new AtomicLong();
+		dropped = new AtomicLong();
+		
+		this.combined = combined;
+	}
+	
+	/**
+	 * Adds the record of an answered request, must be called only by the
+	 * worker thread
+	 * 
+	 * @param remoteAddress
+	 *            address of the client
+	 * @param request
+	 *            answered request
+	 * @param response
+	 *            response that was sent
+	 * @param bytes
+	 *            number of body bytes sent
+	 * @param time
+	 *            time the response was sent, in milliseconds
+	 * @param durationNanos
+	 *            time from the first byte of the request to the end of the
+	 *            response
+	 * @return false if the record was dropped because the buffer is full
+	 */
+	public boolean append(InetAddress remoteAddress, HttpRequest request, HttpResponse response, long bytes,
+			long time, long durationNanos) {
+		long position = tail.get();
+		
+		//the writer is behind, drop the record instead of waiting
+		if( position - head.get() > mask ) {
+			dropped.lazySet(dropped.get() + 1);
+			return false;
+		}
+		
+		AccessLogRecord record = records[(int) position & mask];
+		record.time = time;
+		record.remoteAddress = remoteAddress;
+		record.method = request.getMethod();
+		record.url = request.getURL();
+		record.httpMajorVersion = request.getHttpMajorVersion();
+		record.httpMinorVersion = request.getHttpMinorVersion();
+		record.status = response.getStatusCode().getCode();
+		record.bytes = bytes;
+		record.durationMicros = durationNanos / 1000;
+		
+		if( combined ) {
+			record.referer = request.getHeader(HttpHeader.REFERER);
+			record.userAgent = request.getHeader(HttpHeader.USER_AGENT);
+		}
+		
+		//publish the record
+		tail.lazySet(position + 1);
+		
+		return true;
+	}
+	
+	/**
+	 * Writes the buffered records, must be called only by the writer thread
+	 * 
+	 * @return number of records written
+	 */
+	int drainTo(AccessLogWriter writer) {
+		long position = head.get();
+		long end = tail.get();
+		
+		for( long i = position ; i < end ; i++ ) {
+			AccessLogRecord record = records[(int) i & mask];
+			writer.write(record);
+			record.clear();
+		}
+		
+		//give the slots back to the worker
+		head.lazySet(end);
+		
+		return (int) (end - position);
+	}
+	
+	/**
+	 * @return number of records dropped because the buffer was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	/**
+	 * Called by the worker when it stops, the writer discards the buffer
+	 * after writing its last records
+	 */
+	public void close() {
+		closed = true;
+	}
+	
+	boolean isClosed() {
+		return closed;
+	}
+	
+	boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+}
@@ -0,0 +1,51 @@
+package com.fis.webserver.accesslog;
+
+import java.net.InetAddress;
+
+/**
+ * Slot of an AccessLogBuffer, describing an answered request
+ * 
+ * The records are allocated once, with their buffer, and overwritten by the
+ * worker for every request. They only hold references to objects that don't
+ * change after the request was parsed (the strings of the request, the
+ * address of the client), so filling a record doesn't copy or allocate.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class AccessLogRecord {
+	
+	//time the response was sent, in milliseconds
+	long time;
+	
+	InetAddress remoteAddress;
+	
+	String method;
+	String url;
+	int httpMajorVersion;
+	int httpMinorVersion;
+	
+	int status;
+	
+	//number of body bytes sent
+	long bytes;
+	
+	String referer;
+	String userAgent;
+	
+	//time from the first byte of the request to the last byte of the response
+	long durationMicros;
+	
+	/**
+	 * Drops the references of the record, so the buffer doesn't keep the
+	 * strings of old requests alive
+	 */
+	void clear() {
+		remoteAddress = null;
+		method = null;
+		url = null;
+		referer = null;
+		userAgent = null;
+	}
+}
@@ -0,0 +1,215 @@
+package com.fis.webserver.accesslog;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes access log records to a file, in the Common or Combined Log Format
+ * 
+ * The file is rotated when it reaches its maximum size: access.log becomes
+ * access.log.1, access.log.1 becomes access.log.2 and so on, the oldest file
+ * is deleted. Used only by the access log writer thread.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class AccessLogWriter {
+	public static final Logger logger = Logger.getLogger(AccessLogWriter.class);
+	
+	public static final String FORMAT_COMMON = "common";
+	public static final String FORMAT_COMBINED = "combined";
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private File file;
+	private boolean combined;
+	private long maxFileSize;
+	private int maxBackups;
+	
+	private Writer output;
+	
+	//number of characters written to the current file
+	private long fileSize;
+	
+	private StringBuilder line;
+	
+	//time stamp of the last written second, reused by the records of the same second
+	private SimpleDateFormat dateFormat;
+	private long formattedSecond;
+	private String formattedDate;
+	
+	public AccessLogWriter(String fileName, boolean combined, long maxFileSize, int maxBackups) {
+		this.file = new File(fileName);
+		this.combined = combined;
+		this.maxFileSize = maxFileSize;
+		this.maxBackups = maxBackups;
+		
+		line = new StringBuilder(512);
+		
+		dateFormat = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+		formattedSecond = -1;
+	}
+	
+	/**
+	 * Opens the log file, appending to it if it exists
+	 */
+	public void open() throws IOException {
+		fileSize = file.length();
+		output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF8), 64 * 1024);
+	}
+	
+	/**
+	 * Formats a record and adds it to the file. Errors are logged, the record
+	 * is lost
+	 */
+	public void write(AccessLogRecord record) {
+		if( output == null ) {
+			return;
+		}
+		
+		line.setLength(0);
+		format(record, line);
+		
+		try {
+			output.append(line);
+			fileSize += line.length();
+			
+			if( maxFileSize > 0 && fileSize >= maxFileSize ) {
+				rotate();
+			}
+		}
+		catch(IOException e) {
+			logger.error("Could not write to the access log " + file + "!", e);
+		}
+	}
+	
+	/**
+	 * Writes the buffered lines to the file
+	 */
+	public void flush() {
+		if( output == null ) {
+			return;
+		}
+		
+		try {
+			output.flush();
+		}
+		catch(IOException e) {
+			logger.error("Could not write to the access log " + file + "!", e);
+		}
+	}
+	
+	public void close() {
+		if( output == null ) {
+			return;
+		}
+		
+		try {
+			output.close();
+		}
+		catch(IOException e) {
+			logger.warn("Could not close the access log " + file + "!", e);
+		}
+		output = null;
+	}
+	
+	/**
+	 * Formats a record as a line of the Common Log Format, followed by the
+	 * Referer and User-Agent headers for the Combined Log Format
+	 */
+	private void format(AccessLogRecord record, StringBuilder line) {
+		line.append(record.remoteAddress != null ? record.remoteAddress.getHostAddress() : "-");
+		line.append(" - - [").append(formatDate(record.time)).append("] \"");
+		
+		if( record.method != null ) {
+			line.append(record.method).append(' ').append(record.url)
+				.append(" HTTP/").append(record.httpMajorVersion).append('.').append(record.httpMinorVersion);
+		}
+		else {
+			//the request line could not be parsed
+			line.append('-');
+		}
+		
+		line.append("\" ").append(record.status).append(' ');
+		if( record.bytes > 0 ) {
+			line.append(record.bytes);
+		}
+		else {
+			line.append('-');
+		}
+		
+		if( combined ) {
+			appendQuoted(line, record.referer);
+			appendQuoted(line, record.userAgent);
+		}
+		
+		line.append('\n');
+	}
+	
+	private static void appendQuoted(StringBuilder line, String value) {
+		line.append(" \"");
+		if( value == null ) {
+			line.append('-');
+		}
+		else {
+			for( int i = 0 ; i < value.length() ; i++ ) {
+				char c = value.charAt(i);
+				if( c == '"' || c == '\\' ) {
+					line.append('\\');
+				}
+				line.append(c);
+			}
+		}
+		line.append('"');
+	}
+	
+	private String formatDate(long time) {
+		long second = time / 1000;
+		if( second != formattedSecond ) {
+			formattedSecond = second;
+			formattedDate = dateFormat.format(new Date(time));
+		}
+		
+		return formattedDate;
+	}
+	
+	/**
+	 * Moves the current file to the first backup, shifting the older backups
+	 */
+	private void rotate() throws IOException {
+		output.close();
+		output = null;
+		
+		if( maxBackups > 0 ) {
+			File oldest = new File(file.getPath() + "." + maxBackups);
+			if( oldest.exists() && !oldest.delete() ) {
+				logger.warn("Could not delete the old access log " + oldest + "!");
+			}
+			
+			for( int i = maxBackups - 1 ; i >= 1 ; i-- ) {
+				File backup = new File(file.getPath() + "." + i);
+				if( backup.exists() ) {
+					backup.renameTo(new File(file.getPath() + "." + (i + 1)));
+				}
+			}
+			
+			file.renameTo(new File(file.getPath() + ".1"));
+		}
+		else {
+			file.delete();
+		}
+		
+		open();
+	}
+}
@@ -0,0 +1,221 @@
+package com.fis.webserver.capture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ring buffer of the traffic captured by a worker
+ * 
+ * The records are stored in the layout of the capture file, so the capture
+ * writer thread copies the buffered bytes to the file as they are. Like the
+ * access log buffers, the ring has a single producer, the worker thread, and
+ * a single consumer, the writer thread, and the worker never waits: when a
+ * record does not fit, the connection is dropped from the capture, since the
+ * rest of its stream would be useless for a replay.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class CaptureBuffer {
+	
+	private byte[] ring;
+	
+	//ring.length - 1, the length is a power of two
+	private int mask;
+	
+	//position of the next byte written by the worker
+	private AtomicLong tail;
+	
+	//position of the next byte read by the writer
+	private AtomicLong head;
+	
+	//connections dropped from the capture because the buffer was full
+	private AtomicLong dropped;
+	
+	//true when the worker stopped or the capture ended
+	private volatile boolean closed;
+	
+	//ids of the captured connections, shared by all the workers
+	private AtomicLong connectionIds;
+	
+	//System.nanoTime() when the capture started
+	private long startTime;
+	
+	//one connection out of sampleInterval is captured
+	private int sampleInterval;
+	private long accepted;
+	
+	/**
+	 * @param capacity
+	 *            minimum size of the buffer in bytes, rounded up to a power of
+	 *            two
+	 * @param sampleInterval
+	 *            one accepted connection out of this many is captured
+	 * @param connectionIds
+	 *            source of the ids of the captured connections
+	 * @param startTime
+	 *            System.nanoTime() when the capture started
+	 */
+	CaptureBuffer(int capacity, int sampleInterval, AtomicLong connectionIds, long startTime) {
+		int size = Integer.highestOneBit(Math.max(CaptureRecord.HEADER_SIZE, capacity - 1)) << 1;
+		
+		ring = new byte[size];
+		mask = size - 1;
+		
+		tail = new AtomicLong();
+		head = new AtomicLong();
+		dropped = new AtomicLong();
+		
+		this.sampleInterval = Math.max(1, sampleInterval);
+		this.connectionIds = connectionIds;
+		this.startTime = startTime;
+	}
+	
+	/**
+	 * Decides whether an accepted connection is captured and records its
+	 * opening, must be called only by the worker thread
+	 * 
+	 * @return id of the captured connection, 0 if it is not captured
+	 */
+	public long open() {
+		if( closed || accepted++ % sampleInterval != 0 ) {
+			return 0;
+		}
+		
+		long connectionId = connectionIds.incrementAndGet();
+		if( !append(CaptureRecord.OPEN, connectionId, 0, null, 0) ) {
+			return 0;
+		}
+		
+		return connectionId;
+	}
+	
+	/**
+	 * Records bytes received on a captured connection, must be called only by
+	 * the worker thread
+	 * 
+	 * @return false if the connection was dropped from the capture
+	 */
+	public boolean data(long connectionId, byte[] data, int length) {
+		return append(CaptureRecord.DATA, connectionId, length, data, length);
+	}
+	
+	/**
+	 * Records request body bytes that were received without being captured,
+	 * must be called only by the worker thread
+	 * 
+	 * @return false if the connection was dropped from the capture
+	 */
+	public boolean skipped(long connectionId, long bytes) {
+		return append(CaptureRecord.SKIPPED, connectionId, (int) Math.min(bytes, Integer.MAX_VALUE), null, 0);
+	}
+	
+	/**
+	 * Records the closing of a captured connection, must be called only by the
+	 * worker thread
+	 */
+	public void closed(long connectionId) {
+		append(CaptureRecord.CLOSE, connectionId, 0, null, 0);
+	}
+	
+	private boolean append(byte type, long connectionId, int value, byte[] data, int length) {
+		if( closed ) {
+			return false;
+		}
+		
+		long position = tail.get();
+		
+		//the writer is behind, drop the connection instead of waiting
+		if( position + CaptureRecord.HEADER_SIZE + length - head.get() > ring.length ) {
+			dropped.lazySet(dropped.get() + 1);
+			return false;
+		}
+		
+		long time = System.nanoTime() - startTime;
+		
+		ring[(int) position & mask] = type;
+		position = putLong(position + 1, connectionId);
+		position = putLong(position, time);
+		position = putInt(position, value);
+		
+		if( length > 0 ) {
+			int offset = (int) position & mask;
+			int firstPart = Math.min(length, ring.length - offset);
+			System.arraycopy(data, 0, ring, offset, firstPart);
+			System.arraycopy(data, firstPart, ring, 0, length - firstPart);
+			position += length;
+		}
+		
+		//publish the record
+		tail.lazySet(position);
+		
+		return true;
+	}
+	
+	private long putLong(long position, long value) {
+		for( int shift = 56 ; shift >= 0 ; shift -= 8 ) {
+			ring[(int) position++ & mask] = (byte) (value >>> shift);
+		}
+		
+		return position;
+	}
+	
+	private long putInt(long position, int value) {
+		for( int shift = 24 ; shift >= 0 ; shift -= 8 ) {
+			ring[(int) position++ & mask] = (byte) (value >>> shift);
+		}
+		
+		return position;
+	}
+	
+	/**
+	 * Writes the buffered records, must be called only by the writer thread
+	 * 
+	 * @param output
+	 *            stream of the capture file, null to discard the records
+	 * @return number of bytes written
+	 */
+	int drainTo(OutputStream output) throws IOException {
+		long position = head.get();
+		long end = tail.get();
+		int length = (int) (end - position);
+		
+		if( output != null && length > 0 ) {
+			int offset = (int) position & mask;
+			int firstPart = Math.min(length, ring.length - offset);
+			output.write(ring, offset, firstPart);
+			output.write(ring, 0, length - firstPart);
+		}
+		
+		//give the space back to the worker
+		head.lazySet(end);
+		
+		return length;
+	}
+	
+	/**
+	 * @return number of connections dropped from the capture because the
+	 *         buffer was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	/**
+	 * Called by the worker when it stops, or by the capture when it ends; the
+	 * writer discards the buffer after writing its last records
+	 */
+	public void close() {
+		closed = true;
+	}
+	
+	boolean isClosed() {
+		return closed;
+	}
+	
+	boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+}
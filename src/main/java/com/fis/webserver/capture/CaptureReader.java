@@ -0,0 +1,89 @@
+package com.fis.webserver.capture;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the records of a traffic capture file
+ * 
+ * A capture cut short, because the server was killed while capturing, ends
+ * with an incomplete record; it is ignored and the records before it are
+ * returned.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class CaptureReader implements Closeable {
+	
+	private DataInputStream input;
+	
+	//wall clock time the capture started, in milliseconds
+	private long startTime;
+	
+	/**
+	 * Reads the header of the capture
+	 * 
+	 * @param input
+	 *            stream of the capture file, preferably buffered
+	 * @throws IOException
+	 *             if the stream is not a capture file of a known version
+	 */
+	public CaptureReader(InputStream input) throws IOException {
+		this.input = new DataInputStream(input);
+		
+		if( this.input.readInt() != CaptureRecord.MAGIC ) {
+			throw new IOException("Not a traffic capture file!");
+		}
+		
+		int version = this.input.readInt();
+		if( version != CaptureRecord.VERSION ) {
+			throw new IOException("Unsupported capture file version " + version + "!");
+		}
+		
+		startTime = this.input.readLong();
+	}
+	
+	/**
+	 * @return the next record, null at the end of the capture
+	 */
+	public CaptureRecord next() throws IOException {
+		int type = input.read();
+		if( type < 0 ) {
+			return null;
+		}
+		
+		try {
+			long connectionId = input.readLong();
+			long time = input.readLong();
+			int value = input.readInt();
+			
+			byte[] data = null;
+			if( type == CaptureRecord.DATA ) {
+				data = new byte[value];
+				input.readFully(data);
+			}
+			
+			return new CaptureRecord((byte) type, connectionId, time, value, data);
+		}
+		catch(EOFException e) {
+			//the last record was not completely written
+			return null;
+		}
+	}
+	
+	/**
+	 * @return wall clock time the capture started, in milliseconds
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+}
@@ -0,0 +1,82 @@
+package com.fis.webserver.capture;
+
+/**
+ * Record of a traffic capture file
+ * 
+ * A capture file starts with a header: the MAGIC int, the VERSION int and the
+ * wall clock time the capture started, in milliseconds. The records follow,
+ * each one made of a type byte, the id of the captured connection (long), the
+ * time of the event in nanoseconds since the capture started (long) and an
+ * int value: the length of the data that follows for DATA records, the
+ * number of bytes that were not captured for SKIPPED records, 0 for OPEN and
+ * CLOSE. All the numbers are big endian, as written by a DataOutputStream.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class CaptureRecord {
+	
+	//first bytes of a capture file, "FISC"
+	public static final int MAGIC = 0x46495343;
+	public static final int VERSION = 1;
+	
+	//a client connection was accepted
+	public static final byte OPEN = 1;
+	
+	//bytes received from the client, exactly as one read returned them
+	public static final byte DATA = 2;
+	
+	//request body bytes transferred to a temp file without being captured
+	public static final byte SKIPPED = 3;
+	
+	//the connection was closed, by either side
+	public static final byte CLOSE = 4;
+	
+	//type, connection id, time and value
+	public static final int HEADER_SIZE = 1 + 8 + 8 + 4;
+	
+	private byte type;
+	private long connectionId;
+	private long time;
+	private int value;
+	private byte[] data;
+	
+	public CaptureRecord(byte type, long connectionId, long time, int value, byte[] data) {
+		this.type = type;
+		this.connectionId = connectionId;
+		this.time = time;
+		this.value = value;
+		this.data = data;
+	}
+	
+	public byte getType() {
+		return type;
+	}
+	
+	public long getConnectionId() {
+		return connectionId;
+	}
+	
+	/**
+	 * @return time of the event, in nanoseconds since the capture started
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * @return the data length of a DATA record, the number of bytes not
+	 *         captured for a SKIPPED record
+	 */
+	public int getValue() {
+		return value;
+	}
+	
+	/**
+	 * @return bytes received for a DATA record, null for the other types
+	 */
+	public byte[] getData() {
+		return data;
+	}
+}
@@ -0,0 +1,215 @@
+package com.fis.webserver.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import com.fis.webserver.config.WebServerConfiguration;
+
+/**
+ * Capture of the raw client traffic of a sample of the connections
+ * 
+ * The bytes received on the sampled connections are written, with the time
+ * they arrived and exactly as the reads returned them, to a capture file that
+ * the benchmarks replay against a test server. This reproduces the request
+ * mix, the header sizes and the slow clients of real traffic, which the
+ * synthetic benchmarks miss.
+ * 
+ * Each worker records the traffic of its connections in its own
+ * CaptureBuffer and a background thread writes the buffers to the file, so
+ * the workers never wait for the disk. The capture stops when the file
+ * reaches its maximum size. The buffers are written one after the other, so
+ * only the records of one buffer are in time order: the capture of a
+ * connection moved to another worker ends when it is moved.
+ * 
+ * The capture is enabled by the server.capture.file property.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public enum TrafficCapture {
+	INSTANCE;
+	
+	public static final Logger logger = Logger.getLogger(TrafficCapture.class);
+	
+	//pause of the writer thread between two drains of the buffers, in milliseconds
+	public static final long DRAIN_INTERVAL = 100;
+	
+	//buffers of the workers
+	private CopyOnWriteArrayList<CaptureBuffer> buffers;
+	
+	//ids of the captured connections
+	private AtomicLong connectionIds;
+	
+	//System.nanoTime() when the capture started
+	private long startTime;
+	
+	private DataOutputStream output;
+	private long fileSize;
+	private long maxFileSize;
+	
+	//connections dropped by the discarded buffers
+	private long retiredDropped;
+	
+	//dropped connections already reported
+	private long reportedDropped;
+	
+	private volatile boolean started;
+	
+	private TrafficCapture() {
+		buffers = new CopyOnWriteArrayList<CaptureBuffer>();
+		connectionIds = new AtomicLong();
+	}
+	
+	/**
+	 * Opens the capture file and starts the writer thread, if the capture is
+	 * enabled. Called once, at server start up
+	 */
+	public static void start() {
+		INSTANCE.startWriter();
+	}
+	
+	/**
+	 * Creates the buffer of a new worker
+	 * 
+	 * @return the buffer of the worker, null if the capture is disabled or
+	 *         has ended
+	 */
+	public static CaptureBuffer newBuffer() {
+		if( !INSTANCE.started ) {
+			return null;
+		}
+		
+		WebServerConfiguration config = WebServerConfiguration.INSTANCE;
+		CaptureBuffer buffer = new CaptureBuffer(config.getCaptureBufferSize(), config.getCaptureSampleInterval(),
+				INSTANCE.connectionIds, INSTANCE.startTime);
+		INSTANCE.buffers.add(buffer);
+		
+		return buffer;
+	}
+	
+	private synchronized void startWriter() {
+		if( started ) {
+			return;
+		}
+		
+		WebServerConfiguration config = WebServerConfiguration.INSTANCE;
+		String fileName = config.getCaptureFile();
+		if( fileName == null || fileName.trim().length() == 0 ) {
+			return;
+		}
+		
+		maxFileSize = config.getCaptureMaxFileSize();
+		startTime = System.nanoTime();
+		
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName.trim()), 64 * 1024));
+			output.writeInt(CaptureRecord.MAGIC);
+			output.writeInt(CaptureRecord.VERSION);
+			output.writeLong(System.currentTimeMillis());
+			fileSize = output.size();
+		}
+		catch(IOException e) {
+			logger.error("Could not open the capture file " + fileName + ", traffic capture disabled!", e);
+			return;
+		}
+		
+		Thread writerThread = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				drainLoop();
+			}
+		}, "TrafficCapture");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		
+		started = true;
+		
+		logger.info("Capturing one connection out of " + config.getCaptureSampleInterval() + " to " + fileName);
+	}
+	
+	/**
+	 * Body of the writer thread
+	 */
+	private void drainLoop() {
+		while( output != null ) {
+			try {
+				int written = 0;
+				for( CaptureBuffer buffer : buffers ) {
+					written += buffer.drainTo(output);
+					
+					//the worker stopped and its last records were written
+					if( buffer.isClosed() && buffer.isEmpty() ) {
+						buffers.remove(buffer);
+						retiredDropped += buffer.getDropped();
+					}
+				}
+				
+				if( written > 0 ) {
+					output.flush();
+					fileSize += written;
+				}
+				
+				reportDropped();
+				
+				if( fileSize >= maxFileSize ) {
+					finish();
+				}
+				
+				//let the records pile up, they are written in batches
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(DRAIN_INTERVAL));
+			}
+			catch(Exception e) {
+				logger.error("Error while writing the capture file, traffic capture stopped!", e);
+				finish();
+			}
+		}
+	}
+	
+	/**
+	 * Ends the capture: the workers stop recording and the file is closed
+	 */
+	private void finish() {
+		started = false;
+		for( CaptureBuffer buffer : buffers ) {
+			buffer.close();
+		}
+		buffers.clear();
+		
+		try {
+			output.close();
+		}
+		catch(IOException e) {
+			logger.warn("Could not close the capture file!", e);
+		}
+		output = null;
+		
+		logger.info("Traffic capture finished, " + fileSize + " bytes captured from " + connectionIds.get()
+				+ " connections");
+	}
+	
+	/**
+	 * Logs the number of connections dropped since the last report
+	 */
+	private void reportDropped() {
+		long dropped = retiredDropped;
+		for( CaptureBuffer buffer : buffers ) {
+			dropped += buffer.getDropped();
+		}
+		
+		if( dropped > reportedDropped ) {
+			logger.warn((dropped - reportedDropped)
+					+ " connections dropped from the traffic capture, the capture buffers are full!");
+			reportedDropped = dropped;
+		}
+	}
+}
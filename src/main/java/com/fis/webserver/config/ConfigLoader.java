@@ -9,6 +9,10 @@ import org.apache.log4j.Logger;
 /**
  * Helper class to handle configuration files from the classpath
  * 
+ * A system property with the same name as a configuration property overrides
+ * the value from the file (-Dlisten.port=8080), so tools and tests can start
+ * the server with another configuration.
+ * 
  * @author Florin Iordache
  * 
  */
@@ -57,10 +61,16 @@ public class ConfigLoader {
 	 * 
 	 * @param propName
 	 *            property that needs to be read
-	 * @return property value read from the underlying Properties object or null
-	 *         if the Properties object was not properly initialized
+	 * @return property value read from the system properties or the
+	 *         underlying Properties object, null if the property is not set
+	 *         or the Properties object was not properly initialized
 	 */
 	public String getProperty(String propName) {
+		String overriddenValue = System.getProperty(propName);
+		if( overriddenValue != null ) {
+			return overriddenValue;
+		}
+		
 		if( loadedProperties != null ) {
 			return loadedProperties.getProperty(propName);
 		}
@@ -87,6 +97,50 @@ public class ConfigLoader {
 		return null;
 	}
 
+	/**
+	 * Reads an optional integer property from the underlying properties object
+	 * 
+	 * @param propName
+	 * 		property that needs to be read
+	 * @param defaultValue
+	 * 		value returned when the property is not present
+	 * @return
+	 * 		- integer value of the property if conversion succeeded and property is present
+	 * 		- defaultValue if the property is not present or conversion failed
+	 */
+	public int getIntProperty(String propName, int defaultValue) {
+		if( getProperty(propName) == null ) {
+			return defaultValue;
+		}
+		
+		Integer value = getIntProperty(propName);
+		if( value == null ) {
+			return defaultValue;
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Reads an optional boolean property from the underlying properties object
+	 * 
+	 * @param propName
+	 * 		property that needs to be read
+	 * @param defaultValue
+	 * 		value returned when the property is not present
+	 * @return
+	 * 		- true if the property value is "true" (case insensitive), false otherwise
+	 * 		- defaultValue if the property is not present
+	 */
+	public boolean getBooleanProperty(String propName, boolean defaultValue) {
+		String value = getProperty(propName);
+		if( value == null ) {
+			return defaultValue;
+		}
+		
+		return Boolean.parseBoolean(value.trim());
+	}
+	
 	/**
 	 * @return a set containing all the property names in this configuration
 	 *         file
@@ -1,5 +1,6 @@
 package com.fis.webserver.config;
 
+import java.util.Locale;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -7,6 +8,11 @@ import org.apache.log4j.Logger;
 /**
  * Singleton holding the mime-types supported by this web server
  * 
+ * The configuration file is compiled at start up into an immutable open
+ * addressing hash table, so lookups need neither locking nor allocation.
+ * Extensions are matched case insensitive, directly on the file name
+ * characters.
+ * 
  * @author Florin Iordache
  * 
  */
@@ -18,18 +24,65 @@ public enum MimeTypes {
 	
 	public static final String DEFAULT_MIMETYPE = "application/octet-stream";
 	
-	private ConfigLoader mimeTypesConfig;
 	private Logger logger;
 	
+	//lower case extensions (including the dot) and their mime types, indexed by hash
+	private String[] extensionTable;
+	private String[] mimeTypeTable;
+	
+	//table size - 1, the table size is a power of 2
+	private int tableMask;
+	
 	private MimeTypes() {
 		//initialize logger
 		logger = Logger.getLogger(MimeTypes.class);
 		
 		//load the MIME_TYPES_CONFIG_FILE file containing the supported mime types
 		logger.debug("Loading supported mime-types...");
-		mimeTypesConfig = new ConfigLoader(MIME_TYPES_CONFIG_FILE);
+		ConfigLoader mimeTypesConfig = new ConfigLoader(MIME_TYPES_CONFIG_FILE);
+		
+		compile(mimeTypesConfig);
 	}
-
+	
+	/**
+	 * Builds the lookup table from the loaded configuration
+	 * 
+	 * @param mimeTypesConfig
+	 *            loaded MIME_TYPES_CONFIG_FILE
+	 */
+	private void compile(ConfigLoader mimeTypesConfig) {
+		Set<String> extensions = mimeTypesConfig.getPropertyNames();
+		int entries = extensions != null ? extensions.size() : 0;
+		
+		//keep the load factor under 0.5 so probe sequences stay short
+		int tableSize = 2;
+		while( tableSize < entries * 2 ) {
+			tableSize <<= 1;
+		}
+		
+		extensionTable = new String[tableSize];
+		mimeTypeTable = new String[tableSize];
+		tableMask = tableSize - 1;
+		
+		if( extensions == null ) {
+			return;
+		}
+		
+		for( String extension : extensions ) {
+			String lowerCaseExtension = extension.toLowerCase(Locale.ENGLISH);
+			
+			int slot = hash(lowerCaseExtension, 0, lowerCaseExtension.length()) & tableMask;
+			while( extensionTable[slot] != null && !extensionTable[slot].equals(lowerCaseExtension) ) {
+				slot = (slot + 1) & tableMask;
+			}
+			
+			extensionTable[slot] = lowerCaseExtension;
+			mimeTypeTable[slot] = mimeTypesConfig.getProperty(extension);
+		}
+		
+		logger.debug("Compiled " + entries + " mime-types");
+	}
+	
 	/**
 	 * Get the mime type of a given extension
 	 * 
@@ -40,17 +93,80 @@ public enum MimeTypes {
 	 *         DEFAULT_MIMETYPE will be returned
 	 */
 	public static String getMimeType(String extension) {
-		Set<String> extensions = INSTANCE.mimeTypesConfig.getPropertyNames();
-		String mimeType = DEFAULT_MIMETYPE;
-
-		if( extensions != null ) {
-			mimeType = INSTANCE.mimeTypesConfig.getProperty(extension);
-			
-			if( mimeType == null ) {
-				mimeType = DEFAULT_MIMETYPE;
+		return INSTANCE.lookup(extension, 0, extension.length());
+	}
+	
+	/**
+	 * Get the mime type of a file, based on the extension of its name
+	 * 
+	 * @param fileName
+	 *            - name of the file
+	 * @return String object representing the configured mime-type for the file
+	 *         extension or DEFAULT_MIMETYPE if the file has no extension or the
+	 *         extension is not mapped
+	 */
+	public static String getMimeTypeForFileName(String fileName) {
+		int dotPosition = fileName.lastIndexOf('.');
+		if( dotPosition < 0 ) {
+			return DEFAULT_MIMETYPE;
+		}
+		
+		return INSTANCE.lookup(fileName, dotPosition, fileName.length());
+	}
+	
+	/**
+	 * Looks up the extension found between start (inclusive) and end
+	 * (exclusive) in the compiled table
+	 */
+	private String lookup(String text, int start, int end) {
+		int slot = hash(text, start, end) & tableMask;
+		
+		String extension;
+		while( (extension = extensionTable[slot]) != null ) {
+			if( matches(extension, text, start, end) ) {
+				return mimeTypeTable[slot];
 			}
+			slot = (slot + 1) & tableMask;
+		}
+		
+		return DEFAULT_MIMETYPE;
+	}
+	
+	/**
+	 * Case insensitive hash of a part of a string
+	 */
+	private static int hash(String text, int start, int end) {
+		int hash = 0;
+		for( int i = start ; i < end ; i++ ) {
+			hash = 31 * hash + toLowerCase(text.charAt(i));
+		}
+		
+		//spread the high bits, the table is indexed with the low ones
+		return hash ^ (hash >>> 16);
+	}
+	
+	/**
+	 * Compares a lower case extension with a part of a string, ignoring case
+	 */
+	private static boolean matches(String extension, String text, int start, int end) {
+		if( extension.length() != end - start ) {
+			return false;
+		}
+		
+		for( int i = 0 ; i < extension.length() ; i++ ) {
+			if( extension.charAt(i) != toLowerCase(text.charAt(start + i)) ) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	private static char toLowerCase(char c) {
+		if( c >= 'A' && c <= 'Z' ) {
+			return (char) (c + ('a' - 'A'));
 		}
 		
-		return mimeType;
+		return c;
 	}
 }
@@ -41,12 +41,156 @@ public enum WebServerConfiguration {
 	//temporary folder
 	public static final String TEMP_FOLDER_PROPERTY = "server.folder.temp";
 	
+	//time to live of the cached file metadata entries, in milliseconds
+	public static final String METADATA_CACHE_TTL_PROPERTY = "server.cache.metadata.ttl";
+	
+	//maximum number of cached file metadata entries
+	public static final String METADATA_CACHE_ENTRIES_PROPERTY = "server.cache.metadata.entries";
+	
+	//use a hash of the file content as ETag instead of the modification time and size
+	public static final String ETAG_CONTENT_HASH_PROPERTY = "server.etag.content.hash";
+	
+	//largest file whose content is hashed for its ETag, in bytes
+	public static final String ETAG_CONTENT_HASH_MAX_SIZE_PROPERTY = "server.etag.content.hash.max.size";
+	
+	//serve the precompressed .br / .gz siblings of the requested files
+	public static final String PRECOMPRESSED_PROPERTY = "server.precompressed";
+	
+	//gzip compress the compressible responses on the fly
+	public static final String COMPRESSION_PROPERTY = "server.compression";
+	
+	//minimum size of a resource compressed on the fly, in bytes
+	public static final String COMPRESSION_MIN_SIZE_PROPERTY = "server.compression.min.size";
+	
+	//maximum number of bytes kept in the compressed variant cache
+	public static final String COMPRESSION_CACHE_SIZE_PROPERTY = "server.compression.cache.size";
+	
+	//number of threads compressing resources
+	public static final String COMPRESSION_THREADS_PROPERTY = "server.compression.threads";
+	
+	//time an idle keep-alive connection is kept open, in milliseconds
+	public static final String KEEPALIVE_TIMEOUT_PROPERTY = "server.keepalive.timeout";
+	
+	//maximum number of requests served on a keep-alive connection
+	public static final String KEEPALIVE_REQUESTS_PROPERTY = "server.keepalive.requests";
+	
+	//number of bytes a connection may write in one round of the write scheduler
+	public static final String WRITE_QUANTUM_PROPERTY = "server.write.quantum";
+	
+	//maximum number of bytes per second sent on one connection, 0 for no limit
+	public static final String BANDWIDTH_LIMIT_PROPERTY = "server.bandwidth.limit";
+	
+	//difference in active responses between two workers that moves idle connections
+	public static final String MIGRATION_THRESHOLD_PROPERTY = "server.workers.migration.threshold";
+	
+	//minimum size of a file response loaded ahead by the I/O threads, 0 to disable
+	public static final String READAHEAD_MIN_SIZE_PROPERTY = "server.readahead.min.size";
+	
+	//number of chunks loaded ahead for each response
+	public static final String READAHEAD_CHUNKS_PROPERTY = "server.readahead.chunks";
+	
+	//number of threads loading file chunks
+	public static final String READAHEAD_THREADS_PROPERTY = "server.readahead.threads";
+	
+	//number of request body temp files kept open for reuse
+	public static final String TEMPFILES_POOL_SIZE_PROPERTY = "server.tempfiles.pool.size";
+	
+	//length a pooled temp file keeps between two requests, in bytes
+	public static final String TEMPFILES_KEPT_SIZE_PROPERTY = "server.tempfiles.kept.size";
+	
+	//maximum number of request body bytes stored in temp files at a time, 0 for no limit
+	public static final String TEMPFILES_MAX_SPILL_PROPERTY = "server.tempfiles.max.spill";
+	
+	//file of the access log, the access log is disabled if missing
+	public static final String ACCESSLOG_FILE_PROPERTY = "server.accesslog.file";
+	
+	//layout of the access log lines, "common" or "combined"
+	public static final String ACCESSLOG_FORMAT_PROPERTY = "server.accesslog.format";
+	
+	//number of access log records each worker can buffer
+	public static final String ACCESSLOG_BUFFER_SIZE_PROPERTY = "server.accesslog.buffer.size";
+	
+	//size at which the access log file is rotated, in bytes
+	public static final String ACCESSLOG_MAX_FILE_SIZE_PROPERTY = "server.accesslog.max.file.size";
+	
+	//number of rotated access log files kept
+	public static final String ACCESSLOG_MAX_BACKUPS_PROPERTY = "server.accesslog.max.backups";
+	
+	//file receiving the captured client traffic, the capture is disabled if missing
+	public static final String CAPTURE_FILE_PROPERTY = "server.capture.file";
+	
+	//one connection out of this many is captured
+	public static final String CAPTURE_SAMPLE_INTERVAL_PROPERTY = "server.capture.sample.interval";
+	
+	//bytes of captured traffic each worker can buffer
+	public static final String CAPTURE_BUFFER_SIZE_PROPERTY = "server.capture.buffer.size";
+	
+	//size of the capture file at which the capture stops, in bytes
+	public static final String CAPTURE_MAX_FILE_SIZE_PROPERTY = "server.capture.max.file.size";
+	
+	//serve the server metrics on the /server-status path
+	public static final String STATUS_ENABLED_PROPERTY = "server.status.enabled";
+	
+	public static final int DEFAULT_METADATA_CACHE_TTL = 5000;
+	public static final int DEFAULT_METADATA_CACHE_ENTRIES = 10000;
+	public static final int DEFAULT_ETAG_CONTENT_HASH_MAX_SIZE = 1024 * 1024;
+	public static final int DEFAULT_COMPRESSION_MIN_SIZE = 1024;
+	public static final int DEFAULT_COMPRESSION_CACHE_SIZE = 32 * 1024 * 1024;
+	public static final int DEFAULT_COMPRESSION_THREADS = 2;
+	public static final int DEFAULT_KEEPALIVE_TIMEOUT = 15000;
+	public static final int DEFAULT_KEEPALIVE_REQUESTS = 100;
+	public static final int DEFAULT_WRITE_QUANTUM = 64 * 1024;
+	public static final int DEFAULT_MIGRATION_THRESHOLD = 4;
+	public static final int DEFAULT_READAHEAD_MIN_SIZE = 1024 * 1024;
+	public static final int DEFAULT_READAHEAD_CHUNKS = 4;
+	public static final int DEFAULT_READAHEAD_THREADS = 2;
+	public static final int DEFAULT_TEMPFILES_POOL_SIZE = 16;
+	public static final int DEFAULT_TEMPFILES_KEPT_SIZE = 1024 * 1024;
+	public static final int DEFAULT_TEMPFILES_MAX_SPILL = 512 * 1024 * 1024;
+	public static final String DEFAULT_ACCESSLOG_FORMAT = "combined";
+	public static final int DEFAULT_ACCESSLOG_BUFFER_SIZE = 8192;
+	public static final int DEFAULT_ACCESSLOG_MAX_FILE_SIZE = 10 * 1024 * 1024;
+	public static final int DEFAULT_ACCESSLOG_MAX_BACKUPS = 5;
+	public static final int DEFAULT_CAPTURE_SAMPLE_INTERVAL = 100;
+	public static final int DEFAULT_CAPTURE_BUFFER_SIZE = 1024 * 1024;
+	public static final int DEFAULT_CAPTURE_MAX_FILE_SIZE = 256 * 1024 * 1024;
+	
 	private Integer minWorkers;
 	private Integer maxWorkers;
 	private Integer portNumber;
 	private Integer clientsPerWorker;
 	private String docRoot;
 	private String tempFolder;
+	private int metadataCacheTTL;
+	private int metadataCacheEntries;
+	private boolean etagContentHash;
+	private int etagContentHashMaxSize;
+	private boolean precompressed;
+	private boolean compression;
+	private int compressionMinSize;
+	private int compressionCacheSize;
+	private int compressionThreads;
+	private int keepAliveTimeout;
+	private int keepAliveRequests;
+	private int writeQuantum;
+	private int bandwidthLimit;
+	private int migrationThreshold;
+	private int readAheadMinSize;
+	private int readAheadChunks;
+	private int readAheadThreads;
+	private int tempFilesPoolSize;
+	private int tempFilesKeptSize;
+	private int tempFilesMaxSpill;
+	private String accessLogFile;
+	private String accessLogFormat;
+	private int accessLogBufferSize;
+	private int accessLogMaxFileSize;
+	private int accessLogMaxBackups;
+	private String captureFile;
+	private int captureSampleInterval;
+	private int captureBufferSize;
+	private int captureMaxFileSize;
+	private boolean statusEnabled;
 	private Boolean configOk;
 	
 	private WebServerConfiguration() {
@@ -63,6 +207,41 @@ public enum WebServerConfiguration {
 		docRoot = serverConfigLoader.getProperty(DOCUMENT_ROOT_PROPERTY);
 		tempFolder = serverConfigLoader.getProperty(TEMP_FOLDER_PROPERTY);
 		
+		//optional settings
+		metadataCacheTTL = serverConfigLoader.getIntProperty(METADATA_CACHE_TTL_PROPERTY, DEFAULT_METADATA_CACHE_TTL);
+		metadataCacheEntries = serverConfigLoader.getIntProperty(METADATA_CACHE_ENTRIES_PROPERTY, DEFAULT_METADATA_CACHE_ENTRIES);
+		etagContentHash = serverConfigLoader.getBooleanProperty(ETAG_CONTENT_HASH_PROPERTY, false);
+		etagContentHashMaxSize = serverConfigLoader.getIntProperty(ETAG_CONTENT_HASH_MAX_SIZE_PROPERTY, DEFAULT_ETAG_CONTENT_HASH_MAX_SIZE);
+		precompressed = serverConfigLoader.getBooleanProperty(PRECOMPRESSED_PROPERTY, true);
+		compression = serverConfigLoader.getBooleanProperty(COMPRESSION_PROPERTY, true);
+		compressionMinSize = serverConfigLoader.getIntProperty(COMPRESSION_MIN_SIZE_PROPERTY, DEFAULT_COMPRESSION_MIN_SIZE);
+		compressionCacheSize = serverConfigLoader.getIntProperty(COMPRESSION_CACHE_SIZE_PROPERTY, DEFAULT_COMPRESSION_CACHE_SIZE);
+		compressionThreads = serverConfigLoader.getIntProperty(COMPRESSION_THREADS_PROPERTY, DEFAULT_COMPRESSION_THREADS);
+		keepAliveTimeout = serverConfigLoader.getIntProperty(KEEPALIVE_TIMEOUT_PROPERTY, DEFAULT_KEEPALIVE_TIMEOUT);
+		keepAliveRequests = serverConfigLoader.getIntProperty(KEEPALIVE_REQUESTS_PROPERTY, DEFAULT_KEEPALIVE_REQUESTS);
+		writeQuantum = serverConfigLoader.getIntProperty(WRITE_QUANTUM_PROPERTY, DEFAULT_WRITE_QUANTUM);
+		bandwidthLimit = serverConfigLoader.getIntProperty(BANDWIDTH_LIMIT_PROPERTY, 0);
+		migrationThreshold = serverConfigLoader.getIntProperty(MIGRATION_THRESHOLD_PROPERTY, DEFAULT_MIGRATION_THRESHOLD);
+		readAheadMinSize = serverConfigLoader.getIntProperty(READAHEAD_MIN_SIZE_PROPERTY, DEFAULT_READAHEAD_MIN_SIZE);
+		readAheadChunks = serverConfigLoader.getIntProperty(READAHEAD_CHUNKS_PROPERTY, DEFAULT_READAHEAD_CHUNKS);
+		readAheadThreads = serverConfigLoader.getIntProperty(READAHEAD_THREADS_PROPERTY, DEFAULT_READAHEAD_THREADS);
+		tempFilesPoolSize = serverConfigLoader.getIntProperty(TEMPFILES_POOL_SIZE_PROPERTY, DEFAULT_TEMPFILES_POOL_SIZE);
+		tempFilesKeptSize = serverConfigLoader.getIntProperty(TEMPFILES_KEPT_SIZE_PROPERTY, DEFAULT_TEMPFILES_KEPT_SIZE);
+		tempFilesMaxSpill = serverConfigLoader.getIntProperty(TEMPFILES_MAX_SPILL_PROPERTY, DEFAULT_TEMPFILES_MAX_SPILL);
+		accessLogFile = serverConfigLoader.getProperty(ACCESSLOG_FILE_PROPERTY);
+		accessLogFormat = serverConfigLoader.getProperty(ACCESSLOG_FORMAT_PROPERTY);
+		if( accessLogFormat == null ) {
+			accessLogFormat = DEFAULT_ACCESSLOG_FORMAT;
+		}
+		accessLogBufferSize = serverConfigLoader.getIntProperty(ACCESSLOG_BUFFER_SIZE_PROPERTY, DEFAULT_ACCESSLOG_BUFFER_SIZE);
+		accessLogMaxFileSize = serverConfigLoader.getIntProperty(ACCESSLOG_MAX_FILE_SIZE_PROPERTY, DEFAULT_ACCESSLOG_MAX_FILE_SIZE);
+		accessLogMaxBackups = serverConfigLoader.getIntProperty(ACCESSLOG_MAX_BACKUPS_PROPERTY, DEFAULT_ACCESSLOG_MAX_BACKUPS);
+		captureFile = serverConfigLoader.getProperty(CAPTURE_FILE_PROPERTY);
+		captureSampleInterval = serverConfigLoader.getIntProperty(CAPTURE_SAMPLE_INTERVAL_PROPERTY, DEFAULT_CAPTURE_SAMPLE_INTERVAL);
+		captureBufferSize = serverConfigLoader.getIntProperty(CAPTURE_BUFFER_SIZE_PROPERTY, DEFAULT_CAPTURE_BUFFER_SIZE);
+		captureMaxFileSize = serverConfigLoader.getIntProperty(CAPTURE_MAX_FILE_SIZE_PROPERTY, DEFAULT_CAPTURE_MAX_FILE_SIZE);
+		statusEnabled = serverConfigLoader.getBooleanProperty(STATUS_ENABLED_PROPERTY, false);
+		
 		if (portNumber == null || minWorkers == null || maxWorkers == null
 				|| clientsPerWorker == null || docRoot == null || tempFolder == null) {
 			logger.error("Error loading " + WEB_SERVER_CONFIG_FILE + "!");
@@ -104,4 +283,130 @@ public enum WebServerConfiguration {
 	public String getTempFolder() {
 		return tempFolder;
 	}
+	
+	public int getMetadataCacheTTL() {
+		return metadataCacheTTL;
+	}
+	
+	public int getMetadataCacheEntries() {
+		return metadataCacheEntries;
+	}
+	
+	public boolean isETagContentHash() {
+		return etagContentHash;
+	}
+	
+	public int getETagContentHashMaxSize() {
+		return etagContentHashMaxSize;
+	}
+	
+	public boolean isPrecompressed() {
+		return precompressed;
+	}
+	
+	public boolean isCompression() {
+		return compression;
+	}
+	
+	public int getCompressionMinSize() {
+		return compressionMinSize;
+	}
+	
+	public int getCompressionCacheSize() {
+		return compressionCacheSize;
+	}
+	
+	public int getCompressionThreads() {
+		return compressionThreads;
+	}
+	
+	public int getKeepAliveTimeout() {
+		return keepAliveTimeout;
+	}
+	
+	public int getKeepAliveRequests() {
+		return keepAliveRequests;
+	}
+	
+	public int getWriteQuantum() {
+		return writeQuantum;
+	}
+	
+	public int getBandwidthLimit() {
+		return bandwidthLimit;
+	}
+	
+	public int getMigrationThreshold() {
+		return migrationThreshold;
+	}
+	
+	public int getReadAheadMinSize() {
+		return readAheadMinSize;
+	}
+	
+	public int getReadAheadChunks() {
+		return readAheadChunks;
+	}
+	
+	public int getReadAheadThreads() {
+		return readAheadThreads;
+	}
+	
+	public int getTempFilesPoolSize() {
+		return tempFilesPoolSize;
+	}
+	
+	public int getTempFilesKeptSize() {
+		return tempFilesKeptSize;
+	}
+	
+	public int getTempFilesMaxSpill() {
+		return tempFilesMaxSpill;
+	}
+	
+	/**
+	 * @return path of the access log file, null if the access log is disabled
+	 */
+	public String getAccessLogFile() {
+		return accessLogFile;
+	}
+	
+	public String getAccessLogFormat() {
+		return accessLogFormat;
+	}
+	
+	public int getAccessLogBufferSize() {
+		return accessLogBufferSize;
+	}
+	
+	public int getAccessLogMaxFileSize() {
+		return accessLogMaxFileSize;
+	}
+	
+	public int getAccessLogMaxBackups() {
+		return accessLogMaxBackups;
+	}
+	
+	/**
+	 * @return path of the traffic capture file, null if the capture is disabled
+	 */
+	public String getCaptureFile() {
+		return captureFile;
+	}
+	
+	public int getCaptureSampleInterval() {
+		return captureSampleInterval;
+	}
+	
+	public int getCaptureBufferSize() {
+		return captureBufferSize;
+	}
+	
+	public int getCaptureMaxFileSize() {
+		return captureMaxFileSize;
+	}
+	
+	public boolean isStatusEnabled() {
+		return statusEnabled;
+	}
 }
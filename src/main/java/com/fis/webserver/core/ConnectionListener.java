@@ -11,6 +11,9 @@ import java.util.Iterator;
 import org.apache.log4j.Logger;
 
 import com.fis.webserver.config.WebServerConfiguration;
+import com.fis.webserver.events.ConnectionAcceptedEvent;
+import com.fis.webserver.metrics.LoopMetrics;
+import com.fis.webserver.metrics.MetricsRegistry;
 
 /**
  * Abstract connection listener class based on Java NIO framework
@@ -26,6 +29,9 @@ import com.fis.webserver.config.WebServerConfiguration;
 public abstract class ConnectionListener extends Thread {
 	public static final Logger logger = Logger.getLogger(ConnectionListener.class);
 	
+	//interval between two maintenance() calls, in milliseconds
+	public static final long MAINTENANCE_INTERVAL = 1000;
+	
 	//the port where the connections are expected
 	private int port;
 	
@@ -38,10 +44,18 @@ public abstract class ConnectionListener extends Thread {
 	//flag indicating if the connection listener is initialized and listening for connections
 	private boolean initialized;
 	
+	//time of the last maintenance() call
+	private long lastMaintenance;
+	
+	//metrics of the selector loop
+	private LoopMetrics loopMetrics;
+	
 	public ConnectionListener(  ) {
 		this.port = WebServerConfiguration.INSTANCE.getPortNumber();
 		
 		this.initialized = false;
+		
+		this.loopMetrics = MetricsRegistry.getListenerLoop();
 	}
 	
 	public void run() {
@@ -54,11 +68,21 @@ public abstract class ConnectionListener extends Thread {
 			try {
 				logger.debug("Waiting for a new connection...");
 				
-				//wait for an event on the selector
-				serverSelector.select();
+				//wait for an event on the selector, or for the next maintenance
+				long selectStart = System.nanoTime();
+				int readyKeys = serverSelector.select(MAINTENANCE_INTERVAL);
+				long processingStart = System.nanoTime();
+				
+				long now = System.currentTimeMillis();
+				if( now - lastMaintenance >= MAINTENANCE_INTERVAL ) {
+					lastMaintenance = now;
+					maintenance();
+				}
 				
 				//iterate over the selected keys
-				logger.debug("Found incoming " + serverSelector.selectedKeys().size() + " new clients!");
+				if( logger.isDebugEnabled() ) {
+					logger.debug("Found incoming " + serverSelector.selectedKeys().size() + " new clients!");
+				}
 				Iterator<SelectionKey> selectedKeysIterator = serverSelector.selectedKeys().iterator();
 				while(selectedKeysIterator.hasNext()) {
 					
@@ -68,10 +92,21 @@ public abstract class ConnectionListener extends Thread {
 					selectedKeysIterator.remove();
 					
 					if( key.isValid() && key.isAcceptable() ) {
+						ConnectionAcceptedEvent acceptedEvent = new ConnectionAcceptedEvent();
+						acceptedEvent.begin();
+						
 						SocketChannel newClientSocketChannel = serverSocketChannel.accept();
+						if( acceptedEvent.isEnabled() && newClientSocketChannel != null ) {
+							acceptedEvent.setRemoteAddress(String.valueOf(newClientSocketChannel.socket().getRemoteSocketAddress()));
+						}
 						acceptConnection(newClientSocketChannel);
+						
+						acceptedEvent.commit();
 					}
 				}
+				
+				loopMetrics.recordIteration(processingStart - selectStart, readyKeys,
+						System.nanoTime() - processingStart);
 			}
 			catch(Exception e) {
 				logger.error("Error while waiting for new connection!", e);
@@ -122,4 +157,11 @@ public abstract class ConnectionListener extends Thread {
 	 * @param key
 	 */
 	public abstract void acceptConnection(SocketChannel channel);
+	
+	/**
+	 * Invoked periodically, about every MAINTENANCE_INTERVAL milliseconds, on
+	 * the listener thread. Does nothing by default
+	 */
+	public void maintenance() {
+	}
 }
@@ -3,6 +3,8 @@ package com.fis.webserver.core;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
+import com.fis.webserver.metrics.WorkerMetrics;
+
 /**
  * Public interface describing the worker thread capabilities
  * 
@@ -44,6 +46,36 @@ public interface WebWorker extends Runnable, Comparable<WebWorker> {
 	 */
 	public int getFreeSlots();
 	
+	/**
+	 * Live load metric of the worker, used to balance the connections between
+	 * the workers
+	 * 
+	 * @return number of responses the worker is currently sending
+	 */
+	public int getActiveResponses();
+	
+	/**
+	 * @return number of new clients waiting to be registered by the worker
+	 */
+	public int getQueuedClients();
+	
+	/**
+	 * Asks the worker to hand some of its idle keep-alive connections over to
+	 * another worker. The connections are moved asynchronously, by the thread
+	 * of this worker
+	 * 
+	 * @param target
+	 *            lightly loaded worker receiving the connections
+	 * @param maxConnections
+	 *            maximum number of connections to move
+	 */
+	public void migrateIdleConnections(WebWorker target, int maxConnections);
+	
+	/**
+	 * @return counters and latency histograms of the worker
+	 */
+	public WorkerMetrics getMetrics();
+	
 	/**
 	 * Signals the worker to terminate processing and shut down
 	 * 
@@ -0,0 +1,220 @@
+package com.fis.webserver.core.impl;
+
+import java.nio.channels.SocketChannel;
+
+import com.fis.webserver.http.HttpRequestParser;
+import com.fis.webserver.http.IncrementalResponseWriter;
+import com.fis.webserver.model.http.HttpRequest;
+import com.fis.webserver.model.http.HttpResponse;
+
+/**
+ * State of a client connection handled by a HttpWebWorker
+ * 
+ * The connection is attached to the SelectionKey of the client channel, so the
+ * worker finds it without a map lookup. It owns the parser (and through it the
+ * request), the response and the response writer, which are reused for all
+ * the requests of a keep-alive connection. When the connection is closed, the
+ * object is reset and kept by the worker for the next client.
+ * 
+ * A connection is only used by the thread of its worker. An idle connection
+ * can be handed over to another worker, together with its channel.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class HttpConnection {
+	
+	//channel of the client
+	private SocketChannel channel;
+	
+	//parser of the incoming requests, it owns the HttpRequest object
+	private HttpRequestParser parser;
+	
+	//response of the current request
+	private HttpResponse response;
+	
+	//writer sending the response to the client
+	private IncrementalResponseWriter writer;
+	
+	//flag indicating that a response is being sent, no request is read meanwhile
+	private boolean writing;
+	
+	//number of requests served on this connection
+	private int requestCount;
+	
+	//time of the last read or completed write, used to close idle connections
+	private long lastActivity;
+	
+	//bytes the connection may still write in the current scheduler round
+	private long writeDeficit;
+	
+	//bandwidth tokens available and the time they were last refilled
+	private long bandwidthTokens;
+	private long tokensRefillTime;
+	
+	//time until which writing is suspended by the bandwidth limit
+	private long throttledUntil;
+	
+	//System.nanoTime() when the first byte of the request was parsed and when
+	//its response was queued, 0 if not reached yet
+	private long requestStartTime;
+	private long responseStartTime;
+	
+	//id of the connection in the traffic capture, 0 if it is not captured
+	private long captureId;
+	
+	public HttpConnection() {
+		parser = new HttpRequestParser();
+		response = new HttpResponse();
+		writer = new IncrementalResponseWriter();
+	}
+	
+	/**
+	 * Prepares the connection for the next request received on the same
+	 * client channel
+	 */
+	public void nextRequest() {
+		parser.reset();
+		response.reset();
+		
+		writing = false;
+		requestCount++;
+		
+		requestStartTime = 0;
+		responseStartTime = 0;
+	}
+	
+	/**
+	 * Clears the state of a closed connection, so the object can be reused for
+	 * another client. The buffered data of the previous client is dropped
+	 */
+	public void reset() {
+		channel = null;
+		
+		parser.clear();
+		response.reset();
+		
+		writing = false;
+		requestCount = 0;
+		lastActivity = 0;
+		
+		writeDeficit = 0;
+		bandwidthTokens = 0;
+		tokensRefillTime = 0;
+		throttledUntil = 0;
+		
+		requestStartTime = 0;
+		responseStartTime = 0;
+		
+		captureId = 0;
+	}
+	
+	/**
+	 * @return true if the connection is between two requests: no response is
+	 *         being sent and no part of the next request was received
+	 */
+	public boolean isIdle() {
+		return !writing && parser.isIdle();
+	}
+	
+	public SocketChannel getChannel() {
+		return channel;
+	}
+	
+	public void setChannel(SocketChannel channel) {
+		this.channel = channel;
+	}
+	
+	public HttpRequestParser getParser() {
+		return parser;
+	}
+	
+	public HttpRequest getRequest() {
+		return parser.getRequest();
+	}
+	
+	public HttpResponse getResponse() {
+		return response;
+	}
+	
+	public IncrementalResponseWriter getWriter() {
+		return writer;
+	}
+	
+	public boolean isWriting() {
+		return writing;
+	}
+	
+	public void setWriting(boolean writing) {
+		this.writing = writing;
+	}
+	
+	public int getRequestCount() {
+		return requestCount;
+	}
+	
+	public long getLastActivity() {
+		return lastActivity;
+	}
+	
+	public void setLastActivity(long lastActivity) {
+		this.lastActivity = lastActivity;
+	}
+	
+	public long getWriteDeficit() {
+		return writeDeficit;
+	}
+	
+	public void setWriteDeficit(long writeDeficit) {
+		this.writeDeficit = writeDeficit;
+	}
+	
+	public long getBandwidthTokens() {
+		return bandwidthTokens;
+	}
+	
+	public void setBandwidthTokens(long bandwidthTokens) {
+		this.bandwidthTokens = bandwidthTokens;
+	}
+	
+	public long getTokensRefillTime() {
+		return tokensRefillTime;
+	}
+	
+	public void setTokensRefillTime(long tokensRefillTime) {
+		this.tokensRefillTime = tokensRefillTime;
+	}
+	
+	public long getThrottledUntil() {
+		return throttledUntil;
+	}
+	
+	public void setThrottledUntil(long throttledUntil) {
+		this.throttledUntil = throttledUntil;
+	}
+	
+	public long getRequestStartTime() {
+		return requestStartTime;
+	}
+	
+	public void setRequestStartTime(long requestStartTime) {
+		this.requestStartTime = requestStartTime;
+	}
+	
+	public long getResponseStartTime() {
+		return responseStartTime;
+	}
+	
+	public void setResponseStartTime(long responseStartTime) {
+		this.responseStartTime = responseStartTime;
+	}
+	
+	public long getCaptureId() {
+		return captureId;
+	}
+	
+	public void setCaptureId(long captureId) {
+		this.captureId = captureId;
+	}
+}
@@ -2,27 +2,40 @@ package com.fis.webserver.core.impl;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
-import java.util.HashMap;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
+import com.fis.webserver.accesslog.AccessLog;
+import com.fis.webserver.accesslog.AccessLogBuffer;
+import com.fis.webserver.capture.CaptureBuffer;
+import com.fis.webserver.capture.TrafficCapture;
 import com.fis.webserver.config.WebServerConfiguration;
 import com.fis.webserver.core.WebWorker;
 import com.fis.webserver.http.HttpRequestHandler;
 import com.fis.webserver.http.HttpRequestHandlerFinder;
 import com.fis.webserver.http.HttpRequestParser;
 import com.fis.webserver.http.IncrementalResponseWriter;
+import com.fis.webserver.http.ResponseCompressor;
 import com.fis.webserver.http.exceptions.RequestException;
+import com.fis.webserver.metrics.WorkerMetrics;
 import com.fis.webserver.model.http.HttpRequest;
 import com.fis.webserver.model.http.HttpResponse;
+import com.fis.webserver.model.http.body.AsyncResponseBody;
+import com.fis.webserver.model.http.body.ResponseBody;
 
 /**
  * WebWorker implementation
@@ -36,19 +49,31 @@ import com.fis.webserver.model.http.HttpResponse;
  * After the new client is picked up from the queue, its SocketChannel will be
  * registered with the selector of this worker.
  * 
- * To take into account that data will be read into chunks from the client
- * SocketChannels, there will be a HttpRequestParser object for each handled
- * client connection that will take care of incrementally parsing the incoming
- * data, trying to identify a valid HttpRequest.
+ * Each client connection has a HttpConnection object attached to its
+ * SelectionKey. It holds the HttpRequestParser that incrementally parses the
+ * incoming data, trying to identify a valid HttpRequest, and the
+ * IncrementalResponseWriter that sends the response to the client in chunks.
+ * These objects, together with the request and response, are reused for all
+ * the requests of the connection; the HttpConnection objects of the closed
+ * connections are kept in a pool for the next clients.
  * 
- * Also, after a valid HttpRequest has been parsed from a client connection and
- * a response compiled, the response will be send to the client in chunks. There
- * will be an IncrementalResponseWriter for each client, that will take care of
- * incrementally sending the response to the client.
+ * Connections are kept alive between requests, unless the client asks
+ * otherwise, the request could not be parsed, or the connection served the
+ * configured maximum number of requests. Pipelined requests are answered in
+ * order, one response at a time. Connections that stay idle longer than the
+ * keep-alive timeout are closed.
  * 
- * Currently Keep-Alive is not supported. The connection is terminated after the
- * accept - read request - write response cycle.
+ * Responses are not written as soon as their channel is writable: the
+ * writable connections of a select round are handed to a WriteScheduler,
+ * which shares the worker between them and lets the small responses go first.
+ * Large files are read ahead by I/O threads; while a response waits for the
+ * disk, its channel is not watched for writing, the I/O thread hands the key
+ * back to the worker when the data is loaded.
  * 
+ * The WorkerManager can ask a busy worker to move some of its idle keep-alive
+ * connections to a less loaded worker. The connections are detached from the
+ * selector of this worker, with their HttpConnection state, and adopted by the
+ * other worker; the client doesn't notice the move.
  * 
  * @author Florin Iordache
  * 
@@ -57,8 +82,20 @@ import com.fis.webserver.model.http.HttpResponse;
 public class HttpWebWorker implements WebWorker {
 	public static final Logger logger = Logger.getLogger(HttpWebWorker.class);
 	
-	//number of available client slots
-	private int freeClientSlots;
+	//maximum time spent in select, so idle connections are checked regularly
+	public static final long SELECT_TIMEOUT = 1000;
+	
+	private static final ByteBuffer NO_DATA = ByteBuffer.allocate(0);
+	
+	//interim response sent to the clients waiting before sending a request body
+	private static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(Charset.forName("ISO-8859-1"));
+	
+	// number of available client slots, reserved by the acceptor and the
+	// other workers, released by this worker
+	private AtomicInteger freeClientSlots;
+	
+	//maximum number of clients, also the maximum size of the connection pool
+	private int maxClients;
 	
 	//internal selector this worker is monitoring
 	private Selector socketSelector;
@@ -66,27 +103,67 @@ public class HttpWebWorker implements WebWorker {
 	// queue containing the new SocketChannels that need to be listened by this
 	// worker
 	private BlockingQueue<SocketChannel> newClientsQueue;
+	
+	//keys of the responses whose data was loaded by the read-ahead threads
+	private ConcurrentLinkedQueue<SelectionKey> dataReadyKeys;
+	
+	//connections moved to this worker from other workers
+	private ConcurrentLinkedQueue<HttpConnection> adoptedConnections;
+	
+	//number of responses being sent, read by the WorkerManager
+	private volatile int activeResponses;
+	
+	//pending request to move idle connections to another worker
+	private volatile WebWorker migrationTarget;
+	private volatile int migrationCount;
 		
-	//map with the pending responses that need to be sent back to the clients
-	private HashMap<SelectionKey, IncrementalResponseWriter> pendingResponses;
+	//state objects of the closed connections, ready to be reused
+	private ArrayDeque<HttpConnection> connectionPool;
+	
+	//idle time after which a keep-alive connection is closed, 0 disables keep-alive
+	private long keepAliveTimeout;
 	
-	//map with the request reads that are in progress
-	private HashMap<SelectionKey, HttpRequestParser> pendingReads;
+	//maximum number of requests served on a connection
+	private int keepAliveRequests;
+	
+	//time of the last check for idle connections
+	private long lastIdleCheck;
+	
+	//shares the writes of a select round between the connections
+	private WriteScheduler writeScheduler;
 	
 	//buffer used to read and write data
 	private ByteBuffer dataBuffer;
 	
-	//flag indicating that this worker should shut down
-	private boolean shutDown;
+	//counters and latencies, written only by the thread of this worker
+	private WorkerMetrics metrics;
+	
+	//records of the answered requests, null if the access log is disabled
+	private AccessLogBuffer accessLog;
+	
+	//traffic of the sampled connections, null if the capture is disabled
+	private CaptureBuffer capture;
+	
+	//flag indicating that this worker should shut down, set by another thread
+	private volatile boolean shutDown;
 	
 	public HttpWebWorker(int maxClients ) {
-		this.freeClientSlots = maxClients;
+		this.freeClientSlots = new AtomicInteger(maxClients);
+		this.maxClients = maxClients;
 		
 		newClientsQueue = new ArrayBlockingQueue<SocketChannel>(maxClients);
 		
-		pendingResponses = new HashMap<SelectionKey, IncrementalResponseWriter>();
+		adoptedConnections = new ConcurrentLinkedQueue<HttpConnection>();
+		
+		dataReadyKeys = new ConcurrentLinkedQueue<SelectionKey>();
+		
+		connectionPool = new ArrayDeque<HttpConnection>(maxClients);
+		
+		keepAliveTimeout = WebServerConfiguration.INSTANCE.getKeepAliveTimeout();
+		keepAliveRequests = WebServerConfiguration.INSTANCE.getKeepAliveRequests();
 		
-		pendingReads = new HashMap<SelectionKey, HttpRequestParser>();
+		writeScheduler = new WriteScheduler(WebServerConfiguration.INSTANCE.getWriteQuantum(),
+				WebServerConfiguration.INSTANCE.getBandwidthLimit());
 		
 		try {
 			// Create a new selector
@@ -100,6 +177,10 @@ public class HttpWebWorker implements WebWorker {
 		//allocating the max request line byte size
 		dataBuffer = ByteBuffer.allocate(WebServerConfiguration.MAX_REQUEST_LINE_SIZE);
 		
+		metrics = new WorkerMetrics(this, maxClients);
+		accessLog = AccessLog.newBuffer();
+		capture = TrafficCapture.newBuffer();
+		
 		shutDown = false;
 	}
 	
@@ -112,12 +193,23 @@ public class HttpWebWorker implements WebWorker {
 				logger.trace("Waiting to read or write data from the clients...");
 				
 				//wait for at least one incoming connection
-				socketSelector.select();
+				long selectStart = System.nanoTime();
+				int readyKeys = socketSelector.select(writeScheduler.getSelectTimeout(SELECT_TIMEOUT, System.currentTimeMillis()));
+				long processingStart = System.nanoTime();
 				
 				//check for the shutdown flag
 				if(shutDown) {
 					//terminate the worker
 					logger.trace("Terminating WebWorker!");
+					if( accessLog != null ) {
+						accessLog.close();
+					}
+					if( capture != null ) {
+						capture.close();
+					}
+					
+					//nobody else will register the clients handed to this worker
+					closePendingClients();
 					break;
 				}
 				
@@ -125,12 +217,50 @@ public class HttpWebWorker implements WebWorker {
 				SocketChannel newChannel = null;
 				
 				//check the queue for new clients, and register them all with the internal selector
+				int queuedClients = 0;
 				while ((newChannel = newClientsQueue.poll(1,TimeUnit.MILLISECONDS)) != null) {
+					queuedClients++;
+					
 					// configure the channel for non-blocking mode
 					newChannel.configureBlocking(false);
-					// register this socket channel for the read operation
-					newChannel.register(socketSelector, SelectionKey.OP_READ);
+					// register this socket channel for the read operation,
+					// together with the state of the connection
+					HttpConnection connection = acquireConnection();
+					connection.setChannel(newChannel);
+					connection.setLastActivity(System.currentTimeMillis());
+					newChannel.register(socketSelector, SelectionKey.OP_READ, connection);
+					
+					if( capture != null ) {
+						connection.setCaptureId(capture.open());
+					}
+					
+					metrics.increment(WorkerMetrics.CONNECTIONS_ACCEPTED);
 				}
+				if( queuedClients > 0 ) {
+					metrics.getLoop().recordQueuedClients(queuedClients);
+				}
+				
+				//register the connections moved from other workers, they keep their state
+				HttpConnection adoptedConnection = null;
+				while( (adoptedConnection = adoptedConnections.poll()) != null ) {
+					try {
+						adoptedConnection.getChannel().register(socketSelector, SelectionKey.OP_READ, adoptedConnection);
+					}
+					catch(ClosedChannelException e) {
+						//closed by the client while it was moved
+						releaseConnection(adoptedConnection);
+						freeClientSlots.incrementAndGet();
+					}
+				}
+				
+				//move idle connections to another worker, if the manager asked for it
+				moveIdleConnections();
+				
+				//connections that waited for bandwidth can write again
+				writeScheduler.resumeThrottled(System.currentTimeMillis());
+				
+				//connections that waited for the disk can write again
+				resumeDataReady();
 				
 				//iterate over the available selection keys
 				Iterator<SelectionKey> selectedKeysIterator = socketSelector.selectedKeys().iterator(); 
@@ -153,12 +283,17 @@ public class HttpWebWorker implements WebWorker {
 						
 					}
 					else if( selectionKey.isWritable() ) {
-						logger.trace("Writing response to socket");
-						
-						writeResponse(selectionKey);
+						//written after all the keys are known, in scheduler order
+						writeScheduler.add(selectionKey);
 					}
 				}
 				
+				writeResponses();
+				
+				closeIdleConnections();
+				
+				metrics.getLoop().recordIteration(processingStart - selectStart, readyKeys,
+						System.nanoTime() - processingStart);
 			}
 			catch(Exception e) {
 				logger.error("Error while waiting for new connection!", e);
@@ -171,17 +306,21 @@ public class HttpWebWorker implements WebWorker {
 		logger.trace("Trying to push new client in the internal worker queue...");
 		// accept the client for handling only if there are still more client
 		// slots available
-		if( freeClientSlots > 1 ) {
+		if( reserveClientSlot() ) {
 			
 			//see if we can insert new client in the queue
 			if(newClientsQueue.offer(socketChannel)) {
 				socketSelector.wakeup();
-				freeClientSlots --;
+				metrics.getLoop().countWakeup();
 				return true;
 			}
 			else {
+				freeClientSlots.incrementAndGet();
+				
 				//queue is full
-				logger.trace("WebWorker incoming client queue is full! queue size=" + newClientsQueue.size());
+				if( logger.isTraceEnabled() ) {
+					logger.trace("WebWorker incoming client queue is full! queue size=" + newClientsQueue.size());
+				}
 			}
 		}
 		
@@ -189,6 +328,25 @@ public class HttpWebWorker implements WebWorker {
 		return false;
 	}
 	
+	/**
+	 * Takes one of the free client slots, always leaving one free. Called by
+	 * the acceptor and by the other workers
+	 * 
+	 * @return true if a slot was reserved
+	 */
+	private boolean reserveClientSlot() {
+		while( true ) {
+			int freeSlots = freeClientSlots.get();
+			if( freeSlots <= 1 ) {
+				return false;
+			}
+			
+			if( freeClientSlots.compareAndSet(freeSlots, freeSlots - 1) ) {
+				return true;
+			}
+		}
+	}
+	
 	/**
 	 * Handles the data reading operation from the socket channel associated
 	 * with this key
@@ -198,39 +356,140 @@ public class HttpWebWorker implements WebWorker {
 	 *            available for reading
 	 */
 	private void readRequest(SelectionKey key) {
+		HttpConnection connection = (HttpConnection) key.attachment();
+		HttpRequestParser parser = connection.getParser();
+		
+		//a large request body goes from the socket straight to its temp file
+		if( parser.canTransferBody() && transferRequestBody(key, connection) ) {
+			return;
+		}
 		
 		//try to read data from the channel
-		int bytesRead = channelReadData(key);
+		int bytesRead = channelReadData(key, parser.getFreeSpace());
 
 		// if we were able to read somthing, try to continue with request
 		// parsing
 		if( bytesRead > 0 ) {
+			metrics.add(WorkerMetrics.BYTES_RECEIVED, bytesRead);
+			connection.setLastActivity(System.currentTimeMillis());
 
 			//continue with the request parsing
 			dataBuffer.flip();
 			
-			//see if we have a pending read
-			HttpRequestParser parserWorkState = pendingReads.get(key);
-			//if we don't, create a new one
-			if( parserWorkState == null ) {
-				parserWorkState = new HttpRequestParser();
-				
-				pendingReads.put(key, parserWorkState);
+			if( connection.getCaptureId() != 0
+					&& (capture == null || !capture.data(connection.getCaptureId(), dataBuffer.array(), bytesRead)) ) {
+				//the rest of the stream can't be captured, leave the connection out
+				connection.setCaptureId(0);
 			}
 			
-			//copy the read buffer to the work state to process the new data			
-			boolean parsingFinished = parserWorkState.newData(dataBuffer);
+			//copy the read buffer to the parser to process the new data			
+			parseRequest(key, connection, dataBuffer);
+		}
+	}
+	
+	/**
+	 * Transfers the request body from the client channel directly to the
+	 * temporary file of the body
+	 * 
+	 * @param key
+	 *            SelectionKey of the client channel
+	 * @param connection
+	 *            HttpConnection attached to the key
+	 * @return false if nothing was transferred, the channel must then be read
+	 *         normally to detect whether it was closed
+	 */
+	private boolean transferRequestBody(SelectionKey key, HttpConnection connection) {
+		HttpRequestParser parser = connection.getParser();
+		
+		long transferred;
+		try {
+			transferred = parser.transferBody((SocketChannel) key.channel());
+		}
+		catch(IOException e) {
+			closeChannel(key);
 			
-			if( parsingFinished ) {
-				//parsing is finished, must respond to the request
-				HttpRequest request = parserWorkState.getHttpRequest();
-				
-				//remove this work state from the map
-				pendingReads.remove(key);
-				
-				//respond to this request
-				respond(key, request, parserWorkState.getException());
-			}
+			logger.debug("Unable to transfer the request body!", e);
+			return true;
+		}
+		
+		if( transferred <= 0 ) {
+			return false;
+		}
+		
+		metrics.add(WorkerMetrics.BYTES_RECEIVED, transferred);
+		connection.setLastActivity(System.currentTimeMillis());
+		
+		if( connection.getCaptureId() != 0
+				&& (capture == null || !capture.skipped(connection.getCaptureId(), transferred)) ) {
+			connection.setCaptureId(0);
+		}
+		
+		if( parser.getHttpRequest() != null ) {
+			//the whole body was received
+			respond(key, connection, parser.getException());
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Passes data to the parser of a connection and responds to the request,
+	 * if it was completely parsed
+	 * 
+	 * @param key
+	 *            SelectionKey of the client channel
+	 * @param connection
+	 *            HttpConnection attached to the key
+	 * @param data
+	 *            newly received data, may be empty if only the data already
+	 *            buffered by the parser must be processed
+	 */
+	private void parseRequest(SelectionKey key, HttpConnection connection, ByteBuffer data) {
+		HttpRequestParser parser = connection.getParser();
+		
+		//the parse phase starts with the first byte of the request
+		if( connection.getRequestStartTime() == 0 ) {
+			connection.setRequestStartTime(System.nanoTime());
+		}
+		
+		boolean parsingFinished = parser.newData(data);
+		
+		if( parsingFinished ) {
+			//parsing is finished, must respond to the request
+			respond(key, connection, parser.getException());
+		}
+		else if( parser.isContinueExpected() ) {
+			//the headers were accepted, let the client send the body
+			parser.continueSent();
+			sendContinue(key);
+		}
+	}
+	
+	/**
+	 * Sends the 100 Continue interim response. Rejected requests get their
+	 * final response instead, so the client never sends their body
+	 * 
+	 * @param key
+	 *            SelectionKey of the client channel
+	 */
+	private void sendContinue(SelectionKey key) {
+		ByteBuffer continueResponse = ByteBuffer.wrap(CONTINUE_RESPONSE);
+		
+		//no response is being sent on the connection, the socket buffer is empty
+		try {
+			((SocketChannel) key.channel()).write(continueResponse);
+		}
+		catch(IOException e) {
+			closeChannel(key);
+			
+			logger.debug("Unable to send 100 Continue!", e);
+			return;
+		}
+		
+		if( continueResponse.hasRemaining() ) {
+			closeChannel(key);
+			
+			logger.debug("Could not send 100 Continue at once, closing connection!");
 		}
 	}
 
@@ -240,14 +499,18 @@ public class HttpWebWorker implements WebWorker {
 	 * Method will use the WebWorker's internal dataBuffer to read incoming bytes
 	 * 
 	 * @param key - SelectionKey of the channel we want to read from
+	 * @param maxBytes - maximum number of bytes to read
 	 * @return - number of bytes actually read, or -1 if the channel was closed
 	 */
-	private int channelReadData(SelectionKey key) {
+	private int channelReadData(SelectionKey key, int maxBytes) {
 		//get the associated socket channel
 		SocketChannel socketChannel = (SocketChannel) key.channel();
 		
 		//clear the buffer
 		dataBuffer.clear();
+		if( maxBytes < dataBuffer.capacity() ) {
+			dataBuffer.limit(maxBytes);
+		}
 		
 		//attempt to read from the socket
 		int bytesRead = -1;
@@ -284,68 +547,117 @@ public class HttpWebWorker implements WebWorker {
 	 * 
 	 * @param key
 	 *            SelectionKey indicating the incoming connection
-	 * @param request
-	 *            HttpRequest object
+	 * @param connection
+	 *            HttpConnection holding the parsed request
 	 * @param exception
 	 *            RequestException object, resulted from the parsing operation
 	 * 
 	 */
-	private void respond(SelectionKey key, HttpRequest request, RequestException exception) {
+	private void respond(SelectionKey key, HttpConnection connection, RequestException exception) {
+		
+		HttpRequest request = connection.getRequest();
+		HttpResponse response = connection.getResponse();
+		
+		long handleStart = System.nanoTime();
+		metrics.recordLatency(WorkerMetrics.PHASE_PARSE, handleStart - connection.getRequestStartTime());
+		metrics.increment(WorkerMetrics.REQUESTS);
 		
 		HttpRequestHandler handler = null;
 		
 		//get an apropriate handler
 		if( exception != null ) {
+			metrics.increment(WorkerMetrics.REQUEST_ERRORS);
+			
 			//there was an error parsing the request
 			//get the error handler
 			handler = HttpRequestHandlerFinder.getErrorHandler(exception);
 		}
 		else {
-			//get a handler capable to solve the request
-			handler = HttpRequestHandlerFinder.lookupRequestHandler(request.getMethod());			
+			//get a handler capable to solve the request, based on its path and method
+			handler = HttpRequestHandlerFinder.lookupRequestHandler(request);
 		}
 
 		//build the response		
 		//delegate the handling of the request to the handler
-		HttpResponse response = handler.handle(request);
+		handler.handle(request, response);
+		
+		//output stages
+		ResponseCompressor.compress(request, response);
+		
+		long responseStart = System.nanoTime();
+		metrics.recordLatency(WorkerMetrics.PHASE_HANDLE, responseStart - handleStart);
+		metrics.countResponse(response.getStatusCode());
+		connection.setResponseStartTime(responseStart);
+		
+		// a body of unknown length can only be chunked for HTTP/1.1 clients,
+		// an HTTP/1.0 client reads it until the connection is closed
+		response.setChunkedCodingAllowed(request != null && request.isChunkedCodingSupported());
+		
+		// keep the connection open if the client wants it; after a parsing
+		// error the rest of the data can't be trusted
+		response.setKeepAlive(exception == null && keepAliveTimeout > 0
+				&& !shutDown && request.isKeepAlive()
+				&& connection.getRequestCount() + 1 < keepAliveRequests
+				&& !response.isDelimitedByClose());
 		
 		//queue the response to be sent back to client
-		queueResponse(key, response);
+		queueResponse(key, connection);
 	}
 	
 	/**
-	 * Queues the HttpResponse in the pendingResponses map to be sent back to the client.
-	 * The key's interestOps will be switched to OP_WRITE and the SelectionKey is removed from the pendingReads map
+	 * Prepares the writer of the connection to send the response back to the
+	 * client. The key's interestOps will be switched to OP_WRITE
 	 * 
 	 * @param key SelectionKey object
 	 * 
-	 * @param response HttpResponse that has to be queued for sending back to the client
+	 * @param connection HttpConnection holding the response that has to be sent
 	 */
-	private void queueResponse(SelectionKey key, HttpResponse response) {
-		//queue the response
-		//use an IncrementalResponseWriter to help with the serialization process
-		pendingResponses.put(key, new IncrementalResponseWriter(response));
+	private void queueResponse(SelectionKey key, HttpConnection connection) {
+		//use the IncrementalResponseWriter to help with the serialization process
+		connection.getWriter().reset(connection.getResponse(), connection.getRequest());
+		connection.setWriting(true);
+		activeResponses++;
 		
-		//remove the client from the pending reads map
-		pendingReads.remove(key);
+		//start loading a large file, or generating the body, before the first write
+		ResponseBody body = connection.getResponse().getBody();
+		if( body instanceof AsyncResponseBody ) {
+			((AsyncResponseBody) body).start(createDataReadyListener(key));
+		}
 		
-		//register the socket channel for read operation
+		//register the socket channel for the write operation
 		key.interestOps(SelectionKey.OP_WRITE);
-		
-		socketSelector.wakeup();
 	}
 	
 	/**
-	 * Sends the response to the socket channel associated with this key
+	 * Writes the responses of the connections that are writable in this round,
+	 * in the order decided by the write scheduler
+	 */
+	private void writeResponses() {
+		List<SelectionKey> writableKeys = writeScheduler.beginRound();
+		for( int i = 0 ; i < writableKeys.size() ; i++ ) {
+			SelectionKey key = writableKeys.get(i);
+			
+			//the key may have been closed by an earlier write of this round
+			if( key.isValid() ) {
+				logger.trace("Writing response to socket");
+				
+				writeResponse(key);
+			}
+		}
+		writeScheduler.endRound();
+	}
+	
+	/**
+	 * Sends the response to the socket channel associated with this key, as
+	 * much as the write scheduler allows
 	 * 
 	 * @param key
 	 *            Key representing the socket channel where the response will be
 	 *            written
 	 */
 	private void writeResponse(SelectionKey key) {		
-		//use the IncrementalResponseWriter to write data to the socket	
-		IncrementalResponseWriter responseWriter = pendingResponses.get(key);
-		if( responseWriter == null ) {
+		HttpConnection connection = (HttpConnection) key.attachment();
+		if( !connection.isWriting() ) {
 			logger.error("No response available for sending!");
 			
 			//close the channel, we don't have any data
@@ -353,44 +665,101 @@ public class HttpWebWorker implements WebWorker {
 		}
 		else {
 			
+			long now = System.currentTimeMillis();
+			long allowance = writeScheduler.grant(connection, now);
+			
 			//send a chunk of data to the client
-			boolean sendFinished = channelWriteResponse(responseWriter, key);		
-						
+			IncrementalResponseWriter responseWriter = connection.getWriter();
+			long bytesSentBefore = responseWriter.getBytesSent();
+			boolean sendFinished = allowance > 0 && channelWriteResponse(responseWriter, key, allowance);
+			long bytesWritten = responseWriter.getBytesSent() - bytesSentBefore;
+			metrics.add(WorkerMetrics.BYTES_SENT, bytesWritten);
+			
+			//the channel was closed because of a write error
+			if( key.attachment() == null ) {
+				return;
+			}
+			
 			//check if processing is finished
-			if(sendFinished) {
-				//key.interestOps(SelectionKey.OP_READ);
+			if( sendFinished ) {
+				connection.setWriting(false);
+				activeResponses--;
 				
-				//close the channel
-				closeChannel(key);
+				long responseEnd = System.nanoTime();
+				metrics.recordLatency(WorkerMetrics.PHASE_WRITE, responseEnd - connection.getResponseStartTime());
+				
+				if( accessLog != null ) {
+					accessLog.append(connection.getChannel().socket().getInetAddress(), connection.getRequest(),
+							connection.getResponse(), responseWriter.getBodyBytesSent(), now,
+							responseEnd - connection.getRequestStartTime());
+				}
+				
+				if( connection.getResponse().isKeepAlive() ) {
+					//wait for the next request of the client
+					connection.nextRequest();
+					connection.setLastActivity(System.currentTimeMillis());
+					
+					key.interestOps(SelectionKey.OP_READ);
+					
+					//a pipelined request may already be buffered
+					if( connection.getParser().hasBufferedData() ) {
+						parseRequest(key, connection, NO_DATA);
+					}
+				}
+				else {
+					//close the channel
+					closeChannel(key);
+				}
+			}
+			
+			//wait for the body's data listener instead of polling the channel
+			if( !sendFinished && responseWriter.isWaitingForData() ) {
+				key.interestOps(0);
 			}
+			
+			writeScheduler.charge(key, connection, bytesWritten, sendFinished, now);
 		}
 	}
 
 	/**
 	 * Writes a chunk of data back to the client
 	 * 
-	 * It uses the clients IncrementalWriteResponse to fill the data buffer
+	 * The IncrementalResponseWriter writes directly to the client's
+	 * SocketChannel, until the response is done, maxBytes were written or the
+	 * socket can't take more data
 	 * 
 	 * @param responseWriter IncrementalResponseWriter associated with the key
 	 * @param key SelectionKey
+	 * @param maxBytes number of bytes allowed by the write scheduler
 	 * @return boolean indicating if the response has been completely sent to the client
 	 */
 	private boolean channelWriteResponse(
-			IncrementalResponseWriter responseWriter, SelectionKey key) {
+			IncrementalResponseWriter responseWriter, SelectionKey key, long maxBytes) {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
 		
-		//clear the data buffer
-		dataBuffer.clear();
-		
-		//write a chunk of data to the buffer
-		boolean sendFinished = responseWriter.incrementalWriteResponse(dataBuffer);		
+		boolean sendFinished = false;
 		
-		//write the data to the socket
+		//write chunks of data to the socket
 		try {
-			dataBuffer.flip();
-			socketChannel.write(dataBuffer);
+			long start = responseWriter.getBytesSent();
+			while( true ) {
+				long sent = responseWriter.getBytesSent();
+				long quota = maxBytes - (sent - start);
+				
+				//a response with no bytes left still needs a call to complete
+				if( quota <= 0 && responseWriter.getBytesRemaining() > 0 ) {
+					break;
+				}
+				
+				sendFinished = responseWriter.writeResponse(socketChannel, Math.max(0, quota));
+				
+				//stop when done or when the socket is full
+				if( sendFinished || responseWriter.getBytesSent() == sent ) {
+					break;
+				}
+			}
 		} catch (IOException e) {
-			logger.error("Error writing to socket!", e);
+			logger.debug("Error writing to socket!", e);
 			
 			//close the channel
 			closeChannel(key);
@@ -409,13 +778,222 @@ public class HttpWebWorker implements WebWorker {
 			logger.warn("Exception while shutting down channel!", e);
 		}
 		
-		// since the channel is closing, we need to also remove the key from the
-		// pendingReads and pendingResponses maps
-		pendingReads.remove(key);
-		pendingResponses.remove(key);
+		//the connection state is detached on close, don't release it twice
+		HttpConnection connection = (HttpConnection) key.attachment();
+		if( connection == null ) {
+			return;
+		}
+		key.attach(null);
+		
+		if( connection.getCaptureId() != 0 && capture != null ) {
+			capture.closed(connection.getCaptureId());
+		}
+		
+		//release the resources of an unfinished response
+		if( connection.isWriting() ) {
+			activeResponses--;
+		}
+		connection.getWriter().abort();
+		
+		releaseConnection(connection);
 		
 		//we have an extra client slot free
-		freeClientSlots ++;
+		freeClientSlots.incrementAndGet();
+	}
+	
+	/**
+	 * @return a HttpConnection from the pool, or a new one if the pool is empty
+	 */
+	private HttpConnection acquireConnection() {
+		HttpConnection connection = connectionPool.poll();
+		if( connection == null ) {
+			connection = new HttpConnection();
+		}
+		
+		return connection;
+	}
+	
+	/**
+	 * Clears the state of a closed connection and keeps it for the next client
+	 */
+	private void releaseConnection(HttpConnection connection) {
+		//also removes the temporary file of an unfinished request body
+		connection.reset();
+		
+		if( connectionPool.size() < maxClients ) {
+			connectionPool.offer(connection);
+		}
+	}
+	
+	/**
+	 * @return listener called by the read-ahead threads when data of the
+	 *         response of this key is loaded
+	 */
+	private Runnable createDataReadyListener(final SelectionKey key) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				dataReadyKeys.offer(key);
+				socketSelector.wakeup();
+			}
+		};
+	}
+	
+	/**
+	 * Watches again for writing the channels of the responses whose data was
+	 * loaded
+	 */
+	private void resumeDataReady() {
+		SelectionKey key = null;
+		while( (key = dataReadyKeys.poll()) != null ) {
+			HttpConnection connection = (HttpConnection) key.attachment();
+			
+			//skip the closed connections, the finished responses and the
+			//connections waiting for bandwidth
+			if( key.isValid() && connection != null && connection.isWriting()
+					&& connection.getThrottledUntil() == 0 ) {
+				key.interestOps(SelectionKey.OP_WRITE);
+			}
+		}
+	}
+	
+	/**
+	 * Hands a connection moved from another worker to this worker
+	 * 
+	 * @param connection
+	 *            idle HttpConnection, holding the client's channel
+	 * @return true if the connection was accepted, false if this worker has
+	 *         no free client slot
+	 */
+	public boolean adopt(HttpConnection connection) {
+		if( shutDown || !reserveClientSlot() ) {
+			return false;
+		}
+		
+		adoptedConnections.offer(connection);
+		
+		// the worker may have stopped after the first check, without
+		// registering the connection: hand it back, unless the worker already
+		// took it to close it
+		if( shutDown && adoptedConnections.remove(connection) ) {
+			freeClientSlots.incrementAndGet();
+			return false;
+		}
+		
+		socketSelector.wakeup();
+		
+		return true;
+	}
+	
+	/**
+	 * Closes the clients queued for this worker but not registered yet, when
+	 * the worker stops
+	 */
+	private void closePendingClients() {
+		SocketChannel newChannel = null;
+		while( (newChannel = newClientsQueue.poll()) != null ) {
+			closeQuietly(newChannel);
+		}
+		
+		HttpConnection adoptedConnection = null;
+		while( (adoptedConnection = adoptedConnections.poll()) != null ) {
+			closeQuietly(adoptedConnection.getChannel());
+			adoptedConnection.reset();
+		}
+	}
+	
+	private void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		}
+		catch(IOException e) {
+			logger.warn("Exception while shutting down channel!", e);
+		}
+	}
+	
+	/**
+	 * Moves idle connections to the worker chosen by the WorkerManager. Runs
+	 * on the thread of this worker, so the connections are not in use
+	 */
+	private void moveIdleConnections() {
+		WebWorker target = migrationTarget;
+		if( target == null ) {
+			return;
+		}
+		migrationTarget = null;
+		
+		if( !(target instanceof HttpWebWorker) ) {
+			return;
+		}
+		HttpWebWorker targetWorker = (HttpWebWorker) target;
+		
+		int movedConnections = 0;
+		Iterator<SelectionKey> keysIterator = socketSelector.keys().iterator();
+		while( movedConnections < migrationCount && keysIterator.hasNext() ) {
+			SelectionKey key = keysIterator.next();
+			
+			HttpConnection connection = (HttpConnection) key.attachment();
+			if( connection == null || !key.isValid() || !connection.isIdle() ) {
+				continue;
+			}
+			
+			// the records of a captured connection must all come from the
+			// buffer of one worker, or they could reach the capture file out
+			// of order: the capture of a moved connection ends here
+			long captureId = connection.getCaptureId();
+			connection.setCaptureId(0);
+			
+			if( !targetWorker.adopt(connection) ) {
+				connection.setCaptureId(captureId);
+				break;
+			}
+			
+			if( captureId != 0 && capture != null ) {
+				capture.closed(captureId);
+			}
+			
+			//the channel stays open, it only leaves the selector of this worker
+			key.cancel();
+			key.attach(null);
+			
+			freeClientSlots.incrementAndGet();
+			movedConnections ++;
+		}
+		
+		if( movedConnections > 0 ) {
+			if( logger.isDebugEnabled() ) {
+				logger.debug("Moved " + movedConnections + " idle connections to another worker");
+			}
+		}
+	}
+	
+	/**
+	 * Closes the connections that have been waiting for a request longer than
+	 * the keep-alive timeout. Runs at most once per SELECT_TIMEOUT
+	 */
+	private void closeIdleConnections() {
+		if( keepAliveTimeout <= 0 ) {
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		if( now - lastIdleCheck < SELECT_TIMEOUT ) {
+			return;
+		}
+		lastIdleCheck = now;
+		
+		Iterator<SelectionKey> keysIterator = socketSelector.keys().iterator();
+		while( keysIterator.hasNext() ) {
+			SelectionKey key = keysIterator.next();
+			
+			HttpConnection connection = (HttpConnection) key.attachment();
+			if( connection != null && !connection.isWriting()
+					&& now - connection.getLastActivity() > keepAliveTimeout ) {
+				logger.trace("Closing idle connection!");
+				
+				closeChannel(key);
+			}
+		}
 	}
 
 	@Override
@@ -425,7 +1003,34 @@ public class HttpWebWorker implements WebWorker {
 
 	@Override
 	public int getFreeSlots() {
-		return freeClientSlots;
+		return freeClientSlots.get();
+	}
+	
+	@Override
+	public int getActiveResponses() {
+		return activeResponses;
+	}
+	
+	@Override
+	public int getQueuedClients() {
+		return newClientsQueue.size();
+	}
+	
+	@Override
+	public WorkerMetrics getMetrics() {
+		return metrics;
+	}
+	
+	@Override
+	public void migrateIdleConnections(WebWorker target, int maxConnections) {
+		if( target == this || maxConnections <= 0 ) {
+			return;
+		}
+		
+		migrationCount = maxConnections;
+		migrationTarget = target;
+		
+		socketSelector.wakeup();
 	}
 
 	/**
@@ -435,10 +1040,11 @@ public class HttpWebWorker implements WebWorker {
 	 */
 	@Override
 	public int compareTo(WebWorker o) {
-		if( this.freeClientSlots > o.getFreeSlots() ) {
+		int freeSlots = getFreeSlots();
+		if( freeSlots > o.getFreeSlots() ) {
 			return -1;
 		}
-		else if( this.freeClientSlots < o.getFreeSlots() ) {
+		else if( freeSlots < o.getFreeSlots() ) {
 			return 1;
 		}
 		
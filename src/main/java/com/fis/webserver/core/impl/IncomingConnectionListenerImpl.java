@@ -39,4 +39,9 @@ public class IncomingConnectionListenerImpl extends ConnectionListener {
 	public void acceptConnection(SocketChannel channel) {
 		manager.handleNewClient(channel);
 	}
+	
+	@Override
+	public void maintenance() {
+		manager.rebalance();
+	}
 }
@@ -0,0 +1,249 @@
+package com.fis.webserver.core.impl;
+
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides how much each connection of a HttpWebWorker may write, so a few
+ * large downloads can't delay the small responses of the same worker
+ * 
+ * The connections that became writable in a select round are written in
+ * deficit round-robin order: each connection receives a quantum of bytes per
+ * round, and the part of its allowance it couldn't use because the client's
+ * socket was full is carried over to its next turn, up to one extra quantum.
+ * The deficit is dropped when the response is done. Inside a round the
+ * responses with the fewest remaining bytes are written first, so a small
+ * response is never queued behind the large ones.
+ * 
+ * Optionally, the bandwidth of each connection is limited with a token bucket.
+ * A connection that ran out of tokens stops being selected for writing until
+ * enough tokens are refilled.
+ * 
+ * The scheduler is used only by the thread of its worker.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class WriteScheduler {
+	
+	//minimum number of tokens a throttled connection waits for, so it doesn't
+	//wake up for a few bytes
+	public static final long MIN_THROTTLED_WRITE = 4096;
+	
+	//number of bytes granted to a connection in each round
+	private long quantum;
+	
+	//bytes per second allowed for a connection, 0 if the bandwidth is not limited
+	private long bandwidthLimit;
+	
+	//maximum number of tokens a connection can accumulate
+	private long bucketCapacity;
+	
+	//keys that are writable in the current round
+	private ArrayList<SelectionKey> readyKeys;
+	
+	//keys whose write interest is suspended by the bandwidth limit
+	private ArrayList<SelectionKey> throttledKeys;
+	
+	//orders the ready keys by the number of bytes left to send
+	private Comparator<SelectionKey> remainingBytesComparator;
+	
+	public WriteScheduler(long quantum, long bandwidthLimit) {
+		this.quantum = quantum;
+		this.bandwidthLimit = bandwidthLimit;
+		
+		bucketCapacity = Math.min(quantum, bandwidthLimit);
+		
+		readyKeys = new ArrayList<SelectionKey>();
+		throttledKeys = new ArrayList<SelectionKey>();
+		
+		remainingBytesComparator = new Comparator<SelectionKey>() {
+			@Override
+			public int compare(SelectionKey first, SelectionKey second) {
+				long firstRemaining = getBytesRemaining(first);
+				long secondRemaining = getBytesRemaining(second);
+				
+				return firstRemaining < secondRemaining ? -1 : (firstRemaining == secondRemaining ? 0 : 1);
+			}
+		};
+	}
+	
+	/**
+	 * Adds a writable key to the current round
+	 */
+	public void add(SelectionKey key) {
+		readyKeys.add(key);
+	}
+	
+	/**
+	 * Starts a round
+	 * 
+	 * @return the keys to write in this round, the responses with the fewest
+	 *         remaining bytes first. The list must be cleared with endRound()
+	 */
+	public List<SelectionKey> beginRound() {
+		if( readyKeys.size() > 1 ) {
+			Collections.sort(readyKeys, remainingBytesComparator);
+		}
+		
+		return readyKeys;
+	}
+	
+	public void endRound() {
+		readyKeys.clear();
+	}
+	
+	/**
+	 * Grants the quantum of the round to a connection
+	 * 
+	 * @param connection
+	 *            HttpConnection about to write
+	 * @param now
+	 *            current time in milliseconds
+	 * @return maximum number of bytes the connection may write now, 0 if it
+	 *         must wait for bandwidth tokens
+	 */
+	public long grant(HttpConnection connection, long now) {
+		long deficit = connection.getWriteDeficit() + quantum;
+		
+		//don't let a connection accumulate more than one extra round
+		if( deficit > 2 * quantum ) {
+			deficit = 2 * quantum;
+		}
+		connection.setWriteDeficit(deficit);
+		
+		if( bandwidthLimit <= 0 ) {
+			return deficit;
+		}
+		
+		return Math.min(deficit, refillTokens(connection, now));
+	}
+	
+	/**
+	 * Records the bytes written by a connection after its turn
+	 * 
+	 * @param key
+	 *            SelectionKey of the connection
+	 * @param connection
+	 *            HttpConnection attached to the key
+	 * @param bytesWritten
+	 *            number of bytes written in this turn
+	 * @param responseDone
+	 *            true if the response was completely sent
+	 * @param now
+	 *            current time in milliseconds
+	 */
+	public void charge(SelectionKey key, HttpConnection connection, long bytesWritten,
+			boolean responseDone, long now) {
+		// keep the unused allowance of a response still being sent, the next
+		// response starts with a single quantum
+		connection.setWriteDeficit(responseDone ? 0 : Math.max(0, connection.getWriteDeficit() - bytesWritten));
+		
+		if( bandwidthLimit <= 0 ) {
+			return;
+		}
+		
+		long tokens = connection.getBandwidthTokens() - bytesWritten;
+		connection.setBandwidthTokens(tokens);
+		
+		//out of tokens, stop selecting the connection for writing for a while
+		long threshold = Math.min(MIN_THROTTLED_WRITE, bucketCapacity);
+		if( connection.isWriting() && tokens < threshold && key.isValid() ) {
+			long waitMillis = Math.max(1, (threshold - tokens) * 1000 / bandwidthLimit);
+			connection.setThrottledUntil(now + waitMillis);
+			
+			key.interestOps(0);
+			throttledKeys.add(key);
+		}
+	}
+	
+	/**
+	 * Resumes writing on the throttled connections that have enough tokens
+	 * again
+	 * 
+	 * @param now
+	 *            current time in milliseconds
+	 */
+	public void resumeThrottled(long now) {
+		for( int i = throttledKeys.size() - 1 ; i >= 0 ; i-- ) {
+			SelectionKey key = throttledKeys.get(i);
+			HttpConnection connection = (HttpConnection) key.attachment();
+			
+			if( !key.isValid() || connection == null ) {
+				//closed meanwhile
+				removeThrottled(i);
+			}
+			else if( connection.getThrottledUntil() <= now ) {
+				connection.setThrottledUntil(0);
+				key.interestOps(SelectionKey.OP_WRITE);
+				removeThrottled(i);
+			}
+		}
+	}
+	
+	/**
+	 * @param defaultTimeout
+	 *            select timeout used when no connection is throttled
+	 * @param now
+	 *            current time in milliseconds
+	 * @return time the worker may wait in select without delaying a throttled
+	 *         connection
+	 */
+	public long getSelectTimeout(long defaultTimeout, long now) {
+		long timeout = defaultTimeout;
+		for( int i = 0 ; i < throttledKeys.size() ; i++ ) {
+			HttpConnection connection = (HttpConnection) throttledKeys.get(i).attachment();
+			if( connection != null ) {
+				timeout = Math.min(timeout, Math.max(1, connection.getThrottledUntil() - now));
+			}
+		}
+		
+		return timeout;
+	}
+	
+	/**
+	 * Adds the tokens earned since the last refill
+	 * 
+	 * @return tokens available to the connection
+	 */
+	private long refillTokens(HttpConnection connection, long now) {
+		long tokens = connection.getBandwidthTokens();
+		if( connection.getTokensRefillTime() == 0 ) {
+			//first write of the connection, start with a full bucket
+			tokens = bucketCapacity;
+			connection.setTokensRefillTime(now);
+		}
+		else {
+			long earned = (now - connection.getTokensRefillTime()) * bandwidthLimit / 1000;
+			
+			//keep the refill time while less than a token was earned
+			if( earned > 0 ) {
+				tokens = Math.min(bucketCapacity, tokens + earned);
+				connection.setTokensRefillTime(now);
+			}
+		}
+		
+		connection.setBandwidthTokens(tokens);
+		
+		return Math.max(0, tokens);
+	}
+	
+	/**
+	 * Removes a key from the throttled list, without shifting the list
+	 */
+	private void removeThrottled(int index) {
+		int last = throttledKeys.size() - 1;
+		throttledKeys.set(index, throttledKeys.get(last));
+		throttledKeys.remove(last);
+	}
+	
+	private static long getBytesRemaining(SelectionKey key) {
+		HttpConnection connection = (HttpConnection) key.attachment();
+		
+		return connection == null ? 0 : connection.getWriter().getBytesRemaining();
+	}
+}
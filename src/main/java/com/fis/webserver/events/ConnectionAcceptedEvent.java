@@ -0,0 +1,30 @@
+package com.fis.webserver.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event emitted by the ConnectionListener for every accepted
+ * client connection. Its duration covers accepting the connection and handing
+ * it over to a worker
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+@Name("com.fis.webserver.ConnectionAccepted")
+@Label("Connection Accepted")
+@Category({ "FIS Web Server", "HTTP" })
+@Description("A client connection was accepted and handed to a worker")
+public class ConnectionAcceptedEvent extends Event {
+	
+	@Label("Remote Address")
+	private String remoteAddress;
+	
+	public void setRemoteAddress(String remoteAddress) {
+		this.remoteAddress = remoteAddress;
+	}
+}
@@ -0,0 +1,50 @@
+package com.fis.webserver.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event emitted by the HttpRequestHandlerFinder when it picks the
+ * handler of a request
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+@Name("com.fis.webserver.HandlerDispatch")
+@Label("Handler Dispatch")
+@Category({ "FIS Web Server", "HTTP" })
+@Description("A request handler was chosen for a request")
+public class HandlerDispatchEvent extends Event {
+	
+	@Label("Method")
+	private String method;
+	
+	@Label("URL")
+	private String url;
+	
+	@Label("Handler")
+	private Class<?> handler;
+	
+	@Label("Worker")
+	private String worker;
+	
+	public void setMethod(String method) {
+		this.method = method;
+	}
+	
+	public void setUrl(String url) {
+		this.url = url;
+	}
+	
+	public void setHandler(Class<?> handler) {
+		this.handler = handler;
+	}
+	
+	public void setWorker(String worker) {
+		this.worker = worker;
+	}
+}
@@ -0,0 +1,72 @@
+package com.fis.webserver.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event emitted when the parsing of a request is complete. Its
+ * duration starts with the first byte of the request, so it includes the time
+ * spent waiting for the rest of the request and its body
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+@Name("com.fis.webserver.RequestParsed")
+@Label("Request Parsed")
+@Category({ "FIS Web Server", "HTTP" })
+@Description("A request was completely received and parsed")
+public class RequestParsedEvent extends Event {
+	
+	private static final EventType TYPE = EventType.getEventType(RequestParsedEvent.class);
+	
+	/**
+	 * @return true if a recording is collecting this event, checked before
+	 *         creating an event that is kept across several calls
+	 */
+	public static boolean isRecorded() {
+		return TYPE.isEnabled();
+	}
+	
+	@Label("Method")
+	private String method;
+	
+	@Label("URL")
+	private String url;
+	
+	@Label("Body Size")
+	@DataAmount
+	private long bodyBytes;
+	
+	@Label("Error Cause")
+	@Description("RequestException cause, -1 if the request is valid")
+	private int errorCause;
+	
+	@Label("Worker")
+	private String worker;
+	
+	public void setMethod(String method) {
+		this.method = method;
+	}
+	
+	public void setUrl(String url) {
+		this.url = url;
+	}
+	
+	public void setBodyBytes(long bodyBytes) {
+		this.bodyBytes = bodyBytes;
+	}
+	
+	public void setErrorCause(int errorCause) {
+		this.errorCause = errorCause;
+	}
+	
+	public void setWorker(String worker) {
+		this.worker = worker;
+	}
+}
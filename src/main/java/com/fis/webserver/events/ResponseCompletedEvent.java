@@ -0,0 +1,77 @@
+package com.fis.webserver.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event emitted when a response was completely written, or
+ * aborted. Its duration starts when the response is queued for writing
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+@Name("com.fis.webserver.ResponseCompleted")
+@Label("Response Completed")
+@Category({ "FIS Web Server", "HTTP" })
+@Description("A response was completely written")
+public class ResponseCompletedEvent extends Event {
+	
+	private static final EventType TYPE = EventType.getEventType(ResponseCompletedEvent.class);
+	
+	/**
+	 * @return true if a recording is collecting this event, checked before
+	 *         creating an event that is kept across several calls
+	 */
+	public static boolean isRecorded() {
+		return TYPE.isEnabled();
+	}
+	
+	@Label("Method")
+	private String method;
+	
+	@Label("URL")
+	private String url;
+	
+	@Label("Status")
+	private int status;
+	
+	@Label("Bytes Sent")
+	@DataAmount
+	private long bytes;
+	
+	@Label("Worker")
+	private String worker;
+	
+	@Label("Aborted")
+	private boolean aborted;
+	
+	public void setMethod(String method) {
+		this.method = method;
+	}
+	
+	public void setUrl(String url) {
+		this.url = url;
+	}
+	
+	public void setStatus(int status) {
+		this.status = status;
+	}
+	
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+	
+	public void setWorker(String worker) {
+		this.worker = worker;
+	}
+	
+	public void setAborted(boolean aborted) {
+		this.aborted = aborted;
+	}
+}
@@ -0,0 +1,70 @@
+package com.fis.webserver.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event emitted when the first byte of a response is written to
+ * the client. Its duration starts when the response is queued for writing
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+@Name("com.fis.webserver.ResponseFirstByte")
+@Label("Response First Byte")
+@Category({ "FIS Web Server", "HTTP" })
+@Description("The first byte of a response was written")
+public class ResponseFirstByteEvent extends Event {
+	
+	private static final EventType TYPE = EventType.getEventType(ResponseFirstByteEvent.class);
+	
+	/**
+	 * @return true if a recording is collecting this event, checked before
+	 *         creating an event that is kept across several calls
+	 */
+	public static boolean isRecorded() {
+		return TYPE.isEnabled();
+	}
+	
+	@Label("Method")
+	private String method;
+	
+	@Label("URL")
+	private String url;
+	
+	@Label("Status")
+	private int status;
+	
+	@Label("Bytes Sent")
+	@DataAmount
+	private long bytes;
+	
+	@Label("Worker")
+	private String worker;
+	
+	public void setMethod(String method) {
+		this.method = method;
+	}
+	
+	public void setUrl(String url) {
+		this.url = url;
+	}
+	
+	public void setStatus(int status) {
+		this.status = status;
+	}
+	
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+	
+	public void setWorker(String worker) {
+		this.worker = worker;
+	}
+}
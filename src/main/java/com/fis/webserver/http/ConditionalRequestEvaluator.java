@@ -0,0 +1,102 @@
+package com.fis.webserver.http;
+
+import com.fis.webserver.model.http.HttpHeader;
+import com.fis.webserver.model.http.HttpRequest;
+import com.fis.webserver.util.HttpDateFormat;
+import com.fis.webserver.util.cache.ResourceMetadata;
+
+/**
+ * Evaluates the conditional request headers against the validators of a
+ * resource
+ * 
+ * If-None-Match takes precedence over If-Modified-Since, as required by
+ * HTTP/1.1. Entity tags are compared using the weak comparison function.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class ConditionalRequestEvaluator {
+	
+	/**
+	 * Determines if the client's cached copy of the resource is still valid,
+	 * meaning a 304 Not Modified response can be sent instead of the resource
+	 * 
+	 * @param request
+	 *            GET or HEAD HttpRequest object
+	 * @param resource
+	 *            metadata of the requested resource
+	 * @return true if the resource was not modified
+	 */
+	public static boolean isNotModified(HttpRequest request, ResourceMetadata resource) {
+		String ifNoneMatch = request.getHeader(HttpHeader.IF_NONE_MATCH);
+		if( ifNoneMatch != null ) {
+			return matchesAny(ifNoneMatch, resource.getETag());
+		}
+		
+		String ifModifiedSince = request.getHeader(HttpHeader.IF_MODIFIED_SINCE);
+		if( ifModifiedSince != null ) {
+			long since = HttpDateFormat.parse(ifModifiedSince);
+			
+			//http dates have a one second resolution
+			return since >= 0 && resource.getLastModified() / 1000 <= since / 1000;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Checks if an entity tag is contained in a list of entity tags, such as
+	 * the value of the If-None-Match header
+	 * 
+	 * @param tagList
+	 *            comma separated list of quoted entity tags, or "*"
+	 * @param eTag
+	 *            quoted entity tag of the resource
+	 * @return true if the list contains the tag or is "*"
+	 */
+	public static boolean matchesAny(String tagList, String eTag) {
+		if( eTag == null ) {
+			return false;
+		}
+		
+		int position = 0;
+		int length = tagList.length();
+		while( position < length ) {
+			//skip separators and white space
+			char c = tagList.charAt(position);
+			if( c == ',' || c == ' ' || c == '\t' ) {
+				position++;
+				continue;
+			}
+			
+			if( c == '*' ) {
+				return true;
+			}
+			
+			//weak comparison, ignore the weak indicator
+			if( tagList.startsWith("W/", position) ) {
+				position += 2;
+			}
+			
+			int end = tagList.indexOf(',', position);
+			if( end < 0 ) {
+				end = length;
+			}
+			
+			//trim trailing white space of the candidate tag
+			int tagEnd = end;
+			while( tagEnd > position && tagList.charAt(tagEnd - 1) <= ' ' ) {
+				tagEnd--;
+			}
+			
+			if( tagEnd - position == eTag.length() && tagList.startsWith(eTag, position) ) {
+				return true;
+			}
+			
+			position = end + 1;
+		}
+		
+		return false;
+	}
+}
@@ -0,0 +1,181 @@
+package com.fis.webserver.http;
+
+import java.io.File;
+
+import com.fis.webserver.model.http.HttpHeader;
+import com.fis.webserver.model.http.HttpRequest;
+import com.fis.webserver.util.cache.ResourceMetadata;
+import com.fis.webserver.util.cache.ResourceMetadataCache;
+
+/**
+ * Selects a precompressed variant of a resource, based on the Accept-Encoding
+ * header of the request
+ * 
+ * Precompressed variants are sibling files having the name of the resource
+ * followed by the extension of the encoding (style.css.br, style.css.gz).
+ * Their metadata is kept in the ResourceMetadataCache, together with negative
+ * entries for the missing ones, so the lookups don't touch the file system on
+ * every request. A variant older than the resource is considered stale and is
+ * never served.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class ContentEncodingNegotiator {
+	
+	public static final String BROTLI = "br";
+	public static final String GZIP = "gzip";
+	
+	//encodings of the precompressed variants, in order of preference
+	public static final String[] ENCODINGS = { BROTLI, GZIP };
+	
+	//file name extensions of the precompressed variants, same order as ENCODINGS
+	public static final String[] EXTENSIONS = { ".br", ".gz" };
+	
+	//the resource has no precompressed variants
+	public static final int NO_VARIANTS = -2;
+	
+	//the resource has precompressed variants, but the client accepts none of them
+	public static final int IDENTITY_VARIANT = -1;
+	
+	/**
+	 * Selects the precompressed variant of a resource that will be sent to
+	 * the client
+	 * 
+	 * The variant with the highest quality value is chosen; if several have
+	 * the same quality, the order of ENCODINGS decides
+	 * 
+	 * @param request
+	 *            HttpRequest object
+	 * @param resource
+	 *            metadata of the requested file
+	 * @return index in ENCODINGS of the selected variant, IDENTITY_VARIANT if
+	 *         the resource itself must be sent, or NO_VARIANTS if there is
+	 *         nothing to negotiate
+	 */
+	public static int selectVariant(HttpRequest request, ResourceMetadata resource) {
+		if( !resource.exists() || resource.isDirectory() ) {
+			return NO_VARIANTS;
+		}
+		
+		String acceptEncoding = request.getHeader(HttpHeader.ACCEPT_ENCODING);
+		
+		int selected = NO_VARIANTS;
+		float selectedQValue = 0;
+		for( int i = 0 ; i < ENCODINGS.length ; i++ ) {
+			if( getVariant(resource, i) == null ) {
+				continue;
+			}
+			
+			if( selected == NO_VARIANTS ) {
+				selected = IDENTITY_VARIANT;
+			}
+			
+			if( acceptEncoding != null ) {
+				float qValue = getQValue(acceptEncoding, ENCODINGS[i]);
+				if( qValue > selectedQValue ) {
+					selected = i;
+					selectedQValue = qValue;
+				}
+			}
+		}
+		
+		return selected;
+	}
+	
+	/**
+	 * Returns the metadata of a precompressed variant of a resource
+	 * 
+	 * @param resource
+	 *            metadata of the requested file
+	 * @param variant
+	 *            index in ENCODINGS
+	 * @return metadata of the variant or null if it does not exist or is stale
+	 */
+	public static ResourceMetadata getVariant(ResourceMetadata resource, int variant) {
+		ResourceMetadata variantResource = ResourceMetadataCache.lookup(new File(resource.getPath() + EXTENSIONS[variant]));
+		
+		if( !variantResource.exists() || variantResource.isDirectory()
+				|| variantResource.getLastModified() < resource.getLastModified() ) {
+			return null;
+		}
+		
+		return variantResource;
+	}
+	
+	/**
+	 * Determines the quality value of a content coding in an Accept-Encoding
+	 * header
+	 * 
+	 * @param acceptEncoding
+	 *            header value, e.g. "gzip;q=0.8, br"
+	 * @param coding
+	 *            content coding
+	 * @return the quality of the coding, of the "*" entry if the coding is not
+	 *         listed, or 0 if the coding is not acceptable
+	 */
+	public static float getQValue(String acceptEncoding, String coding) {
+		float wildcardQValue = 0;
+		
+		int position = 0;
+		int length = acceptEncoding.length();
+		while( position < length ) {
+			int end = acceptEncoding.indexOf(',', position);
+			if( end < 0 ) {
+				end = length;
+			}
+			
+			//split the entry in coding and parameters
+			int parametersStart = acceptEncoding.indexOf(';', position);
+			if( parametersStart < 0 || parametersStart > end ) {
+				parametersStart = end;
+			}
+			
+			String entryCoding = acceptEncoding.substring(position, parametersStart).trim();
+			
+			if( entryCoding.equalsIgnoreCase(coding) ) {
+				return parseQValue(acceptEncoding, parametersStart, end);
+			}
+			
+			if( entryCoding.equals("*") ) {
+				wildcardQValue = parseQValue(acceptEncoding, parametersStart, end);
+			}
+			
+			position = end + 1;
+		}
+		
+		return wildcardQValue;
+	}
+	
+	/**
+	 * Parses the q parameter of an Accept-Encoding entry
+	 * 
+	 * @return the quality value, 1 if it is missing, or 0 if it is invalid
+	 */
+	private static float parseQValue(String acceptEncoding, int parametersStart, int end) {
+		int position = parametersStart;
+		while( position < end ) {
+			int parameterEnd = acceptEncoding.indexOf(';', position + 1);
+			if( parameterEnd < 0 || parameterEnd > end ) {
+				parameterEnd = end;
+			}
+			
+			String parameter = acceptEncoding.substring(position + 1, parameterEnd).trim();
+			if( parameter.startsWith("q=") || parameter.startsWith("Q=") ) {
+				try {
+					float qValue = Float.parseFloat(parameter.substring(2));
+					
+					return qValue >= 0 && qValue <= 1 ? qValue : 0;
+				}
+				catch(NumberFormatException e) {
+					return 0;
+				}
+			}
+			
+			position = parameterEnd;
+		}
+		
+		return 1;
+	}
+}
@@ -0,0 +1,288 @@
+package com.fis.webserver.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+import com.fis.webserver.model.http.body.BodyProducer;
+
+/**
+ * Gzip compresses a file while it is sent
+ * 
+ * Used by the ResponseCompressor for the files too large to be kept in the
+ * CompressedVariantCache. The compression never runs on the worker: a task of
+ * the compressor's streaming executor compresses the file a few blocks ahead
+ * of the socket, and the next task is scheduled when the worker takes the
+ * compressed blocks. When the worker catches up with the compression, produce
+ * returns 0 and the data listener is called as soon as the next block is
+ * ready.
+ * 
+ * The compressed blocks and the state flags are guarded by this object's
+ * lock. The file and the gzip stream are used by one task at a time.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class GzipStreamProducer implements BodyProducer {
+	public static final Logger logger = Logger.getLogger(GzipStreamProducer.class);
+	
+	//size of the file reads and of the compressed blocks
+	public static final int BLOCK_SIZE = 16 * 1024;
+	
+	//compressed blocks kept ahead of the socket
+	public static final int MAX_READY_BLOCKS = 4;
+	
+	/**
+	 * Collects the output of the gzip stream into blocks
+	 */
+	private class BlockOutput extends OutputStream {
+		private ByteBuffer block;
+		
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		
+		@Override
+		public void write(byte[] data, int offset, int length) throws IOException {
+			while( length > 0 ) {
+				if( block == null ) {
+					block = ByteBuffer.allocate(BLOCK_SIZE);
+				}
+				
+				int count = Math.min(length, block.remaining());
+				block.put(data, offset, count);
+				offset += count;
+				length -= count;
+				
+				if( !block.hasRemaining() ) {
+					flushBlock();
+				}
+			}
+		}
+		
+		/**
+		 * Hands the current block over to the worker
+		 */
+		void flushBlock() {
+			if( block == null || block.position() == 0 ) {
+				return;
+			}
+			
+			block.flip();
+			synchronized(GzipStreamProducer.this) {
+				if( !closed ) {
+					readyBlocks.offer(block);
+				}
+			}
+			block = null;
+		}
+	}
+	
+	private File file;
+	private Executor executor;
+	
+	//used only by the compression task
+	private FileInputStream input;
+	private GZIPOutputStream gzipStream;
+	private BlockOutput output;
+	private byte[] readBuffer;
+	
+	//compressed blocks not sent yet
+	private ArrayDeque<ByteBuffer> readyBlocks;
+	
+	//true while a compression task is queued or running
+	private boolean compressing;
+	
+	//true when the whole file was compressed
+	private boolean finished;
+	
+	private IOException failure;
+	private boolean closed;
+	
+	private volatile Runnable dataListener;
+	
+	private Runnable compressionTask;
+	
+	/**
+	 * @param file
+	 *            file to send compressed
+	 * @param executor
+	 *            runs the compression tasks, it must not reject them
+	 * @throws IOException
+	 *             if the file can't be opened
+	 */
+	public GzipStreamProducer(File file, Executor executor) throws IOException {
+		this.file = file;
+		this.executor = executor;
+		
+		input = new FileInputStream(file);
+		output = new BlockOutput();
+		readyBlocks = new ArrayDeque<ByteBuffer>(MAX_READY_BLOCKS + 1);
+		
+		compressionTask = new Runnable() {
+			@Override
+			public void run() {
+				compressBlocks();
+			}
+		};
+	}
+	
+	@Override
+	public void setDataListener(Runnable dataListener) {
+		this.dataListener = dataListener;
+		
+		synchronized(this) {
+			scheduleCompression();
+		}
+	}
+	
+	@Override
+	public synchronized int produce(ByteBuffer destination) throws IOException {
+		if( failure != null ) {
+			throw new IOException("Could not compress " + file, failure);
+		}
+		
+		int bytesProduced = 0;
+		while( destination.hasRemaining() && !readyBlocks.isEmpty() ) {
+			ByteBuffer block = readyBlocks.peek();
+			
+			int count = Math.min(block.remaining(), destination.remaining());
+			int originalLimit = block.limit();
+			block.limit(block.position() + count);
+			destination.put(block);
+			block.limit(originalLimit);
+			
+			bytesProduced += count;
+			if( !block.hasRemaining() ) {
+				readyBlocks.poll();
+			}
+		}
+		
+		if( bytesProduced == 0 && finished ) {
+			return -1;
+		}
+		
+		//make room for the next blocks
+		scheduleCompression();
+		
+		return bytesProduced;
+	}
+	
+	/**
+	 * Queues a compression task, unless one is queued already or enough
+	 * blocks are ready. Must be called with the lock held
+	 */
+	private void scheduleCompression() {
+		if( compressing || finished || closed || failure != null || readyBlocks.size() >= MAX_READY_BLOCKS ) {
+			return;
+		}
+		
+		compressing = true;
+		try {
+			executor.execute(compressionTask);
+		}
+		catch(RejectedExecutionException e) {
+			compressing = false;
+			failure = new IOException("Compression task rejected");
+		}
+	}
+	
+	/**
+	 * Body of the compression task, compresses the file until enough blocks
+	 * are ready or the file ends
+	 */
+	private void compressBlocks() {
+		try {
+			if( gzipStream == null ) {
+				gzipStream = new GZIPOutputStream(output, BLOCK_SIZE);
+				readBuffer = new byte[BLOCK_SIZE];
+			}
+			
+			while( true ) {
+				synchronized(this) {
+					if( closed || readyBlocks.size() >= MAX_READY_BLOCKS ) {
+						break;
+					}
+				}
+				
+				int bytesRead = input.read(readBuffer);
+				if( bytesRead < 0 ) {
+					gzipStream.finish();
+					output.flushBlock();
+					
+					synchronized(this) {
+						finished = true;
+					}
+					break;
+				}
+				
+				gzipStream.write(readBuffer, 0, bytesRead);
+			}
+		}
+		catch(IOException e) {
+			synchronized(this) {
+				failure = e;
+			}
+		}
+		
+		boolean release;
+		synchronized(this) {
+			compressing = false;
+			release = closed || finished || failure != null;
+		}
+		
+		if( release ) {
+			closeInput();
+		}
+		
+		//the worker may be waiting for these blocks
+		Runnable listener = dataListener;
+		if( listener != null ) {
+			listener.run();
+		}
+	}
+	
+	@Override
+	public void close() {
+		boolean release;
+		synchronized(this) {
+			if( closed ) {
+				return;
+			}
+			closed = true;
+			readyBlocks.clear();
+			
+			//a running task releases the file when it stops
+			release = !compressing;
+		}
+		
+		if( release ) {
+			closeInput();
+		}
+		
+		ResponseCompressor.streamFinished();
+	}
+	
+	private void closeInput() {
+		try {
+			//also releases the native memory of the deflater
+			if( gzipStream != null ) {
+				gzipStream.close();
+			}
+			input.close();
+		}
+		catch(IOException e) {
+			logger.warn("Could not close " + file, e);
+		}
+	}
+}
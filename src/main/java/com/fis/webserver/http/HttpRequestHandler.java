@@ -15,8 +15,12 @@ public interface HttpRequestHandler {
 	/**
 	 * Handles a http request
 	 * 
+	 * The response object is provided by the caller, it is recycled between
+	 * the requests of a connection. The handler sets its status, headers and
+	 * body
+	 * 
 	 * @param request HttpRequest object that needs to be handled
-	 * @return a HttpResponse object
+	 * @param response empty HttpResponse object receiving the response
 	 */
-	public HttpResponse handle(HttpRequest request);
+	public void handle(HttpRequest request, HttpResponse response);
 }
@@ -1,17 +1,29 @@
 package com.fis.webserver.http;
 
-import java.util.HashMap;
-
+import com.fis.webserver.config.WebServerConfiguration;
+import com.fis.webserver.events.HandlerDispatchEvent;
 import com.fis.webserver.http.exceptions.RequestException;
 import com.fis.webserver.http.impl.HttpErrorResponseHandler;
 import com.fis.webserver.http.impl.HttpHeadResponseHandler;
+import com.fis.webserver.http.impl.HttpHealthResponseHandler;
 import com.fis.webserver.http.impl.HttpUnimplementedRequestHandler;
 import com.fis.webserver.http.impl.HttpGetResponseHandler;
 import com.fis.webserver.http.impl.HttpPostResponseHandler;
+import com.fis.webserver.http.impl.HttpStatusResponseHandler;
+import com.fis.webserver.http.route.Route;
+import com.fis.webserver.http.route.RouteTable;
+import com.fis.webserver.model.http.HttpRequest;
 import com.fis.webserver.model.http.HttpRequestMethod;
+import com.fis.webserver.model.http.HttpResponseCode;
 
 /**
- * Looks up a HttpRequestHandler that is capable of solving a certain request method
+ * Looks up the HttpRequestHandler that is capable of solving a certain request
+ * 
+ * Handlers are mounted on path patterns and request methods in a RouteTable.
+ * The static file handlers are mounted on the whole document root ("/*"), the
+ * more specific routes take precedence over them. All the handlers, including
+ * the error handlers, are created once and shared by the workers, so the
+ * lookup doesn't allocate.
  * 
  * @author Florin Iordache
  * 
@@ -20,36 +32,108 @@ import com.fis.webserver.model.http.HttpRequestMethod;
 public enum HttpRequestHandlerFinder {
 	INSTANCE;
 	
-	//map with references to the implemented handlers
-	private HashMap<String, HttpRequestHandler> handlerMap;
+	//path of the health check
+	public static final String HEALTH_ROUTE = "/health";
+	
+	//path of the server metrics
+	public static final String STATUS_ROUTE = "/server-status";
+	
+	//routes of the implemented handlers
+	private RouteTable routeTable;
+	
+	//default handler of the methods that are not implemented
+	private HttpRequestHandler unimplementedHandler;
+	
+	//error handlers, indexed by RequestException cause
+	private HttpRequestHandler[] errorHandlers;
+	private HttpRequestHandler internalErrorHandler;
 	
 	private HttpRequestHandlerFinder() {
-		handlerMap = new HashMap<String, HttpRequestHandler>();
-		handlerMap.put(HttpRequestMethod.GET, new HttpGetResponseHandler());
-		handlerMap.put(HttpRequestMethod.POST, new HttpPostResponseHandler());
-		handlerMap.put(HttpRequestMethod.HEAD, new HttpHeadResponseHandler());		
+		routeTable = new RouteTable();
+		
+		//static content
+		routeTable.add(HttpRequestMethod.GET, "/*", new HttpGetResponseHandler());
+		routeTable.add(HttpRequestMethod.POST, "/*", new HttpPostResponseHandler());
+		routeTable.add(HttpRequestMethod.HEAD, "/*", new HttpHeadResponseHandler());
+		
+		//health check
+		HttpRequestHandler healthHandler = new HttpHealthResponseHandler();
+		routeTable.add(HttpRequestMethod.GET, HEALTH_ROUTE, healthHandler);
+		routeTable.add(HttpRequestMethod.HEAD, HEALTH_ROUTE, healthHandler);
+		
+		//server metrics, only if enabled: they are served on the public port
+		if( WebServerConfiguration.INSTANCE.isStatusEnabled() ) {
+			HttpRequestHandler statusHandler = new HttpStatusResponseHandler();
+			routeTable.add(HttpRequestMethod.GET, STATUS_ROUTE, statusHandler);
+			routeTable.add(HttpRequestMethod.HEAD, STATUS_ROUTE, statusHandler);
+		}
+		
+		unimplementedHandler = new HttpUnimplementedRequestHandler();
+		
+		errorHandlers = new HttpRequestHandler[6];
+		errorHandlers[RequestException.BAD_REQUEST] = new HttpErrorResponseHandler(HttpResponseCode.BAD_REQUEST);
+		errorHandlers[RequestException.ENTITY_TOO_LARGE] = new HttpErrorResponseHandler(HttpResponseCode.ENTITY_TOO_LARGE);
+		errorHandlers[RequestException.HEADER_TOO_LARGE] = new HttpErrorResponseHandler(HttpResponseCode.REQUEST_HEADER_TOO_LARGE);
+		errorHandlers[RequestException.URI_TOO_LONG] = new HttpErrorResponseHandler(HttpResponseCode.REQUEST_URI_TOO_LONG);
+		errorHandlers[RequestException.SERVICE_UNAVAILABLE] = new HttpErrorResponseHandler(HttpResponseCode.SERVICE_UNAVAILABLE);
+		errorHandlers[RequestException.EXPECTATION_FAILED] = new HttpErrorResponseHandler(HttpResponseCode.EXPECTATION_FAILED);
+		internalErrorHandler = new HttpErrorResponseHandler(HttpResponseCode.INTERNAL_SERVER_ERROR);
 	}
 	
 	/**
-	 * Tries to find a HttpRequestHandler in the internal handler map.
-	 * The handler that can deal with the needed method will be returned on a successful hit.
-	 * The default handler will be returned if a handler is not implemented for the received method  
+	 * Mounts a handler on a path pattern, see RouteTable for the supported
+	 * patterns. Must be called before the server starts handling requests
 	 * 
-	 * @param method Method thad needs to be handled
+	 * @param method
+	 *            request method handled, or null for any method
+	 * @param pattern
+	 *            path pattern, e.g. "/api/users/:id" or "/static/*"
+	 * @param handler
+	 *            HttpRequestHandler object
+	 */
+	public static void mount(String method, String pattern, HttpRequestHandler handler) {
+		INSTANCE.routeTable.add(method, pattern, handler);
+	}
+	
+	/**
+	 * Tries to find a HttpRequestHandler for the request path and method.
+	 * The default handler will be returned if no handler is mounted for the
+	 * method on the matching route
+	 * 
+	 * @param request HttpRequest that needs to be handled
 	 * @return a HttpRequestHandler object
 	 */
-	public static HttpRequestHandler lookupRequestHandler(String method) {
+	public static HttpRequestHandler lookupRequestHandler(HttpRequest request) {
 
-		HttpRequestHandler handler = INSTANCE.handlerMap.get(method);
+		HttpRequestHandler handler = null;
+		
+		Route route = INSTANCE.routeTable.match(request);
+		if( route != null ) {
+			handler = route.getHandler(request.getMethod());
+		}
 		
 		if ( handler == null ) {
-			handler = new HttpUnimplementedRequestHandler();
+			handler = INSTANCE.unimplementedHandler;
+		}
+		
+		HandlerDispatchEvent dispatchEvent = new HandlerDispatchEvent();
+		if( dispatchEvent.shouldCommit() ) {
+			dispatchEvent.setMethod(request.getMethod());
+			dispatchEvent.setUrl(request.getURL());
+			dispatchEvent.setHandler(handler.getClass());
+			dispatchEvent.setWorker(Thread.currentThread().getName());
+			dispatchEvent.commit();
 		}
 		
 		return handler;
 	}
 	
 	public static HttpRequestHandler getErrorHandler(RequestException requestException) {
-		return new HttpErrorResponseHandler(requestException);
+		int cause = requestException.getErrorCause();
+		if( cause >= 0 && cause < INSTANCE.errorHandlers.length ) {
+			return INSTANCE.errorHandlers[cause];
+		}
+		
+		return INSTANCE.internalErrorHandler;
 	}
 }
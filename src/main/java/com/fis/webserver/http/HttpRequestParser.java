@@ -1,6 +1,8 @@
 package com.fis.webserver.http;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.util.regex.Matcher;
@@ -9,8 +11,11 @@ import java.util.regex.Pattern;
 import org.apache.log4j.Logger;
 
 import com.fis.webserver.config.WebServerConfiguration;
+import com.fis.webserver.events.RequestParsedEvent;
 import com.fis.webserver.http.exceptions.RequestException;
+import com.fis.webserver.model.http.HttpHeader;
 import com.fis.webserver.model.http.HttpRequest;
+import com.fis.webserver.model.http.RequestBody;
 
 /**
  * Parses a http request taking into account that the request might be available
@@ -32,6 +37,21 @@ import com.fis.webserver.model.http.HttpRequest;
  * parser state. The patterns will try to parse the request method and any
  * headers the request contains
  * 
+ * The entity body is bounded by the Content-Length header. Bytes received after
+ * the end of the request belong to the next (pipelined) request of the
+ * connection: they stay in the internal buffer and are parsed after reset() is
+ * called.
+ * 
+ * A body too large for the memory cache is stored in a temporary file. Once
+ * the bytes received with the headers are copied, the rest of such a body can
+ * be transferred from the socket straight into the file with
+ * transferBody(ReadableByteChannel), bypassing the internal buffer.
+ * 
+ * The expectation of a client sending "Expect: 100-continue" is checked as
+ * soon as the headers are parsed: a body that will be refused is rejected
+ * before the client sends it, otherwise isContinueExpected() tells the worker
+ * to send the 100 Continue interim response.
+ * 
  * @author Florin Iordache
  * 
  */
@@ -74,6 +94,12 @@ public class HttpRequestParser {
 	//flag indicating parsing has finished;
 	private boolean finished;
 	
+	//only expectation supported in the Expect header
+	public static final String CONTINUE_EXPECTATION = "100-continue";
+	
+	//flag indicating that the client waits for 100 Continue before sending the body
+	private boolean continueExpected;
+	
 	//default encoding for the http header
 	public static final String defaultEncoding = "ISO-8859-1";
 	
@@ -84,6 +110,9 @@ public class HttpRequestParser {
 	// while parsing the request
 	private RequestException reqParserException;
 	
+	//flight recorder event of the request being parsed, null if not recorded
+	private RequestParsedEvent parsedEvent;
+	
 	public  HttpRequestParser() {
 		
 		//allocating twice the allowed size of a request line
@@ -99,6 +128,59 @@ public class HttpRequestParser {
 		finished = false;
 	}
 
+	/**
+	 * Prepares the parser for the next request of a keep-alive connection.
+	 * The request object is reused and the data received after the previous
+	 * request is kept
+	 */
+	public void reset() {
+		currentState = STATE_REQUEST_LINE;
+		
+		httpRequest.reset();
+		
+		parsedHeaderName = null;
+		parsedHeaderValue = null;
+		
+		reqParserException = null;
+		
+		continueExpected = false;
+		finished = false;
+		
+		parsedEvent = null;
+	}
+	
+	/**
+	 * Prepares the parser for a new connection, dropping the data buffered
+	 * from the previous one
+	 */
+	public void clear() {
+		reset();
+		
+		buf.clear();
+	}
+	
+	/**
+	 * @return true if data received after the previous request is waiting to
+	 *         be parsed
+	 */
+	public boolean hasBufferedData() {
+		return buf.position() > 0;
+	}
+	
+	/**
+	 * @return true if the parser is waiting for the first byte of a request
+	 */
+	public boolean isIdle() {
+		return currentState == STATE_REQUEST_LINE && buf.position() == 0;
+	}
+	
+	/**
+	 * @return number of bytes that can still be passed to newData(ByteBuffer)
+	 */
+	public int getFreeSpace() {
+		return buf.remaining();
+	}
+	
 	public HttpRequest getHttpRequest() {
 		if(finished) {
 			return httpRequest;
@@ -119,6 +201,11 @@ public class HttpRequestParser {
 	 * 			as a mismatch between the content-length and the actual size of the sent content
 	 */
 	public boolean newData(ByteBuffer newData)  {		
+		if( parsedEvent == null && RequestParsedEvent.isRecorded() ) {
+			parsedEvent = new RequestParsedEvent();
+			parsedEvent.begin();
+		}
+		
 		try {
 			//append the data to the internal buffer
 			buf.put(newData);
@@ -153,6 +240,7 @@ public class HttpRequestParser {
 		if(finished) {
 			//done reading the request body
 			httpRequest.getRequestBody().done();
+			commitParsedEvent();
 		}
 		
 		return finished;
@@ -162,6 +250,75 @@ public class HttpRequestParser {
 		return httpRequest;
 	}
 	
+	/**
+	 * @return true if the client waits for a 100 Continue interim response
+	 *         before sending the request body
+	 */
+	public boolean isContinueExpected() {
+		return continueExpected && !finished && httpRequest.getRequestBody().getLength() == 0;
+	}
+	
+	/**
+	 * Called when the 100 Continue response was sent, it is sent only once
+	 */
+	public void continueSent() {
+		continueExpected = false;
+	}
+	
+	/**
+	 * @return true if the rest of the request body can be transferred directly
+	 *         from the channel to the temporary file of the body
+	 */
+	public boolean canTransferBody() {
+		return currentState == STATE_BODY && !finished && buf.position() == 0
+				&& httpRequest.getRequestBody().isStoredInFile();
+	}
+	
+	/**
+	 * Transfers the missing bytes of the request body from a channel directly
+	 * to the temporary file of the body. Must be called only if
+	 * canTransferBody() returned true
+	 * 
+	 * @param channel
+	 *            channel of the client
+	 * @return number of bytes transferred, 0 if the channel had no data or
+	 *         reached its end
+	 * @throws IOException
+	 *             if reading from the channel or writing the file failed
+	 */
+	public long transferBody(ReadableByteChannel channel) throws IOException {
+		RequestBody requestBody = httpRequest.getRequestBody();
+		
+		long missingBytes = httpRequest.getContentLength() - requestBody.getLength();
+		long transferred = requestBody.transferFrom(channel, missingBytes);
+		
+		if( requestBody.getShouldFinish() ) {
+			finished = true;
+			requestBody.done();
+			commitParsedEvent();
+		}
+		
+		return transferred;
+	}
+	
+	/**
+	 * Emits the flight recorder event of the parsed request, if it is recorded
+	 */
+	private void commitParsedEvent() {
+		if( parsedEvent == null ) {
+			return;
+		}
+		
+		parsedEvent.setMethod(httpRequest.getMethod());
+		parsedEvent.setUrl(httpRequest.getURL());
+		parsedEvent.setBodyBytes(httpRequest.getRequestBody().getLength());
+		parsedEvent.setErrorCause(reqParserException != null ? reqParserException.getErrorCause() : -1);
+		parsedEvent.setWorker(Thread.currentThread().getName());
+		parsedEvent.commit();
+		
+		parsedEvent = null;
+	}
+	
 	/**
 	 * 
 	 * The method that does the actual data parsing.
@@ -215,7 +372,10 @@ public class HttpRequestParser {
 			switch (currentState) {
 			case STATE_REQUEST_LINE:
 				//try to parse the header
-				if( methodMatcher.matches() ) {
+				if( "".equals(lineStr) ) {
+					//empty line between pipelined requests, ignore it
+				}
+				else if( methodMatcher.matches() ) {
 					//parsing success, extract the data
 					String method = methodMatcher.group(1);
 					String URL = methodMatcher.group(2);
@@ -244,6 +404,9 @@ public class HttpRequestParser {
 					//save the previous header
 					saveParsedHeader();
 					
+					//refuse the expectations that can't be met before the body is sent
+					checkExpectation();
+					
 					// if the Content-Length header was received, check if it
 					// does not exceed the max allowed entity size
 					if( httpRequest.getContentLength() > WebServerConfiguration.MAX_ENTITY_BODY_SIZE ) {
@@ -255,6 +418,14 @@ public class HttpRequestParser {
 					if(httpRequest.getContentLength() <= 0) {
 						finished = true;
 					}
+					else {
+						// a multipart body is parsed as it arrives, another large
+						// body goes to a preallocated temp file
+						if( !httpRequest.getRequestBody().prepareStorage(httpRequest.getHeader(HttpHeader.CONTENT_TYPE)) ) {
+							logger.trace("No temporary file available for the request body!");
+							throw new RequestException(RequestException.SERVICE_UNAVAILABLE);
+						}
+					}
 				}
 				else if(headerMatcher.matches()) {
 					//save the previous parsed header, if available
@@ -330,16 +501,52 @@ public class HttpRequestParser {
 	
 	/**
 	 * Used only when the parsing has reached the request body
-	 * Will copy all remaining data in buffer to the request body
+	 * Will copy the remaining data in buffer to the request body, up to the
+	 * length announced by the Content-Length header
 	 */
 	private void copyBufferToBody() {
 		//check if we're parsing the body
 		if( currentState == STATE_BODY ) {
+			long missingBytes = httpRequest.getContentLength() - httpRequest.getRequestBody().getLength();
+			if( missingBytes <= 0 ) {
+				return;
+			}
+			
+			//leave the bytes of the next request in the buffer
+			int originalLimit = buf.limit();
+			if( buf.remaining() > missingBytes ) {
+				buf.limit(buf.position() + (int) missingBytes);
+			}
+			
 			//append buf to the request body of the http request
 			httpRequest.getRequestBody().append(buf);
+			
+			buf.limit(originalLimit);
 		}
 	}
 
+	/**
+	 * Checks the Expect header of the request. Only 100-continue is supported,
+	 * the header is ignored for HTTP/1.0 clients
+	 * 
+	 * @throws RequestException
+	 *             if the client expects something else
+	 */
+	private void checkExpectation() throws RequestException {
+		String expectation = httpRequest.getHeader(HttpHeader.EXPECT);
+		if( expectation == null || httpRequest.getHttpMajorVersion() < 1
+				|| (httpRequest.getHttpMajorVersion() == 1 && httpRequest.getHttpMinorVersion() < 1) ) {
+			return;
+		}
+		
+		if( !CONTINUE_EXPECTATION.equalsIgnoreCase(expectation.trim()) ) {
+			logger.trace("Unsupported expectation: " + expectation);
+			throw new RequestException(RequestException.EXPECTATION_FAILED);
+		}
+		
+		continueExpected = true;
+	}
+	
 	/**
 	 * Saves the values parsed in the parsedHeaderValue* variables in the
 	 * request object
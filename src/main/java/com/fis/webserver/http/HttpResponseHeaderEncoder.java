@@ -0,0 +1,189 @@
+package com.fis.webserver.http;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import com.fis.webserver.model.http.HttpHeader;
+import com.fis.webserver.model.http.HttpResponse;
+import com.fis.webserver.model.http.HttpResponseCode;
+import com.fis.webserver.util.ByteBufferPool;
+import com.fis.webserver.util.HttpDateClock;
+
+/**
+ * Serializes the status line and the headers of a HttpResponse
+ * 
+ * The header is written as ASCII bytes directly into a pooled buffer. Status
+ * lines, the generic header lines and the names of the common headers are
+ * encoded once, when the class is loaded; the Date line is provided by the
+ * HttpDateClock. Only the header values are encoded per response, without
+ * creating intermediate Strings.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class HttpResponseHeaderEncoder {
+	
+	//size of the pooled header buffers, enough for the headers this server sends
+	public static final int HEADER_BUFFER_SIZE = 1024;
+	
+	//maximum number of free header buffers kept by each worker thread
+	public static final int MAX_POOLED_BUFFERS = 64;
+	
+	private static final byte[] CRLF = { 13, 10 };
+	
+	private static final ByteBufferPool headerBufferPool = new ByteBufferPool(HEADER_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+	
+	//encoded status lines, indexed by HttpResponseCode ordinal
+	private static final byte[][] statusLines;
+	
+	private static final byte[] serverLine = encode(HttpHeader.SERVER + ": " + HttpResponse.SERVER_HEADER_VALUE + "\r\n");
+	private static final byte[] connectionCloseLine = encode(HttpHeader.CONNECTION + ": Close\r\n");
+	private static final byte[] connectionKeepAliveLine = encode(HttpHeader.CONNECTION + ": keep-alive\r\n");
+	private static final byte[] emptyContentLengthLine = encode(HttpHeader.CONTENT_LENGTH + ": 0\r\n");
+	private static final byte[] contentLengthName = encode(HttpHeader.CONTENT_LENGTH + ": ");
+	private static final byte[] transferEncodingChunkedLine = encode(HttpHeader.TRANSFER_ENCODING + ": chunked\r\n");
+	
+	//header names that are encoded in advance, together with the ": " separator
+	private static final String[] commonHeaderNames = { HttpHeader.CONTENT_TYPE,
+			HttpHeader.LAST_MODIFIED, HttpHeader.ETAG, HttpHeader.ACCEPT_RANGES,
+			HttpHeader.CONTENT_RANGE, HttpHeader.CONTENT_ENCODING, HttpHeader.VARY };
+	private static final byte[][] encodedHeaderNames;
+	
+	static {
+		HttpResponseCode[] codes = HttpResponseCode.values();
+		statusLines = new byte[codes.length][];
+		for( HttpResponseCode code : codes ) {
+			statusLines[code.ordinal()] = encode(HttpResponse.HTTP_VERSION
+					+ " " + code.getCode() + " " + code.getReasonPhrase() + "\r\n");
+		}
+		
+		encodedHeaderNames = new byte[commonHeaderNames.length][];
+		for( int i = 0 ; i < commonHeaderNames.length ; i++ ) {
+			encodedHeaderNames[i] = encode(commonHeaderNames[i] + ": ");
+		}
+	}
+	
+	/**
+	 * Serializes the response header into a buffer taken from the header
+	 * buffer pool
+	 * 
+	 * @param response
+	 *            HttpResponse object
+	 * @return ByteBuffer containing the header, ready for reading. It can be
+	 *         given back to the pool with release(ByteBuffer)
+	 */
+	public static ByteBuffer encode(HttpResponse response) {
+		ByteBuffer buffer = headerBufferPool.acquire();
+		
+		while(true) {
+			try {
+				writeHeader(response, buffer);
+				buffer.flip();
+				
+				return buffer;
+			}
+			catch(BufferOverflowException e) {
+				//unusually large header, retry with a bigger buffer outside of the pool
+				buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+			}
+		}
+	}
+	
+	/**
+	 * Gives a header buffer back to the pool, once its content was sent
+	 * 
+	 * @param buffer
+	 *            buffer returned by encode(HttpResponse)
+	 */
+	public static void release(ByteBuffer buffer) {
+		headerBufferPool.release(buffer);
+	}
+	
+	private static void writeHeader(HttpResponse response, ByteBuffer buffer) {
+		buffer.put(statusLines[response.getStatusCode().ordinal()]);
+		buffer.put(serverLine);
+		buffer.put(HttpDateClock.getDateHeaderLine());
+		buffer.put(response.isKeepAlive() ? connectionKeepAliveLine : connectionCloseLine);
+		
+		for( int i = 0 ; i < response.getHeaderCount() ; i++ ) {
+			writeHeaderName(response.getHeaderName(i), buffer);
+			writeString(response.getHeaderValue(i), buffer);
+			buffer.put(CRLF);
+		}
+		
+		if( response.getContentLength() >= 0 ) {
+			buffer.put(contentLengthName);
+			writeNumber(response.getContentLength(), buffer);
+			buffer.put(CRLF);
+		}
+		else if( response.isChunked() ) {
+			buffer.put(transferEncodingChunkedLine);
+		}
+		else if( !response.isDelimitedByClose() && response.getStatusCode() != HttpResponseCode.NOT_MODIFIED ) {
+			//no body, the client must not wait for the connection to close
+			buffer.put(emptyContentLengthLine);
+		}
+		
+		buffer.put(CRLF);
+	}
+	
+	private static void writeHeaderName(String headerName, ByteBuffer buffer) {
+		for( int i = 0 ; i < commonHeaderNames.length ; i++ ) {
+			if( commonHeaderNames[i] == headerName ) {
+				buffer.put(encodedHeaderNames[i]);
+				return;
+			}
+		}
+		
+		writeString(headerName, buffer);
+		buffer.put((byte) ':');
+		buffer.put((byte) ' ');
+	}
+	
+	/**
+	 * Writes the characters of a string as single bytes. Characters outside of
+	 * ISO-8859-1 are replaced with '?'
+	 */
+	private static void writeString(String value, ByteBuffer buffer) {
+		int length = value.length();
+		if( buffer.remaining() < length ) {
+			throw new BufferOverflowException();
+		}
+		
+		for( int i = 0 ; i < length ; i++ ) {
+			char c = value.charAt(i);
+			buffer.put(c <= 0xFF ? (byte) c : (byte) '?');
+		}
+	}
+	
+	/**
+	 * Writes the decimal representation of a non negative number
+	 */
+	private static void writeNumber(long value, ByteBuffer buffer) {
+		int digits = 1;
+		for( long rest = value / 10 ; rest > 0 ; rest /= 10 ) {
+			digits++;
+		}
+		
+		if( buffer.remaining() < digits ) {
+			throw new BufferOverflowException();
+		}
+		
+		int end = buffer.position() + digits;
+		for( int position = end - 1 ; position >= buffer.position() ; position-- ) {
+			buffer.put(position, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(end);
+	}
+	
+	private static byte[] encode(String value) {
+		byte[] encoded = new byte[value.length()];
+		for( int i = 0 ; i < encoded.length ; i++ ) {
+			encoded[i] = (byte) value.charAt(i);
+		}
+		
+		return encoded;
+	}
+}
@@ -1,19 +1,28 @@
 package com.fis.webserver.http;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 import org.apache.log4j.Logger;
 
+import com.fis.webserver.events.ResponseCompletedEvent;
+import com.fis.webserver.events.ResponseFirstByteEvent;
+import com.fis.webserver.model.http.HttpRequest;
 import com.fis.webserver.model.http.HttpResponse;
+import com.fis.webserver.model.http.body.AsyncResponseBody;
+import com.fis.webserver.model.http.body.ChunkedBody;
+import com.fis.webserver.model.http.body.ResponseBody;
 import com.fis.webserver.util.cleaner.Cleaner;
 
 /**
  * Prepares the HttpResponse to be sent back to the client.
  * 
  * It allows for the response to be sent back in chunks, by the use of repeated
- * invocations of incrementalWriteResponse(ByteBuffer)
- * 
+ * invocations of incrementalWriteResponse(ByteBuffer), or directly to the
+ * client's channel with writeResponse(WritableByteChannel, long). The latter
+ * lets file bodies be transferred by the kernel, without copying them through
+ * a user space buffer.
  * 
  * @author Florin Iordache
  * 
@@ -25,14 +34,144 @@ public class IncrementalResponseWriter {
 	
 	private HttpResponse response;
 	
-	//buffer containing the http response header
+	//buffer containing the http response header, null after it was written
 	private ByteBuffer responseHeader;
 	
+	//body of the response, framed with the chunked transfer coding if needed
+	private ResponseBody body;
+	
+	//length of the body, -1 if it is not known in advance
+	private long bodyLength;
+	
+	//number of body bytes sent so far
+	private long bodyBytesSent;
+	
+	//number of bytes of this response sent so far, header included
+	private long bytesSent;
+	
+	//flag indicating that the resources of the response were released
+	private boolean cleanedUp;
+	
+	//flight recorder events of the response, null if not recorded
+	private ResponseFirstByteEvent firstByteEvent;
+	private ResponseCompletedEvent completedEvent;
+	
+	/**
+	 * Creates a writer without a response, it must be prepared with
+	 * reset(HttpResponse) before writing. Used by the connections that recycle
+	 * their writer between requests
+	 */
+	public IncrementalResponseWriter() {
+		cleanedUp = true;
+	}
+	
 	public IncrementalResponseWriter(HttpResponse response) {
+		reset(response);
+	}
+	
+	/**
+	 * Prepares this writer to send a new response. The previous response must
+	 * have been completely sent or aborted
+	 * 
+	 * @param response
+	 *            HttpResponse object that will be written
+	 */
+	public void reset(HttpResponse response) {
+		reset(response, null);
+	}
+	
+	/**
+	 * Prepares this writer to send the response of a request. The previous
+	 * response must have been completely sent or aborted
+	 * 
+	 * @param response
+	 *            HttpResponse object that will be written
+	 * @param request
+	 *            request answered by the response, used only to describe the
+	 *            flight recorder events of the response. May be null
+	 */
+	public void reset(HttpResponse response, HttpRequest request) {
 		this.response = response;
+		cleanedUp = false;
 		
 		//prepare the response header
 		responseHeader = response.getRawHeader();
+		
+		// a body of unknown length is delimited by chunks, or by closing the
+		// connection if the client doesn't support them
+		body = response.getBody();
+		if( response.isChunked() ) {
+			body = new ChunkedBody(body);
+		}
+		
+		bodyLength = body != null ? body.getLength() : 0;
+		bodyBytesSent = 0;
+		bytesSent = 0;
+		
+		firstByteEvent = null;
+		if( ResponseFirstByteEvent.isRecorded() ) {
+			firstByteEvent = new ResponseFirstByteEvent();
+			if( request != null ) {
+				firstByteEvent.setMethod(request.getMethod());
+				firstByteEvent.setUrl(request.getURL());
+			}
+			firstByteEvent.begin();
+		}
+		
+		completedEvent = null;
+		if( ResponseCompletedEvent.isRecorded() ) {
+			completedEvent = new ResponseCompletedEvent();
+			if( request != null ) {
+				completedEvent.setMethod(request.getMethod());
+				completedEvent.setUrl(request.getURL());
+			}
+			completedEvent.begin();
+		}
+	}
+	
+	/**
+	 * @return number of bytes of the response sent so far, header included
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+	
+	/**
+	 * @return number of body bytes of the response sent so far
+	 */
+	public long getBodyBytesSent() {
+		return bodyBytesSent;
+	}
+	
+	/**
+	 * @return true if the last write stopped because the body is waiting for
+	 *         data from another thread, see AsyncResponseBody
+	 */
+	public boolean isWaitingForData() {
+		//the body may be wrapped in the chunked coding, ask the original one
+		ResponseBody source = response != null ? response.getBody() : null;
+		return source instanceof AsyncResponseBody && ((AsyncResponseBody) source).isWaitingForData();
+	}
+	
+	/**
+	 * Used by the write scheduler to give priority to the responses that are
+	 * almost done
+	 * 
+	 * @return number of bytes of the response not sent yet, Long.MAX_VALUE if
+	 *         the length of the body is not known
+	 */
+	public long getBytesRemaining() {
+		if( cleanedUp ) {
+			return 0;
+		}
+		
+		if( bodyLength < 0 ) {
+			return Long.MAX_VALUE;
+		}
+		
+		long headerRemaining = responseHeader != null ? responseHeader.remaining() : 0;
+		
+		return headerRemaining + bodyLength - bodyBytesSent;
 	}
 
 	/**
@@ -53,22 +192,33 @@ public class IncrementalResponseWriter {
 		try {
 			while(remainingBufferCapacity > 0) {
 				//check if we finished writing the header
-				if( responseHeader.remaining() > 0 ) {
-					writeResponseChunk(responseHeader, destination);
+				if( responseHeader != null ) {
+					bytesSent += writeResponseChunk(responseHeader, destination);
+					
+					//header sent, give the buffer back to the pool
+					if( responseHeader.remaining() == 0 ) {
+						HttpResponseHeaderEncoder.release(responseHeader);
+						responseHeader = null;
+					}
 				}
 				else {
-					//check if the response has an associated file channel
-					FileChannel responseResourceChannel = response.getContentChannel();
-
-					//read from response file channel directly to destination buffer
-					if( responseResourceChannel != null ) {
-						int bytesRead = responseResourceChannel.read(destination);
+					//read from the response body directly to destination buffer
+					if( body != null ) {
+						int bytesRead = body.read(destination);
 						
 						//check if we finished writing the response
 						if( bytesRead < 0 ) {
 							processingFinished = true;
 							break;
 						}
+						
+						bodyBytesSent += bytesRead;
+						bytesSent += bytesRead;
+						
+						//the next part of the body is not available yet
+						if( bytesRead == 0 ) {
+							break;
+						}
 					}
 					else {
 						//don't have any response body, signal the end of processing
@@ -84,17 +234,143 @@ public class IncrementalResponseWriter {
 			logger.error("Error while writing response!", e);
 		}
 		
-		if( processingFinished ) {			
-			//call the response resource cleaner, if it exists
-			Cleaner resourceCleaner = response.getResourceCleaner();
-			if(resourceCleaner != null) {
-				resourceCleaner.cleanUp();
+		commitFirstByteEvent();
+		
+		if( processingFinished ) {
+			cleanUp(false);
+		}
+		
+		return processingFinished;
+	}
+	
+	/**
+	 * Writes a portion of the response directly to a channel
+	 * 
+	 * The header is written from its buffer, while the body is transferred
+	 * with ResponseBody.transferTo, so file content goes straight from the page
+	 * cache to the socket. Writing stops when the channel can't take more data,
+	 * nothing is lost on partial writes.
+	 * 
+	 * @param channel
+	 *            channel receiving the response, usually the client's
+	 *            SocketChannel
+	 * @param maxBytes
+	 *            maximum number of body bytes to write in this call, so a large
+	 *            response doesn't keep the worker away from its other clients
+	 * @return true if the response has been completely transferred, false
+	 *         otherwise
+	 * @throws IOException
+	 *             if writing to the channel fails
+	 */
+	public boolean writeResponse(WritableByteChannel channel, long maxBytes) throws IOException {
+		boolean processingFinished = false;
+		
+		try {
+			if( responseHeader != null ) {
+				bytesSent += channel.write(responseHeader);
+				
+				//the channel is full, try again when it becomes writable
+				if( responseHeader.remaining() > 0 ) {
+					return false;
+				}
+				
+				//header sent, give the buffer back to the pool
+				HttpResponseHeaderEncoder.release(responseHeader);
+				responseHeader = null;
+			}
+			
+			if( body == null ) {
+				processingFinished = true;
+			}
+			else {
+				long bytesWritten = body.transferTo(channel, maxBytes);
+				
+				//check if we finished writing the response
+				if( bytesWritten < 0 ) {
+					processingFinished = true;
+				}
+				else {
+					bodyBytesSent += bytesWritten;
+					bytesSent += bytesWritten;
+				}
+			}
+		}
+		finally {
+			commitFirstByteEvent();
+			
+			if( processingFinished ) {
+				cleanUp(false);
 			}
 		}
 		
 		return processingFinished;
 	}
+	
+	/**
+	 * Releases the resources of a response that will not be completely sent,
+	 * for example because the client closed the connection
+	 */
+	public void abort() {
+		if( responseHeader != null ) {
+			HttpResponseHeaderEncoder.release(responseHeader);
+			responseHeader = null;
+		}
+		
+		cleanUp(true);
+	}
+	
+	/**
+	 * Closes the response body and calls the response resource cleaner, if it
+	 * exists. Only the first call has any effect
+	 * 
+	 * @param aborted
+	 *            true if the response was not completely sent
+	 */
+	private void cleanUp(boolean aborted) {
+		if( cleanedUp ) {
+			return;
+		}
+		cleanedUp = true;
+		
+		if( completedEvent != null ) {
+			completedEvent.setStatus(response.getStatusCode().getCode());
+			completedEvent.setBytes(bytesSent);
+			completedEvent.setAborted(aborted);
+			completedEvent.setWorker(Thread.currentThread().getName());
+			completedEvent.commit();
+			
+			completedEvent = null;
+		}
+		
+		if( body != null ) {
+			body.close();
+		}
+		
+		Cleaner resourceCleaner = response.getResourceCleaner();
+		if(resourceCleaner != null) {
+			resourceCleaner.cleanUp();
+		}
+		
+		body = null;
+	}
 
+	/**
+	 * Emits the flight recorder event of the first byte, once something was
+	 * written
+	 */
+	private void commitFirstByteEvent() {
+		if( firstByteEvent == null || bytesSent == 0 ) {
+			return;
+		}
+		
+		firstByteEvent.setStatus(response.getStatusCode().getCode());
+		firstByteEvent.setBytes(bytesSent);
+		firstByteEvent.setWorker(Thread.currentThread().getName());
+		firstByteEvent.commit();
+		
+		firstByteEvent = null;
+	}
+	
 	/**
 	 * Attempts to write up to size bytes from the sourceBuffer to the outputBuffer
 	 * 
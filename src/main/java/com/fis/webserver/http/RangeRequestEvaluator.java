@@ -0,0 +1,152 @@
+package com.fis.webserver.http;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fis.webserver.model.http.ByteRange;
+import com.fis.webserver.model.http.HttpHeader;
+import com.fis.webserver.model.http.HttpRequest;
+import com.fis.webserver.util.HttpDateFormat;
+import com.fis.webserver.util.cache.ResourceMetadata;
+
+/**
+ * Evaluates the Range and If-Range headers of a request
+ * 
+ * Only byte ranges are supported. A Range header that can't be parsed, or
+ * that asks for too many ranges, is ignored and the whole resource is sent,
+ * as allowed by HTTP/1.1.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class RangeRequestEvaluator {
+	
+	public static final String BYTES_UNIT = "bytes";
+	
+	//maximum number of ranges served in one response
+	public static final int MAX_RANGES = 32;
+	
+	/**
+	 * Determines the ranges of the resource that must be sent
+	 * 
+	 * @param request
+	 *            GET HttpRequest object
+	 * @param resource
+	 *            metadata of the requested resource
+	 * @return null if the whole resource must be sent, an empty list if none
+	 *         of the requested ranges can be satisfied, or the list of ranges
+	 *         to send otherwise
+	 */
+	public static List<ByteRange> evaluate(HttpRequest request, ResourceMetadata resource) {
+		String range = request.getHeader(HttpHeader.RANGE);
+		if( range == null ) {
+			return null;
+		}
+		
+		//the client's copy changed, the whole resource is needed
+		String ifRange = request.getHeader(HttpHeader.IF_RANGE);
+		if( ifRange != null && !matchesIfRange(ifRange.trim(), resource) ) {
+			return null;
+		}
+		
+		return parse(range, resource.getLength());
+	}
+	
+	/**
+	 * Parses the value of a Range header
+	 * 
+	 * @param range
+	 *            header value, e.g. "bytes=0-499,-500"
+	 * @param length
+	 *            length of the resource
+	 * @return null if the header is invalid, the list of satisfiable ranges
+	 *         otherwise (possibly empty)
+	 */
+	public static List<ByteRange> parse(String range, long length) {
+		range = range.trim();
+		if( !range.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())
+				|| range.length() <= BYTES_UNIT.length()
+				|| range.charAt(BYTES_UNIT.length()) != '=' ) {
+			return null;
+		}
+		
+		List<ByteRange> ranges = new ArrayList<ByteRange>();
+		
+		int specCount = 0;
+		int position = BYTES_UNIT.length() + 1;
+		while( position < range.length() ) {
+			int end = range.indexOf(',', position);
+			if( end < 0 ) {
+				end = range.length();
+			}
+			
+			String spec = range.substring(position, end).trim();
+			position = end + 1;
+			
+			//empty list elements are allowed
+			if( spec.length() == 0 ) {
+				continue;
+			}
+			
+			if( ++specCount > MAX_RANGES ) {
+				return null;
+			}
+			
+			int dash = spec.indexOf('-');
+			if( dash < 0 ) {
+				return null;
+			}
+			
+			long first;
+			long last;
+			try {
+				if( dash == 0 ) {
+					//suffix range: the last n bytes
+					long suffixLength = Long.parseLong(spec.substring(1));
+					if( suffixLength <= 0 ) {
+						continue;
+					}
+					first = Math.max(0, length - suffixLength);
+					last = length - 1;
+				}
+				else {
+					first = Long.parseLong(spec.substring(0, dash));
+					last = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+					if( last < first ) {
+						return null;
+					}
+					last = Math.min(last, length - 1);
+				}
+			}
+			catch(NumberFormatException e) {
+				return null;
+			}
+			
+			//unsatisfiable ranges are left out
+			if( first < length && first >= 0 && last >= first ) {
+				ranges.add(new ByteRange(first, last));
+			}
+		}
+		
+		if( specCount == 0 ) {
+			return null;
+		}
+		
+		return ranges;
+	}
+	
+	/**
+	 * Checks the If-Range validator against the resource. An entity tag must
+	 * match using the strong comparison, a date must be the exact modification
+	 * date of the resource.
+	 */
+	private static boolean matchesIfRange(String ifRange, ResourceMetadata resource) {
+		if( ifRange.startsWith("\"") || ifRange.startsWith("W/") ) {
+			return ifRange.equals(resource.getETag());
+		}
+		
+		long date = HttpDateFormat.parse(ifRange);
+		return date >= 0 && date / 1000 == resource.getLastModified() / 1000;
+	}
+}
@@ -0,0 +1,184 @@
+package com.fis.webserver.http;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fis.webserver.config.WebServerConfiguration;
+
+/**
+ * I/O threads and chunk buffers used to read large files ahead of the socket
+ * 
+ * The disk reads of the ReadAheadBody responses run on these threads instead
+ * of the workers, so a file that is not in the page cache delays only its own
+ * response. The chunks are direct buffers shared by all the threads; a buffer
+ * is filled by an I/O thread and released by the worker that sent it.
+ * 
+ * The loads never run on a worker: when too many are waiting for a thread,
+ * a load is kept in a bounded retry queue and submitted again by the I/O
+ * threads as they finish their tasks.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public enum ReadAheadService {
+	INSTANCE;
+	
+	//size of a chunk loaded ahead
+	public static final int CHUNK_SIZE = 64 * 1024;
+	
+	//maximum number of free chunk buffers kept for reuse
+	public static final int MAX_POOLED_BUFFERS = 256;
+	
+	//maximum number of loading tasks waiting for a thread
+	public static final int MAX_PENDING_LOADS = 1024;
+	
+	//maximum number of loading tasks waiting to be submitted again
+	public static final int MAX_DEFERRED_LOADS = 1024;
+	
+	private long minSize;
+	private int chunks;
+	
+	private ExecutorService loadExecutor;
+	
+	//loading tasks rejected by the executor, retried when a task finishes
+	private ConcurrentLinkedQueue<Runnable> deferredLoads;
+	private AtomicInteger deferredLoadCount;
+	
+	private ConcurrentLinkedQueue<ByteBuffer> freeBuffers;
+	private AtomicInteger freeBufferCount;
+	
+	private ReadAheadService() {
+		minSize = WebServerConfiguration.INSTANCE.getReadAheadMinSize();
+		chunks = Math.max(1, WebServerConfiguration.INSTANCE.getReadAheadChunks());
+		
+		freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+		freeBufferCount = new AtomicInteger();
+		
+		deferredLoads = new ConcurrentLinkedQueue<Runnable>();
+		deferredLoadCount = new AtomicInteger();
+		
+		int threads = Math.max(1, WebServerConfiguration.INSTANCE.getReadAheadThreads());
+		loadExecutor = new ThreadPoolExecutor(threads, threads, 0,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_PENDING_LOADS),
+				new ThreadFactory() {
+					private AtomicInteger threadCount = new AtomicInteger();
+					
+					@Override
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(task);
+						thread.setName("ReadAhead-" + threadCount.incrementAndGet());
+						thread.setDaemon(true);
+						
+						return thread;
+					}
+				}) {
+			@Override
+			protected void afterExecute(Runnable task, Throwable failure) {
+				//a place in the queue was freed
+				if( !deferredLoads.isEmpty() ) {
+					submitDeferred();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * @return true if a file response of this length should be read ahead
+	 */
+	public static boolean accepts(long length) {
+		return INSTANCE.minSize > 0 && length >= INSTANCE.minSize;
+	}
+	
+	/**
+	 * @return number of chunks loaded ahead for each response
+	 */
+	public static int getChunks() {
+		return INSTANCE.chunks;
+	}
+	
+	/**
+	 * Runs a loading task on an I/O thread, later if too many tasks are
+	 * waiting
+	 * 
+	 * @return false if the retry queue is full as well, the task won't run
+	 */
+	public static boolean submit(Runnable loadTask) {
+		try {
+			INSTANCE.loadExecutor.execute(loadTask);
+			
+			return true;
+		}
+		catch(RejectedExecutionException e) {
+			return INSTANCE.defer(loadTask);
+		}
+	}
+	
+	private boolean defer(Runnable loadTask) {
+		if( deferredLoadCount.incrementAndGet() > MAX_DEFERRED_LOADS ) {
+			deferredLoadCount.decrementAndGet();
+			return false;
+		}
+		deferredLoads.offer(loadTask);
+		
+		//the queued tasks may have all finished in the meantime
+		submitDeferred();
+		
+		return true;
+	}
+	
+	/**
+	 * Moves the deferred tasks to the executor, while it accepts them
+	 */
+	private void submitDeferred() {
+		Runnable loadTask = null;
+		while( (loadTask = deferredLoads.poll()) != null ) {
+			try {
+				loadExecutor.execute(loadTask);
+				deferredLoadCount.decrementAndGet();
+			}
+			catch(RejectedExecutionException e) {
+				deferredLoads.offer(loadTask);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * @return a cleared chunk buffer, reusing a free one if available
+	 */
+	public static ByteBuffer acquireBuffer() {
+		ByteBuffer buffer = INSTANCE.freeBuffers.poll();
+		if( buffer == null ) {
+			return ByteBuffer.allocateDirect(CHUNK_SIZE);
+		}
+		
+		INSTANCE.freeBufferCount.decrementAndGet();
+		buffer.clear();
+		
+		return buffer;
+	}
+	
+	/**
+	 * Gives a chunk buffer back, from any thread
+	 */
+	public static void releaseBuffer(ByteBuffer buffer) {
+		if( buffer == null || buffer.capacity() != CHUNK_SIZE ) {
+			return;
+		}
+		
+		if( INSTANCE.freeBufferCount.incrementAndGet() <= MAX_POOLED_BUFFERS ) {
+			INSTANCE.freeBuffers.offer(buffer);
+		}
+		else {
+			INSTANCE.freeBufferCount.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,341 @@
+package com.fis.webserver.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+import com.fis.webserver.config.WebServerConfiguration;
+import com.fis.webserver.model.http.HttpHeader;
+import com.fis.webserver.model.http.HttpRequest;
+import com.fis.webserver.model.http.HttpResponse;
+import com.fis.webserver.model.http.HttpResponseCode;
+import com.fis.webserver.model.http.body.BufferBody;
+import com.fis.webserver.model.http.body.ProducerBody;
+import com.fis.webserver.util.cache.CompressedVariant;
+import com.fis.webserver.util.cache.CompressedVariantCache;
+import com.fis.webserver.util.cache.ResourceMetadata;
+
+/**
+ * Output stage gzip compressing the responses, between the request handler
+ * and the IncrementalResponseWriter
+ * 
+ * Only whole files with a compressible content type, above the configured
+ * size, are compressed. The compression never runs on a worker thread: the
+ * first request of a file is sent uncompressed while the file is compressed by
+ * a background thread; the compressed copy is kept in the
+ * CompressedVariantCache and the following requests get it from memory, with a
+ * known Content-Length. The files too large for the cache are compressed
+ * while they are sent, by a GzipStreamProducer, and sent chunked.
+ * 
+ * The ETag of a compressed response is the weak version of the file's ETag,
+ * so revalidations still match while range requests, which need a strong
+ * validator, can't mix the two representations.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public enum ResponseCompressor {
+	INSTANCE;
+	
+	//maximum number of files waiting to be compressed
+	public static final int MAX_PENDING_COMPRESSIONS = 256;
+	
+	//maximum number of files compressed while they are sent
+	public static final int MAX_STREAMING_COMPRESSIONS = 64;
+	
+	//content types compressed regardless of the subtype
+	private static final String TEXT_TYPE_PREFIX = "text/";
+	
+	//other compressible content types
+	private static final String[] COMPRESSIBLE_TYPES = { "application/x-javascript",
+			"application/javascript", "application/json", "application/xml",
+			"application/xhtml+xml", "application/rss+xml", "application/atom+xml",
+			"image/svg+xml" };
+	
+	private Logger logger;
+	
+	private boolean enabled;
+	private long minSize;
+	
+	private ExecutorService compressionExecutor;
+	
+	//runs the GzipStreamProducer tasks, never rejects them
+	private ExecutorService streamingExecutor;
+	private AtomicInteger streamingCompressions;
+	
+	//paths of the files being compressed
+	private ConcurrentHashMap<String, Boolean> pendingCompressions;
+	
+	private ResponseCompressor() {
+		logger = Logger.getLogger(ResponseCompressor.class);
+		
+		enabled = WebServerConfiguration.INSTANCE.isCompression();
+		minSize = WebServerConfiguration.INSTANCE.getCompressionMinSize();
+		
+		pendingCompressions = new ConcurrentHashMap<String, Boolean>();
+		
+		streamingCompressions = new AtomicInteger();
+		
+		int threads = Math.max(1, WebServerConfiguration.INSTANCE.getCompressionThreads());
+		compressionExecutor = new ThreadPoolExecutor(threads, threads, 0,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_PENDING_COMPRESSIONS),
+				createThreadFactory("ResponseCompressor-"));
+		
+		//bounded by MAX_STREAMING_COMPRESSIONS, each producer queues one task at a time
+		streamingExecutor = new ThreadPoolExecutor(threads, threads, 0,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				createThreadFactory("ResponseCompressor-stream-"));
+	}
+	
+	private static ThreadFactory createThreadFactory(final String namePrefix) {
+		return new ThreadFactory() {
+			private AtomicInteger threadCount = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task);
+				thread.setName(namePrefix + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				
+				return thread;
+			}
+		};
+	}
+	
+	/**
+	 * Replaces the body of a response with its compressed version, if the
+	 * client accepts it and it is available
+	 * 
+	 * @param request
+	 *            HttpRequest object, null if the request could not be parsed
+	 * @param response
+	 *            HttpResponse built by the request handler, changed in place
+	 */
+	public static void compress(HttpRequest request, HttpResponse response) {
+		INSTANCE.apply(request, response);
+	}
+	
+	private void apply(HttpRequest request, HttpResponse response) {
+		ResourceMetadata resource = response.getResource();
+		if( !enabled || request == null || resource == null
+				|| response.getStatusCode() != HttpResponseCode.OK
+				|| response.getHeader(HttpHeader.CONTENT_ENCODING) != null
+				|| resource.getLength() < minSize
+				|| !isCompressible(resource.getContentType()) ) {
+			return;
+		}
+		
+		//the response depends on the encodings accepted by the client
+		response.addHeader(HttpHeader.VARY, HttpHeader.ACCEPT_ENCODING);
+		
+		String acceptEncoding = request.getHeader(HttpHeader.ACCEPT_ENCODING);
+		if( acceptEncoding == null
+				|| ContentEncodingNegotiator.getQValue(acceptEncoding, ContentEncodingNegotiator.GZIP) <= 0 ) {
+			return;
+		}
+		
+		if( !CompressedVariantCache.accepts(resource.getLength()) ) {
+			//too large to be cached, compress it while it is sent
+			streamCompressed(response, resource);
+			
+			return;
+		}
+		
+		CompressedVariant variant = CompressedVariantCache.lookup(resource);
+		if( variant == null ) {
+			//send the file as it is this time, compress it for the next requests
+			scheduleCompression(resource);
+			
+			return;
+		}
+		
+		byte[] content = variant.getContent();
+		if( content == null ) {
+			//the file doesn't compress well
+			return;
+		}
+		
+		addEncodingHeaders(response);
+		
+		//the file is not needed anymore, serve the bytes from memory
+		if( response.getBody() != null ) {
+			response.getBody().close();
+			response.setBody(new BufferBody(ByteBuffer.wrap(content).asReadOnlyBuffer()));
+		}
+		response.setContentLength(content.length);
+		response.setResource(null);
+	}
+	
+	/**
+	 * Replaces the file body of a response with a chunked, gzip compressed
+	 * stream of the file, unless too many files are compressed already
+	 * 
+	 * @param response
+	 *            HttpResponse sending the whole file
+	 * @param resource
+	 *            metadata of the file
+	 */
+	private void streamCompressed(HttpResponse response, ResourceMetadata resource) {
+		//HEAD request, the encoded length can't be announced anyway
+		if( response.getBody() == null ) {
+			return;
+		}
+		
+		if( streamingCompressions.incrementAndGet() > MAX_STREAMING_COMPRESSIONS ) {
+			//send the file uncompressed
+			streamingCompressions.decrementAndGet();
+			return;
+		}
+		
+		GzipStreamProducer producer;
+		try {
+			producer = new GzipStreamProducer(resource.getFile(), streamingExecutor);
+		}
+		catch(IOException e) {
+			streamingCompressions.decrementAndGet();
+			logger.warn("Could not open " + resource.getPath() + " for compression", e);
+			
+			return;
+		}
+		
+		addEncodingHeaders(response);
+		
+		response.getBody().close();
+		response.setBody(new ProducerBody(producer));
+		response.setContentLength(-1);
+		response.setResource(null);
+	}
+	
+	/**
+	 * Called by a GzipStreamProducer once it was closed
+	 */
+	static void streamFinished() {
+		INSTANCE.streamingCompressions.decrementAndGet();
+	}
+	
+	/**
+	 * Marks a response as gzip encoded and weakens its ETag
+	 */
+	private void addEncodingHeaders(HttpResponse response) {
+		response.addHeader(HttpHeader.CONTENT_ENCODING, ContentEncodingNegotiator.GZIP);
+		
+		String eTag = response.getHeader(HttpHeader.ETAG);
+		if( eTag != null && !eTag.startsWith("W/") ) {
+			response.addHeader(HttpHeader.ETAG, "W/" + eTag);
+		}
+	}
+	
+	/**
+	 * Checks if a content type is worth compressing
+	 * 
+	 * @param contentType
+	 *            mime type, optionally followed by parameters
+	 * @return true for text based content types
+	 */
+	public static boolean isCompressible(String contentType) {
+		if( contentType == null ) {
+			return false;
+		}
+		
+		if( contentType.regionMatches(true, 0, TEXT_TYPE_PREFIX, 0, TEXT_TYPE_PREFIX.length()) ) {
+			return true;
+		}
+		
+		for( String compressibleType : COMPRESSIBLE_TYPES ) {
+			if( contentType.regionMatches(true, 0, compressibleType, 0, compressibleType.length())
+					&& (contentType.length() == compressibleType.length()
+						|| contentType.charAt(compressibleType.length()) == ';') ) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Queues the compression of a file, unless it is already queued
+	 * 
+	 * @param resource
+	 *            metadata of the file
+	 */
+	private void scheduleCompression(final ResourceMetadata resource) {
+		if( !CompressedVariantCache.accepts(resource.getLength())
+				|| pendingCompressions.putIfAbsent(resource.getPath(), Boolean.TRUE) != null ) {
+			return;
+		}
+		
+		try {
+			compressionExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						CompressedVariantCache.store(compressFile(resource));
+					}
+					catch(Exception e) {
+						logger.warn("Could not compress " + resource.getPath(), e);
+					}
+					finally {
+						pendingCompressions.remove(resource.getPath());
+					}
+				}
+			});
+		}
+		catch(RejectedExecutionException e) {
+			//too many files waiting, the file will be compressed on a later request
+			pendingCompressions.remove(resource.getPath());
+		}
+	}
+	
+	/**
+	 * Gzip compresses a file
+	 * 
+	 * @param resource
+	 *            metadata of the file
+	 * @return the compressed variant of the file
+	 * @throws IOException
+	 */
+	private CompressedVariant compressFile(ResourceMetadata resource) throws IOException {
+		ByteArrayOutputStream compressedContent = new ByteArrayOutputStream((int) (resource.getLength() / 4) + 64);
+		
+		FileInputStream fileInputStream = new FileInputStream(resource.getFile());
+		try {
+			GZIPOutputStream gzipStream = new GZIPOutputStream(compressedContent, 8192);
+			
+			byte[] buffer = new byte[8192];
+			int bytesRead;
+			while( (bytesRead = fileInputStream.read(buffer)) >= 0 ) {
+				gzipStream.write(buffer, 0, bytesRead);
+			}
+			gzipStream.finish();
+		}
+		finally {
+			fileInputStream.close();
+		}
+		
+		//keep the file uncompressed if compression doesn't help
+		byte[] content = null;
+		if( compressedContent.size() < resource.getLength() ) {
+			content = compressedContent.toByteArray();
+		}
+		
+		logger.debug("Compressed " + resource.getPath() + " from " + resource.getLength()
+				+ " to " + compressedContent.size() + " bytes");
+		
+		return new CompressedVariant(resource.getPath(), resource.getLastModified(), resource.getLength(), content);
+	}
+}
@@ -12,6 +12,8 @@ public class RequestException extends Exception {
 	public static final int ENTITY_TOO_LARGE = 1;
 	public static final int HEADER_TOO_LARGE = 2;
 	public static final int URI_TOO_LONG = 3;
+	public static final int SERVICE_UNAVAILABLE = 4;
+	public static final int EXPECTATION_FAILED = 5;
 	
 	private static final long serialVersionUID = -4566362139997433898L;
 	
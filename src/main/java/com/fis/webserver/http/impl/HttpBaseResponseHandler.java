@@ -1,19 +1,35 @@
 package com.fis.webserver.http.impl;
 
-import java.io.File;
 import java.io.FileInputStream;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.apache.log4j.Logger;
 
-import com.fis.webserver.config.MimeTypes;
+import com.fis.webserver.config.WebServerConfiguration;
+import com.fis.webserver.http.ConditionalRequestEvaluator;
+import com.fis.webserver.http.ContentEncodingNegotiator;
 import com.fis.webserver.http.HttpRequestHandler;
+import com.fis.webserver.http.RangeRequestEvaluator;
+import com.fis.webserver.http.ReadAheadService;
+import com.fis.webserver.model.http.ByteRange;
 import com.fis.webserver.model.http.HttpHeader;
 import com.fis.webserver.model.http.HttpRequest;
+import com.fis.webserver.model.http.HttpRequestMethod;
 import com.fis.webserver.model.http.HttpResponse;
 import com.fis.webserver.model.http.HttpResponseCode;
+import com.fis.webserver.model.http.body.BufferBody;
+import com.fis.webserver.model.http.body.CompositeBody;
+import com.fis.webserver.model.http.body.FileRegionBody;
+import com.fis.webserver.model.http.body.ReadAheadBody;
+import com.fis.webserver.model.http.body.ResponseBody;
 import com.fis.webserver.util.FileUtils;
 import com.fis.webserver.util.URLTranslator;
+import com.fis.webserver.util.cache.ResourceMetadata;
 
 /**
  * Base request handler for supported http requests
@@ -24,48 +40,218 @@ import com.fis.webserver.util.URLTranslator;
 
 
 public class HttpBaseResponseHandler implements HttpRequestHandler {
+	
+	public static final String MULTIPART_BYTERANGES = "multipart/byteranges";
 
 	public static final Logger logger = Logger.getLogger(HttpGetResponseHandler.class);
 		
 	@Override
-	public HttpResponse handle(HttpRequest request) {
+	public void handle(HttpRequest request, HttpResponse response) {
 		//map the request to an actual file in the server's file system
-		File requestedFile = URLTranslator.mapResource(request.getURL());
+		ResourceMetadata requestedResource = URLTranslator.lookupResource(request.getURL());
 		
-		HashMap<String, String> contentHeaders = new HashMap<String, String>();
+		if( !requestedResource.exists() ) {
+			response.setStatusCode(HttpResponseCode.NOT_FOUND);
+			return;
+		}
 		
-		FileInputStream responseBody = null;
+		// choose the representation that will be sent, either the file itself
+		// or one of its precompressed variants
+		ResourceMetadata representation = requestedResource;
+		int variant = ContentEncodingNegotiator.NO_VARIANTS;
+		if( WebServerConfiguration.INSTANCE.isPrecompressed() ) {
+			variant = ContentEncodingNegotiator.selectVariant(request, requestedResource);
+			
+			if( variant >= 0 ) {
+				ResourceMetadata variantResource = ContentEncodingNegotiator.getVariant(requestedResource, variant);
+				
+				//the variant could have been removed in the meantime
+				if( variantResource != null ) {
+					representation = variantResource;
+				}
+				else {
+					variant = ContentEncodingNegotiator.IDENTITY_VARIANT;
+				}
+			}
+		}
 		
-		HttpResponseCode statusCode = HttpResponseCode.NOT_FOUND;
-		if( requestedFile != null ) {
-
-			//found the resource
-			statusCode = HttpResponseCode.OK;
+		// answer revalidations of a cached copy without sending or even opening
+		// the file
+		if( isCacheable(request) && ConditionalRequestEvaluator.isNotModified(request, representation) ) {
+			response.setStatusCode(HttpResponseCode.NOT_MODIFIED);
+			addValidators(response, representation);
+			addVariantHeaders(response, variant);
+			
+			return;
+		}
+		
+		//determine the requested ranges, if any
+		List<ByteRange> ranges = null;
+		if( containsResponseBody() && HttpRequestMethod.GET.equals(request.getMethod()) ) {
+			ranges = RangeRequestEvaluator.evaluate(request, representation);
 			
-			//build content headers
-			contentHeaders.put(HttpHeader.CONTENT_TYPE, MimeTypes.getMimeType(FileUtils.getExtension(requestedFile)));
-			contentHeaders.put(HttpHeader.CONTENT_LENGTH, String.valueOf(requestedFile.length()));
+			if( ranges != null && ranges.isEmpty() ) {
+				//none of the ranges overlaps the resource
+				response.setStatusCode(HttpResponseCode.RANGE_NOT_SATISFIABLE);
+				response.addHeader(HttpHeader.CONTENT_RANGE, RangeRequestEvaluator.BYTES_UNIT + " */" + representation.getLength());
+				addVariantHeaders(response, variant);
+				response.setContentLength(0);
+				
+				return;
+			}
+		}
+		
+		// open the file before any content header is set: if it vanished since
+		// its metadata was cached, the response must not announce its length
+		FileInputStream responseBody = null;
+		if( containsResponseBody() ) {
+			responseBody = FileUtils.getFileInputStream(representation.getFile());
 			
-			//check if the response can contain a response body
-			if( containsResponseBody() ) {
-				responseBody = FileUtils.getFileInputStream(requestedFile);
+			if( responseBody == null ) {
+				response.setStatusCode(representation.getFile().exists()
+						? HttpResponseCode.INTERNAL_SERVER_ERROR : HttpResponseCode.NOT_FOUND);
+				
+				return;
 			}
 		}
 		
-		HttpResponse response = new HttpResponse(statusCode);
+		//found the resource
+		response.setStatusCode(ranges == null ? HttpResponseCode.OK : HttpResponseCode.PARTIAL_CONTENT);
 		
-		//add content related headers to the response headers
-		response.addAll(contentHeaders);
+		// build content headers from the cached metadata, no need to
+		// touch the file system again. The content type is always the one of
+		// the requested file, even if a precompressed variant is sent
+		response.addHeader(HttpHeader.CONTENT_TYPE, requestedResource.getContentType());
+		addValidators(response, representation);
+		addVariantHeaders(response, variant);
+		response.addHeader(HttpHeader.ACCEPT_RANGES, RangeRequestEvaluator.BYTES_UNIT);
+		response.setContentLength(representation.getLength());
+		
+		// the whole file is sent, the output stages may replace the body with
+		// an equivalent one
+		if( ranges == null ) {
+			response.setResource(representation);
+		}
 		
 		// update the response with the file channel of the requested resource
 		// if there is an associated InputStream
 		if( responseBody != null ) {
-			response.setContentChannel(responseBody.getChannel());
+			FileChannel contentChannel = responseBody.getChannel();
+			
+			if( ranges == null ) {
+				response.setBody(createFileBody(contentChannel, 0, representation.getLength()));
+			}
+			else if( ranges.size() == 1 ) {
+				ByteRange range = ranges.get(0);
+				response.addHeader(HttpHeader.CONTENT_RANGE, contentRange(range, representation.getLength()));
+				response.setBody(createFileBody(contentChannel, range.getFirst(), range.getLength()));
+			}
+			else {
+				String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+				response.addHeader(HttpHeader.CONTENT_TYPE, MULTIPART_BYTERANGES + "; boundary=" + boundary);
+				response.setBody(buildMultipartBody(contentChannel, ranges,
+						requestedResource.getContentType(), representation.getLength(), boundary));
+			}
 		}
-		
-		return response;
 	}
 
+	/**
+	 * Creates the body sending a region of the requested file. Large regions
+	 * are read ahead by the I/O threads, so the worker doesn't wait for the
+	 * disk; the others are sent with FileChannel.transferTo
+	 * 
+	 * @param contentChannel FileChannel of the requested resource
+	 * @param position start of the region
+	 * @param length length of the region
+	 * @return ResponseBody of the response
+	 */
+	private ResponseBody createFileBody(FileChannel contentChannel, long position, long length) {
+		if( ReadAheadService.accepts(length) ) {
+			return new ReadAheadBody(contentChannel, position, length);
+		}
+		
+		return new FileRegionBody(contentChannel, position, length);
+	}
+	
+	/**
+	 * Builds a multipart/byteranges body, each part containing one of the
+	 * requested ranges
+	 * 
+	 * @param contentChannel FileChannel of the requested resource
+	 * @param ranges requested ranges
+	 * @param contentType content type of the requested resource
+	 * @param length length of the sent representation
+	 * @param boundary multipart boundary
+	 * @return ResponseBody of the response
+	 */
+	private ResponseBody buildMultipartBody(FileChannel contentChannel,
+			List<ByteRange> ranges, String contentType, long length, String boundary) {
+		List<ResponseBody> parts = new ArrayList<ResponseBody>();
+		
+		for( ByteRange range : ranges ) {
+			String partHeader = "\r\n--" + boundary + "\r\n" + HttpHeader.CONTENT_TYPE
+					+ ": " + contentType + "\r\n"
+					+ HttpHeader.CONTENT_RANGE + ": " + contentRange(range, length)
+					+ "\r\n\r\n";
+			
+			parts.add(new BufferBody(ByteBuffer.wrap(partHeader.getBytes(StandardCharsets.ISO_8859_1))));
+			parts.add(new FileRegionBody(contentChannel, range.getFirst(), range.getLength()));
+		}
+		
+		String closeDelimiter = "\r\n--" + boundary + "--\r\n";
+		parts.add(new BufferBody(ByteBuffer.wrap(closeDelimiter.getBytes(StandardCharsets.ISO_8859_1))));
+		
+		return new CompositeBody(parts);
+	}
+	
+	/**
+	 * @return the Content-Range value of a range
+	 */
+	private String contentRange(ByteRange range, long length) {
+		return RangeRequestEvaluator.BYTES_UNIT + " " + range.getFirst() + "-" + range.getLast() + "/" + length;
+	}
+	
+	/**
+	 * Adds the Last-Modified and ETag headers of the resource to the response
+	 * 
+	 * @param response HttpResponse object
+	 * @param resource metadata of the requested resource
+	 */
+	private void addValidators(HttpResponse response, ResourceMetadata resource) {
+		response.addHeader(HttpHeader.LAST_MODIFIED, resource.getLastModifiedHeader());
+		response.addHeader(HttpHeader.ETAG, resource.getETag());
+	}
+	
+	/**
+	 * Adds the Content-Encoding header of a precompressed variant and the
+	 * Vary header, if the response was negotiated
+	 * 
+	 * @param response HttpResponse object
+	 * @param variant variant selected by the ContentEncodingNegotiator
+	 */
+	private void addVariantHeaders(HttpResponse response, int variant) {
+		if( variant >= 0 ) {
+			response.addHeader(HttpHeader.CONTENT_ENCODING, ContentEncodingNegotiator.ENCODINGS[variant]);
+		}
+		
+		//caches must not serve this response to clients accepting other encodings
+		if( variant != ContentEncodingNegotiator.NO_VARIANTS ) {
+			response.addHeader(HttpHeader.VARY, HttpHeader.ACCEPT_ENCODING);
+		}
+	}
+	
+	/**
+	 * Determines if conditional request headers apply to the request, only GET
+	 * and HEAD responses can be answered from the client's cache
+	 * 
+	 * @param request HttpRequest object
+	 * @return true for GET and HEAD requests
+	 */
+	private boolean isCacheable(HttpRequest request) {
+		return HttpRequestMethod.GET.equals(request.getMethod())
+				|| HttpRequestMethod.HEAD.equals(request.getMethod());
+	}
+	
 	/**
 	 * Returns a flag if the response should contain a response body or not
 	 * 
@@ -1,7 +1,6 @@
 package com.fis.webserver.http.impl;
 
 import com.fis.webserver.http.HttpRequestHandler;
-import com.fis.webserver.http.exceptions.RequestException;
 import com.fis.webserver.model.http.HttpRequest;
 import com.fis.webserver.model.http.HttpResponse;
 import com.fis.webserver.model.http.HttpResponseCode;
@@ -9,50 +8,28 @@ import com.fis.webserver.model.http.HttpResponseCode;
 /**
  * Handler for a erroneous http requests
  * 
- * Based on the exception received as a parameter will build an appropriate
- * response for the client
+ * Sends the response status matching the error that occurred while parsing
+ * the request. There is one instance per status, shared by all the requests
  * 
  * @author Florin Iordache
  * 
  */
 
 public class HttpErrorResponseHandler implements HttpRequestHandler {
-	//exception that ocurred during the request
-	private RequestException requestException;
+	//status of the error responses sent by this handler
+	private HttpResponseCode responseCode;
 	
-	public HttpErrorResponseHandler(RequestException requestException) {
-		this.requestException = requestException;
+	public HttpErrorResponseHandler(HttpResponseCode responseCode) {
+		this.responseCode = responseCode;
 	}
 	
 	@Override
-	public HttpResponse handle(HttpRequest request) {
-		HttpResponseCode responseCode = HttpResponseCode.INTERNAL_SERVER_ERROR;
-		
-		//map the error that occurred to the corresponding response
-		switch( requestException.getErrorCause() ) {
-		case RequestException.BAD_REQUEST:
-			responseCode = HttpResponseCode.BAD_REQUEST;
-			break;
-		case RequestException.ENTITY_TOO_LARGE:
-			responseCode = HttpResponseCode.ENTITY_TOO_LARGE;
-			break;
-		case RequestException.HEADER_TOO_LARGE:
-			responseCode = HttpResponseCode.REQUEST_HEADER_TOO_LARGE;
-			break;
-		case RequestException.URI_TOO_LONG:
-			responseCode = HttpResponseCode.REQUEST_URI_TOO_LONG;
-			break;
-		default:
-			responseCode = HttpResponseCode.INTERNAL_SERVER_ERROR;
-		}
-		
-		//build and return the response object
-		HttpResponse response = new HttpResponse(responseCode);
+	public void handle(HttpRequest request, HttpResponse response) {
+		//build the response object
+		response.setStatusCode(responseCode);
 		
 		//make sure we clean the resources used on the server
 		response.setCleaner(request.getRequestBody().getCleaner());
-		
-		return response;
 	}
 
 }
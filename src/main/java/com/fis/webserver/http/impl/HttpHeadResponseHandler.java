@@ -17,8 +17,8 @@ public class HttpHeadResponseHandler extends HttpBaseResponseHandler implements
 		HttpRequestHandler {
 	
 	@Override
-	public HttpResponse handle(HttpRequest request) {
-		return super.handle(request);
+	public void handle(HttpRequest request, HttpResponse response) {
+		super.handle(request, response);
 	}
 	
 	/**
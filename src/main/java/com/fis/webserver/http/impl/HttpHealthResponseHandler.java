@@ -0,0 +1,37 @@
+package com.fis.webserver.http.impl;
+
+import java.nio.ByteBuffer;
+
+import com.fis.webserver.http.HttpRequestHandler;
+import com.fis.webserver.model.http.HttpHeader;
+import com.fis.webserver.model.http.HttpRequest;
+import com.fis.webserver.model.http.HttpRequestMethod;
+import com.fis.webserver.model.http.HttpResponse;
+import com.fis.webserver.model.http.HttpResponseCode;
+import com.fis.webserver.model.http.body.BufferBody;
+
+/**
+ * Handler of the health check requests, used by load balancers and monitoring
+ * to check that the server accepts and answers requests
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class HttpHealthResponseHandler implements HttpRequestHandler {
+	
+	private static final byte[] HEALTHY_BODY = { 'O', 'K', '\n' };
+	
+	@Override
+	public void handle(HttpRequest request, HttpResponse response) {
+		response.setStatusCode(HttpResponseCode.OK);
+		response.addHeader(HttpHeader.CONTENT_TYPE, "text/plain");
+		
+		if( HttpRequestMethod.HEAD.equals(request.getMethod()) ) {
+			response.setContentLength(HEALTHY_BODY.length);
+		}
+		else {
+			response.setBody(new BufferBody(ByteBuffer.wrap(HEALTHY_BODY).asReadOnlyBuffer()));
+		}
+	}
+}
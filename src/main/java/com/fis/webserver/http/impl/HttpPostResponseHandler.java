@@ -20,16 +20,14 @@ public class HttpPostResponseHandler extends HttpBaseResponseHandler implements
 		HttpRequestHandler {
 
 	@Override
-	public HttpResponse handle(HttpRequest request) {
+	public void handle(HttpRequest request, HttpResponse response) {
 		
 		//use the base handler
-		HttpResponse response = super.handle(request);
+		super.handle(request, response);
 		
 		// this is a POST request, make sure we clean up any temp file that was
 		// created in the process
 		response.setCleaner(request.getRequestBody().getCleaner());
-		
-		return response;
 	}
 	
 }
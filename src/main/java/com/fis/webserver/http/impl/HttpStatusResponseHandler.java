@@ -0,0 +1,41 @@
+package com.fis.webserver.http.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.fis.webserver.http.HttpRequestHandler;
+import com.fis.webserver.metrics.PrometheusExposition;
+import com.fis.webserver.model.http.HttpHeader;
+import com.fis.webserver.model.http.HttpRequest;
+import com.fis.webserver.model.http.HttpRequestMethod;
+import com.fis.webserver.model.http.HttpResponse;
+import com.fis.webserver.model.http.HttpResponseCode;
+import com.fis.webserver.model.http.body.BufferBody;
+
+/**
+ * Handler of the server status requests, answering with the metrics of the
+ * workers in the Prometheus text format
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class HttpStatusResponseHandler implements HttpRequestHandler {
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	@Override
+	public void handle(HttpRequest request, HttpResponse response) {
+		byte[] status = PrometheusExposition.format().getBytes(UTF8);
+		
+		response.setStatusCode(HttpResponseCode.OK);
+		response.addHeader(HttpHeader.CONTENT_TYPE, PrometheusExposition.CONTENT_TYPE);
+		
+		if( HttpRequestMethod.HEAD.equals(request.getMethod()) ) {
+			response.setContentLength(status.length);
+		}
+		else {
+			response.setBody(new BufferBody(ByteBuffer.wrap(status)));
+		}
+	}
+}
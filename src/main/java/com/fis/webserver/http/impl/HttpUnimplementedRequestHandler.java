@@ -17,10 +17,8 @@ import com.fis.webserver.model.http.HttpResponseCode;
 public class HttpUnimplementedRequestHandler implements HttpRequestHandler {
 
 	@Override
-	public HttpResponse handle(HttpRequest request) {
+	public void handle(HttpRequest request, HttpResponse response) {
 		//returning a not implemented code
-		HttpResponse response = new HttpResponse(HttpResponseCode.NOT_IMPLEMENTED);
-		
-		return response;
+		response.setStatusCode(HttpResponseCode.NOT_IMPLEMENTED);
 	}
 }
@@ -0,0 +1,72 @@
+package com.fis.webserver.http.multipart;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Searches a byte sequence in a buffer with the Boyer-Moore-Horspool algorithm
+ * 
+ * The skip table gives, for each byte value, how far the pattern can be moved
+ * when that byte is found under the last position of the pattern. Bytes that
+ * don't occur in the pattern move it by its whole length, so for a long
+ * multipart boundary most of the data is not even looked at.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class BoundaryFinder {
+	
+	private byte[] pattern;
+	
+	//distance the pattern is moved for each value of the byte under its end
+	private int[] skipTable;
+	
+	public BoundaryFinder(byte[] pattern) {
+		this.pattern = pattern;
+		
+		skipTable = new int[256];
+		for( int i = 0 ; i < skipTable.length ; i++ ) {
+			skipTable[i] = pattern.length;
+		}
+		for( int i = 0 ; i < pattern.length - 1 ; i++ ) {
+			skipTable[pattern[i] & 0xff] = pattern.length - 1 - i;
+		}
+	}
+	
+	/**
+	 * Finds the first occurrence of the pattern between two positions of a
+	 * buffer, without changing the buffer's position
+	 * 
+	 * @param buf
+	 *            buffer to search
+	 * @param from
+	 *            first position searched
+	 * @param to
+	 *            position after the last byte searched
+	 * @return position of the first byte of the pattern, or -1 if it was not
+	 *         found
+	 */
+	public int indexOf(ByteBuffer buf, int from, int to) {
+		int last = pattern.length - 1;
+		
+		int position = from;
+		while( position + last < to ) {
+			int i = last;
+			while( i >= 0 && buf.get(position + i) == pattern[i] ) {
+				i--;
+			}
+			
+			if( i < 0 ) {
+				return position;
+			}
+			
+			position += skipTable[buf.get(position + last) & 0xff];
+		}
+		
+		return -1;
+	}
+	
+	public int getLength() {
+		return pattern.length;
+	}
+}
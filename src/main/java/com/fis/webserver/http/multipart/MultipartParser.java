@@ -0,0 +1,478 @@
+package com.fis.webserver.http.multipart;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import com.fis.webserver.config.WebServerConfiguration;
+import com.fis.webserver.model.http.FormPart;
+import com.fis.webserver.util.PooledTempFile;
+import com.fis.webserver.util.TempFilePool;
+
+/**
+ * Incremental parser of a multipart/form-data request body
+ * 
+ * The body is parsed chunk by chunk, as it is received, so it never has to be
+ * stored and read again. The data of a file part is written to its own
+ * temporary file as soon as it is known not to be part of the next boundary,
+ * the form fields are kept in memory. The boundaries are found with a
+ * BoundaryFinder; the last bytes of a chunk that could be the beginning of a
+ * boundary stay in the internal buffer until the next chunk arrives.
+ * 
+ * The delimiter of the parts is CR LF "--" boundary. The first boundary of the
+ * body has no CR LF in front of it, so the parser starts with a CR LF already
+ * in its buffer.
+ * 
+ * The memory used is bounded: the internal buffer has a fixed size, the form
+ * fields and the number of parts are limited. A body exceeding the limits, or
+ * not ending with the close delimiter, is an error.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class MultipartParser {
+	
+	public static final Logger logger = Logger.getLogger(MultipartParser.class);
+	
+	//media type of the bodies handled by the parser
+	public static final String MULTIPART_FORM_DATA = "multipart/form-data";
+	
+	//maximum length of a boundary, as per RFC 2046
+	public static final int MAX_BOUNDARY_LENGTH = 70;
+	
+	//maximum number of parts in a body
+	public static final int MAX_PARTS = 256;
+	
+	//maximum number of bytes of all the form fields of a body
+	public static final int MAX_FIELDS_SIZE = 64 * 1024;
+	
+	//charset of the part headers and form fields
+	public static final String PART_CHARSET = "UTF-8";
+	
+	public static final Pattern boundaryPattern = Pattern.compile("(?i);\\s*boundary=(\"([^\"]+)\"|[^;\\s]+)");
+	public static final Pattern namePattern = Pattern.compile("(?i);\\s*name=\"([^\"]*)\"");
+	public static final Pattern fileNamePattern = Pattern.compile("(?i);\\s*filename=\"([^\"]*)\"");
+	public static final Pattern partHeaderPattern = Pattern.compile("(?i)([^:]+):\\s*(.*)");
+	
+	private static final byte[] CRLF = { 13, 10 };
+	private static final BoundaryFinder headersEndFinder = new BoundaryFinder(new byte[] { 13, 10, 13, 10 });
+	
+	//possible parsing states
+	
+	//skipping the data before the first boundary
+	public static final int STATE_PREAMBLE = 0;
+	
+	//a boundary was found, expecting CR LF or "--" after it
+	public static final int STATE_DELIMITER = 1;
+	
+	//reading the headers of a part
+	public static final int STATE_PART_HEADERS = 2;
+	
+	//reading the data of a part
+	public static final int STATE_PART_DATA = 3;
+	
+	//the close delimiter was found, the rest of the body is ignored
+	public static final int STATE_END = 4;
+	
+	//the body is malformed or could not be stored
+	public static final int STATE_ERROR = 5;
+	
+	private int currentState;
+	
+	//finds the CR LF "--" boundary sequence
+	private BoundaryFinder delimiterFinder;
+	
+	//data received and not parsed yet
+	private ByteBuffer buf;
+	
+	//length of the whole body and the number of bytes received so far
+	private long bodyLength;
+	private long bytesReceived;
+	
+	private ArrayList<FormPart> parts;
+	
+	//part being read
+	private FormPart currentPart;
+	private ByteArrayOutputStream fieldValue;
+	
+	//number of bytes of the form fields read so far
+	private int fieldsSize;
+	
+	public MultipartParser() {
+		//same size as the buffer of the request parser
+		buf = ByteBuffer.allocate(2 * WebServerConfiguration.MAX_REQUEST_LINE_SIZE);
+		
+		parts = new ArrayList<FormPart>();
+		fieldValue = new ByteArrayOutputStream();
+	}
+	
+	/**
+	 * Extracts the boundary from the Content-Type of a request
+	 * 
+	 * @return the boundary, or null if the body is not multipart/form-data or
+	 *         the boundary is missing or invalid
+	 */
+	public static String getBoundary(String contentType) {
+		if( contentType == null || !contentType.trim().toLowerCase().startsWith(MULTIPART_FORM_DATA) ) {
+			return null;
+		}
+		
+		Matcher boundaryMatcher = boundaryPattern.matcher(contentType);
+		if( !boundaryMatcher.find() ) {
+			return null;
+		}
+		
+		String boundary = boundaryMatcher.group(2) != null ? boundaryMatcher.group(2) : boundaryMatcher.group(1);
+		if( boundary.length() > MAX_BOUNDARY_LENGTH ) {
+			return null;
+		}
+		
+		return boundary;
+	}
+	
+	/**
+	 * Prepares the parser for a new body. The parts of the previous body must
+	 * have been released
+	 * 
+	 * @param boundary
+	 *            boundary of the parts, from the Content-Type header
+	 * @param bodyLength
+	 *            length of the body, from the Content-Length header
+	 */
+	public void reset(String boundary, long bodyLength) {
+		byte[] delimiter;
+		try {
+			delimiter = ("\r\n--" + boundary).getBytes("ISO-8859-1");
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		delimiterFinder = new BoundaryFinder(delimiter);
+		
+		this.bodyLength = bodyLength;
+		bytesReceived = 0;
+		
+		parts.clear();
+		currentPart = null;
+		fieldValue.reset();
+		fieldsSize = 0;
+		
+		//the first boundary may be at the very beginning of the body
+		buf.clear();
+		buf.put(CRLF);
+		
+		currentState = STATE_PREAMBLE;
+	}
+	
+	/**
+	 * Parses the next chunk of the body
+	 * 
+	 * @param data
+	 *            received data, consumed entirely
+	 */
+	public void parse(ByteBuffer data) {
+		bytesReceived += data.remaining();
+		
+		while( data.hasRemaining() && currentState != STATE_ERROR ) {
+			//copy as much as the buffer can take
+			int originalLimit = data.limit();
+			if( data.remaining() > buf.remaining() ) {
+				data.limit(data.position() + buf.remaining());
+			}
+			buf.put(data);
+			data.limit(originalLimit);
+			
+			buf.flip();
+			try {
+				parseBuffer();
+			}
+			catch(IOException e) {
+				logger.error("Could not store the multipart request body!", e);
+				currentState = STATE_ERROR;
+			}
+			catch(RuntimeException e) {
+				//a malformed body must not escape as an unknown request error
+				logger.error("Could not parse the multipart request body!", e);
+				currentState = STATE_ERROR;
+			}
+			buf.compact();
+			
+			//nothing could be parsed from a full buffer
+			if( !buf.hasRemaining() ) {
+				logger.trace("Multipart boundary line too large!");
+				currentState = STATE_ERROR;
+			}
+		}
+		
+		//skip the rest of a body that can't be parsed
+		data.position(data.limit());
+	}
+	
+	/**
+	 * @return true if the close delimiter was parsed
+	 */
+	public boolean isComplete() {
+		return currentState == STATE_END;
+	}
+	
+	/**
+	 * @return true if the body is malformed, exceeds the limits or could not
+	 *         be stored
+	 */
+	public boolean isError() {
+		return currentState == STATE_ERROR;
+	}
+	
+	/**
+	 * @return the complete parts of the body
+	 */
+	public List<FormPart> getParts() {
+		return parts;
+	}
+	
+	/**
+	 * Gives the files of the file parts back to the TempFilePool
+	 */
+	public void releaseFiles() {
+		for( FormPart part : parts ) {
+			releasePartFile(part);
+		}
+		parts.clear();
+		
+		if( currentPart != null ) {
+			releasePartFile(currentPart);
+			currentPart = null;
+		}
+	}
+	
+	/**
+	 * Advances as far as possible in the data of the internal buffer, which
+	 * is ready for reading
+	 */
+	private void parseBuffer() throws IOException {
+		while( true ) {
+			switch( currentState ) {
+			case STATE_PREAMBLE:
+			case STATE_PART_DATA:
+				int delimiterPos = delimiterFinder.indexOf(buf, buf.position(), buf.limit());
+				
+				// without a delimiter, keep the bytes that could be the
+				// beginning of the delimiter
+				int dataEnd = delimiterPos >= 0 ? delimiterPos
+						: Math.max(buf.position(), buf.limit() - delimiterFinder.getLength() + 1);
+				
+				if( currentState == STATE_PART_DATA && !writePartData(dataEnd) ) {
+					currentState = STATE_ERROR;
+					return;
+				}
+				buf.position(dataEnd);
+				
+				if( delimiterPos < 0 ) {
+					return;
+				}
+				
+				if( currentState == STATE_PART_DATA ) {
+					finishPart();
+				}
+				
+				buf.position(delimiterPos + delimiterFinder.getLength());
+				currentState = STATE_DELIMITER;
+				break;
+			case STATE_DELIMITER:
+				if( buf.remaining() < 2 ) {
+					return;
+				}
+				
+				//close delimiter
+				if( buf.get(buf.position()) == '-' && buf.get(buf.position() + 1) == '-' ) {
+					buf.position(buf.position() + 2);
+					currentState = STATE_END;
+					break;
+				}
+				
+				//skip the transport padding
+				int lineEnd = buf.position();
+				while( lineEnd < buf.limit() && (buf.get(lineEnd) == ' ' || buf.get(lineEnd) == '\t') ) {
+					lineEnd++;
+				}
+				if( buf.limit() - lineEnd < 2 ) {
+					return;
+				}
+				
+				if( buf.get(lineEnd) != 13 || buf.get(lineEnd + 1) != 10 ) {
+					logger.trace("Invalid multipart boundary line!");
+					currentState = STATE_ERROR;
+					return;
+				}
+				
+				//keep the CR LF, an empty header block ends right after it
+				buf.position(lineEnd);
+				currentState = STATE_PART_HEADERS;
+				break;
+			case STATE_PART_HEADERS:
+				int headersEnd = headersEndFinder.indexOf(buf, buf.position(), buf.limit());
+				if( headersEnd < 0 ) {
+					//the headers don't fit in the buffer
+					if( buf.position() == 0 && buf.limit() == buf.capacity() ) {
+						logger.trace("Multipart part headers too large!");
+						currentState = STATE_ERROR;
+					}
+					return;
+				}
+				
+				//an empty header block ends right at the position
+				String headers = "";
+				if( headersEnd > buf.position() ) {
+					headers = new String(buf.array(), buf.arrayOffset() + buf.position() + 2,
+							headersEnd - buf.position() - 2, PART_CHARSET);
+				}
+				buf.position(headersEnd + headersEndFinder.getLength());
+				
+				if( !startPart(headers) ) {
+					currentState = STATE_ERROR;
+					return;
+				}
+				currentState = STATE_PART_DATA;
+				break;
+			case STATE_END:
+				//ignore the epilogue
+				buf.position(buf.limit());
+				return;
+			default:
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Creates the part described by a header block
+	 * 
+	 * @return false if the part is invalid or can't be stored
+	 */
+	private boolean startPart(String headers) {
+		if( parts.size() >= MAX_PARTS ) {
+			logger.trace("Too many multipart parts!");
+			return false;
+		}
+		
+		String name = null;
+		String fileName = null;
+		String contentType = null;
+		
+		for( String header : headers.split("\r\n") ) {
+			Matcher headerMatcher = partHeaderPattern.matcher(header);
+			if( !headerMatcher.matches() ) {
+				continue;
+			}
+			
+			String headerName = headerMatcher.group(1).trim();
+			String headerValue = headerMatcher.group(2);
+			if( "Content-Disposition".equalsIgnoreCase(headerName) ) {
+				Matcher nameMatcher = namePattern.matcher(headerValue);
+				if( nameMatcher.find() ) {
+					name = nameMatcher.group(1);
+				}
+				
+				Matcher fileNameMatcher = fileNamePattern.matcher(headerValue);
+				if( fileNameMatcher.find() ) {
+					fileName = fileNameMatcher.group(1);
+				}
+			}
+			else if( "Content-Type".equalsIgnoreCase(headerName) ) {
+				contentType = headerValue;
+			}
+		}
+		
+		if( name == null ) {
+			logger.trace("Multipart part without a name!");
+			return false;
+		}
+		
+		currentPart = new FormPart(name, fileName, contentType);
+		
+		if( currentPart.isFile() ) {
+			// the part is at most as long as the rest of the body, the file is
+			// truncated to the actual length when the part ends
+			long maxLength = bodyLength - bytesReceived + buf.remaining();
+			
+			PooledTempFile tempFile = TempFilePool.acquire(maxLength);
+			if( tempFile == null ) {
+				currentPart = null;
+				return false;
+			}
+			currentPart.setTempFile(tempFile);
+		}
+		else {
+			fieldValue.reset();
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Stores the data of the current part, from the buffer's position up to
+	 * an end position
+	 * 
+	 * @return false if the form fields exceed their maximum size
+	 */
+	private boolean writePartData(int end) throws IOException {
+		int length = end - buf.position();
+		if( length <= 0 ) {
+			return true;
+		}
+		
+		if( currentPart.isFile() ) {
+			FileChannel channel = currentPart.getChannel();
+			
+			ByteBuffer data = buf.duplicate();
+			data.limit(end);
+			while( data.hasRemaining() ) {
+				currentPart.setLength(currentPart.getLength() + channel.write(data, currentPart.getLength()));
+			}
+		}
+		else {
+			fieldsSize += length;
+			if( fieldsSize > MAX_FIELDS_SIZE ) {
+				logger.trace("Multipart form fields too large!");
+				return false;
+			}
+			
+			fieldValue.write(buf.array(), buf.arrayOffset() + buf.position(), length);
+			currentPart.setLength(currentPart.getLength() + length);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Completes the current part, its data was entirely received
+	 */
+	private void finishPart() throws IOException {
+		if( currentPart.isFile() ) {
+			TempFilePool.truncate(currentPart.getTempFile(), currentPart.getLength());
+			currentPart.getChannel().position(0);
+		}
+		else {
+			currentPart.setValue(fieldValue.toString(PART_CHARSET));
+		}
+		
+		parts.add(currentPart);
+		currentPart = null;
+	}
+	
+	private void releasePartFile(FormPart part) {
+		if( part.getTempFile() != null ) {
+			TempFilePool.release(part.getTempFile());
+			part.setTempFile(null);
+		}
+	}
+}
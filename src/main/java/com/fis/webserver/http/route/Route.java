@@ -0,0 +1,104 @@
+package com.fis.webserver.http.route;
+
+import com.fis.webserver.http.HttpRequestHandler;
+
+/**
+ * A route of the RouteTable: a path pattern and the handlers mounted on it,
+ * one for each request method
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class Route {
+	
+	//pattern the route was registered with, e.g. "/api/users/:id"
+	private String pattern;
+	
+	//names of the path parameters, in the order they appear in the pattern
+	private String[] parameterNames;
+	
+	//request methods and their handlers, a null method matches any method
+	private String[] methods;
+	private HttpRequestHandler[] handlers;
+	
+	public Route(String pattern, String[] parameterNames) {
+		this.pattern = pattern;
+		this.parameterNames = parameterNames;
+		
+		methods = new String[0];
+		handlers = new HttpRequestHandler[0];
+	}
+	
+	/**
+	 * Mounts a handler on this route, replacing the handler previously mounted
+	 * for the same method
+	 * 
+	 * @param method
+	 *            request method or null for any method
+	 * @param handler
+	 *            HttpRequestHandler object
+	 */
+	void addHandler(String method, HttpRequestHandler handler) {
+		for( int i = 0 ; i < methods.length ; i++ ) {
+			if( method == null ? methods[i] == null : method.equals(methods[i]) ) {
+				handlers[i] = handler;
+				return;
+			}
+		}
+		
+		String[] newMethods = new String[methods.length + 1];
+		HttpRequestHandler[] newHandlers = new HttpRequestHandler[handlers.length + 1];
+		System.arraycopy(methods, 0, newMethods, 0, methods.length);
+		System.arraycopy(handlers, 0, newHandlers, 0, handlers.length);
+		newMethods[methods.length] = method;
+		newHandlers[handlers.length] = handler;
+		
+		methods = newMethods;
+		handlers = newHandlers;
+	}
+	
+	/**
+	 * Returns the handler mounted for a request method
+	 * 
+	 * @param method
+	 *            request method
+	 * @return the handler of the method, the handler mounted for any method,
+	 *         or null if the route doesn't support the method
+	 */
+	public HttpRequestHandler getHandler(String method) {
+		HttpRequestHandler anyMethodHandler = null;
+		for( int i = 0 ; i < methods.length ; i++ ) {
+			if( methods[i] == null ) {
+				anyMethodHandler = handlers[i];
+			}
+			else if( methods[i].equals(method) ) {
+				return handlers[i];
+			}
+		}
+		
+		return anyMethodHandler;
+	}
+	
+	public String getPattern() {
+		return pattern;
+	}
+	
+	public String[] getParameterNames() {
+		return parameterNames;
+	}
+	
+	/**
+	 * @return the index of a path parameter or -1 if the route has no
+	 *         parameter with this name
+	 */
+	public int getParameterIndex(String name) {
+		for( int i = 0 ; i < parameterNames.length ; i++ ) {
+			if( parameterNames[i].equals(name) ) {
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+}
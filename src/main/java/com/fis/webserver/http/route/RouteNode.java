@@ -0,0 +1,89 @@
+package com.fis.webserver.http.route;
+
+/**
+ * Node of the radix trie of a RouteTable
+ * 
+ * The edge leading to a node is labeled with a run of characters, so a chain
+ * of nodes with a single child is stored as one node. Static children are
+ * kept in an array sorted by the first character of their label.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class RouteNode {
+	
+	private static final RouteNode[] NO_CHILDREN = new RouteNode[0];
+	
+	//characters of the edge leading to this node, the parameter name for a
+	//parameter node
+	char[] label;
+	
+	//first characters of the children labels, sorted, and the matching children
+	char[] childKeys;
+	RouteNode[] children;
+	
+	//child matching a whole path segment, captured as a path parameter
+	RouteNode parameterChild;
+	
+	//route ending exactly at this node
+	Route exactRoute;
+	
+	//route mounted on everything under this node ("/static/*")
+	Route prefixRoute;
+	
+	RouteNode(char[] label) {
+		this.label = label;
+		
+		childKeys = new char[0];
+		children = NO_CHILDREN;
+	}
+	
+	/**
+	 * @return the static child whose label starts with the given character, or
+	 *         null
+	 */
+	RouteNode getChild(char key) {
+		//few children per node, a linear scan beats a binary search
+		for( int i = 0 ; i < childKeys.length ; i++ ) {
+			if( childKeys[i] == key ) {
+				return children[i];
+			}
+			if( childKeys[i] > key ) {
+				break;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Adds or replaces the static child starting with the first character of
+	 * its label
+	 */
+	void putChild(RouteNode child) {
+		char key = child.label[0];
+		
+		int position = 0;
+		while( position < childKeys.length && childKeys[position] < key ) {
+			position++;
+		}
+		
+		if( position < childKeys.length && childKeys[position] == key ) {
+			children[position] = child;
+			return;
+		}
+		
+		char[] newKeys = new char[childKeys.length + 1];
+		RouteNode[] newChildren = new RouteNode[children.length + 1];
+		System.arraycopy(childKeys, 0, newKeys, 0, position);
+		System.arraycopy(children, 0, newChildren, 0, position);
+		newKeys[position] = key;
+		newChildren[position] = child;
+		System.arraycopy(childKeys, position, newKeys, position + 1, childKeys.length - position);
+		System.arraycopy(children, position, newChildren, position + 1, children.length - position);
+		
+		childKeys = newKeys;
+		children = newChildren;
+	}
+}
@@ -0,0 +1,258 @@
+package com.fis.webserver.http.route;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fis.webserver.http.HttpRequestHandler;
+import com.fis.webserver.model.http.HttpRequest;
+
+/**
+ * Maps request paths to routes, using a radix trie
+ * 
+ * Patterns are made of static characters, path parameters and an optional
+ * trailing wildcard:
+ * <ul>
+ * <li>/health - matches exactly this path</li>
+ * <li>/api/users/:id - ":id" matches one path segment, captured as the "id"
+ * path parameter</li>
+ * <li>/static/* - matches every path under /static/</li>
+ * </ul>
+ * 
+ * The trie works directly on the characters of the URL (the request line is
+ * decoded as ISO-8859-1, so they are the bytes sent by the client). Static
+ * edges are preferred over parameters, and exact routes over wildcards; the
+ * longest matching wildcard wins. Matching doesn't allocate: path parameters
+ * are recorded in the request as offsets into the URL, and only turned into
+ * Strings when a handler asks for them.
+ * 
+ * Routes are added when the server starts; the table must not be changed
+ * once requests are being matched.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class RouteTable {
+	
+	//maximum number of path parameters of a pattern
+	public static final int MAX_PATH_PARAMETERS = 8;
+	
+	private RouteNode root;
+	
+	public RouteTable() {
+		root = new RouteNode(new char[0]);
+	}
+	
+	/**
+	 * Mounts a handler on a path pattern
+	 * 
+	 * @param method
+	 *            request method handled, or null for any method
+	 * @param pattern
+	 *            path pattern, starting with '/'
+	 * @param handler
+	 *            HttpRequestHandler object
+	 * @throws IllegalArgumentException
+	 *             if the pattern is not valid
+	 */
+	public void add(String method, String pattern, HttpRequestHandler handler) {
+		if( pattern == null || !pattern.startsWith("/") ) {
+			throw new IllegalArgumentException("Route pattern must start with '/': " + pattern);
+		}
+		
+		List<String> parameterNames = new ArrayList<String>();
+		
+		RouteNode node = root;
+		boolean prefix = false;
+		
+		int position = 0;
+		int length = pattern.length();
+		while( position < length ) {
+			char c = pattern.charAt(position);
+			
+			if( c == ':' ) {
+				if( pattern.charAt(position - 1) != '/' ) {
+					throw new IllegalArgumentException("Path parameter must be a whole segment: " + pattern);
+				}
+				
+				int end = segmentEnd(pattern, position, length);
+				String name = pattern.substring(position + 1, end);
+				if( name.length() == 0 || parameterNames.size() == MAX_PATH_PARAMETERS ) {
+					throw new IllegalArgumentException("Invalid path parameter: " + pattern);
+				}
+				parameterNames.add(name);
+				
+				if( node.parameterChild == null ) {
+					node.parameterChild = new RouteNode(name.toCharArray());
+				}
+				else if( !name.equals(new String(node.parameterChild.label)) ) {
+					throw new IllegalArgumentException("Conflicting path parameter names: " + pattern);
+				}
+				node = node.parameterChild;
+				
+				position = end;
+				continue;
+			}
+			
+			if( c == '*' ) {
+				if( position != length - 1 || pattern.charAt(position - 1) != '/' ) {
+					throw new IllegalArgumentException("Wildcard must be the last segment: " + pattern);
+				}
+				
+				prefix = true;
+				break;
+			}
+			
+			//static run of characters, up to the next parameter or wildcard
+			int end = position;
+			while( end < length && pattern.charAt(end) != ':' && pattern.charAt(end) != '*' ) {
+				end++;
+			}
+			
+			node = insertStatic(node, pattern, position, end);
+			position = end;
+		}
+		
+		String[] names = parameterNames.toArray(new String[parameterNames.size()]);
+		
+		Route route = prefix ? node.prefixRoute : node.exactRoute;
+		if( route == null ) {
+			route = new Route(pattern, names);
+			if( prefix ) {
+				node.prefixRoute = route;
+			}
+			else {
+				node.exactRoute = route;
+			}
+		}
+		
+		route.addHandler(method, handler);
+	}
+	
+	/**
+	 * Inserts a run of static characters under a node, splitting the existing
+	 * edges where needed
+	 * 
+	 * @return the node reached at the end of the run
+	 */
+	private RouteNode insertStatic(RouteNode node, String pattern, int position, int end) {
+		while( position < end ) {
+			RouteNode child = node.getChild(pattern.charAt(position));
+			if( child == null ) {
+				child = new RouteNode(pattern.substring(position, end).toCharArray());
+				node.putChild(child);
+				
+				return child;
+			}
+			
+			//length of the common prefix of the edge and the pattern
+			int common = 0;
+			while( common < child.label.length && position + common < end
+					&& child.label[common] == pattern.charAt(position + common) ) {
+				common++;
+			}
+			
+			if( common < child.label.length ) {
+				//split the edge
+				char[] head = new char[common];
+				char[] tail = new char[child.label.length - common];
+				System.arraycopy(child.label, 0, head, 0, common);
+				System.arraycopy(child.label, common, tail, 0, tail.length);
+				
+				RouteNode intermediate = new RouteNode(head);
+				child.label = tail;
+				intermediate.putChild(child);
+				node.putChild(intermediate);
+				
+				child = intermediate;
+			}
+			
+			node = child;
+			position += common;
+		}
+		
+		return node;
+	}
+	
+	/**
+	 * Finds the route of a request path and records the path parameters in
+	 * the request
+	 * 
+	 * @param request
+	 *            HttpRequest object
+	 * @return the matching Route or null if no route matches the path
+	 */
+	public Route match(HttpRequest request) {
+		String url = request.getURL();
+		if( url == null ) {
+			return null;
+		}
+		
+		//the query string is not part of the path
+		int end = url.indexOf('?');
+		if( end < 0 ) {
+			end = url.length();
+		}
+		
+		Route route = match(root, url, 0, end, request, 0);
+		request.setRoute(route);
+		
+		return route;
+	}
+	
+	private Route match(RouteNode node, String url, int position, int end,
+			HttpRequest request, int parameterIndex) {
+		if( position == end ) {
+			if( node.exactRoute != null ) {
+				return node.exactRoute;
+			}
+		}
+		else {
+			//static edges first
+			RouteNode child = node.getChild(url.charAt(position));
+			if( child != null && labelMatches(child.label, url, position, end) ) {
+				Route route = match(child, url, position + child.label.length, end, request, parameterIndex);
+				if( route != null ) {
+					return route;
+				}
+			}
+			
+			//then a path parameter, matching a non empty segment
+			if( node.parameterChild != null && url.charAt(position) != '/' ) {
+				int segmentEnd = segmentEnd(url, position, end);
+				request.setPathParameter(parameterIndex, position, segmentEnd);
+				
+				Route route = match(node.parameterChild, url, segmentEnd, end, request, parameterIndex + 1);
+				if( route != null ) {
+					return route;
+				}
+			}
+		}
+		
+		//nothing deeper matched, fall back to the wildcard mounted here
+		return node.prefixRoute;
+	}
+	
+	private boolean labelMatches(char[] label, String url, int position, int end) {
+		if( end - position < label.length ) {
+			return false;
+		}
+		
+		for( int i = 0 ; i < label.length ; i++ ) {
+			if( url.charAt(position + i) != label[i] ) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @return position of the next '/' or end
+	 */
+	private static int segmentEnd(String path, int position, int end) {
+		int slash = path.indexOf('/', position);
+		
+		return slash < 0 || slash > end ? end : slash;
+	}
+}
@@ -0,0 +1,121 @@
+package com.fis.webserver.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with log-linear buckets, in the style of HdrHistogram
+ * 
+ * Values below 32 have their own bucket; above that, every power of two is
+ * split in 16 buckets, so a value is known with a relative error under 7%
+ * while the whole range up to about 38 hours (in microseconds) needs only 544
+ * counters. Larger values are counted in the last bucket.
+ * 
+ * The histogram has a single writer: the counters are updated with ordered
+ * stores instead of atomic read-modify-write operations, so recording a value
+ * costs a few plain memory accesses. Other threads may read the counters at
+ * any time, a snapshot can only miss the values recorded while it is taken.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class Histogram {
+	
+	//values with an exact bucket
+	public static final int LINEAR_BUCKETS = 32;
+	
+	//buckets of each power of two above the linear range
+	public static final int SUB_BUCKETS = 16;
+	
+	//number of powers of two above the linear range
+	public static final int MAX_SHIFT = 32;
+	
+	public static final int BUCKETS = LINEAR_BUCKETS + MAX_SHIFT * SUB_BUCKETS;
+	
+	//largest value with its own bucket
+	public static final long MAX_VALUE = bucketUpperBound(BUCKETS - 1);
+	
+	//indexes of the statistics stored after the buckets
+	private static final int COUNT = BUCKETS;
+	private static final int SUM = BUCKETS + 1;
+	private static final int MAX = BUCKETS + 2;
+	
+	//bucket counters, followed by the count, sum and maximum of the values
+	private AtomicLongArray counters;
+	
+	public Histogram() {
+		counters = new AtomicLongArray(BUCKETS + 3);
+	}
+	
+	/**
+	 * Records a value, must be called only by the owner thread
+	 * 
+	 * @param value
+	 *            non negative value, usually a latency in microseconds
+	 */
+	public void record(long value) {
+		if( value < 0 ) {
+			value = 0;
+		}
+		
+		int index = bucketIndex(value);
+		counters.lazySet(index, counters.get(index) + 1);
+		counters.lazySet(COUNT, counters.get(COUNT) + 1);
+		counters.lazySet(SUM, counters.get(SUM) + value);
+		if( value > counters.get(MAX) ) {
+			counters.lazySet(MAX, value);
+		}
+	}
+	
+	/**
+	 * Adds the current values of this histogram to a snapshot
+	 */
+	void addTo(HistogramSnapshot snapshot) {
+		long[] counts = snapshot.getCounts();
+		for( int i = 0 ; i < BUCKETS ; i++ ) {
+			counts[i] += counters.get(i);
+		}
+		
+		snapshot.add(counters.get(COUNT), counters.get(SUM), counters.get(MAX));
+	}
+	
+	/**
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		return counters.get(COUNT);
+	}
+	
+	/**
+	 * @return index of the bucket counting a value
+	 */
+	static int bucketIndex(long value) {
+		if( value < LINEAR_BUCKETS ) {
+			return (int) value;
+		}
+		
+		if( value > MAX_VALUE ) {
+			return BUCKETS - 1;
+		}
+		
+		//keep the 5 most significant bits of the value
+		int shift = 63 - Long.numberOfLeadingZeros(value) - 4;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		
+		return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	/**
+	 * @return largest value counted by a bucket
+	 */
+	static long bucketUpperBound(int index) {
+		if( index < LINEAR_BUCKETS ) {
+			return index;
+		}
+		
+		int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+		long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,91 @@
+package com.fis.webserver.metrics;
+
+/**
+ * Copy of the counters of one or more Histograms, used to compute the
+ * percentiles of the recorded values
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class HistogramSnapshot {
+	
+	private long[] counts;
+	
+	private long count;
+	private long sum;
+	private long max;
+	
+	public HistogramSnapshot() {
+		counts = new long[Histogram.BUCKETS];
+	}
+	
+	/**
+	 * Adds the values of a histogram to this snapshot
+	 */
+	public void add(Histogram histogram) {
+		histogram.addTo(this);
+	}
+	
+	/**
+	 * Adds the values of another snapshot to this one
+	 */
+	public void add(HistogramSnapshot snapshot) {
+		for( int i = 0 ; i < counts.length ; i++ ) {
+			counts[i] += snapshot.counts[i];
+		}
+		
+		add(snapshot.count, snapshot.sum, snapshot.max);
+	}
+	
+	void add(long count, long sum, long max) {
+		this.count += count;
+		this.sum += sum;
+		this.max = Math.max(this.max, max);
+	}
+	
+	long[] getCounts() {
+		return counts;
+	}
+	
+	/**
+	 * @param quantile
+	 *            quantile between 0 and 1, 0.99 for the 99th percentile
+	 * @return the value under which the given fraction of the values fall, 0
+	 *         if no value was recorded
+	 */
+	public long getValueAtQuantile(double quantile) {
+		if( count == 0 ) {
+			return 0;
+		}
+		
+		long target = Math.max(1, (long) Math.ceil(quantile * count));
+		
+		long seen = 0;
+		for( int i = 0 ; i < counts.length ; i++ ) {
+			seen += counts[i];
+			if( seen >= target ) {
+				return Math.min(Histogram.bucketUpperBound(i), max);
+			}
+		}
+		
+		//the counts were read while values were being recorded
+		return max;
+	}
+	
+	public long getCount() {
+		return count;
+	}
+	
+	public long getSum() {
+		return sum;
+	}
+	
+	public long getMax() {
+		return max;
+	}
+	
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+}
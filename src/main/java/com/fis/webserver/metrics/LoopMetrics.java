@@ -0,0 +1,106 @@
+package com.fis.webserver.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of a selector event loop: the time blocked in select(), the number
+ * of ready keys and the time spent processing them, for every iteration
+ * 
+ * A loop that spends most of its time in select() is idle, one whose
+ * processing time grows while select() returns at once is saturated. The
+ * histograms are written only by the thread of the loop; the wakeups are
+ * counted by the threads waking the selector up.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class LoopMetrics {
+	
+	//histograms of each iteration
+	public static final int SELECT_TIME = 0;
+	public static final int PROCESSING_TIME = 1;
+	public static final int READY_KEYS = 2;
+	
+	//clients found in the incoming queue, recorded only when it was not empty
+	public static final int QUEUED_CLIENTS = 3;
+	
+	public static final int HISTOGRAMS = 4;
+	
+	//histograms holding durations, in microseconds
+	public static final boolean[] IS_DURATION = { true, true, false, false };
+	
+	public static final String[] HISTOGRAM_NAMES = { "select_seconds", "processing_seconds", "ready_keys",
+			"queued_clients" };
+	public static final String[] HISTOGRAM_DESCRIPTIONS = { "Time blocked in select(), per iteration",
+			"Time spent processing the ready keys, per iteration", "Ready keys, per iteration",
+			"Clients waiting in the incoming queue when the worker woke up" };
+	
+	private Histogram[] histograms;
+	
+	//selector wakeups requested by other threads
+	private AtomicLong wakeups;
+	
+	public LoopMetrics() {
+		histograms = new Histogram[HISTOGRAMS];
+		for( int i = 0 ; i < HISTOGRAMS ; i++ ) {
+			histograms[i] = new Histogram();
+		}
+		
+		wakeups = new AtomicLong();
+	}
+	
+	/**
+	 * Records an iteration of the loop, must be called only by the loop thread
+	 * 
+	 * @param selectNanos
+	 *            time blocked in select(), in nanoseconds
+	 * @param readyKeys
+	 *            number of keys returned by select()
+	 * @param processingNanos
+	 *            time spent after select(), in nanoseconds
+	 */
+	public void recordIteration(long selectNanos, int readyKeys, long processingNanos) {
+		histograms[SELECT_TIME].record(selectNanos / 1000);
+		histograms[READY_KEYS].record(readyKeys);
+		histograms[PROCESSING_TIME].record(processingNanos / 1000);
+	}
+	
+	/**
+	 * Records the number of clients taken from the incoming queue, must be
+	 * called only by the loop thread
+	 */
+	public void recordQueuedClients(int clients) {
+		histograms[QUEUED_CLIENTS].record(clients);
+	}
+	
+	/**
+	 * Counts a wakeup of the selector, may be called by any thread
+	 */
+	public void countWakeup() {
+		wakeups.incrementAndGet();
+	}
+	
+	public long getWakeups() {
+		return wakeups.get();
+	}
+	
+	/**
+	 * @return number of iterations of the loop
+	 */
+	public long getIterations() {
+		return histograms[SELECT_TIME].getCount();
+	}
+	
+	/**
+	 * Adds the histograms and the wakeups of the loop to a snapshot
+	 */
+	public void addTo(MetricsSnapshot snapshot, boolean listener) {
+		HistogramSnapshot[] loop = listener ? snapshot.getListenerLoop() : snapshot.getWorkerLoop();
+		for( int i = 0 ; i < HISTOGRAMS ; i++ ) {
+			loop[i].add(histograms[i]);
+		}
+		
+		snapshot.addWakeups(listener, wakeups.get());
+	}
+}
@@ -0,0 +1,216 @@
+package com.fis.webserver.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Registry of the metrics of the running workers
+ * 
+ * The WorkerManager registers the metrics of each worker it starts and
+ * unregisters them when the worker is discarded; the counters of a discarded
+ * worker are kept, so the server totals never decrease. The metrics are
+ * aggregated on demand, when a snapshot is taken.
+ * 
+ * The server totals and each worker are also published as JMX MBeans, under
+ * the com.fis.webserver domain.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public enum MetricsRegistry implements MetricsRegistryMBean {
+	INSTANCE;
+	
+	public static final Logger logger = Logger.getLogger(MetricsRegistry.class);
+	
+	//JMX domain of the server MBeans
+	public static final String JMX_DOMAIN = "com.fis.webserver";
+	
+	//metrics of the running workers, removed only while holding this
+	private CopyOnWriteArrayList<WorkerMetrics> workers;
+	
+	//counters and histograms of the discarded workers, guarded by this
+	private MetricsSnapshot retired;
+	
+	//event loop of the connection listener
+	private LoopMetrics listenerLoop;
+	
+	private MBeanServer mbeanServer;
+	
+	private MetricsRegistry() {
+		workers = new CopyOnWriteArrayList<WorkerMetrics>();
+		retired = new MetricsSnapshot();
+		listenerLoop = new LoopMetrics();
+		
+		mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		registerMBean(this, JMX_DOMAIN + ":type=Server");
+	}
+	
+	/**
+	 * Adds the metrics of a started worker
+	 * 
+	 * @param metrics
+	 *            metrics of the worker
+	 * @param name
+	 *            name of the worker, usually the name of its thread
+	 */
+	public static void register(WorkerMetrics metrics, String name) {
+		metrics.setName(name);
+		INSTANCE.workers.add(metrics);
+		
+		INSTANCE.registerMBean(metrics, getWorkerObjectName(name));
+	}
+	
+	/**
+	 * Removes the metrics of a discarded worker, its counters are still
+	 * included in the totals
+	 */
+	public static void unregister(WorkerMetrics metrics) {
+		// a snapshot must see the counters either in the worker or in the
+		// retired totals, never in both or in none
+		synchronized(INSTANCE) {
+			if( !INSTANCE.workers.contains(metrics) ) {
+				return;
+			}
+			
+			metrics.addTo(INSTANCE.retired);
+			INSTANCE.workers.remove(metrics);
+		}
+		
+		INSTANCE.unregisterMBean(getWorkerObjectName(metrics.getName()));
+	}
+	
+	/**
+	 * @return metrics of the selector loop of the connection listener
+	 */
+	public static LoopMetrics getListenerLoop() {
+		return INSTANCE.listenerLoop;
+	}
+	
+	/**
+	 * @return the metrics of the running workers
+	 */
+	public static List<WorkerMetrics> getWorkers() {
+		return INSTANCE.workers;
+	}
+	
+	/**
+	 * Aggregates the metrics of all the workers
+	 * 
+	 * @return server totals, the gauges cover only the running workers
+	 */
+	public static MetricsSnapshot snapshot() {
+		MetricsSnapshot snapshot = new MetricsSnapshot();
+		
+		synchronized(INSTANCE) {
+			snapshot.add(INSTANCE.retired);
+			
+			for( WorkerMetrics metrics : INSTANCE.workers ) {
+				metrics.addTo(snapshot);
+				metrics.addGaugesTo(snapshot);
+			}
+		}
+		
+		INSTANCE.listenerLoop.addTo(snapshot, true);
+		
+		return snapshot;
+	}
+	
+	@Override
+	public int getWorkerCount() {
+		return workers.size();
+	}
+	
+	@Override
+	public long getConnectionsAccepted() {
+		return snapshot().getCounter(WorkerMetrics.CONNECTIONS_ACCEPTED);
+	}
+	
+	@Override
+	public long getRequests() {
+		return snapshot().getCounter(WorkerMetrics.REQUESTS);
+	}
+	
+	@Override
+	public long getBytesReceived() {
+		return snapshot().getCounter(WorkerMetrics.BYTES_RECEIVED);
+	}
+	
+	@Override
+	public long getBytesSent() {
+		return snapshot().getCounter(WorkerMetrics.BYTES_SENT);
+	}
+	
+	@Override
+	public long getRequestErrors() {
+		return snapshot().getCounter(WorkerMetrics.REQUEST_ERRORS);
+	}
+	
+	@Override
+	public long getActiveConnections() {
+		return snapshot().getActiveConnections();
+	}
+	
+	@Override
+	public long getFreeSlots() {
+		return snapshot().getFreeSlots();
+	}
+	
+	@Override
+	public long getQueuedClients() {
+		return snapshot().getQueuedClients();
+	}
+	
+	@Override
+	public long getWorkerWakeups() {
+		return snapshot().getWorkerWakeups();
+	}
+	
+	@Override
+	public long getListenerSelectIterations() {
+		return listenerLoop.getIterations();
+	}
+	
+	@Override
+	public long getParseLatency99() {
+		return snapshot().getLatency(WorkerMetrics.PHASE_PARSE).getValueAtQuantile(0.99);
+	}
+	
+	@Override
+	public long getHandleLatency99() {
+		return snapshot().getLatency(WorkerMetrics.PHASE_HANDLE).getValueAtQuantile(0.99);
+	}
+	
+	@Override
+	public long getWriteLatency99() {
+		return snapshot().getLatency(WorkerMetrics.PHASE_WRITE).getValueAtQuantile(0.99);
+	}
+	
+	private static String getWorkerObjectName(String name) {
+		return JMX_DOMAIN + ":type=Worker,name=" + ObjectName.quote(name);
+	}
+	
+	private void registerMBean(Object mbean, String objectName) {
+		try {
+			mbeanServer.registerMBean(mbean, new ObjectName(objectName));
+		}
+		catch(Exception e) {
+			logger.warn("Could not register MBean " + objectName + "!", e);
+		}
+	}
+	
+	private void unregisterMBean(String objectName) {
+		try {
+			mbeanServer.unregisterMBean(new ObjectName(objectName));
+		}
+		catch(Exception e) {
+			logger.warn("Could not unregister MBean " + objectName + "!", e);
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package com.fis.webserver.metrics;
+
+/**
+ * JMX view of the server totals. The latencies are in microseconds
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public interface MetricsRegistryMBean {
+	
+	public int getWorkerCount();
+	
+	public long getConnectionsAccepted();
+	
+	public long getRequests();
+	
+	public long getBytesReceived();
+	
+	public long getBytesSent();
+	
+	public long getRequestErrors();
+	
+	public long getActiveConnections();
+	
+	public long getFreeSlots();
+	
+	public long getQueuedClients();
+	
+	public long getWorkerWakeups();
+	
+	public long getListenerSelectIterations();
+	
+	public long getParseLatency99();
+	
+	public long getHandleLatency99();
+	
+	public long getWriteLatency99();
+}
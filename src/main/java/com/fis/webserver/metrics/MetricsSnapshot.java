@@ -0,0 +1,196 @@
+package com.fis.webserver.metrics;
+
+import com.fis.webserver.model.http.HttpResponseCode;
+
+/**
+ * Values of the metrics of one or more workers at a point in time
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class MetricsSnapshot {
+	
+	//counters, indexed by the WorkerMetrics constants
+	private long[] counters;
+	
+	//responses by status, indexed by HttpResponseCode ordinal
+	private long[] responses;
+	
+	//latencies of the request phases, in microseconds
+	private HistogramSnapshot[] latencies;
+	
+	//event loops of the workers and of the connection listener
+	private HistogramSnapshot[] workerLoop;
+	private HistogramSnapshot[] listenerLoop;
+	private long workerWakeups;
+	private long listenerWakeups;
+	
+	//gauges
+	private int workers;
+	private long activeConnections;
+	private long freeSlots;
+	private long activeResponses;
+	private long queuedClients;
+	
+	public MetricsSnapshot() {
+		counters = new long[WorkerMetrics.COUNTERS];
+		responses = new long[HttpResponseCode.values().length];
+		
+		latencies = new HistogramSnapshot[WorkerMetrics.PHASES];
+		for( int i = 0 ; i < latencies.length ; i++ ) {
+			latencies[i] = new HistogramSnapshot();
+		}
+		
+		workerLoop = newLoop();
+		listenerLoop = newLoop();
+	}
+	
+	private static HistogramSnapshot[] newLoop() {
+		HistogramSnapshot[] loop = new HistogramSnapshot[LoopMetrics.HISTOGRAMS];
+		for( int i = 0 ; i < loop.length ; i++ ) {
+			loop[i] = new HistogramSnapshot();
+		}
+		
+		return loop;
+	}
+	
+	/**
+	 * Adds the counters and histograms of another snapshot to this one, the
+	 * gauges are not added
+	 */
+	public void add(MetricsSnapshot snapshot) {
+		for( int i = 0 ; i < counters.length ; i++ ) {
+			counters[i] += snapshot.counters[i];
+		}
+		
+		for( int i = 0 ; i < responses.length ; i++ ) {
+			responses[i] += snapshot.responses[i];
+		}
+		
+		for( int i = 0 ; i < latencies.length ; i++ ) {
+			latencies[i].add(snapshot.latencies[i]);
+		}
+		
+		for( int i = 0 ; i < LoopMetrics.HISTOGRAMS ; i++ ) {
+			workerLoop[i].add(snapshot.workerLoop[i]);
+			listenerLoop[i].add(snapshot.listenerLoop[i]);
+		}
+		
+		workerWakeups += snapshot.workerWakeups;
+		listenerWakeups += snapshot.listenerWakeups;
+	}
+	
+	void addGauges(int workers, long activeConnections, long freeSlots, long activeResponses,
+			long queuedClients) {
+		this.workers += workers;
+		this.activeConnections += activeConnections;
+		this.freeSlots += freeSlots;
+		this.activeResponses += activeResponses;
+		this.queuedClients += queuedClients;
+	}
+	
+	void addWakeups(boolean listener, long wakeups) {
+		if( listener ) {
+			listenerWakeups += wakeups;
+		}
+		else {
+			workerWakeups += wakeups;
+		}
+	}
+	
+	long[] getCounters() {
+		return counters;
+	}
+	
+	long[] getResponses() {
+		return responses;
+	}
+	
+	/**
+	 * @param counter
+	 *            one of the WorkerMetrics counter constants
+	 */
+	public long getCounter(int counter) {
+		return counters[counter];
+	}
+	
+	public long getResponses(HttpResponseCode statusCode) {
+		return responses[statusCode.ordinal()];
+	}
+	
+	/**
+	 * @param phase
+	 *            one of the WorkerMetrics.PHASE_ constants
+	 * @return latencies of the phase, in microseconds
+	 */
+	public HistogramSnapshot getLatency(int phase) {
+		return latencies[phase];
+	}
+	
+	/**
+	 * @param histogram
+	 *            one of the LoopMetrics histogram constants
+	 * @return histogram of the event loops of all the workers, the durations
+	 *         are in microseconds
+	 */
+	public HistogramSnapshot getWorkerLoop(int histogram) {
+		return workerLoop[histogram];
+	}
+	
+	/**
+	 * @param histogram
+	 *            one of the LoopMetrics histogram constants
+	 * @return histogram of the event loop of the connection listener
+	 */
+	public HistogramSnapshot getListenerLoop(int histogram) {
+		return listenerLoop[histogram];
+	}
+	
+	HistogramSnapshot[] getWorkerLoop() {
+		return workerLoop;
+	}
+	
+	HistogramSnapshot[] getListenerLoop() {
+		return listenerLoop;
+	}
+	
+	/**
+	 * @return selector wakeups of the workers caused by handing them new
+	 *         clients
+	 */
+	public long getWorkerWakeups() {
+		return workerWakeups;
+	}
+	
+	/**
+	 * @return selector wakeups of the connection listener requested by other
+	 *         threads
+	 */
+	public long getListenerWakeups() {
+		return listenerWakeups;
+	}
+	
+	public int getWorkers() {
+		return workers;
+	}
+	
+	public long getActiveConnections() {
+		return activeConnections;
+	}
+	
+	public long getFreeSlots() {
+		return freeSlots;
+	}
+	
+	public long getActiveResponses() {
+		return activeResponses;
+	}
+	
+	/**
+	 * @return clients waiting in the incoming queues of the workers
+	 */
+	public long getQueuedClients() {
+		return queuedClients;
+	}
+}
@@ -0,0 +1,183 @@
+package com.fis.webserver.metrics;
+
+import com.fis.webserver.model.http.HttpResponseCode;
+
+/**
+ * Formats the server metrics in the Prometheus text exposition format
+ * 
+ * The counters and the latency summaries are server totals, the gauges and
+ * the request counters are also given for each worker. The latencies are
+ * exported in seconds.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class PrometheusExposition {
+	
+	//content type of the exposition format
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	
+	//prefix of the metric names
+	public static final String PREFIX = "fis_";
+	
+	//quantiles of the latency summaries
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	
+	/**
+	 * @return the current metrics of the server, in the exposition format
+	 */
+	public static String format() {
+		MetricsSnapshot snapshot = MetricsRegistry.snapshot();
+		
+		StringBuilder output = new StringBuilder(4096);
+		
+		for( int i = 0 ; i < WorkerMetrics.COUNTERS ; i++ ) {
+			String name = PREFIX + WorkerMetrics.COUNTER_NAMES[i] + "_total";
+			writeHeader(output, name, WorkerMetrics.COUNTER_DESCRIPTIONS[i], "counter");
+			writeSample(output, name, null, snapshot.getCounter(i));
+		}
+		
+		String responsesName = PREFIX + "responses_total";
+		writeHeader(output, responsesName, "Responses sent, by status code", "counter");
+		for( HttpResponseCode statusCode : HttpResponseCode.values() ) {
+			writeSample(output, responsesName, "code=\"" + statusCode.getCode() + "\"", snapshot.getResponses(statusCode));
+		}
+		
+		writeGauge(output, "workers", "Running workers", snapshot.getWorkers());
+		writeGauge(output, "active_connections", "Client connections handled by the workers", snapshot.getActiveConnections());
+		writeGauge(output, "free_slots", "Connections the workers can still take", snapshot.getFreeSlots());
+		writeGauge(output, "active_responses", "Responses being sent", snapshot.getActiveResponses());
+		writeGauge(output, "queued_clients", "Clients waiting in the incoming queues of the workers",
+				snapshot.getQueuedClients());
+		
+		String latencyName = PREFIX + "request_phase_seconds";
+		writeHeader(output, latencyName, "Duration of the request phases", "summary");
+		for( int phase = 0 ; phase < WorkerMetrics.PHASES ; phase++ ) {
+			String phaseLabel = "phase=\"" + WorkerMetrics.PHASE_NAMES[phase] + "\"";
+			writeSummary(output, latencyName, phaseLabel, snapshot.getLatency(phase), true);
+		}
+		
+		writeLoops(output, snapshot);
+		
+		writeWorkers(output);
+		
+		return output.toString();
+	}
+	
+	/**
+	 * Writes the selector loop metrics of the workers and of the connection
+	 * listener
+	 */
+	private static void writeLoops(StringBuilder output, MetricsSnapshot snapshot) {
+		String wakeupsName = PREFIX + "worker_wakeups_total";
+		writeHeader(output, wakeupsName, "Worker selector wakeups caused by handing over new clients", "counter");
+		writeSample(output, wakeupsName, null, snapshot.getWorkerWakeups());
+		
+		for( int i = 0 ; i < LoopMetrics.HISTOGRAMS ; i++ ) {
+			String name = PREFIX + "selector_" + LoopMetrics.HISTOGRAM_NAMES[i];
+			writeHeader(output, name, LoopMetrics.HISTOGRAM_DESCRIPTIONS[i], "summary");
+			
+			writeSummary(output, name, "loop=\"worker\"", snapshot.getWorkerLoop(i), LoopMetrics.IS_DURATION[i]);
+			//the listener has no incoming queue
+			if( i != LoopMetrics.QUEUED_CLIENTS ) {
+				writeSummary(output, name, "loop=\"listener\"", snapshot.getListenerLoop(i),
+						LoopMetrics.IS_DURATION[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the quantiles, sum and count of a histogram
+	 * 
+	 * @param duration
+	 *            true if the histogram values are microseconds, exported as
+	 *            seconds
+	 */
+	private static void writeSummary(StringBuilder output, String name, String labels,
+			HistogramSnapshot histogram, boolean duration) {
+		for( double quantile : QUANTILES ) {
+			long value = histogram.getValueAtQuantile(quantile);
+			String quantileLabels = labels + ",quantile=\"" + quantile + "\"";
+			if( duration ) {
+				writeSample(output, name, quantileLabels, toSeconds(value));
+			}
+			else {
+				writeSample(output, name, quantileLabels, value);
+			}
+		}
+		
+		if( duration ) {
+			writeSample(output, name + "_sum", labels, toSeconds(histogram.getSum()));
+		}
+		else {
+			writeSample(output, name + "_sum", labels, histogram.getSum());
+		}
+		writeSample(output, name + "_count", labels, histogram.getCount());
+	}
+	
+	/**
+	 * Writes the load of each running worker
+	 */
+	private static void writeWorkers(StringBuilder output) {
+		String requestsName = PREFIX + "worker_requests_total";
+		String connectionsName = PREFIX + "worker_active_connections";
+		String responsesName = PREFIX + "worker_active_responses";
+		String queuedName = PREFIX + "worker_queued_clients";
+		
+		StringBuilder requests = new StringBuilder();
+		StringBuilder connections = new StringBuilder();
+		StringBuilder responses = new StringBuilder();
+		StringBuilder queued = new StringBuilder();
+		
+		for( WorkerMetrics metrics : MetricsRegistry.getWorkers() ) {
+			String workerLabel = "worker=\"" + metrics.getName() + "\"";
+			
+			writeSample(requests, requestsName, workerLabel, metrics.getRequests());
+			writeSample(connections, connectionsName, workerLabel, metrics.getActiveConnections());
+			writeSample(responses, responsesName, workerLabel, metrics.getActiveResponses());
+			writeSample(queued, queuedName, workerLabel, metrics.getQueuedClients());
+		}
+		
+		writeHeader(output, requestsName, "Requests answered by each worker", "counter");
+		output.append(requests);
+		writeHeader(output, connectionsName, "Client connections of each worker", "gauge");
+		output.append(connections);
+		writeHeader(output, responsesName, "Responses being sent by each worker", "gauge");
+		output.append(responses);
+		writeHeader(output, queuedName, "Clients waiting in the incoming queue of each worker", "gauge");
+		output.append(queued);
+	}
+	
+	private static void writeGauge(StringBuilder output, String name, String description, long value) {
+		writeHeader(output, PREFIX + name, description, "gauge");
+		writeSample(output, PREFIX + name, null, value);
+	}
+	
+	private static void writeHeader(StringBuilder output, String name, String description, String type) {
+		output.append("# HELP ").append(name).append(' ').append(description).append('\n');
+		output.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+	
+	private static void writeSample(StringBuilder output, String name, String labels, long value) {
+		writeName(output, name, labels);
+		output.append(value).append('\n');
+	}
+	
+	private static void writeSample(StringBuilder output, String name, String labels, double value) {
+		writeName(output, name, labels);
+		output.append(value).append('\n');
+	}
+	
+	private static void writeName(StringBuilder output, String name, String labels) {
+		output.append(name);
+		if( labels != null ) {
+			output.append('{').append(labels).append('}');
+		}
+		output.append(' ');
+	}
+	
+	private static double toSeconds(long micros) {
+		return micros / 1000000.0;
+	}
+}
@@ -0,0 +1,255 @@
+package com.fis.webserver.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.fis.webserver.core.WebWorker;
+import com.fis.webserver.model.http.HttpResponseCode;
+
+/**
+ * Counters and latency histograms of a WebWorker
+ * 
+ * The metrics are written only by the thread of their worker, with ordered
+ * stores instead of atomic operations or locks, so recording them doesn't
+ * slow the worker down. They are read by other threads (the status handler,
+ * JMX) when a snapshot is taken. The gauges are not stored, they are read
+ * from the worker when the snapshot is taken.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class WorkerMetrics implements WorkerMetricsMBean {
+	
+	//counters
+	public static final int CONNECTIONS_ACCEPTED = 0;
+	public static final int REQUESTS = 1;
+	public static final int BYTES_RECEIVED = 2;
+	public static final int BYTES_SENT = 3;
+	public static final int REQUEST_ERRORS = 4;
+	
+	public static final int COUNTERS = 5;
+	
+	//names and descriptions of the counters, in the exposition format
+	public static final String[] COUNTER_NAMES = { "connections_accepted", "requests", "bytes_received",
+			"bytes_sent", "request_errors" };
+	public static final String[] COUNTER_DESCRIPTIONS = { "Client connections accepted",
+			"Requests answered", "Bytes read from the clients", "Bytes written to the clients",
+			"Requests that could not be parsed" };
+	
+	//phases of a request with a latency histogram
+	public static final int PHASE_PARSE = 0;
+	public static final int PHASE_HANDLE = 1;
+	public static final int PHASE_WRITE = 2;
+	
+	public static final int PHASES = 3;
+	
+	public static final String[] PHASE_NAMES = { "parse", "handle", "write" };
+	
+	//name of the worker, set when it is registered
+	private volatile String name;
+	
+	//worker whose gauges are read, null for the metrics of the retired workers
+	private WebWorker worker;
+	
+	//maximum number of clients of the worker
+	private int maxClients;
+	
+	private AtomicLongArray counters;
+	
+	//number of responses by status, indexed by HttpResponseCode ordinal
+	private AtomicLongArray responses;
+	
+	//latencies of the request phases, in microseconds
+	private Histogram[] latencies;
+	
+	//event loop of the worker
+	private LoopMetrics loop;
+	
+	public WorkerMetrics(WebWorker worker, int maxClients) {
+		this.worker = worker;
+		this.maxClients = maxClients;
+		
+		counters = new AtomicLongArray(COUNTERS);
+		responses = new AtomicLongArray(HttpResponseCode.values().length);
+		
+		latencies = new Histogram[PHASES];
+		for( int i = 0 ; i < PHASES ; i++ ) {
+			latencies[i] = new Histogram();
+		}
+		
+		loop = new LoopMetrics();
+	}
+	
+	/**
+	 * Increments a counter, must be called only by the worker thread
+	 */
+	public void increment(int counter) {
+		add(counter, 1);
+	}
+	
+	/**
+	 * Adds a value to a counter, must be called only by the worker thread
+	 */
+	public void add(int counter, long delta) {
+		counters.lazySet(counter, counters.get(counter) + delta);
+	}
+	
+	/**
+	 * Counts a response, must be called only by the worker thread
+	 */
+	public void countResponse(HttpResponseCode statusCode) {
+		int index = statusCode.ordinal();
+		responses.lazySet(index, responses.get(index) + 1);
+	}
+	
+	/**
+	 * Records the duration of a request phase, must be called only by the
+	 * worker thread
+	 * 
+	 * @param phase
+	 *            one of the PHASE_ constants
+	 * @param nanos
+	 *            duration of the phase in nanoseconds
+	 */
+	public void recordLatency(int phase, long nanos) {
+		latencies[phase].record(nanos / 1000);
+	}
+	
+	/**
+	 * @return metrics of the selector loop of the worker
+	 */
+	public LoopMetrics getLoop() {
+		return loop;
+	}
+	
+	/**
+	 * Adds the counters and histograms of the worker to a snapshot
+	 */
+	public void addTo(MetricsSnapshot snapshot) {
+		long[] snapshotCounters = snapshot.getCounters();
+		for( int i = 0 ; i < COUNTERS ; i++ ) {
+			snapshotCounters[i] += counters.get(i);
+		}
+		
+		long[] snapshotResponses = snapshot.getResponses();
+		for( int i = 0 ; i < snapshotResponses.length ; i++ ) {
+			snapshotResponses[i] += responses.get(i);
+		}
+		
+		for( int i = 0 ; i < PHASES ; i++ ) {
+			snapshot.getLatency(i).add(latencies[i]);
+		}
+		
+		loop.addTo(snapshot, false);
+	}
+	
+	/**
+	 * Adds the current load of the worker to the gauges of a snapshot
+	 */
+	public void addGaugesTo(MetricsSnapshot snapshot) {
+		if( worker == null ) {
+			return;
+		}
+		
+		int freeSlots = worker.getFreeSlots();
+		snapshot.addGauges(1, maxClients - freeSlots, freeSlots, worker.getActiveResponses(),
+				worker.getQueuedClients());
+	}
+	
+	/**
+	 * @return a snapshot of this worker's metrics
+	 */
+	public MetricsSnapshot snapshot() {
+		MetricsSnapshot snapshot = new MetricsSnapshot();
+		addTo(snapshot);
+		addGaugesTo(snapshot);
+		
+		return snapshot;
+	}
+	
+	@Override
+	public String getName() {
+		return name;
+	}
+	
+	void setName(String name) {
+		this.name = name;
+	}
+	
+	@Override
+	public long getConnectionsAccepted() {
+		return counters.get(CONNECTIONS_ACCEPTED);
+	}
+	
+	@Override
+	public long getRequests() {
+		return counters.get(REQUESTS);
+	}
+	
+	@Override
+	public long getBytesReceived() {
+		return counters.get(BYTES_RECEIVED);
+	}
+	
+	@Override
+	public long getBytesSent() {
+		return counters.get(BYTES_SENT);
+	}
+	
+	@Override
+	public long getRequestErrors() {
+		return counters.get(REQUEST_ERRORS);
+	}
+	
+	@Override
+	public int getActiveConnections() {
+		return worker == null ? 0 : maxClients - worker.getFreeSlots();
+	}
+	
+	@Override
+	public int getFreeSlots() {
+		return worker == null ? 0 : worker.getFreeSlots();
+	}
+	
+	@Override
+	public int getActiveResponses() {
+		return worker == null ? 0 : worker.getActiveResponses();
+	}
+	
+	@Override
+	public int getQueuedClients() {
+		return worker == null ? 0 : worker.getQueuedClients();
+	}
+	
+	@Override
+	public long getSelectIterations() {
+		return loop.getIterations();
+	}
+	
+	@Override
+	public long getWakeups() {
+		return loop.getWakeups();
+	}
+	
+	@Override
+	public long getParseLatency99() {
+		return snapshotLatency(PHASE_PARSE).getValueAtQuantile(0.99);
+	}
+	
+	@Override
+	public long getHandleLatency99() {
+		return snapshotLatency(PHASE_HANDLE).getValueAtQuantile(0.99);
+	}
+	
+	@Override
+	public long getWriteLatency99() {
+		return snapshotLatency(PHASE_WRITE).getValueAtQuantile(0.99);
+	}
+	
+	private HistogramSnapshot snapshotLatency(int phase) {
+		HistogramSnapshot snapshot = new HistogramSnapshot();
+		snapshot.add(latencies[phase]);
+		
+		return snapshot;
+	}
+}
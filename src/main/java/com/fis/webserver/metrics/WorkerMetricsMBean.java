@@ -0,0 +1,41 @@
+package com.fis.webserver.metrics;
+
+/**
+ * JMX view of the metrics of a worker. The latencies are in microseconds
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public interface WorkerMetricsMBean {
+	
+	public String getName();
+	
+	public long getConnectionsAccepted();
+	
+	public long getRequests();
+	
+	public long getBytesReceived();
+	
+	public long getBytesSent();
+	
+	public long getRequestErrors();
+	
+	public int getActiveConnections();
+	
+	public int getFreeSlots();
+	
+	public int getActiveResponses();
+	
+	public int getQueuedClients();
+	
+	public long getSelectIterations();
+	
+	public long getWakeups();
+	
+	public long getParseLatency99();
+	
+	public long getHandleLatency99();
+	
+	public long getWriteLatency99();
+}
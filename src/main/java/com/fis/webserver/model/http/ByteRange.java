@@ -0,0 +1,32 @@
+package com.fis.webserver.model.http;
+
+/**
+ * A satisfiable byte range of a resource, as requested by a Range header
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class ByteRange {
+	
+	//positions of the first and last byte of the range, both inclusive
+	private long first;
+	private long last;
+	
+	public ByteRange(long first, long last) {
+		this.first = first;
+		this.last = last;
+	}
+	
+	public long getFirst() {
+		return first;
+	}
+	
+	public long getLast() {
+		return last;
+	}
+	
+	public long getLength() {
+		return last - first + 1;
+	}
+}
@@ -0,0 +1,101 @@
+package com.fis.webserver.model.http;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+
+import com.fis.webserver.util.PooledTempFile;
+
+/**
+ * A part of a multipart/form-data request body
+ * 
+ * A file part (one with a filename) is stored in a temporary file taken from
+ * the TempFilePool, a form field is kept in memory as a string.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class FormPart {
+	
+	//name of the form field
+	private String name;
+	
+	//filename sent by the client, null for a form field
+	private String fileName;
+	
+	//value of the Content-Type header of the part, null if not sent
+	private String contentType;
+	
+	//value of a form field
+	private String value;
+	
+	//storage of a file part
+	private PooledTempFile tempFile;
+	
+	//number of bytes of the part
+	private long length;
+	
+	public FormPart(String name, String fileName, String contentType) {
+		this.name = name;
+		this.fileName = fileName;
+		this.contentType = contentType;
+	}
+	
+	/**
+	 * @return true if the part is a file stored on disk
+	 */
+	public boolean isFile() {
+		return fileName != null;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public String getFileName() {
+		return fileName;
+	}
+	
+	public String getContentType() {
+		return contentType;
+	}
+	
+	public String getValue() {
+		return value;
+	}
+	
+	public void setValue(String value) {
+		this.value = value;
+	}
+	
+	public long getLength() {
+		return length;
+	}
+	
+	public void setLength(long length) {
+		this.length = length;
+	}
+	
+	public PooledTempFile getTempFile() {
+		return tempFile;
+	}
+	
+	public void setTempFile(PooledTempFile tempFile) {
+		this.tempFile = tempFile;
+	}
+	
+	/**
+	 * @return the file storing a file part, null for a form field
+	 */
+	public File getFile() {
+		return tempFile != null ? tempFile.getFile() : null;
+	}
+	
+	/**
+	 * @return channel of the file storing a file part, positioned at its
+	 *         beginning when the part is complete; null for a form field
+	 */
+	public FileChannel getChannel() {
+		return tempFile != null ? tempFile.getChannel() : null;
+	}
+}
@@ -1,10 +1,17 @@
 package com.fis.webserver.model.http;
 
 import java.util.HashMap;
+import java.util.Map;
+
+import com.fis.webserver.http.route.Route;
+import com.fis.webserver.http.route.RouteTable;
 
 /**
  * Object representing a parsed HTTP request
  * 
+ * Request objects are reused for the following requests of a keep-alive
+ * connection, see reset().
+ * 
  * @author Florin Iordache
  *
  */
@@ -28,6 +35,12 @@ public class HttpRequest {
 
 	private long contentLength;
 	
+	//route matched by the request path
+	private Route route;
+	
+	//start and end offsets in the URL of the path parameters
+	private int[] pathParameterOffsets;
+	
 	public HttpRequest() {
 		this.headers = new HashMap<String, String>();
 		
@@ -35,6 +48,82 @@ public class HttpRequest {
 		
 		contentLength = -1;
 	}
+	
+	/**
+	 * Clears this request, so it can be reused for the next request of the
+	 * connection
+	 */
+	public void reset() {
+		method = null;
+		URL = null;
+		httpMajorVersion = 0;
+		httpMinorVersion = 0;
+		
+		headers.clear();
+		requestBody.reset();
+		contentLength = -1;
+		
+		route = null;
+	}
+	
+	/**
+	 * Determines if the client wants to keep the connection open after the
+	 * response: HTTP/1.1 connections are persistent unless the client sends
+	 * "Connection: close", HTTP/1.0 ones only if it sends
+	 * "Connection: keep-alive"
+	 * 
+	 * @return true if the connection can be kept open
+	 */
+	public boolean isKeepAlive() {
+		String connection = getHeader(HttpHeader.CONNECTION);
+		
+		if( httpMajorVersion > 1 || (httpMajorVersion == 1 && httpMinorVersion >= 1) ) {
+			return connection == null || !containsToken(connection, "close");
+		}
+		
+		return connection != null && containsToken(connection, "keep-alive");
+	}
+	
+	/**
+	 * @return true if the client understands the chunked transfer coding,
+	 *         which HTTP/1.0 clients don't (RFC 7230, section 3.3.1)
+	 */
+	public boolean isChunkedCodingSupported() {
+		return httpMajorVersion > 1 || (httpMajorVersion == 1 && httpMinorVersion >= 1);
+	}
+	
+	/**
+	 * Checks if a comma separated header value contains a token, case
+	 * insensitive
+	 */
+	private static boolean containsToken(String value, String token) {
+		int position = 0;
+		int length = value.length();
+		while( position < length ) {
+			int end = value.indexOf(',', position);
+			if( end < 0 ) {
+				end = length;
+			}
+			
+			//trim the white space around the element
+			int start = position;
+			while( start < end && value.charAt(start) <= ' ' ) {
+				start++;
+			}
+			int elementEnd = end;
+			while( elementEnd > start && value.charAt(elementEnd - 1) <= ' ' ) {
+				elementEnd--;
+			}
+			
+			if( elementEnd - start == token.length() && value.regionMatches(true, start, token, 0, token.length()) ) {
+				return true;
+			}
+			
+			position = end + 1;
+		}
+		
+		return false;
+	}
 
 	public String getURL() {
 		return URL;
@@ -52,6 +141,28 @@ public class HttpRequest {
 		return headers;
 	}
 
+	/**
+	 * Returns the value of a request header, matching the header name case
+	 * insensitive
+	 * 
+	 * @param headerName name of the header
+	 * @return header value or null if the request does not contain the header
+	 */
+	public String getHeader(String headerName) {
+		String headerValue = headers.get(headerName);
+		if( headerValue != null ) {
+			return headerValue;
+		}
+		
+		for( Map.Entry<String, String> header : headers.entrySet() ) {
+			if( header.getKey().equalsIgnoreCase(headerName) ) {
+				return header.getValue();
+			}
+		}
+		
+		return null;
+	}
+	
 	public void addHeader(String headerName, String headerValue) {
 		headers.put(headerName, headerValue);
 		
@@ -89,6 +200,51 @@ public class HttpRequest {
 		return method;
 	}
 	
+	public Route getRoute() {
+		return route;
+	}
+	
+	public void setRoute(Route route) {
+		this.route = route;
+	}
+	
+	/**
+	 * Records the position of a path parameter in the URL
+	 * 
+	 * @param index
+	 *            index of the parameter in the route pattern
+	 * @param start
+	 *            offset of the first character of the value
+	 * @param end
+	 *            offset after the last character of the value
+	 */
+	public void setPathParameter(int index, int start, int end) {
+		if( pathParameterOffsets == null ) {
+			pathParameterOffsets = new int[RouteTable.MAX_PATH_PARAMETERS * 2];
+		}
+		
+		pathParameterOffsets[index * 2] = start;
+		pathParameterOffsets[index * 2 + 1] = end;
+	}
+	
+	/**
+	 * Returns the value of a path parameter of the matched route
+	 * 
+	 * @param name
+	 *            name of the parameter in the route pattern, e.g. "id" for
+	 *            "/api/users/:id"
+	 * @return the (not decoded) value or null if the route has no such
+	 *         parameter
+	 */
+	public String getPathParameter(String name) {
+		int index = route != null ? route.getParameterIndex(name) : -1;
+		if( index < 0 ) {
+			return null;
+		}
+		
+		return URL.substring(pathParameterOffsets[index * 2], pathParameterOffsets[index * 2 + 1]);
+	}
+	
 	/**
 	 * Returns the value of the Content-Length header, if any or -1 if the
 	 * header is not present
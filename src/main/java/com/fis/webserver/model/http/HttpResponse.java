@@ -1,19 +1,24 @@
 package com.fis.webserver.model.http;
 
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TimeZone;
 
+import com.fis.webserver.http.HttpResponseHeaderEncoder;
+import com.fis.webserver.model.http.body.ResponseBody;
+import com.fis.webserver.util.cache.ResourceMetadata;
 import com.fis.webserver.util.cleaner.Cleaner;
 
 /**
  * Models the Http Response
  * 
+ * The generic headers (Server, Date and Connection) are not stored, they are
+ * written by the HttpResponseHeaderEncoder from pre-encoded values. The
+ * Content-Length is kept as a number, so it can be encoded without creating a
+ * String. A body of unknown length is sent with the chunked transfer coding,
+ * or, to HTTP/1.0 clients, unframed and ended by closing the connection.
+ * 
+ * Response objects are reused for the following requests of a keep-alive
+ * connection, see reset().
+ * 
  * @author Florin Iordache
  *
  */
@@ -22,59 +27,214 @@ public class HttpResponse {
 	public static final String HTTP_VERSION = "HTTP/1.1";
 	public static final String SERVER_HEADER_VALUE = "FISServer";
 	
-	//date format for the date and last-modified information of the response headers
-	public static final DateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz");  
+	//initial capacity of the header arrays
+	private static final int DEFAULT_HEADER_CAPACITY = 4;
 	
 	private HttpResponseCode statusCode;
-	private HashMap<String, String> responseHeaders;
 	
-	//FileChannel of the requested resource
-	private FileChannel contentChannel;
+	//names and values of the added response headers, in insertion order
+	private String[] headerNames;
+	private String[] headerValues;
+	private int headerCount;
+	
+	//value of the Content-Length header, -1 if the header is not sent
+	private long contentLength;
+	
+	//body of the response, null if the response has no body
+	private ResponseBody body;
+	
+	//resource the body is read from, null if the body is not a file
+	private ResourceMetadata resource;
 	
 	//will perform the needed cleanup after the response is sent to the client
 	private Cleaner resourceCleaner;
 	
-	static {
-		//initialize the timezone of the dateformat object to be GMT
-		df.setTimeZone(TimeZone.getTimeZone("GMT"));
+	//flag indicating that the connection is kept open after this response
+	private boolean keepAlive;
+	
+	//false if the client doesn't know the chunked transfer coding (HTTP/1.0)
+	private boolean chunkedCodingAllowed;
+	
+	public HttpResponse() {
+		headerNames = new String[DEFAULT_HEADER_CAPACITY];
+		headerValues = new String[DEFAULT_HEADER_CAPACITY];
+		
+		reset();
 	}
 	
 	public HttpResponse(HttpResponseCode statusCode) {
+		this();
+		
 		this.statusCode = statusCode;
+	}
+	
+	/**
+	 * Clears this response, so it can be reused for another request. The
+	 * header arrays are kept, only their content is dropped
+	 */
+	public void reset() {
+		statusCode = null;
 		
-		// create the generic headers: Server name, date of the response
-		// generation and connection close(for the moment)
-		responseHeaders = new HashMap<String, String>();
-		responseHeaders.put(HttpHeader.SERVER, SERVER_HEADER_VALUE);
-
-		responseHeaders.put(HttpHeader.DATE, df.format(new Date()));
-		responseHeaders.put(HttpHeader.CONNECTION, "Close");
+		for( int i = 0 ; i < headerCount ; i++ ) {
+			headerNames[i] = null;
+			headerValues[i] = null;
+		}
+		headerCount = 0;
 		
-		contentChannel = null;
+		contentLength = -1;
+		
+		body = null;
+		resource = null;
+		resourceCleaner = null;
+		keepAlive = false;
+		chunkedCodingAllowed = true;
 	}
 	
 	public HttpResponseCode getStatusCode() {
 		return statusCode;
 	}
-
-	public HashMap<String, String> getResponseHeaders() {
-		return responseHeaders;
+	
+	public void setStatusCode(HttpResponseCode statusCode) {
+		this.statusCode = statusCode;
+	}
+	
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+	
+	public void setKeepAlive(boolean keepAlive) {
+		this.keepAlive = keepAlive;
 	}
 
+	/**
+	 * Adds a response header, replacing the value of a previously added header
+	 * with the same name
+	 * 
+	 * @param headerName
+	 *            name of the header, preferably one of the HttpHeader constants
+	 * @param headerValue
+	 *            value of the header
+	 */
 	public void addHeader(String headerName, String headerValue) {
-		responseHeaders.put(headerName, headerValue);
+		for( int i = 0 ; i < headerCount ; i++ ) {
+			if( headerNames[i].equals(headerName) ) {
+				headerValues[i] = headerValue;
+				return;
+			}
+		}
+		
+		if( headerCount == headerNames.length ) {
+			String[] names = new String[headerCount * 2];
+			String[] values = new String[headerCount * 2];
+			System.arraycopy(headerNames, 0, names, 0, headerCount);
+			System.arraycopy(headerValues, 0, values, 0, headerCount);
+			headerNames = names;
+			headerValues = values;
+		}
+		
+		headerNames[headerCount] = headerName;
+		headerValues[headerCount] = headerValue;
+		headerCount++;
+	}
+
+	/**
+	 * @return the value of a previously added header or null if the header was
+	 *         not added
+	 */
+	public String getHeader(String headerName) {
+		for( int i = 0 ; i < headerCount ; i++ ) {
+			if( headerNames[i].equals(headerName) ) {
+				return headerValues[i];
+			}
+		}
+		
+		return null;
+	}
+	
+	public int getHeaderCount() {
+		return headerCount;
 	}
 	
-	public void addAll(HashMap<String,String> headers) {
-		responseHeaders.putAll(headers);
+	public String getHeaderName(int index) {
+		return headerNames[index];
 	}
 	
-	public FileChannel getContentChannel() {
-		return contentChannel;
+	public String getHeaderValue(int index) {
+		return headerValues[index];
 	}
 	
-	public void setContentChannel(FileChannel contentChannel) {
-		this.contentChannel = contentChannel;
+	public long getContentLength() {
+		return contentLength;
+	}
+	
+	/**
+	 * Sets the value of the Content-Length header
+	 * 
+	 * @param contentLength
+	 *            length of the response body or -1 to omit the header
+	 */
+	public void setContentLength(long contentLength) {
+		this.contentLength = contentLength;
+	}
+	
+	public ResponseBody getBody() {
+		return body;
+	}
+	
+	/**
+	 * Sets the body of the response. The Content-Length header is set to the
+	 * length of the body, if known
+	 * 
+	 * @param body
+	 *            ResponseBody object
+	 */
+	public void setBody(ResponseBody body) {
+		this.body = body;
+		
+		if( body != null && body.getLength() >= 0 ) {
+			contentLength = body.getLength();
+		}
+	}
+	
+	/**
+	 * @return true if the body must be sent with the chunked transfer coding,
+	 *         because its length is not known in advance
+	 */
+	public boolean isChunked() {
+		return body != null && contentLength < 0 && chunkedCodingAllowed;
+	}
+	
+	/**
+	 * @return true if the body has an unknown length and the client can't
+	 *         receive chunks, the end of the body is marked by closing the
+	 *         connection
+	 */
+	public boolean isDelimitedByClose() {
+		return body != null && contentLength < 0 && !chunkedCodingAllowed;
+	}
+	
+	/**
+	 * @param chunkedCodingAllowed
+	 *            false if the client doesn't support the chunked transfer
+	 *            coding, like HTTP/1.0 clients
+	 */
+	public void setChunkedCodingAllowed(boolean chunkedCodingAllowed) {
+		this.chunkedCodingAllowed = chunkedCodingAllowed;
+	}
+	
+	public ResourceMetadata getResource() {
+		return resource;
+	}
+	
+	/**
+	 * Records the file the body of this response is read from, so the output
+	 * stages (e.g. compression) can identify it
+	 * 
+	 * @param resource
+	 *            metadata of the file
+	 */
+	public void setResource(ResourceMetadata resource) {
+		this.resource = resource;
 	}
 	
 	public void setCleaner(Cleaner resourceCleaner) {
@@ -92,24 +252,12 @@ public class HttpResponse {
 	/**
 	 * Compiles and returns a ByteBuffer containing the response header
 	 * 
+	 * The buffer is taken from the header buffer pool, it can be given back
+	 * with HttpResponseHeaderEncoder.release(ByteBuffer)
+	 * 
 	 * @return ByteBuffer object
 	 */
 	public ByteBuffer getRawHeader() {
-		StringBuilder rawResponse = new StringBuilder(HTTP_VERSION);
-		rawResponse.append(" ");
-		rawResponse.append(statusCode.getCode());
-		rawResponse.append("\r\n");
-		
-		for( Map.Entry<String, String> headerEntry : responseHeaders.entrySet() ) {
-			rawResponse.append(headerEntry.getKey() + ": " + headerEntry.getValue() + "\r\n");
-		}
-		rawResponse.append("\r\n");
-		
-		ByteBuffer rawResponseBuffer = ByteBuffer.allocate(rawResponse.length());
-		rawResponseBuffer.put(rawResponse.toString().getBytes());
-		
-		//prepare the buffer for reading operations
-		rawResponseBuffer.flip();
-		return rawResponseBuffer;
+		return HttpResponseHeaderEncoder.encode(this);
 	}
 }
@@ -9,22 +9,35 @@ package com.fis.webserver.model.http;
 
 public enum HttpResponseCode {
 
-	OK(200),
-	BAD_REQUEST(400),
-	NOT_FOUND(404),
-	ENTITY_TOO_LARGE(413),
-	REQUEST_URI_TOO_LONG(414),
-	REQUEST_HEADER_TOO_LARGE(431),
-	INTERNAL_SERVER_ERROR(500),
-	NOT_IMPLEMENTED(501);
+	OK(200, "OK"),
+	PARTIAL_CONTENT(206, "Partial Content"),
+	NOT_MODIFIED(304, "Not Modified"),
+	BAD_REQUEST(400, "Bad Request"),
+	NOT_FOUND(404, "Not Found"),
+	ENTITY_TOO_LARGE(413, "Request Entity Too Large"),
+	REQUEST_URI_TOO_LONG(414, "Request-URI Too Long"),
+	RANGE_NOT_SATISFIABLE(416, "Requested Range Not Satisfiable"),
+	EXPECTATION_FAILED(417, "Expectation Failed"),
+	REQUEST_HEADER_TOO_LARGE(431, "Request Header Fields Too Large"),
+	INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
+	NOT_IMPLEMENTED(501, "Not Implemented"),
+	SERVICE_UNAVAILABLE(503, "Service Unavailable");
 	
 	private int code;
 	
-	private HttpResponseCode(int code) {
+	//reason phrase sent in the status line
+	private String reasonPhrase;
+	
+	private HttpResponseCode(int code, String reasonPhrase) {
 		this.code = code;
+		this.reasonPhrase = reasonPhrase;
 	}
 	
 	public int getCode() {
 		return this.code;
 	}
+	
+	public String getReasonPhrase() {
+		return this.reasonPhrase;
+	}
 }
@@ -1,15 +1,20 @@
 package com.fis.webserver.model.http;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
 import com.fis.webserver.config.WebServerConfiguration;
+import com.fis.webserver.http.multipart.MultipartParser;
+import com.fis.webserver.util.PooledTempFile;
+import com.fis.webserver.util.TempFilePool;
 import com.fis.webserver.util.cleaner.Cleaner;
-import com.fis.webserver.util.cleaner.TempFileCleaner;
 
 /**
  * Http request body manager.
@@ -18,6 +23,18 @@ import com.fis.webserver.util.cleaner.TempFileCleaner;
  * exceeds the limit threshold, a temporary file will be used to store the
  * entire request body
  * 
+ * When the Content-Length announces a body larger than the cache, the
+ * temporary file is created as soon as the headers are parsed, preallocated to
+ * the announced size, and the worker can transfer the body from the socket
+ * straight into the file.
+ * 
+ * A multipart/form-data body is not stored as a whole: it is passed to a
+ * MultipartParser as it arrives, which stores each file part in its own
+ * temporary file and keeps the form fields in memory.
+ * 
+ * The temporary files are taken from the TempFilePool and given back when the
+ * body is cleaned up.
+ * 
  * @author Florin Iordache
  * 
  */
@@ -25,18 +42,23 @@ import com.fis.webserver.util.cleaner.TempFileCleaner;
 public class RequestBody {
 	public static final Logger logger = Logger.getLogger(RequestBody.class);
 	
+	//maximum size of a body kept in memory, twice the allowed size of a request line
+	public static final int MAX_CACHED_SIZE = 2 * WebServerConfiguration.MAX_REQUEST_LINE_SIZE;
+	
 	//cache for the entityBody
 	private ByteBuffer entityBody;
 	
 	//flag to indicate whether to cache the entity body or not
 	private boolean cachedEntityBody;
 	
-	// FileChannel of the file where the entity body will be written when its size exceeds
-	// the maximum cached size
-	private FileChannel entityBodyFileChannel;
-	
 	// temporary storage for the request body if it's larger than the cached size
-	private File tempFile;
+	private PooledTempFile tempFile;
+	
+	//flag indicating that the body is multipart/form-data, parsed by multipartParser
+	private boolean multipart;
+	
+	//parser of the multipart bodies, created for the first one and then reused
+	private MultipartParser multipartParser;
 	
 	// keeps track of the current length of the entity body , so we can check if
 	// it is actually longer than the reported content-length header
@@ -48,8 +70,6 @@ public class RequestBody {
 	public RequestBody() {
 		cachedEntityBody = true;
 		
-		entityBodyFileChannel = null;
-		
 		entityBody = null;
 		
 		tempFile = null;
@@ -59,16 +79,38 @@ public class RequestBody {
 		maxEntityBodyLength = -1;
 	}
 	
+	/**
+	 * Clears this request body, so it can be reused for the next request of
+	 * the connection. The memory buffer is kept, a temporary file that was not
+	 * already cleaned up is given back to the pool
+	 */
+	public void reset() {
+		releaseTempFile();
+		
+		cachedEntityBody = true;
+		multipart = false;
+		
+		if( entityBody != null ) {
+			entityBody.clear();
+		}
+		
+		entityBodyLength = 0;
+		maxEntityBodyLength = -1;
+	}
+	
+	/**
+	 * @return number of entity body bytes received so far
+	 */
+	public long getLength() {
+		return entityBodyLength;
+	}
+	
 	public File getTempFile() {
-		return tempFile;
+		return tempFile != null ? tempFile.getFile() : null;
 	}
 	
 	public FileChannel getEntityBodyChannel() {
-		return entityBodyFileChannel;
-	}
-
-	public void setEntityBodyChannel(FileChannel entityBodyFileChannel) {
-		this.entityBodyFileChannel = entityBodyFileChannel;
+		return tempFile != null ? tempFile.getChannel() : null;
 	}
 	
 	public long getMaxEntityBodyLength() {
@@ -79,6 +121,73 @@ public class RequestBody {
 		this.maxEntityBodyLength = maxEntityBodyLength;
 	}
 
+	/**
+	 * @return true if the body is written to a temporary file instead of the
+	 *         memory buffer
+	 */
+	public boolean isStoredInFile() {
+		return !cachedEntityBody && tempFile != null;
+	}
+	
+	/**
+	 * Called when the headers are parsed and the Content-Length is known. A
+	 * multipart/form-data body will be parsed as it arrives. Otherwise, if the
+	 * body won't fit in the memory buffer, the temporary file is created right
+	 * away, with the size of the announced body
+	 * 
+	 * @param contentType
+	 *            value of the Content-Type header of the request, may be null
+	 * @return false if the body needs a temporary file and none is available
+	 */
+	public boolean prepareStorage(String contentType) {
+		String boundary = MultipartParser.getBoundary(contentType);
+		if( boundary != null ) {
+			if( multipartParser == null ) {
+				multipartParser = new MultipartParser();
+			}
+			multipartParser.reset(boundary, maxEntityBodyLength);
+			
+			multipart = true;
+			cachedEntityBody = false;
+			
+			return true;
+		}
+		
+		if( !cachedEntityBody || maxEntityBodyLength <= MAX_CACHED_SIZE ) {
+			return true;
+		}
+		
+		tempFile = TempFilePool.acquire(maxEntityBodyLength);
+		if( tempFile == null ) {
+			return false;
+		}
+		
+		cachedEntityBody = false;
+		
+		return true;
+	}
+	
+	/**
+	 * Transfers body bytes from a channel directly into the temporary file,
+	 * without copying them through the heap
+	 * 
+	 * @param source
+	 *            channel to read from, usually the client's socket channel
+	 * @param maxBytes
+	 *            maximum number of bytes to transfer
+	 * @return number of bytes transferred, 0 if the channel has no data
+	 *         available or reached its end
+	 * @throws IOException
+	 *             if reading from the channel or writing the file failed
+	 */
+	public long transferFrom(ReadableByteChannel source, long maxBytes) throws IOException {
+		long transferred = tempFile.getChannel().transferFrom(source, entityBodyLength, maxBytes);
+		
+		entityBodyLength += transferred;
+		
+		return transferred;
+	}
+	
 	/**
 	 * Determines if the request body has reached or exceeded
 	 * maxEntityBodyLength bytes
@@ -102,9 +211,33 @@ public class RequestBody {
 	 * @return boolean indicating if entityBodyLength > maxEntityBodyLength
 	 */
 	public boolean getIsError() {
+		if( multipart && (multipartParser.isError() || (getShouldFinish() && !multipartParser.isComplete())) ) {
+			//malformed multipart body
+			return true;
+		}
+		
 		return (maxEntityBodyLength > 0 && entityBodyLength > maxEntityBodyLength);
 	}
 	
+	/**
+	 * @return true if the body is multipart/form-data
+	 */
+	public boolean isMultipart() {
+		return multipart;
+	}
+	
+	/**
+	 * @return the parts of a multipart/form-data body, or an empty list if the
+	 *         body is not multipart
+	 */
+	public List<FormPart> getParts() {
+		if( !multipart ) {
+			return Collections.emptyList();
+		}
+		
+		return multipartParser.getParts();
+	}
+	
 	/**
 	 * Called when reading the request body is considered to be finished.
 	 * 
@@ -118,11 +251,16 @@ public class RequestBody {
 	 * 
 	 */
 	public void done() {
+		if( multipart ) {
+			//the parts are complete as soon as they are parsed
+			return;
+		}
+		
 		if( tempFile != null ) {
 			//position the entity body channel to the beginning, to prepare for reading
 			try {				
 				//position to the beginning
-				entityBodyFileChannel.position(0);
+				tempFile.getChannel().position(0);
 			} catch (Exception e) {
 				logger.warn("Could not prepare the temporary file for reading!", e);
 			}
@@ -143,21 +281,28 @@ public class RequestBody {
 	public void append(ByteBuffer buf) {		
 		//copy all remainig data to the body part
 		
+		//parse a multipart body right away
+		if( multipart ) {
+			entityBodyLength += buf.remaining();
+			multipartParser.parse(buf);
+			
+			return;
+		}
+		
 		//check if the body is to be cached
 		if( cachedEntityBody ) {
 			
 			//we need to cache it, create the buffer
 			if( entityBody == null ) {
-				//twice the allowed size of a request line
-				entityBody = ByteBuffer.allocate( 2 * WebServerConfiguration.MAX_REQUEST_LINE_SIZE );
+				entityBody = ByteBuffer.allocate( MAX_CACHED_SIZE );
 			}
 		
 			//check if we have enough space remaining in buffer
-			if( entityBody.remaining() < buf.limit() ) {
+			if( entityBody.remaining() < buf.remaining() ) {
 				//not enough space in memory buffer, write to file
 
-				//create temporary file
-				entityBodyFileChannel = createTempFile();
+				//take a temporary file
+				tempFile = TempFilePool.acquire(maxEntityBodyLength);
 				
 				//write to file
 				entityBody.flip();
@@ -185,28 +330,6 @@ public class RequestBody {
 		}
 	}
 	
-	/**
-	 * Creates and opens a temporary file for writing
-	 * 
-	 * @return FileChannel of the temporary file or null in case of an error
-	 */
-	private FileChannel createTempFile() {
-		FileChannel tempFileChannel = null;
-		try {
-			//create a temporary file
-			tempFile = File.createTempFile("FISServer", ".tmp", new File(WebServerConfiguration.INSTANCE.getTempFolder()));
-			
-			//open the file and return the associated file channel
-			FileOutputStream tempOS = new FileOutputStream(tempFile);
-			tempFileChannel = tempOS.getChannel();
-		}
-		catch(Exception e) {
-			logger.error("Could not create temporary file to store request body!", e);
-		}
-		
-		return tempFileChannel;
-	}
-	
 	/**
 	 * Writes the content of buf to the temporary file
 	 * 
@@ -215,7 +338,9 @@ public class RequestBody {
 	private void writeToTempFile(ByteBuffer buf) {
 		int numWritten = -1;
 		try {
-			numWritten = entityBodyFileChannel.write(buf);
+			// write at the end of the body, the file may be preallocated and
+			// transferFrom does not move the channel position
+			numWritten = tempFile.getChannel().write(buf, entityBodyLength);
 			
 			//update the entity body length to match the current size of the data
 			entityBodyLength += numWritten;
@@ -229,10 +354,30 @@ public class RequestBody {
 	 * Builds a Cleaner to be used to cleanup the resources used by this request
 	 * body
 	 * 
-	 * @return Cleaner implementation that will clean up the temp file and close
-	 *         the streams
+	 * @return Cleaner implementation that will give the temp files back to the
+	 *         pool
 	 */
 	public Cleaner getCleaner() {
-		return new TempFileCleaner(entityBodyFileChannel, tempFile);
+		return new Cleaner() {
+			@Override
+			public void cleanUp() {
+				releaseTempFile();
+			}
+		};
+	}
+	
+	/**
+	 * Gives the temporary files of the body and of its parts back to the pool,
+	 * only once
+	 */
+	private void releaseTempFile() {
+		if( tempFile != null ) {
+			TempFilePool.release(tempFile);
+			tempFile = null;
+		}
+		
+		if( multipartParser != null ) {
+			multipartParser.releaseFiles();
+		}
 	}
 }
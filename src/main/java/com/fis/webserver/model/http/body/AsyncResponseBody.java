@@ -0,0 +1,32 @@
+package com.fis.webserver.model.http.body;
+
+/**
+ * Response body whose data is made available by another thread
+ * 
+ * When the worker is faster than the source of the data, a read or transfer
+ * returns 0 and the body reports that it is waiting for data. The worker then
+ * stops watching the client's channel for writing, instead of polling the
+ * body, until the data listener is called.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public interface AsyncResponseBody extends ResponseBody {
+	
+	/**
+	 * Starts making data available, called by the worker before the first
+	 * write of the response
+	 * 
+	 * @param dataListener
+	 *            called from any thread when new data is available, or when
+	 *            producing it failed
+	 */
+	public void start(Runnable dataListener);
+	
+	/**
+	 * @return true if the last read or transfer stopped because no data was
+	 *         available yet
+	 */
+	public boolean isWaitingForData();
+}
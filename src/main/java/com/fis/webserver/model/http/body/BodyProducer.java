@@ -0,0 +1,46 @@
+package com.fis.webserver.model.http.body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Generates the content of a response body on demand
+ * 
+ * The producer is pulled by the worker whenever the client's channel can take
+ * more data, so only one buffer of generated content exists at any time,
+ * regardless of the total size of the body.
+ * 
+ * A producer whose content is generated by another thread returns 0 when
+ * nothing is ready; the worker then waits for the data listener instead of
+ * pulling again.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public interface BodyProducer {
+	
+	/**
+	 * Generates the next part of the content
+	 * 
+	 * @param destination
+	 *            buffer receiving at most destination.remaining() bytes
+	 * @return number of bytes generated, 0 if no content is ready yet, or -1
+	 *         if the content is complete
+	 * @throws IOException
+	 */
+	public int produce(ByteBuffer destination) throws IOException;
+	
+	/**
+	 * Sets the listener to call, from any thread, when content becomes ready
+	 * after produce returned 0, or when producing it failed. Called before
+	 * the first produce
+	 */
+	public void setDataListener(Runnable dataListener);
+	
+	/**
+	 * Releases the resources held by this producer, called once the response
+	 * was sent or aborted
+	 */
+	public void close();
+}
@@ -0,0 +1,115 @@
+package com.fis.webserver.model.http.body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Response body held in memory, as a sequence of ByteBuffers
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class BufferBody implements ResponseBody {
+	
+	//buffers ready for reading
+	private ByteBuffer[] buffers;
+	
+	//index of the buffer being sent
+	private int current;
+	
+	private long length;
+	
+	public BufferBody(ByteBuffer... buffers) {
+		this.buffers = buffers;
+		
+		length = 0;
+		for( ByteBuffer buffer : buffers ) {
+			length += buffer.remaining();
+		}
+		
+		current = 0;
+	}
+	
+	@Override
+	public long getLength() {
+		return length;
+	}
+	
+	@Override
+	public int read(ByteBuffer destination) throws IOException {
+		if( !skipConsumedBuffers() ) {
+			return -1;
+		}
+		
+		int bytesCopied = 0;
+		while( destination.hasRemaining() && skipConsumedBuffers() ) {
+			ByteBuffer source = buffers[current];
+			
+			//copy as much as fits in the destination
+			int count = Math.min(source.remaining(), destination.remaining());
+			ByteBuffer slice = source.duplicate();
+			slice.limit(slice.position() + count);
+			destination.put(slice);
+			source.position(source.position() + count);
+			
+			bytesCopied += count;
+		}
+		
+		return bytesCopied;
+	}
+	
+	@Override
+	public long transferTo(WritableByteChannel target, long maxBytes) throws IOException {
+		if( !skipConsumedBuffers() ) {
+			return -1;
+		}
+		
+		long bytesWritten = 0;
+		while( bytesWritten < maxBytes && skipConsumedBuffers() ) {
+			ByteBuffer source = buffers[current];
+			
+			//bound the write to the allowed number of bytes
+			int originalLimit = source.limit();
+			if( source.remaining() > maxBytes - bytesWritten ) {
+				source.limit(source.position() + (int) (maxBytes - bytesWritten));
+			}
+			
+			int count;
+			try {
+				count = target.write(source);
+			}
+			finally {
+				source.limit(originalLimit);
+			}
+			
+			bytesWritten += count;
+			
+			//the channel is full
+			if( source.hasRemaining() ) {
+				break;
+			}
+		}
+		
+		return bytesWritten;
+	}
+	
+	/**
+	 * Advances to the first buffer that still has data
+	 * 
+	 * @return false if all the buffers were consumed
+	 */
+	private boolean skipConsumedBuffers() {
+		while( current < buffers.length && !buffers[current].hasRemaining() ) {
+			current++;
+		}
+		
+		return current < buffers.length;
+	}
+	
+	@Override
+	public void close() {
+		//nothing to release
+	}
+}
@@ -0,0 +1,191 @@
+package com.fis.webserver.model.http.body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import com.fis.webserver.util.ByteBufferPool;
+
+/**
+ * Applies the chunked transfer coding to a body of unknown length
+ * 
+ * Each block of data read from the wrapped body is sent as one chunk. The
+ * chunk size line is written in front of the data, in the same buffer, so
+ * every chunk reaches the channel with a single write. The end of the body is
+ * marked by the last (zero sized) chunk, which lets the client find the end of
+ * the response without waiting for the connection to be closed.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class ChunkedBody implements ResponseBody {
+	
+	//maximum number of data bytes in a chunk
+	public static final int MAX_CHUNK_SIZE = 8192;
+	
+	//space reserved in front of the data for the chunk size line (hex size + CRLF)
+	private static final int CHUNK_HEADER_SIZE = 10;
+	
+	private static final byte[] CRLF = { 13, 10 };
+	
+	//last chunk, with no trailer
+	private static final byte[] LAST_CHUNK = { '0', 13, 10, 13, 10 };
+	
+	private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5',
+			'6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+	
+	private static final ByteBufferPool chunkBufferPool = new ByteBufferPool(
+			CHUNK_HEADER_SIZE + MAX_CHUNK_SIZE + CRLF.length, 16);
+	
+	private ResponseBody body;
+	
+	//framed chunk ready to be sent, null until the first chunk is prepared
+	private ByteBuffer chunk;
+	
+	private boolean lastChunkPrepared;
+	
+	public ChunkedBody(ResponseBody body) {
+		this.body = body;
+		
+		lastChunkPrepared = false;
+	}
+	
+	@Override
+	public long getLength() {
+		//the framing makes the length unknown, even if the data length is known
+		return -1;
+	}
+	
+	@Override
+	public int read(ByteBuffer destination) throws IOException {
+		int bytesCopied = 0;
+		while( destination.hasRemaining() ) {
+			if( chunk == null || !chunk.hasRemaining() ) {
+				int bytesPrepared = prepareChunk();
+				if( bytesPrepared < 0 ) {
+					return bytesCopied > 0 ? bytesCopied : -1;
+				}
+				if( bytesPrepared == 0 ) {
+					break;
+				}
+			}
+			
+			//copy as much as fits in the destination
+			int count = Math.min(chunk.remaining(), destination.remaining());
+			ByteBuffer slice = chunk.duplicate();
+			slice.limit(slice.position() + count);
+			destination.put(slice);
+			chunk.position(chunk.position() + count);
+			
+			bytesCopied += count;
+		}
+		
+		return bytesCopied;
+	}
+	
+	@Override
+	public long transferTo(WritableByteChannel target, long maxBytes) throws IOException {
+		long bytesWritten = 0;
+		while( bytesWritten < maxBytes ) {
+			if( chunk == null || !chunk.hasRemaining() ) {
+				int bytesPrepared = prepareChunk();
+				if( bytesPrepared < 0 ) {
+					return bytesWritten > 0 ? bytesWritten : -1;
+				}
+				if( bytesPrepared == 0 ) {
+					break;
+				}
+			}
+			
+			//bound the write to the allowed number of bytes
+			int originalLimit = chunk.limit();
+			if( chunk.remaining() > maxBytes - bytesWritten ) {
+				chunk.limit(chunk.position() + (int) (maxBytes - bytesWritten));
+			}
+			
+			int count;
+			try {
+				count = target.write(chunk);
+			}
+			finally {
+				chunk.limit(originalLimit);
+			}
+			
+			bytesWritten += count;
+			
+			//the channel is full
+			if( count == 0 ) {
+				break;
+			}
+		}
+		
+		return bytesWritten;
+	}
+	
+	/**
+	 * Reads the next block of data from the wrapped body and frames it as a
+	 * chunk
+	 * 
+	 * @return number of framed bytes ready to be sent, 0 if the body has no
+	 *         data available right now, or -1 if the last chunk was already
+	 *         prepared
+	 * @throws IOException
+	 */
+	private int prepareChunk() throws IOException {
+		if( lastChunkPrepared ) {
+			return -1;
+		}
+		
+		if( chunk == null ) {
+			chunk = chunkBufferPool.acquire();
+		}
+		
+		//read the data right after the space reserved for the size line
+		chunk.clear();
+		chunk.position(CHUNK_HEADER_SIZE);
+		chunk.limit(CHUNK_HEADER_SIZE + MAX_CHUNK_SIZE);
+		
+		int dataLength = body.read(chunk);
+		if( dataLength < 0 ) {
+			chunk.clear();
+			chunk.put(LAST_CHUNK);
+			chunk.flip();
+			lastChunkPrepared = true;
+			
+			return chunk.remaining();
+		}
+		
+		if( dataLength == 0 ) {
+			chunk.limit(0);
+			return 0;
+		}
+		
+		//data followed by CRLF
+		int end = chunk.position();
+		chunk.limit(end + CRLF.length);
+		chunk.put(CRLF);
+		
+		//hex size and CRLF, right in front of the data
+		int start = CHUNK_HEADER_SIZE - CRLF.length;
+		chunk.put(start, CRLF[0]);
+		chunk.put(start + 1, CRLF[1]);
+		for( int size = dataLength ; size > 0 ; size >>>= 4 ) {
+			chunk.put(--start, HEX_DIGITS[size & 0xF]);
+		}
+		
+		chunk.position(start);
+		
+		return chunk.remaining();
+	}
+	
+	@Override
+	public void close() {
+		body.close();
+		
+		if( chunk != null ) {
+			chunkBufferPool.release(chunk);
+			chunk = null;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.fis.webserver.model.http.body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Response body made of several bodies sent one after the other, such as the
+ * parts of a multipart response
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class CompositeBody implements ResponseBody {
+	
+	private List<ResponseBody> parts;
+	
+	//index of the part being sent
+	private int current;
+	
+	private long length;
+	
+	public CompositeBody(List<ResponseBody> parts) {
+		this.parts = parts;
+		
+		length = 0;
+		for( ResponseBody part : parts ) {
+			if( part.getLength() < 0 ) {
+				length = -1;
+				break;
+			}
+			length += part.getLength();
+		}
+		
+		current = 0;
+	}
+	
+	@Override
+	public long getLength() {
+		return length;
+	}
+	
+	@Override
+	public int read(ByteBuffer destination) throws IOException {
+		int bytesCopied = 0;
+		while( current < parts.size() && destination.hasRemaining() ) {
+			int count = parts.get(current).read(destination);
+			if( count < 0 ) {
+				current++;
+			}
+			else if( count == 0 ) {
+				break;
+			}
+			else {
+				bytesCopied += count;
+			}
+		}
+		
+		if( bytesCopied == 0 && current >= parts.size() ) {
+			return -1;
+		}
+		
+		return bytesCopied;
+	}
+	
+	@Override
+	public long transferTo(WritableByteChannel target, long maxBytes) throws IOException {
+		long bytesWritten = 0;
+		while( current < parts.size() && bytesWritten < maxBytes ) {
+			long count = parts.get(current).transferTo(target, maxBytes - bytesWritten);
+			if( count < 0 ) {
+				current++;
+			}
+			else if( count == 0 ) {
+				break;
+			}
+			else {
+				bytesWritten += count;
+			}
+		}
+		
+		if( bytesWritten == 0 && current >= parts.size() ) {
+			return -1;
+		}
+		
+		return bytesWritten;
+	}
+	
+	@Override
+	public void close() {
+		for( ResponseBody part : parts ) {
+			part.close();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.fis.webserver.model.http.body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Response body made of a region of a file
+ * 
+ * The file is read using absolute positions, so several regions of the same
+ * FileChannel can be part of one response. Direct writes use
+ * FileChannel.transferTo, letting the operating system copy the file content
+ * to the socket.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class FileRegionBody implements ResponseBody {
+	public static final Logger logger = Logger.getLogger(FileRegionBody.class);
+	
+	private FileChannel fileChannel;
+	
+	//next position to be sent and number of bytes left to send
+	private long position;
+	private long remaining;
+	
+	private long length;
+	
+	public FileRegionBody(FileChannel fileChannel, long position, long length) {
+		this.fileChannel = fileChannel;
+		this.position = position;
+		this.length = length;
+		
+		remaining = length;
+	}
+	
+	@Override
+	public long getLength() {
+		return length;
+	}
+	
+	@Override
+	public int read(ByteBuffer destination) throws IOException {
+		if( remaining <= 0 ) {
+			return -1;
+		}
+		
+		//bound the read to the end of the region
+		int originalLimit = destination.limit();
+		if( destination.remaining() > remaining ) {
+			destination.limit(destination.position() + (int) remaining);
+		}
+		
+		int bytesRead;
+		try {
+			bytesRead = fileChannel.read(destination, position);
+		}
+		finally {
+			destination.limit(originalLimit);
+		}
+		
+		if( bytesRead < 0 ) {
+			//the file was truncated since the response was prepared
+			throw new IOException("Unexpected end of file, " + remaining + " bytes missing");
+		}
+		
+		position += bytesRead;
+		remaining -= bytesRead;
+		
+		return bytesRead;
+	}
+	
+	@Override
+	public long transferTo(WritableByteChannel target, long maxBytes) throws IOException {
+		if( remaining <= 0 ) {
+			return -1;
+		}
+		
+		long bytesWritten = fileChannel.transferTo(position, Math.min(remaining, maxBytes), target);
+		
+		// transferTo also returns 0 past the end of the file; a truncated file
+		// must not look like a full socket, the response would never end
+		if( bytesWritten == 0 && maxBytes > 0 && position >= fileChannel.size() ) {
+			throw new IOException("Unexpected end of file, " + remaining + " bytes missing");
+		}
+		
+		position += bytesWritten;
+		remaining -= bytesWritten;
+		
+		return bytesWritten;
+	}
+	
+	@Override
+	public void close() {
+		try {
+			fileChannel.close();
+		}
+		catch(IOException e) {
+			logger.warn("Could not close response file channel!", e);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.fis.webserver.model.http.body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Response body generated by a BodyProducer
+ * 
+ * The length of the body is usually unknown, in which case the response is
+ * sent with the chunked transfer coding. When the producer has nothing ready,
+ * the body waits for the producer's data listener.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class ProducerBody implements AsyncResponseBody {
+	
+	//size of the buffer used when the body is written directly to a channel
+	public static final int TRANSFER_BUFFER_SIZE = 8192;
+	
+	private BodyProducer producer;
+	
+	private long length;
+	
+	//generated content not yet written to the channel, only used by transferTo
+	private ByteBuffer transferBuffer;
+	
+	private boolean producerFinished;
+	
+	//flag indicating that the last read stopped because the producer had nothing ready
+	private boolean waitingForData;
+	
+	/**
+	 * Creates a body of unknown length
+	 */
+	public ProducerBody(BodyProducer producer) {
+		this(producer, -1);
+	}
+	
+	/**
+	 * @param producer
+	 *            BodyProducer generating the content
+	 * @param length
+	 *            number of bytes the producer will generate, or -1 if unknown
+	 */
+	public ProducerBody(BodyProducer producer, long length) {
+		this.producer = producer;
+		this.length = length;
+		
+		producerFinished = false;
+	}
+	
+	@Override
+	public void start(Runnable dataListener) {
+		producer.setDataListener(dataListener);
+	}
+	
+	@Override
+	public boolean isWaitingForData() {
+		return waitingForData;
+	}
+	
+	@Override
+	public long getLength() {
+		return length;
+	}
+	
+	@Override
+	public int read(ByteBuffer destination) throws IOException {
+		if( producerFinished ) {
+			return -1;
+		}
+		
+		int bytesProduced = producer.produce(destination);
+		if( bytesProduced < 0 ) {
+			producerFinished = true;
+		}
+		waitingForData = bytesProduced == 0 && destination.hasRemaining();
+		
+		return bytesProduced;
+	}
+	
+	@Override
+	public long transferTo(WritableByteChannel target, long maxBytes) throws IOException {
+		if( transferBuffer == null ) {
+			transferBuffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+			transferBuffer.flip();
+		}
+		
+		long bytesWritten = 0;
+		while( bytesWritten < maxBytes ) {
+			//generate more content once the previous one was written
+			if( !transferBuffer.hasRemaining() ) {
+				transferBuffer.clear();
+				int bytesProduced = read(transferBuffer);
+				transferBuffer.flip();
+				
+				if( bytesProduced < 0 ) {
+					return bytesWritten > 0 ? bytesWritten : -1;
+				}
+				
+				//nothing generated right now
+				if( bytesProduced == 0 ) {
+					break;
+				}
+			}
+			
+			//bound the write to the allowed number of bytes
+			int originalLimit = transferBuffer.limit();
+			if( transferBuffer.remaining() > maxBytes - bytesWritten ) {
+				transferBuffer.limit(transferBuffer.position() + (int) (maxBytes - bytesWritten));
+			}
+			
+			int count;
+			try {
+				count = target.write(transferBuffer);
+			}
+			finally {
+				transferBuffer.limit(originalLimit);
+			}
+			
+			bytesWritten += count;
+			
+			//the channel is full
+			if( count == 0 ) {
+				break;
+			}
+		}
+		
+		return bytesWritten;
+	}
+	
+	@Override
+	public void close() {
+		producer.close();
+	}
+}
@@ -0,0 +1,330 @@
+package com.fis.webserver.model.http.body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+
+import org.apache.log4j.Logger;
+
+import com.fis.webserver.http.ReadAheadService;
+
+/**
+ * Response body made of a region of a large file, read from the disk ahead of
+ * the socket
+ * 
+ * The next chunks of the region are loaded by the ReadAheadService threads,
+ * into pooled buffers; the worker only writes chunks that are already in
+ * memory, so it never waits for the disk. When the worker is faster than the
+ * disk, the body reports that it is waiting for data and the worker stops
+ * watching the channel for writing; the data listener is called from the I/O
+ * thread as soon as a chunk is loaded.
+ * 
+ * The loaded chunks are shared between the I/O thread and the worker, they
+ * are guarded by this object's lock. Everything else is used by the worker
+ * only.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class ReadAheadBody implements AsyncResponseBody {
+	public static final Logger logger = Logger.getLogger(ReadAheadBody.class);
+	
+	private FileChannel fileChannel;
+	
+	private long length;
+	
+	//number of bytes left to send
+	private long remaining;
+	
+	//next position to load and end of the region
+	private long loadPosition;
+	private long loadEnd;
+	
+	//maximum number of loaded chunks waiting to be sent
+	private int maxLoadedChunks;
+	
+	//chunks loaded and not sent yet, guarded by this
+	private ArrayDeque<ByteBuffer> loadedChunks;
+	
+	//flag indicating that a loading task is queued or running, guarded by this
+	private boolean loading;
+	
+	//flag indicating that the body was closed, guarded by this
+	private boolean closed;
+	
+	//error of the last loading task, guarded by this
+	private IOException loadError;
+	
+	//chunk being sent
+	private ByteBuffer currentChunk;
+	
+	//flag indicating that the last write stopped because no chunk was loaded
+	private boolean waitingForData;
+	
+	//called when a new chunk is loaded
+	private volatile Runnable dataListener;
+	
+	private Runnable loadTask;
+	
+	public ReadAheadBody(FileChannel fileChannel, long position, long length) {
+		this.fileChannel = fileChannel;
+		this.length = length;
+		
+		remaining = length;
+		loadPosition = position;
+		loadEnd = position + length;
+		
+		maxLoadedChunks = ReadAheadService.getChunks();
+		loadedChunks = new ArrayDeque<ByteBuffer>(maxLoadedChunks);
+		
+		loadTask = new Runnable() {
+			@Override
+			public void run() {
+				loadChunks();
+			}
+		};
+	}
+	
+	/**
+	 * Starts loading the first chunks
+	 * 
+	 * @param dataListener
+	 *            called from the I/O thread each time a chunk is loaded, or
+	 *            loading failed
+	 */
+	@Override
+	public void start(Runnable dataListener) {
+		this.dataListener = dataListener;
+		
+		scheduleLoad();
+	}
+	
+	/**
+	 * @return true if the last read or transfer stopped because the next chunk
+	 *         is not loaded yet
+	 */
+	@Override
+	public boolean isWaitingForData() {
+		return waitingForData;
+	}
+	
+	@Override
+	public long getLength() {
+		return length;
+	}
+	
+	@Override
+	public int read(ByteBuffer destination) throws IOException {
+		if( remaining <= 0 ) {
+			return -1;
+		}
+		
+		waitingForData = false;
+		
+		int bytesCopied = 0;
+		while( destination.hasRemaining() && remaining > 0 ) {
+			if( !nextChunk() ) {
+				waitingForData = true;
+				break;
+			}
+			
+			int bytes = Math.min(destination.remaining(), currentChunk.remaining());
+			int originalLimit = currentChunk.limit();
+			currentChunk.limit(currentChunk.position() + bytes);
+			destination.put(currentChunk);
+			currentChunk.limit(originalLimit);
+			
+			bytesCopied += bytes;
+			remaining -= bytes;
+		}
+		
+		return bytesCopied;
+	}
+	
+	@Override
+	public long transferTo(WritableByteChannel target, long maxBytes) throws IOException {
+		if( remaining <= 0 ) {
+			return -1;
+		}
+		
+		waitingForData = false;
+		
+		long bytesWritten = 0;
+		while( bytesWritten < maxBytes && remaining > 0 ) {
+			if( !nextChunk() ) {
+				waitingForData = true;
+				break;
+			}
+			
+			//bound the write to the bytes allowed in this call
+			int originalLimit = currentChunk.limit();
+			if( currentChunk.remaining() > maxBytes - bytesWritten ) {
+				currentChunk.limit(currentChunk.position() + (int) (maxBytes - bytesWritten));
+			}
+			
+			int bytes;
+			try {
+				bytes = target.write(currentChunk);
+			}
+			finally {
+				currentChunk.limit(originalLimit);
+			}
+			
+			bytesWritten += bytes;
+			remaining -= bytes;
+			
+			//the channel is full
+			if( bytes == 0 ) {
+				break;
+			}
+		}
+		
+		return bytesWritten;
+	}
+	
+	@Override
+	public void close() {
+		synchronized(this) {
+			if( closed ) {
+				return;
+			}
+			closed = true;
+			
+			while( !loadedChunks.isEmpty() ) {
+				ReadAheadService.releaseBuffer(loadedChunks.poll());
+			}
+		}
+		
+		ReadAheadService.releaseBuffer(currentChunk);
+		currentChunk = null;
+		
+		//a running loading task fails with a ClosedChannelException
+		try {
+			fileChannel.close();
+		}
+		catch(IOException e) {
+			logger.warn("Could not close response file channel!", e);
+		}
+	}
+	
+	/**
+	 * Makes sure currentChunk has data to send, taking the next loaded chunk
+	 * if needed
+	 * 
+	 * @return false if the next chunk is not loaded yet
+	 * @throws IOException
+	 *             if loading the file failed
+	 */
+	private boolean nextChunk() throws IOException {
+		if( currentChunk != null && currentChunk.hasRemaining() ) {
+			return true;
+		}
+		
+		ReadAheadService.releaseBuffer(currentChunk);
+		
+		synchronized(this) {
+			if( loadError != null ) {
+				throw loadError;
+			}
+			
+			currentChunk = loadedChunks.poll();
+		}
+		
+		//a chunk was sent, load the next one
+		scheduleLoad();
+		
+		return currentChunk != null;
+	}
+	
+	/**
+	 * Queues a loading task, unless one is already running or enough chunks
+	 * are loaded
+	 */
+	private void scheduleLoad() {
+		synchronized(this) {
+			if( loading || closed || loadPosition >= loadEnd || loadedChunks.size() >= maxLoadedChunks ) {
+				return;
+			}
+			loading = true;
+		}
+		
+		if( !ReadAheadService.submit(loadTask) ) {
+			//the I/O threads are overloaded, never read the disk on a worker
+			synchronized(this) {
+				if( !closed ) {
+					loadError = new IOException("Too many files waiting to be read ahead");
+				}
+				loading = false;
+			}
+			
+			notifyDataListener();
+		}
+	}
+	
+	/**
+	 * Loads chunks until enough are waiting to be sent. Runs on an I/O thread
+	 */
+	private void loadChunks() {
+		while( true ) {
+			long position;
+			synchronized(this) {
+				if( closed || loadPosition >= loadEnd || loadedChunks.size() >= maxLoadedChunks ) {
+					loading = false;
+					return;
+				}
+				position = loadPosition;
+			}
+			
+			ByteBuffer chunk = ReadAheadService.acquireBuffer();
+			try {
+				if( chunk.remaining() > loadEnd - position ) {
+					chunk.limit((int) (loadEnd - position));
+				}
+				
+				while( chunk.hasRemaining() ) {
+					if( fileChannel.read(chunk, position + chunk.position()) < 0 ) {
+						//the file was truncated since the response was prepared
+						throw new IOException("Unexpected end of file at " + (position + chunk.position()));
+					}
+				}
+				chunk.flip();
+			}
+			catch(IOException e) {
+				ReadAheadService.releaseBuffer(chunk);
+				
+				synchronized(this) {
+					if( !closed ) {
+						loadError = e;
+					}
+					loading = false;
+				}
+				
+				notifyDataListener();
+				return;
+			}
+			
+			synchronized(this) {
+				if( closed ) {
+					ReadAheadService.releaseBuffer(chunk);
+					loading = false;
+					return;
+				}
+				
+				loadedChunks.offer(chunk);
+				loadPosition = position + chunk.remaining();
+			}
+			
+			notifyDataListener();
+		}
+	}
+	
+	private void notifyDataListener() {
+		Runnable listener = dataListener;
+		if( listener != null ) {
+			listener.run();
+		}
+	}
+}
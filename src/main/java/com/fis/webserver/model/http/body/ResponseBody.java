@@ -0,0 +1,54 @@
+package com.fis.webserver.model.http.body;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Source of the bytes of a http response body
+ * 
+ * The body can either be copied into a buffer, or written directly to the
+ * client's channel, which allows zero-copy transfers for file content. Both
+ * methods consume the body, they should not be mixed for the same response.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public interface ResponseBody {
+	
+	/**
+	 * @return the total number of bytes of this body, or -1 if the length is
+	 *         not known in advance
+	 */
+	public long getLength();
+	
+	/**
+	 * Copies the next part of the body into the destination buffer
+	 * 
+	 * @param destination
+	 *            buffer receiving at most destination.remaining() bytes
+	 * @return number of bytes copied or -1 if the whole body was already
+	 *         consumed
+	 * @throws IOException
+	 */
+	public int read(ByteBuffer destination) throws IOException;
+	
+	/**
+	 * Writes the next part of the body directly to a channel
+	 * 
+	 * @param target
+	 *            channel receiving the data, usually the client SocketChannel
+	 * @param maxBytes
+	 *            maximum number of bytes to write in this call
+	 * @return number of bytes written, 0 if the channel can't take more data
+	 *         right now, or -1 if the whole body was already consumed
+	 * @throws IOException
+	 */
+	public long transferTo(WritableByteChannel target, long maxBytes) throws IOException;
+	
+	/**
+	 * Releases the resources held by this body
+	 */
+	public void close();
+}
@@ -9,6 +9,7 @@ import org.apache.log4j.Logger;
 import com.fis.webserver.config.WebServerConfiguration;
 import com.fis.webserver.core.WebWorker;
 import com.fis.webserver.core.impl.HttpWebWorker;
+import com.fis.webserver.metrics.MetricsRegistry;
 
 /**
  * WebWorker thread pool manager
@@ -35,6 +36,15 @@ import com.fis.webserver.core.impl.HttpWebWorker;
  * attempt is made to compact the pool to the minimum number of workers stated
  * in the config file
  * 
+ * Since keep-alive connections stay on their worker for a long time, the
+ * manager periodically compares the load of the workers (the number of
+ * responses they are sending). When the busiest worker is far ahead of the
+ * least busy one, it is asked to move some of its idle connections there, so
+ * their next requests are not delayed by the busy worker's downloads.
+ * 
+ * The metrics of each worker are registered in the MetricsRegistry while the
+ * worker is in the pool.
+ * 
  * @author Florin Iordache
  * 
  */
@@ -42,6 +52,9 @@ import com.fis.webserver.core.impl.HttpWebWorker;
 public class WorkerManager {
 	public static final Logger logger = Logger.getLogger(WorkerManager.class);
 	
+	//maximum number of connections moved in one rebalancing
+	public static final int MAX_MIGRATED_CONNECTIONS = 8;
+	
 	//main pool of web workers
 	private PriorityQueue<WebWorker> workerPool;
 	
@@ -112,6 +125,51 @@ public class WorkerManager {
 		compactPool();
 	}
 	
+	/**
+	 * Balances the long lived connections between the workers
+	 * 
+	 * Asks the worker with the most active responses to move idle connections
+	 * to the worker with the fewest, if the difference reaches the configured
+	 * migration threshold. Called periodically by the connection listener
+	 */
+	public void rebalance() {
+		int threshold = WebServerConfiguration.INSTANCE.getMigrationThreshold();
+		if( threshold <= 0 || workerPool.size() < 2 ) {
+			return;
+		}
+		
+		WebWorker busiestWorker = null;
+		int busiestLoad = 0;
+		WebWorker idlestWorker = null;
+		int idlestLoad = 0;
+		
+		for( WebWorker worker : workerPool ) {
+			int load = worker.getActiveResponses();
+			
+			if( busiestWorker == null || load > busiestLoad ) {
+				busiestWorker = worker;
+				busiestLoad = load;
+			}
+			
+			//the target must be able to take the connections
+			if( worker.getFreeSlots() > 1 && (idlestWorker == null || load < idlestLoad) ) {
+				idlestWorker = worker;
+				idlestLoad = load;
+			}
+		}
+		
+		if( idlestWorker == null || idlestWorker == busiestWorker || busiestLoad - idlestLoad < threshold ) {
+			return;
+		}
+		
+		int connections = Math.min(MAX_MIGRATED_CONNECTIONS, idlestWorker.getFreeSlots() - 1);
+		
+		if( logger.isDebugEnabled() ) {
+			logger.debug("Rebalancing workers, active responses " + busiestLoad + " vs " + idlestLoad);
+		}
+		busiestWorker.migrateIdleConnections(idlestWorker, connections);
+	}
+	
 	/**
 	 * Try to increase the pool , if the settings permit it
 	 * 
@@ -150,6 +208,9 @@ public class WorkerManager {
 		workerThread.setName("WebWorker " + workerThread.getId());
 		workerThread.start();
 		
+		//publish the metrics of the worker
+		MetricsRegistry.register(worker.getMetrics(), workerThread.getName());
+		
 		//add the worker to the pool
 		workerPool.add(worker);
 		
@@ -163,7 +224,7 @@ public class WorkerManager {
 	 * 
 	 */
 	private void compactPool() {
-		logger.info("Compacting WebWorker pool...");
+		logger.trace("Compacting WebWorker pool...");
 		
 		WebWorker handlingWorker = null;
 		while((workerPool.size() > WebServerConfiguration.INSTANCE.getMinWorkers()) && ((handlingWorker = workerPool.poll()) != null)) {
@@ -182,6 +243,7 @@ public class WorkerManager {
 				
 				//this is an idle worker
 				handlingWorker.shutDown();
+				MetricsRegistry.unregister(handlingWorker.getMetrics());
 				
 				//don't add back to pool
 			}
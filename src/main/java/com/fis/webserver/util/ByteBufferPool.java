@@ -0,0 +1,76 @@
+package com.fis.webserver.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of fixed size heap ByteBuffers
+ * 
+ * Each thread keeps its own stack of free buffers, so acquiring and releasing
+ * a buffer needs no synchronization and no allocation once the pool is warm. A
+ * buffer released by a different thread than the one that acquired it simply
+ * moves to the releasing thread's stack.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class ByteBufferPool {
+	
+	//size of the pooled buffers
+	private int bufferSize;
+	
+	//maximum number of free buffers kept by each thread
+	private int maxPooledPerThread;
+	
+	private ThreadLocal<ArrayDeque<ByteBuffer>> freeBuffers;
+	
+	public ByteBufferPool(int bufferSize, int maxPooledPerThread) {
+		this.bufferSize = bufferSize;
+		this.maxPooledPerThread = maxPooledPerThread;
+		
+		freeBuffers = new ThreadLocal<ArrayDeque<ByteBuffer>>() {
+			@Override
+			protected ArrayDeque<ByteBuffer> initialValue() {
+				return new ArrayDeque<ByteBuffer>();
+			}
+		};
+	}
+	
+	/**
+	 * Returns a cleared buffer, reusing a free one if available
+	 * 
+	 * @return ByteBuffer of bufferSize capacity
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = freeBuffers.get().poll();
+		if( buffer == null ) {
+			buffer = ByteBuffer.allocate(bufferSize);
+		}
+		
+		return buffer;
+	}
+	
+	/**
+	 * Gives a buffer back to the pool. Buffers that were not created by this
+	 * pool are ignored
+	 * 
+	 * @param buffer
+	 *            buffer that is no longer used by the caller
+	 */
+	public void release(ByteBuffer buffer) {
+		if( buffer == null || buffer.capacity() != bufferSize ) {
+			return;
+		}
+		
+		ArrayDeque<ByteBuffer> threadBuffers = freeBuffers.get();
+		if( threadBuffers.size() < maxPooledPerThread ) {
+			buffer.clear();
+			threadBuffers.push(buffer);
+		}
+	}
+	
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
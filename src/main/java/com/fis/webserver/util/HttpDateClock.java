@@ -0,0 +1,90 @@
+package com.fis.webserver.util;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.apache.log4j.Logger;
+
+import com.fis.webserver.model.http.HttpHeader;
+
+/**
+ * Singleton keeping the current date, already formatted as a Date response
+ * header line
+ * 
+ * The http date has a one second resolution, so instead of formatting it for
+ * each response a daemon thread refreshes the encoded header line once per
+ * second. Readers only do a volatile read.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public enum HttpDateClock implements Runnable {
+	INSTANCE;
+	
+	//refresh interval of the date, in milliseconds
+	public static final long REFRESH_INTERVAL = 1000;
+	
+	private Logger logger;
+	
+	//only used by the clock thread
+	private DateFormat dateFormat;
+	
+	//ASCII encoded "Date: <date>\r\n" line
+	private volatile byte[] dateHeaderLine;
+	
+	private HttpDateClock() {
+		logger = Logger.getLogger(HttpDateClock.class);
+		
+		dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+		
+		refresh();
+		
+		Thread clockThread = new Thread(this);
+		clockThread.setName("HttpDateClock");
+		clockThread.setDaemon(true);
+		clockThread.start();
+	}
+	
+	/**
+	 * @return the ASCII encoded Date header line of the current second,
+	 *         including the CR LF terminator. The array must not be modified
+	 */
+	public static byte[] getDateHeaderLine() {
+		return INSTANCE.dateHeaderLine;
+	}
+	
+	@Override
+	public void run() {
+		while(true) {
+			try {
+				//wake up right after the next second starts
+				Thread.sleep(REFRESH_INTERVAL - System.currentTimeMillis() % REFRESH_INTERVAL);
+			}
+			catch(InterruptedException e) {
+				logger.debug("HttpDateClock interrupted, terminating!");
+				break;
+			}
+			
+			refresh();
+		}
+	}
+	
+	/**
+	 * Formats the current date and publishes the encoded header line
+	 */
+	private void refresh() {
+		String line = HttpHeader.DATE + ": " + dateFormat.format(new Date()) + "\r\n";
+		
+		byte[] encodedLine = new byte[line.length()];
+		for( int i = 0 ; i < encodedLine.length ; i++ ) {
+			encodedLine[i] = (byte) line.charAt(i);
+		}
+		
+		dateHeaderLine = encodedLine;
+	}
+}
@@ -0,0 +1,76 @@
+package com.fis.webserver.util;
+
+import java.text.DateFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Helper class to format and parse http dates
+ * 
+ * SimpleDateFormat is not thread safe, so every thread uses its own
+ * instances. Dates are formatted using the RFC 1123 format; parsing also
+ * accepts the obsolete RFC 850 and asctime formats, as required by HTTP/1.1
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class HttpDateFormat {
+	
+	public static final String RFC1123_PATTERN = "EEE, dd MMM yyyy HH:mm:ss zzz";
+	public static final String RFC850_PATTERN = "EEEE, dd-MMM-yy HH:mm:ss zzz";
+	public static final String ASCTIME_PATTERN = "EEE MMM d HH:mm:ss yyyy";
+	
+	private static final String[] PATTERNS = { RFC1123_PATTERN, RFC850_PATTERN, ASCTIME_PATTERN };
+	
+	private static final ThreadLocal<DateFormat[]> dateFormats = new ThreadLocal<DateFormat[]>() {
+		@Override
+		protected DateFormat[] initialValue() {
+			DateFormat[] formats = new DateFormat[PATTERNS.length];
+			for( int i = 0 ; i < PATTERNS.length ; i++ ) {
+				formats[i] = new SimpleDateFormat(PATTERNS[i], Locale.US);
+				formats[i].setTimeZone(TimeZone.getTimeZone("GMT"));
+			}
+			
+			return formats;
+		}
+	};
+	
+	/**
+	 * Formats a moment as a http date
+	 * 
+	 * @param millis
+	 *            milliseconds since the epoch
+	 * @return the RFC 1123 representation of the date
+	 */
+	public static String format(long millis) {
+		return dateFormats.get()[0].format(new Date(millis));
+	}
+	
+	/**
+	 * Parses a http date
+	 * 
+	 * @param value
+	 *            header value
+	 * @return milliseconds since the epoch or -1 if the value is not a valid
+	 *         http date
+	 */
+	public static long parse(String value) {
+		if( value == null ) {
+			return -1;
+		}
+		
+		for( DateFormat format : dateFormats.get() ) {
+			ParsePosition position = new ParsePosition(0);
+			Date date = format.parse(value.trim(), position);
+			if( date != null ) {
+				return date.getTime();
+			}
+		}
+		
+		return -1;
+	}
+}
@@ -0,0 +1,78 @@
+package com.fis.webserver.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import com.fis.webserver.util.cleaner.TempFileCleaner;
+
+/**
+ * Temporary file managed by the TempFilePool
+ * 
+ * The file stays open for its whole life, so reusing it for another request
+ * body needs neither a create nor an open. Writes must use absolute positions,
+ * the position of the channel is only meaningful while the body is read.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class PooledTempFile {
+	
+	private File file;
+	
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	
+	//number of bytes reserved against the spill limit while the file is in use
+	private long reservedBytes;
+	
+	PooledTempFile(File file) throws IOException {
+		this.file = file;
+		
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		channel = randomAccessFile.getChannel();
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	public FileChannel getChannel() {
+		return channel;
+	}
+	
+	/**
+	 * @return current length of the file, in bytes
+	 */
+	public long getLength() throws IOException {
+		return randomAccessFile.length();
+	}
+	
+	/**
+	 * Truncates or extends the file. An extended file is sparse on most file
+	 * systems, no disk space is allocated for the new bytes
+	 * 
+	 * @param length
+	 *            new length of the file, in bytes
+	 */
+	void setLength(long length) throws IOException {
+		randomAccessFile.setLength(length);
+	}
+	
+	long getReservedBytes() {
+		return reservedBytes;
+	}
+	
+	void setReservedBytes(long reservedBytes) {
+		this.reservedBytes = reservedBytes;
+	}
+	
+	/**
+	 * Closes the file and removes it from the filesystem
+	 */
+	void delete() {
+		new TempFileCleaner(channel, file).cleanUp();
+	}
+}
@@ -0,0 +1,237 @@
+package com.fis.webserver.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.fis.webserver.config.WebServerConfiguration;
+
+/**
+ * Pool of open temporary files used to store the large request bodies
+ * 
+ * Creating and deleting a file for every large upload costs two metadata
+ * operations on the temp folder; the pool keeps the files of the finished
+ * uploads open and hands them to the next ones. A reused file is truncated to
+ * the size of the new body, a file returned to the pool keeps at most
+ * kept.size bytes. Changing the length doesn't allocate disk space: new and
+ * extended files are sparse, their blocks are allocated as the body is
+ * written. Only the blocks written by the previous upload of a reused file,
+ * up to kept.size and the size of the new body, are reused.
+ * 
+ * The number of body bytes stored in temp files at a time is limited; an
+ * upload that would exceed the limit gets no file.
+ * 
+ * When the server starts, the temp files left in the temp folder by a crashed
+ * server are removed and the pool is filled with new files.
+ * 
+ * The pool is used by all the workers, the free files are guarded by this
+ * object's lock.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public enum TempFilePool {
+	INSTANCE;
+	
+	public static final Logger logger = Logger.getLogger(TempFilePool.class);
+	
+	//name of the temp files: prefix + random number + suffix
+	public static final String FILE_PREFIX = "FISServer";
+	public static final String FILE_SUFFIX = ".tmp";
+	
+	private File folder;
+	
+	//maximum number of free files kept open
+	private int maxPooledFiles;
+	
+	//length a free file keeps
+	private long keptSize;
+	
+	//maximum number of bytes reserved by the files in use, 0 for no limit
+	private long maxSpillBytes;
+	
+	//files that can be reused, guarded by this
+	private ArrayDeque<PooledTempFile> freeFiles;
+	
+	//bytes reserved by the files in use
+	private AtomicLong spillBytes;
+	
+	private TempFilePool() {
+		folder = new File(WebServerConfiguration.INSTANCE.getTempFolder());
+		maxPooledFiles = Math.max(0, WebServerConfiguration.INSTANCE.getTempFilesPoolSize());
+		keptSize = Math.max(0, WebServerConfiguration.INSTANCE.getTempFilesKeptSize());
+		maxSpillBytes = WebServerConfiguration.INSTANCE.getTempFilesMaxSpill();
+		
+		freeFiles = new ArrayDeque<PooledTempFile>();
+		spillBytes = new AtomicLong();
+	}
+	
+	/**
+	 * Removes the temp files left by a previous run of the server and creates
+	 * the pooled files. Must be called at startup, before any request is read
+	 */
+	public static void start() {
+		INSTANCE.removeOrphanFiles();
+		INSTANCE.fill();
+	}
+	
+	/**
+	 * Takes a file for a request body
+	 * 
+	 * @param size
+	 *            length of the body, the file is truncated or extended to it
+	 * @return an open temp file, or null if the spill limit would be exceeded
+	 *         or the file could not be created
+	 */
+	public static PooledTempFile acquire(long size) {
+		return INSTANCE.acquireFile(size);
+	}
+	
+	/**
+	 * Gives back a file that is no longer used. The file is kept for reuse if
+	 * the pool is not full, deleted otherwise
+	 */
+	public static void release(PooledTempFile tempFile) {
+		INSTANCE.releaseFile(tempFile);
+	}
+	
+	/**
+	 * Truncates a file in use to the number of bytes actually written, and
+	 * gives back the reserved space that is no longer needed
+	 */
+	public static void truncate(PooledTempFile tempFile, long length) throws IOException {
+		tempFile.setLength(length);
+		
+		INSTANCE.spillBytes.addAndGet(length - tempFile.getReservedBytes());
+		tempFile.setReservedBytes(length);
+	}
+	
+	/**
+	 * @return number of body bytes currently stored in temp files
+	 */
+	public static long getSpillBytes() {
+		return INSTANCE.spillBytes.get();
+	}
+	
+	private PooledTempFile acquireFile(long size) {
+		//reserve the space of the body
+		long reserved = spillBytes.addAndGet(size);
+		if( maxSpillBytes > 0 && reserved > maxSpillBytes ) {
+			spillBytes.addAndGet(-size);
+			
+			logger.warn("Temp file spill limit reached, rejecting a request body of " + size + " bytes!");
+			return null;
+		}
+		
+		PooledTempFile tempFile;
+		synchronized(this) {
+			tempFile = freeFiles.poll();
+		}
+		
+		try {
+			if( tempFile == null ) {
+				tempFile = createFile();
+			}
+			
+			//drop the previous body, reserve the space of the new one
+			tempFile.setLength(size);
+		}
+		catch(IOException e) {
+			logger.error("Could not prepare a temporary file to store request body!", e);
+			
+			if( tempFile != null ) {
+				tempFile.delete();
+			}
+			spillBytes.addAndGet(-size);
+			
+			return null;
+		}
+		
+		tempFile.setReservedBytes(size);
+		
+		return tempFile;
+	}
+	
+	private void releaseFile(PooledTempFile tempFile) {
+		spillBytes.addAndGet(-tempFile.getReservedBytes());
+		tempFile.setReservedBytes(0);
+		
+		boolean pooled = false;
+		try {
+			if( tempFile.getLength() > keptSize ) {
+				tempFile.setLength(keptSize);
+			}
+			
+			synchronized(this) {
+				if( freeFiles.size() < maxPooledFiles ) {
+					freeFiles.push(tempFile);
+					pooled = true;
+				}
+			}
+		}
+		catch(IOException e) {
+			logger.warn("Could not truncate temporary file " + tempFile.getFile().getName() + "!", e);
+		}
+		
+		if( !pooled ) {
+			tempFile.delete();
+		}
+	}
+	
+	/**
+	 * Creates the pooled files
+	 */
+	private void fill() {
+		for( int i = 0 ; i < maxPooledFiles ; i++ ) {
+			try {
+				PooledTempFile tempFile = createFile();
+				tempFile.setLength(keptSize);
+				
+				synchronized(this) {
+					freeFiles.push(tempFile);
+				}
+			}
+			catch(IOException e) {
+				logger.error("Could not create the pooled temporary files!", e);
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Deletes the temp files of a previous run, which would otherwise never be
+	 * removed
+	 */
+	private void removeOrphanFiles() {
+		File[] files = folder.listFiles();
+		if( files == null ) {
+			logger.warn("Could not list the temporary folder " + folder + "!");
+			return;
+		}
+		
+		int removed = 0;
+		for( File file : files ) {
+			String name = file.getName();
+			if( file.isFile() && name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX) ) {
+				if( file.delete() ) {
+					removed++;
+				}
+				else {
+					logger.warn("Could not delete orphan temporary file " + name + "!");
+				}
+			}
+		}
+		
+		if( removed > 0 ) {
+			logger.info("Removed " + removed + " orphan temporary files from " + folder);
+		}
+	}
+	
+	private PooledTempFile createFile() throws IOException {
+		return new PooledTempFile(File.createTempFile(FILE_PREFIX, FILE_SUFFIX, folder));
+	}
+}
@@ -5,6 +5,8 @@ import java.io.File;
 import org.apache.log4j.Logger;
 
 import com.fis.webserver.config.WebServerConfiguration;
+import com.fis.webserver.util.cache.ResourceMetadata;
+import com.fis.webserver.util.cache.ResourceMetadataCache;
 
 /**
  * Helper class to translate the http request path to a filesystem path
@@ -26,22 +28,40 @@ public class URLTranslator {
 	 * @return File object of the identified file in the server's file system
 	 */
 	public static File mapResource(String url) {
+		ResourceMetadata resource = lookupResource(url);
+		if( resource.exists() ) {
+			return resource.getFile();
+		}
+		
+		//file does not exist
+		return null;
+	}
+	
+	/**
+	 * Maps the received url to a file system path and returns the (cached)
+	 * metadata of that path
+	 * 
+	 * @param url
+	 *            - url of the resource that the method is trying to find
+	 * @return ResourceMetadata of the identified path, never null. Use
+	 *         ResourceMetadata.exists() to check if the resource was found
+	 */
+	public static ResourceMetadata lookupResource(String url) {
 		String serverDocumentRoot = WebServerConfiguration.INSTANCE.getDocRoot();
 		
 		//map the request to a file system path
 		String fileSystemPath = serverDocumentRoot + File.separator + url.replace("/", File.separator);
 		
-		logger.debug("Attempting to find resource with url=" + url
-				+ " file system path=" + fileSystemPath);
+		if( logger.isDebugEnabled() ) {
+			logger.debug("Attempting to find resource with url=" + url
+					+ " file system path=" + fileSystemPath);
+		}
 		
-		//see if the file exists
-		File resource = new File( fileSystemPath );
-		if( resource.exists() ) {
-			return resource;
+		ResourceMetadata resource = ResourceMetadataCache.lookup(new File( fileSystemPath ));
+		if( !resource.exists() && logger.isDebugEnabled() ) {
+			logger.debug("Resource with url=" + url + " does not exist!");
 		}
 		
-		logger.debug("Resource with url=" + url + " does not exist!");
-		//file does not exist
-		return null;
+		return resource;
 	}
 }
@@ -0,0 +1,66 @@
+package com.fis.webserver.util.cache;
+
+/**
+ * Immutable compressed copy of a file, as kept by the CompressedVariantCache
+ * 
+ * The copy is bound to the modification time and size of the file it was
+ * created from, so it is never served for a newer version of the file
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class CompressedVariant {
+	
+	//absolute path of the original file
+	private String path;
+	
+	//modification time and size of the original file
+	private long lastModified;
+	private long length;
+	
+	//compressed content, null if compressing the file doesn't reduce its size
+	private byte[] content;
+	
+	public CompressedVariant(String path, long lastModified, long length, byte[] content) {
+		this.path = path;
+		this.lastModified = lastModified;
+		this.length = length;
+		this.content = content;
+	}
+	
+	/**
+	 * @return true if this variant was created from the given version of the
+	 *         file
+	 */
+	public boolean matches(ResourceMetadata resource) {
+		return lastModified == resource.getLastModified() && length == resource.getLength();
+	}
+	
+	public String getPath() {
+		return path;
+	}
+	
+	public long getLastModified() {
+		return lastModified;
+	}
+	
+	public long getLength() {
+		return length;
+	}
+	
+	/**
+	 * @return the compressed content, which must not be modified, or null if
+	 *         the file should be sent uncompressed
+	 */
+	public byte[] getContent() {
+		return content;
+	}
+	
+	/**
+	 * @return number of bytes this variant holds in memory
+	 */
+	public int getSize() {
+		return content != null ? content.length : 0;
+	}
+}
@@ -0,0 +1,111 @@
+package com.fis.webserver.util.cache;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.fis.webserver.config.WebServerConfiguration;
+
+/**
+ * Singleton caching the compressed copies of the served files
+ * 
+ * Entries are keyed by the absolute path of the file and are only returned for
+ * the same modification time and size they were created from, so a changed
+ * file is compressed again instead of being served stale.
+ * 
+ * The cache is bounded by the configured number of bytes. When a new entry
+ * doesn't fit, other entries are evicted until it does.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public enum CompressedVariantCache {
+	INSTANCE;
+	
+	private Logger logger;
+	
+	//cached variants, by absolute path of the original file
+	private ConcurrentHashMap<String, CompressedVariant> cache;
+	
+	//number of compressed bytes held by the cache
+	private AtomicLong size;
+	
+	private long maxSize;
+	
+	private CompressedVariantCache() {
+		logger = Logger.getLogger(CompressedVariantCache.class);
+		
+		maxSize = WebServerConfiguration.INSTANCE.getCompressionCacheSize();
+		
+		cache = new ConcurrentHashMap<String, CompressedVariant>();
+		size = new AtomicLong();
+	}
+	
+	/**
+	 * Returns the compressed variant of a file
+	 * 
+	 * @param resource
+	 *            metadata of the file
+	 * @return the variant or null if the current version of the file was not
+	 *         compressed yet
+	 */
+	public static CompressedVariant lookup(ResourceMetadata resource) {
+		CompressedVariant variant = INSTANCE.cache.get(resource.getPath());
+		if( variant != null && variant.matches(resource) ) {
+			return variant;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Adds a compressed variant to the cache, replacing the variant of an
+	 * older version of the same file
+	 * 
+	 * @param variant
+	 *            CompressedVariant object
+	 * @return false if the variant is larger than the whole cache
+	 */
+	public static boolean store(CompressedVariant variant) {
+		return INSTANCE.put(variant);
+	}
+	
+	/**
+	 * Checks if a file of the given size could ever be cached, to avoid
+	 * compressing files that would be discarded right away
+	 * 
+	 * @param length
+	 *            size of the original file
+	 */
+	public static boolean accepts(long length) {
+		//compression never makes the content larger than the original, in practice
+		return length <= INSTANCE.maxSize;
+	}
+	
+	private boolean put(CompressedVariant variant) {
+		if( variant.getSize() > maxSize ) {
+			return false;
+		}
+		
+		CompressedVariant replaced = cache.put(variant.getPath(), variant);
+		size.addAndGet(variant.getSize() - (replaced != null ? replaced.getSize() : 0));
+		
+		//make room for the new entry
+		if( size.get() > maxSize ) {
+			logger.debug("Compressed variant cache is full, evicting entries!");
+			
+			Iterator<CompressedVariant> variantIterator = cache.values().iterator();
+			while( size.get() > maxSize && variantIterator.hasNext() ) {
+				CompressedVariant evicted = variantIterator.next();
+				if( evicted != variant && cache.remove(evicted.getPath(), evicted) ) {
+					size.addAndGet(-evicted.getSize());
+				}
+			}
+		}
+		
+		return true;
+	}
+}
@@ -0,0 +1,143 @@
+package com.fis.webserver.util.cache;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Monitors the document root tree for changes and invalidates the affected
+ * ResourceMetadataCache entries
+ * 
+ * The WatchService only reports changes of the direct children of a registered
+ * directory, so every directory of the tree is registered. Newly created
+ * directories are registered as they appear.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class DocRootWatcher implements Runnable {
+	public static final Logger logger = Logger.getLogger(DocRootWatcher.class);
+	
+	private Path docRoot;
+	
+	private ResourceMetadataCache cache;
+	
+	private WatchService watchService;
+	
+	//directory watched by each registered key
+	private HashMap<WatchKey, Path> watchedDirectories;
+	
+	public DocRootWatcher(String docRoot, ResourceMetadataCache cache) {
+		this.docRoot = Paths.get(docRoot).toAbsolutePath();
+		this.cache = cache;
+		
+		watchedDirectories = new HashMap<WatchKey, Path>();
+	}
+	
+	/**
+	 * Creates the watch service and registers the document root tree
+	 * 
+	 * @return true if the document root is being monitored
+	 */
+	public boolean initialize() {
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			registerTree(docRoot);
+			
+			return true;
+		}
+		catch(Exception e) {
+			logger.error("Could not monitor document root " + docRoot, e);
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public void run() {
+		while(true) {
+			WatchKey key = null;
+			try {
+				key = watchService.take();
+			}
+			catch(InterruptedException e) {
+				logger.debug("DocRootWatcher interrupted, terminating!");
+				break;
+			}
+			
+			Path directory = watchedDirectories.get(key);
+			
+			for( WatchEvent<?> event : key.pollEvents() ) {
+				if( event.kind() == OVERFLOW || directory == null ) {
+					//events were lost, nothing cached can be trusted
+					cache.invalidateAll();
+					continue;
+				}
+				
+				Path changedPath = directory.resolve((Path) event.context());
+				
+				if( event.kind() == ENTRY_MODIFY ) {
+					cache.invalidate(changedPath.toString());
+				}
+				else {
+					// a created or deleted entry may be a whole directory
+					cache.invalidateTree(changedPath.toString());
+					
+					if( event.kind() == ENTRY_CREATE && Files.isDirectory(changedPath) ) {
+						try {
+							registerTree(changedPath);
+						}
+						catch(IOException e) {
+							logger.warn("Could not monitor new directory " + changedPath, e);
+						}
+					}
+				}
+				
+				//the content of the directory itself changed
+				cache.invalidate(directory.toString());
+			}
+			
+			//re-arm the key, forget it if the directory is no longer accessible
+			if( !key.reset() ) {
+				watchedDirectories.remove(key);
+			}
+		}
+	}
+	
+	/**
+	 * Registers a directory and all its sub directories with the watch service
+	 * 
+	 * @param root
+	 *            directory that needs to be monitored
+	 * @throws IOException
+	 */
+	private void registerTree(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir,
+					BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+				watchedDirectories.put(key, dir);
+				
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
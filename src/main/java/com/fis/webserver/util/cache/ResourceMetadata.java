@@ -0,0 +1,234 @@
+package com.fis.webserver.util.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+
+import org.apache.log4j.Logger;
+
+import com.fis.webserver.config.MimeTypes;
+import com.fis.webserver.config.WebServerConfiguration;
+import com.fis.webserver.util.HttpDateFormat;
+
+/**
+ * Immutable snapshot of the file system information of a resource
+ * 
+ * Holds everything the handlers need to know about a file (existence, type,
+ * size, modification time and content type) so it can be cached and shared
+ * between the workers. Missing files are also represented, as negative entries
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class ResourceMetadata {
+	public static final Logger logger = Logger.getLogger(ResourceMetadata.class);
+	
+	private File file;
+	
+	//absolute path of the file, used as cache key
+	private String path;
+	
+	private boolean exists;
+	private boolean directory;
+	private long length;
+	private long lastModified;
+	private String contentType;
+	
+	//moment this information was read from the file system
+	private long validatedAt;
+	
+	//validators sent with the response, computed once per cached entry
+	private String lastModifiedHeader;
+	private volatile String eTag;
+	
+	private ResourceMetadata(File file, String path, boolean exists,
+			boolean directory, long length, long lastModified,
+			String contentType) {
+		this.file = file;
+		this.path = path;
+		this.exists = exists;
+		this.directory = directory;
+		this.length = length;
+		this.lastModified = lastModified;
+		this.contentType = contentType;
+		
+		this.validatedAt = System.currentTimeMillis();
+		
+		if( exists ) {
+			lastModifiedHeader = HttpDateFormat.format(lastModified);
+		}
+	}
+	
+	/**
+	 * Reads the metadata of a file from the file system, using a single stat
+	 * call
+	 * 
+	 * @param file
+	 *            File object
+	 * @return ResourceMetadata object, never null. If the file does not exist
+	 *         or can't be read, the returned object is a negative entry
+	 */
+	public static ResourceMetadata stat(File file) {
+		String path = file.getAbsolutePath();
+		
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			
+			String contentType = MimeTypes.DEFAULT_MIMETYPE;
+			if( !attributes.isDirectory() ) {
+				contentType = MimeTypes.getMimeTypeForFileName(file.getName());
+			}
+			
+			return new ResourceMetadata(file, path, true,
+					attributes.isDirectory(), attributes.size(), attributes
+							.lastModifiedTime().toMillis(), contentType);
+		}
+		catch(NoSuchFileException e) {
+			//missing file, negative entry
+		}
+		catch(Exception e) {
+			logger.debug("Could not read attributes of " + path, e);
+		}
+		
+		return new ResourceMetadata(file, path, false, false, 0, 0, null);
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	public String getPath() {
+		return path;
+	}
+	
+	public boolean exists() {
+		return exists;
+	}
+	
+	public boolean isDirectory() {
+		return directory;
+	}
+	
+	public long getLength() {
+		return length;
+	}
+	
+	public long getLastModified() {
+		return lastModified;
+	}
+	
+	public String getContentType() {
+		return contentType;
+	}
+	
+	public long getValidatedAt() {
+		return validatedAt;
+	}
+	
+	/**
+	 * @return the value of the Last-Modified header for this resource
+	 */
+	public String getLastModifiedHeader() {
+		return lastModifiedHeader;
+	}
+	
+	/**
+	 * Returns the entity tag of this resource
+	 * 
+	 * By default the tag is built from the size and modification time. If
+	 * content hashing is enabled, the tag of a file up to the configured size
+	 * is the MD5 hash of its content, computed on the first call and kept as
+	 * long as the file keeps its size and modification time
+	 * 
+	 * @return the quoted entity tag or null if the resource does not exist
+	 */
+	public String getETag() {
+		if( !exists ) {
+			return null;
+		}
+		
+		String tag = eTag;
+		if( tag == null ) {
+			if( !directory && WebServerConfiguration.INSTANCE.isETagContentHash()
+					&& length <= WebServerConfiguration.INSTANCE.getETagContentHashMaxSize() ) {
+				tag = computeContentHashETag();
+			}
+			
+			if( tag == null ) {
+				tag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+			}
+			
+			eTag = tag;
+		}
+		
+		return tag;
+	}
+	
+	/**
+	 * Keeps the entity tag of the previous entry of the same file, if the file
+	 * didn't change in between, so a content hash is not computed again each
+	 * time the entry expires
+	 * 
+	 * @param previous
+	 *            expired entry of the same path
+	 */
+	public void inheritETag(ResourceMetadata previous) {
+		if( eTag == null && exists && previous.exists && directory == previous.directory
+				&& length == previous.length && lastModified == previous.lastModified ) {
+			eTag = previous.eTag;
+		}
+	}
+	
+	/**
+	 * Builds an entity tag from the MD5 hash of the file content
+	 * 
+	 * @return the quoted tag or null if the file could not be read
+	 */
+	private String computeContentHashETag() {
+		FileInputStream fileInputStream = null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			
+			fileInputStream = new FileInputStream(file);
+			FileChannel fileChannel = fileInputStream.getChannel();
+			
+			ByteBuffer buffer = ByteBuffer.allocate(8192);
+			while( fileChannel.read(buffer) >= 0 ) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+			
+			StringBuilder tag = new StringBuilder("\"");
+			for( byte b : digest.digest() ) {
+				tag.append(Character.forDigit((b >> 4) & 0xF, 16));
+				tag.append(Character.forDigit(b & 0xF, 16));
+			}
+			tag.append('"');
+			
+			return tag.toString();
+		}
+		catch(Exception e) {
+			logger.warn("Could not compute the content hash of " + path, e);
+		}
+		finally {
+			if( fileInputStream != null ) {
+				try {
+					fileInputStream.close();
+				}
+				catch(IOException e) {
+					logger.warn("Could not close " + path, e);
+				}
+			}
+		}
+		
+		return null;
+	}
+}
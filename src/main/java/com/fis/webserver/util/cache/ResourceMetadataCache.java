@@ -0,0 +1,195 @@
+package com.fis.webserver.util.cache;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import com.fis.webserver.config.WebServerConfiguration;
+
+/**
+ * Singleton caching the file system metadata of the served resources
+ * 
+ * Entries are created on the first access of a path and are shared between all
+ * the workers. Missing files are cached as well (negative entries), so
+ * repeated requests for non existing resources don't hit the file system.
+ * 
+ * Entries are invalidated by a DocRootWatcher thread monitoring the document
+ * root for changes. As a fallback (the watch service may miss events, e.g. on
+ * network file systems), an entry older than the configured TTL is re-read from
+ * the file system.
+ * 
+ * The cache size is bounded by the configured number of entries, of which at
+ * most a quarter may be negative entries. The two kinds are kept apart, so a
+ * flood of requests for missing URLs only evicts other negative entries and
+ * never the metadata of the files actually served. When a kind reaches its
+ * limit, a sample of an eighth of its entries is evicted; the map iterates in
+ * hash order, so the sample is spread over the whole cache.
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public enum ResourceMetadataCache {
+	INSTANCE;
+	
+	private Logger logger;
+	
+	//fraction of the entries that may be negative, and evicted when full
+	private static final int MISSING_ENTRIES_SHARE = 4;
+	private static final int EVICTED_SHARE = 8;
+	
+	//cached entries of the existing files, by absolute path
+	private ConcurrentHashMap<String, ResourceMetadata> cache;
+	
+	//negative entries, by absolute path
+	private ConcurrentHashMap<String, ResourceMetadata> missing;
+	
+	private long ttl;
+	private int maxEntries;
+	private int maxMissingEntries;
+	
+	//set while a worker evicts entries, the others don't wait for it
+	private AtomicBoolean evicting;
+	
+	private ResourceMetadataCache() {
+		logger = Logger.getLogger(ResourceMetadataCache.class);
+		
+		ttl = WebServerConfiguration.INSTANCE.getMetadataCacheTTL();
+		maxMissingEntries = Math.max(1, WebServerConfiguration.INSTANCE.getMetadataCacheEntries() / MISSING_ENTRIES_SHARE);
+		maxEntries = Math.max(1, WebServerConfiguration.INSTANCE.getMetadataCacheEntries() - maxMissingEntries);
+		
+		cache = new ConcurrentHashMap<String, ResourceMetadata>();
+		missing = new ConcurrentHashMap<String, ResourceMetadata>();
+		evicting = new AtomicBoolean();
+		
+		//start monitoring the document root for changes
+		DocRootWatcher watcher = new DocRootWatcher(WebServerConfiguration.INSTANCE.getDocRoot(), this);
+		if( watcher.initialize() ) {
+			Thread watcherThread = new Thread(watcher);
+			watcherThread.setName("DocRootWatcher");
+			watcherThread.setDaemon(true);
+			watcherThread.start();
+		}
+		else {
+			logger.warn("Document root changes can't be monitored, relying on the metadata cache TTL!");
+		}
+	}
+	
+	/**
+	 * Returns the metadata of a file, reading it from the file system only if
+	 * it is not cached or the cached entry expired
+	 * 
+	 * @param file
+	 *            File object
+	 * @return ResourceMetadata object, never null
+	 */
+	public static ResourceMetadata lookup(File file) {
+		return INSTANCE.get(file);
+	}
+	
+	private ResourceMetadata get(File file) {
+		String path = file.getAbsolutePath();
+		
+		ResourceMetadata metadata = cache.get(path);
+		if( metadata == null ) {
+			metadata = missing.get(path);
+		}
+		if( metadata != null && System.currentTimeMillis() - metadata.getValidatedAt() <= ttl ) {
+			return metadata;
+		}
+		
+		//not cached or expired, stat the file
+		ResourceMetadata previous = metadata;
+		metadata = ResourceMetadata.stat(file);
+		
+		if( metadata.exists() ) {
+			if( previous != null ) {
+				metadata.inheritETag(previous);
+			}
+			
+			missing.remove(path);
+			put(cache, maxEntries, path, metadata);
+		}
+		else {
+			cache.remove(path);
+			put(missing, maxMissingEntries, path, metadata);
+		}
+		
+		return metadata;
+	}
+	
+	/**
+	 * Adds an entry to one of the maps, evicting a sample of its entries if
+	 * it is full
+	 */
+	private void put(ConcurrentHashMap<String, ResourceMetadata> entries, int limit, String path,
+			ResourceMetadata metadata) {
+		if( entries.size() >= limit && evicting.compareAndSet(false, true) ) {
+			try {
+				int evicted = Math.max(1, limit / EVICTED_SHARE);
+				Iterator<String> pathIterator = entries.keySet().iterator();
+				while( evicted > 0 && pathIterator.hasNext() ) {
+					pathIterator.next();
+					pathIterator.remove();
+					evicted--;
+				}
+			}
+			finally {
+				evicting.set(false);
+			}
+			
+			if( logger.isDebugEnabled() ) {
+				logger.debug("Metadata cache is full, evicted " + (entries == missing ? "negative " : "")
+						+ "entries, " + entries.size() + " left");
+			}
+		}
+		
+		entries.put(path, metadata);
+	}
+	
+	/**
+	 * Discards the cached entry of a path
+	 * 
+	 * @param path
+	 *            absolute path of the changed file
+	 */
+	public void invalidate(String path) {
+		cache.remove(path);
+		missing.remove(path);
+	}
+	
+	/**
+	 * Discards the cached entry of a path and all the entries under it, used
+	 * when a whole directory changes
+	 * 
+	 * @param path
+	 *            absolute path of the changed directory
+	 */
+	public void invalidateTree(String path) {
+		invalidateTree(cache, path);
+		invalidateTree(missing, path);
+	}
+	
+	private void invalidateTree(ConcurrentHashMap<String, ResourceMetadata> entries, String path) {
+		entries.remove(path);
+		
+		String prefix = path + File.separator;
+		Iterator<String> pathIterator = entries.keySet().iterator();
+		while(pathIterator.hasNext()) {
+			if( pathIterator.next().startsWith(prefix) ) {
+				pathIterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Discards all cached entries
+	 */
+	public void invalidateAll() {
+		cache.clear();
+		missing.clear();
+	}
+}
@@ -0,0 +1,70 @@
+package com.fis.webserver.http.multipart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the MultipartParser on form field bodies
+ * 
+ * @author Florin Iordache
+ * 
+ */
+
+public class MultipartParserTest {
+	
+	private static final String BOUNDARY = "b";
+	
+	private MultipartParser parser;
+	
+	@Before
+	public void setUp() {
+		parser = new MultipartParser();
+	}
+	
+	@Test
+	public void parsesFormField() {
+		parse("--b\r\nContent-Disposition: form-data; name=\"field\"\r\n\r\nvalue\r\n--b--\r\n");
+		
+		assertTrue(parser.isComplete());
+		assertEquals(1, parser.getParts().size());
+		assertEquals("field", parser.getParts().get(0).getName());
+		assertEquals("value", parser.getParts().get(0).getValue());
+	}
+	
+	@Test
+	public void rejectsPartWithEmptyHeaderBlock() {
+		parse("--b\r\n\r\nvalue\r\n--b--\r\n");
+		
+		//the part has no name
+		assertTrue(parser.isError());
+		assertFalse(parser.isComplete());
+	}
+	
+	@Test
+	public void parsesBodySplitInSingleBytes() {
+		String body = "--b\r\nContent-Disposition: form-data; name=\"field\"\r\n\r\nvalue\r\n--b--\r\n";
+		byte[] bytes = body.getBytes(StandardCharsets.ISO_8859_1);
+		
+		parser.reset(BOUNDARY, bytes.length);
+		for( byte b : bytes ) {
+			parser.parse(ByteBuffer.wrap(new byte[] { b }));
+		}
+		
+		assertTrue(parser.isComplete());
+		assertEquals("value", parser.getParts().get(0).getValue());
+	}
+	
+	private void parse(String body) {
+		byte[] bytes = body.getBytes(StandardCharsets.ISO_8859_1);
+		
+		parser.reset(BOUNDARY, bytes.length);
+		parser.parse(ByteBuffer.wrap(bytes));
+	}
+}